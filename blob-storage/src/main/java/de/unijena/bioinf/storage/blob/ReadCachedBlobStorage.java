@@ -23,14 +23,17 @@ package de.unijena.bioinf.storage.blob;
 import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.ChemistryBase.utils.IOFunctions;
 import org.jetbrains.annotations.NotNull;
+import org.slf4j.LoggerFactory;
 
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.*;
+import java.lang.ref.Cleaner;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Create a new read-cached {@link BlobStorage} from a source and a cache storage.
@@ -41,6 +44,15 @@ import java.util.Map;
  * So that the cache storage will neither contains any tags nor cache the tags of the source storage
  *
  * Blob Listing
+ *
+ * In streaming read-through mode, a cache miss streams the source blob to the caller and tees it into a local temp file
+ * that is written to the cache when the caller closes the stream. Concurrent misses on the same blob wait for this
+ * download instead of fetching the blob again, but at most {@link #DOWNLOAD_WAIT_MILLIS}, because the download is only
+ * finished when the first caller closes its stream. The thread that downloads a blob reads it from the source again if it
+ * opens the blob a second time before closing the first stream. A stream that is never closed is cleaned up when it
+ * becomes unreachable. Optionally, misses of {@link #hasBlob(Path)} are cached for a given time
+ * (at most {@link #MAX_NEGATIVE_CACHE_ENTRIES} blobs).
+ *
  * @param <Source> Blob storage to be cached (Slower)
  * @param <Cache> Blob storage user as the cache (Faster)
  */
@@ -49,9 +61,36 @@ public class ReadCachedBlobStorage<Source extends BlobStorage, Cache extends Blo
     private final Source source;
     private final Cache cache;
 
+    private final boolean streamingReadThrough;
+    private final long negativeCacheMillis;
+    private final Map<Path, Download> inFlight = new ConcurrentHashMap<>();
+    private final Map<Path, Long> missingUntil = new ConcurrentHashMap<>();
+
+    /**
+     * maximum time a cache miss waits for a concurrent download of the same blob before reading it from the source
+     */
+    public static final long DOWNLOAD_WAIT_MILLIS = 30_000;
+
+    /**
+     * maximum number of remembered {@link #hasBlob(Path)} misses. Expired misses are removed when this size is reached.
+     */
+    public static final int MAX_NEGATIVE_CACHE_ENTRIES = 10_000;
+
+    private static final Cleaner TEMP_FILE_CLEANER = Cleaner.create();
+
     public ReadCachedBlobStorage(Source source, Cache cache) {
+        this(source, cache, false, 0);
+    }
+
+    /**
+     * @param streamingReadThrough stream and tee blobs on cache misses and de-duplicate concurrent downloads of the same blob
+     * @param negativeCacheMillis  time in milliseconds a {@link #hasBlob(Path)} miss is remembered. 0 disables negative caching.
+     */
+    public ReadCachedBlobStorage(Source source, Cache cache, boolean streamingReadThrough, long negativeCacheMillis) {
         this.source = source;
         this.cache = cache;
+        this.streamingReadThrough = streamingReadThrough;
+        this.negativeCacheMillis = negativeCacheMillis;
     }
 
     @Override
@@ -66,11 +105,28 @@ public class ReadCachedBlobStorage<Source extends BlobStorage, Cache extends Blo
 
     @Override
     public boolean hasBlob(Path relative) throws IOException {
-        if (cache.hasBlob(relative)) {
+        if (cache.hasBlob(relative))
             return true;
-        } else {
+        if (negativeCacheMillis <= 0)
             return source.hasBlob(relative);
+
+        final Long until = missingUntil.get(relative);
+        if (until != null) {
+            if (System.currentTimeMillis() < until)
+                return false;
+            missingUntil.remove(relative, until);
+        }
+        final boolean exists = source.hasBlob(relative);
+        if (!exists) {
+            final long now = System.currentTimeMillis();
+            if (missingUntil.size() >= MAX_NEGATIVE_CACHE_ENTRIES) {
+                missingUntil.values().removeIf(u -> u <= now);
+                if (missingUntil.size() >= MAX_NEGATIVE_CACHE_ENTRIES)
+                    missingUntil.clear();
+            }
+            missingUntil.put(relative, now + negativeCacheMillis);
         }
+        return exists;
     }
 
     @Override
@@ -85,6 +141,70 @@ public class ReadCachedBlobStorage<Source extends BlobStorage, Cache extends Blo
 
     @Override
     public InputStream reader(Path relative) throws IOException {
+        if (!streamingReadThrough)
+            return bufferedReader(relative);
+
+        while (true) {
+            // a blob is complete in the cache if it exists and no download is in flight (in flight is registered before writing)
+            if (cache.hasBlob(relative) && !inFlight.containsKey(relative))
+                return cache.reader(relative);
+
+            final Download download = new Download();
+            final Download running = inFlight.putIfAbsent(relative, download);
+            if (running == null) {
+                if (cache.hasBlob(relative)) { // finished between the check and the registration
+                    finishDownload(relative, download);
+                    continue;
+                }
+                return teeReader(relative, download);
+            }
+            // the download is only finished when this thread closes its stream, so waiting for it would block until timeout
+            if (running.owner == Thread.currentThread())
+                return source.reader(relative);
+
+            final boolean finished;
+            try {
+                finished = running.latch.await(DOWNLOAD_WAIT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for download of '" + relative + "'.");
+            }
+            // a failed download is not written to the cache, a download that takes too long is not waited for
+            if (finished && cache.hasBlob(relative) && !inFlight.containsKey(relative))
+                return cache.reader(relative);
+            return source.reader(relative);
+        }
+    }
+
+    private InputStream teeReader(Path relative, Download download) throws IOException {
+        InputStream sourceStream = null;
+        Path tmp = null;
+        try {
+            sourceStream = source.reader(relative);
+            if (sourceStream == null) {
+                finishDownload(relative, download);
+                return null;
+            }
+            tmp = Files.createTempFile("blob-read-through", ".tmp");
+            final OutputStream tmpOut = new BufferedOutputStream(Files.newOutputStream(tmp));
+            return new TeeInputStream(sourceStream, tmp, tmpOut, relative, download,
+                    new AbandonedDownload(tmp, tmpOut, () -> finishDownload(relative, download)));
+        } catch (IOException | RuntimeException e) {
+            if (sourceStream != null)
+                sourceStream.close();
+            if (tmp != null)
+                Files.deleteIfExists(tmp);
+            finishDownload(relative, download);
+            throw e;
+        }
+    }
+
+    private void finishDownload(Path relative, Download download) {
+        inFlight.remove(relative, download);
+        download.latch.countDown();
+    }
+
+    private InputStream bufferedReader(Path relative) throws IOException {
         if (cache.hasBlob(relative))
             return cache.reader(relative);
         final byte[] buffer = source.reader(relative).readAllBytes();
@@ -97,6 +217,145 @@ public class ReadCachedBlobStorage<Source extends BlobStorage, Cache extends Blo
         return new ByteArrayInputStream(buffer);
     }
 
+    private static final class Download {
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private final Thread owner = Thread.currentThread();
+    }
+
+    /**
+     * Cleanup of a {@link TeeInputStream} that became unreachable without being closed. Must not reference the stream itself.
+     */
+    private static final class AbandonedDownload implements Runnable {
+        private final Path tmp;
+        private final OutputStream tmpOut;
+        private final Runnable finishDownload;
+        private volatile boolean closed = false;
+
+        private AbandonedDownload(Path tmp, OutputStream tmpOut, Runnable finishDownload) {
+            this.tmp = tmp;
+            this.tmpOut = tmpOut;
+            this.finishDownload = finishDownload;
+        }
+
+        @Override
+        public void run() {
+            if (closed)
+                return;
+            try {
+                tmpOut.close();
+                Files.deleteIfExists(tmp);
+            } catch (IOException e) {
+                LoggerFactory.getLogger(ReadCachedBlobStorage.class).warn("Could not delete temp file '" + tmp + "' of an unclosed blob stream.", e);
+            } finally {
+                finishDownload.run();
+            }
+        }
+    }
+
+    /**
+     * Copies everything that is read from the source into a temp file. On close, the remaining source bytes are
+     * consumed and the temp file is written to the cache in background. If the stream is never closed,
+     * the temp file is deleted and the download released once the stream has been garbage collected.
+     */
+    private class TeeInputStream extends FilterInputStream {
+        private final Path tmp;
+        private final OutputStream tmpOut;
+        private final Path relative;
+        private final Download download;
+        private final AbandonedDownload abandoned;
+        private final Cleaner.Cleanable cleanable;
+        private boolean failed = false, closed = false;
+
+        private TeeInputStream(InputStream sourceStream, Path tmp, OutputStream tmpOut, Path relative, Download download, AbandonedDownload abandoned) {
+            super(sourceStream);
+            this.tmp = tmp;
+            this.tmpOut = tmpOut;
+            this.relative = relative;
+            this.download = download;
+            this.abandoned = abandoned;
+            this.cleanable = TEMP_FILE_CLEANER.register(this, abandoned);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                final int b = super.read();
+                if (b >= 0) tmpOut.write(b);
+                return b;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                final int n = super.read(b, off, len);
+                if (n > 0) tmpOut.write(b, off, n);
+                return n;
+            } catch (IOException e) {
+                failed = true;
+                throw e;
+            }
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final byte[] buffer = new byte[(int) Math.min(8192, Math.max(n, 1))];
+            long skipped = 0;
+            while (skipped < n) {
+                final int r = read(buffer, 0, (int) Math.min(buffer.length, n - skipped));
+                if (r < 0) break;
+                skipped += r;
+            }
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            // closing takes over the cleanup, so only deregister from the cleaner
+            abandoned.closed = true;
+            cleanable.clean();
+            try {
+                if (!failed)
+                    in.transferTo(tmpOut);
+            } catch (IOException e) {
+                failed = true;
+            } finally {
+                try {
+                    tmpOut.close();
+                    super.close();
+                } finally {
+                    if (failed) {
+                        Files.deleteIfExists(tmp);
+                        finishDownload(relative, download);
+                    } else {
+                        SiriusJobs.runInBackgroundIO(() -> {
+                            try {
+                                cache.withWriter(relative, w -> Files.copy(tmp, w));
+                            } catch (IOException e) {
+                                LoggerFactory.getLogger(getClass()).warn("Could not write '" + relative + "' to cache. Removing incomplete blob.", e);
+                                cache.deleteBlob(relative);
+                            } finally {
+                                Files.deleteIfExists(tmp);
+                                finishDownload(relative, download);
+                            }
+                        });
+                    }
+                }
+            }
+        }
+    }
+
     @Override
     public @NotNull Map<String, String> getTags() throws IOException {
         return source.getTags();
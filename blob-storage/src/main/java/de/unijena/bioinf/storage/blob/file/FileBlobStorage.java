@@ -32,7 +32,10 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.locks.ReadWriteLock;
@@ -174,6 +177,24 @@ public class FileBlobStorage implements BlobStorage {
         return new LockedInputStream(blob.toFile());
     }
 
+    /**
+     * Memory maps the given blob read only. The mapping stays valid after the file has been closed,
+     * so the blob must not be modified while the returned buffer is in use.
+     *
+     * @param relative relative path from storage root
+     * @return read only mapping of the whole blob or NULL if the blob does not exist
+     */
+    public @Nullable MappedByteBuffer map(@NotNull Path relative) throws IOException {
+        Path blob = root.resolve(relative);
+        if (!Files.isRegularFile(blob))
+            return null;
+        return withReadLock(blob, p -> {
+            try (FileChannel channel = FileChannel.open(p, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        });
+    }
+
     //
     protected OutputStream writer(Path relative) throws IOException {
         @NotNull Path target = root.resolve(relative);
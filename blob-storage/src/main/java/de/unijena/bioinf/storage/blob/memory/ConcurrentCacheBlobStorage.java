@@ -0,0 +1,317 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.blob.memory;
+
+import de.unijena.bioinf.ChemistryBase.utils.IOFunctions;
+import de.unijena.bioinf.storage.blob.BlobStorage;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Concurrent in memory cache {@link BlobStorage} that is bounded by the number of stored bytes.
+ * <p>
+ * Reads do not take any lock: recency is tracked with a per entry reference bit that is evicted in CLOCK (second chance)
+ * order. Only the thread that exceeds the byte budget evicts, other writers never wait for it. The blob bytes can
+ * optionally be stored off-heap in direct buffers.
+ */
+public class ConcurrentCacheBlobStorage implements BlobStorage {
+
+    private final String name;
+    private final long maxBytes;
+    private final boolean offHeap;
+
+    private final ConcurrentHashMap<String, Entry> blobs = new ConcurrentHashMap<>();
+    private volatile Map<String, String> tags = new ConcurrentHashMap<>();
+
+    private final AtomicLong usedBytes = new AtomicLong(0);
+    private final AtomicBoolean evicting = new AtomicBoolean(false);
+    // position of the CLOCK hand, only touched by the thread that holds the evicting flag
+    private Iterator<Map.Entry<String, Entry>> hand = Collections.emptyIterator();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public ConcurrentCacheBlobStorage(String name, long maxBytes) {
+        this(name, maxBytes, false);
+    }
+
+    /**
+     * @param maxBytes maximum number of blob bytes kept in the cache
+     * @param offHeap  store the blob bytes in direct buffers outside of the java heap
+     */
+    public ConcurrentCacheBlobStorage(String name, long maxBytes, boolean offHeap) {
+        this.name = name;
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+    }
+
+    private static final class Entry {
+        private final ByteBuffer data;
+        private volatile boolean referenced = true;
+
+        private Entry(ByteBuffer data) {
+            this.data = data;
+        }
+
+        private int size() {
+            return data.capacity();
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getBucketLocation() {
+        return getName();
+    }
+
+    @Override
+    public long size() {
+        return usedBytes.get();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return number of blobs that were not cached because they are larger than the byte budget.
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public int getNumberOfBlobs() {
+        return blobs.size();
+    }
+
+    @Override
+    public boolean hasBlob(Path relative) {
+        return blobs.containsKey(relative.toString());
+    }
+
+    @Override
+    public void withWriter(Path relative, IOFunctions.IOConsumer<OutputStream> withStream) throws IOException {
+        try (ByteArrayOutputStream w = new ByteArrayOutputStream()) {
+            withStream.accept(w);
+            put(relative.toString(), w.toByteArray());
+        }
+    }
+
+    protected void put(String key, byte[] value) {
+        if (value.length > maxBytes) {
+            rejected.increment();
+            remove(key);
+            return;
+        }
+        final ByteBuffer data;
+        if (offHeap) {
+            data = ByteBuffer.allocateDirect(value.length);
+            data.put(value).flip();
+        } else {
+            data = ByteBuffer.wrap(value);
+        }
+
+        final Entry old = blobs.put(key, new Entry(data));
+        usedBytes.addAndGet(value.length - (old == null ? 0 : old.size()));
+        if (usedBytes.get() > maxBytes)
+            evict();
+    }
+
+    protected boolean remove(String key) {
+        final Entry old = blobs.remove(key);
+        if (old == null)
+            return false;
+        usedBytes.addAndGet(-old.size());
+        return true;
+    }
+
+    /**
+     * CLOCK eviction over the entries of the map: referenced entries get a second chance, unreferenced entries are
+     * removed until the cache fits into the byte budget. The hand keeps its position between evictions, so entries
+     * at the start of the map are not cleared and evicted more often than the rest. Only one thread evicts at a time.
+     */
+    private void evict() {
+        while (usedBytes.get() > maxBytes) {
+            if (!evicting.compareAndSet(false, true))
+                return; // another thread is already evicting
+            try {
+                // at most two turns of the hand: the first one clears the reference bits
+                for (long steps = 2L * blobs.size(); steps > 0 && usedBytes.get() > maxBytes; --steps) {
+                    if (!hand.hasNext()) {
+                        hand = blobs.entrySet().iterator();
+                        if (!hand.hasNext())
+                            break;
+                    }
+                    final Map.Entry<String, Entry> e = hand.next();
+                    final Entry entry = e.getValue();
+                    if (entry.referenced) {
+                        entry.referenced = false;
+                    } else if (blobs.remove(e.getKey(), entry)) {
+                        usedBytes.addAndGet(-entry.size());
+                        evictions.increment();
+                    }
+                }
+            } finally {
+                evicting.set(false);
+            }
+        }
+    }
+
+    @Override
+    public InputStream reader(Path relative) throws IOException {
+        final Entry entry = blobs.get(relative.toString());
+        if (entry == null) {
+            misses.increment();
+            throw new IOException("Path '" + relative + "' does not exist in InMemory BlobStorage '" + getName() + "'!");
+        }
+        hits.increment();
+        if (!entry.referenced)
+            entry.referenced = true;
+        return new ByteBufferInputStream(entry.data.duplicate());
+    }
+
+    @Override
+    public @NotNull Map<String, String> getTags() {
+        return Collections.unmodifiableMap(tags);
+    }
+
+    @Override
+    public void setTags(@NotNull Map<String, String> tags) {
+        this.tags = new ConcurrentHashMap<>(tags);
+    }
+
+    @Override
+    public Iterator<Blob> listBlobs() {
+        return new BlobIt<>(blobs.keySet().iterator(), MemBlob::new);
+    }
+
+    @Override
+    public boolean deleteBlob(Path relative) {
+        return remove(relative.toString());
+    }
+
+    @Override
+    public void clear() {
+        for (String key : blobs.keySet())
+            remove(key);
+    }
+
+    @Override
+    public void deleteBucket() {
+        clear();
+        tags.clear();
+    }
+
+    public class MemBlob implements Blob {
+        final String key;
+
+        private MemBlob(@NotNull String key) {
+            this.key = key;
+        }
+
+        @Override
+        public boolean isDirectory() {
+            return false;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public long size() {
+            final Entry entry = blobs.get(key);
+            return entry == null ? 0 : entry.size();
+        }
+    }
+
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0)
+                return 0;
+            if (!buffer.hasRemaining())
+                return -1;
+            final int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            final int k = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + k);
+            return k;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
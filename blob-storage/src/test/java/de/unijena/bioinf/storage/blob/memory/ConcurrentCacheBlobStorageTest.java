@@ -0,0 +1,174 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.blob.memory;
+
+import de.unijena.bioinf.storage.blob.BlobStorage;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+public class ConcurrentCacheBlobStorageTest {
+
+    private static void write(ConcurrentCacheBlobStorage storage, String key, byte[] value) throws IOException {
+        storage.withWriter(Path.of(key), w -> w.write(value));
+    }
+
+    private static byte[] read(ConcurrentCacheBlobStorage storage, String key) throws IOException {
+        try (InputStream r = storage.reader(Path.of(key))) {
+            return r.readAllBytes();
+        }
+    }
+
+    private static byte[] valueOf(String key, int length) {
+        final byte[] value = new byte[length];
+        final byte[] k = key.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < length; i++)
+            value[i] = k[i % k.length];
+        return value;
+    }
+
+    @Test
+    public void testReadWriteAndAccounting() throws IOException {
+        for (boolean offHeap : new boolean[]{false, true}) {
+            final ConcurrentCacheBlobStorage storage = new ConcurrentCacheBlobStorage("test", 100, offHeap);
+            write(storage, "a", valueOf("a", 10));
+            write(storage, "b", valueOf("b", 20));
+            assertArrayEquals(valueOf("a", 10), read(storage, "a"));
+            assertArrayEquals(valueOf("b", 20), read(storage, "b"));
+            assertEquals(30, storage.size());
+
+            // overwriting replaces the old size
+            write(storage, "a", valueOf("a", 5));
+            assertArrayEquals(valueOf("a", 5), read(storage, "a"));
+            assertEquals(25, storage.size());
+
+            assertTrue(storage.deleteBlob(Path.of("b")));
+            assertFalse(storage.deleteBlob(Path.of("b")));
+            assertEquals(5, storage.size());
+
+            try {
+                read(storage, "b");
+                fail("Deleted blob should not be readable.");
+            } catch (IOException ignored) {
+            }
+            assertEquals(3, storage.getHitCount());
+            assertEquals(1, storage.getMissCount());
+
+            storage.clear();
+            assertEquals(0, storage.size());
+            assertEquals(0, storage.getNumberOfBlobs());
+        }
+    }
+
+    @Test
+    public void testBlobsLargerThanBudgetAreRejected() throws IOException {
+        final ConcurrentCacheBlobStorage storage = new ConcurrentCacheBlobStorage("test", 10);
+        write(storage, "a", valueOf("a", 10));
+        write(storage, "a", valueOf("a", 11));
+        assertFalse("Oversized write should drop the stale value.", storage.hasBlob(Path.of("a")));
+        assertEquals(1, storage.getRejectedCount());
+        assertEquals(0, storage.size());
+        assertEquals(0, storage.getEvictionCount());
+    }
+
+    @Test
+    public void testClockEvictsUnreferencedBlobs() throws IOException {
+        final ConcurrentCacheBlobStorage storage = new ConcurrentCacheBlobStorage("test", 30);
+        for (String key : List.of("a", "b", "c", "d"))
+            write(storage, key, valueOf(key, 10));
+
+        // the first eviction clears every reference bit before it removes a blob
+        assertEquals(1, storage.getEvictionCount());
+        assertEquals(3, storage.getNumberOfBlobs());
+        assertEquals(30, storage.size());
+
+        final List<String> remaining = new ArrayList<>();
+        storage.listBlobs().forEachRemaining(b -> remaining.add(b.getKey()));
+        Collections.sort(remaining);
+        final String unreferenced = remaining.get(0);
+        for (String key : remaining.subList(1, remaining.size()))
+            read(storage, key);
+
+        // only the blob that was not read since the last turn of the hand may be evicted
+        write(storage, "e", valueOf("e", 10));
+        assertEquals(2, storage.getEvictionCount());
+        assertFalse(storage.hasBlob(Path.of(unreferenced)));
+        for (String key : remaining.subList(1, remaining.size()))
+            assertArrayEquals(valueOf(key, 10), read(storage, key));
+        assertArrayEquals(valueOf("e", 10), read(storage, "e"));
+        assertEquals(30, storage.size());
+    }
+
+    @Test
+    public void testConcurrentReadWriteStaysWithinBudget() throws Exception {
+        final int threads = 8, keys = 64, rounds = 2000;
+        final long maxBytes = 1000;
+        final ConcurrentCacheBlobStorage storage = new ConcurrentCacheBlobStorage("test", maxBytes, true);
+        final ConcurrentLinkedQueue<Throwable> errors = new ConcurrentLinkedQueue<>();
+        final CountDownLatch start = new CountDownLatch(1);
+
+        final List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(t);
+            workers.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < rounds; i++) {
+                        final String key = "key" + random.nextInt(keys);
+                        final int length = 10 + key.length() * 5;
+                        if (random.nextBoolean()) {
+                            write(storage, key, valueOf(key, length));
+                        } else if (storage.hasBlob(Path.of(key))) {
+                            try {
+                                assertArrayEquals(valueOf(key, length), read(storage, key));
+                            } catch (IOException evictedInBetween) {
+                                // blob was evicted after the hasBlob check
+                            }
+                        }
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            }));
+        }
+        workers.forEach(Thread::start);
+        start.countDown();
+        for (Thread worker : workers)
+            worker.join();
+
+        assertTrue("Errors in worker threads: " + errors, errors.isEmpty());
+        assertTrue("Cache exceeds its byte budget: " + storage.size(), storage.size() <= maxBytes);
+        assertTrue(storage.getEvictionCount() > 0);
+
+        long sum = 0;
+        for (Iterator<BlobStorage.Blob> it = storage.listBlobs(); it.hasNext(); )
+            sum += it.next().size();
+        assertEquals("Byte accounting does not match the stored blobs.", sum, storage.size());
+    }
+}
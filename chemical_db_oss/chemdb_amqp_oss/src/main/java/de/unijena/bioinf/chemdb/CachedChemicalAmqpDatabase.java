@@ -27,6 +27,8 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 public class CachedChemicalAmqpDatabase extends ChemicalAmqpDatabase {
     protected long filter;
@@ -44,4 +46,9 @@ public class CachedChemicalAmqpDatabase extends ChemicalAmqpDatabase {
         fingerprintCandidates.addAll(cache.lookupStructuresAndFingerprintsByFormula(formula));
         return fingerprintCandidates;
     }
+
+    @Override
+    public Map<MolecularFormula, List<FingerprintCandidate>> lookupStructuresAndFingerprintsByFormulas(Collection<MolecularFormula> formulas) throws ChemicalDatabaseException {
+        return cache.lookupStructuresAndFingerprintsByFormulas(formulas);
+    }
 }
@@ -36,6 +36,7 @@ import de.unijena.bioinf.storage.blob.AbstractCompressible;
 import de.unijena.bioinf.storage.blob.BlobStorage;
 import de.unijena.bioinf.storage.blob.BlobStorages;
 import de.unijena.bioinf.storage.blob.Compressible;
+import de.unijena.bioinf.storage.blob.file.FileBlobStorage;
 import gnu.trove.map.TObjectLongMap;
 import gnu.trove.map.hash.TObjectLongHashMap;
 import org.jetbrains.annotations.NotNull;
@@ -46,13 +47,14 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class ChemicalBlobDatabase<Storage extends BlobStorage> extends AbstractCompressible implements AbstractChemicalDatabase {
 public enum Format {
-    CSV(".csv"), JSON(".json");
+    CSV(".csv"), JSON(".json"), BINARY(".bin");
     public final String ext;
 
     Format(@NotNull String ext) {
@@ -73,6 +75,8 @@ public enum Format {
             return CSV;
         if (s.endsWith(JSON.ext()))
             return JSON;
+        if (s.endsWith(BINARY.ext()))
+            return BINARY;
         return null;
     }
 }
@@ -88,7 +92,7 @@ public enum Format {
     public static final Set<String> CONFIG_BLOBS = Set.of(BLOB_FORMULAS, BLOB_SETTINGS);
 
     protected final Storage storage;
-    protected Format format; // csv or json
+    protected Format format; // csv, json or binary
     protected CompoundReader reader;
     protected MolecularFormula[] formulas;
     protected final TObjectLongMap<MolecularFormula> formulaFlags = new TObjectLongHashMap<>();
@@ -155,9 +159,9 @@ public enum Format {
             }
         }
 
-        this.reader = format == Format.CSV ? new CSVReader() : new JSONReader();
+        this.reader = format == Format.CSV ? new CSVReader() : format == Format.BINARY ? new BinaryReader() : new JSONReader();
 
-        @NotNull Optional<Reader> optReader = getReader(BLOB_FORMULAS);
+        @NotNull Optional<Reader> optReader = getConfigReader(BLOB_FORMULAS);
         if (optReader.isPresent()) {
             try (Reader r = optReader.get()) {
                 final Map<String, String> map = new ObjectMapper().readValue(r, new TypeReference<>() {
@@ -200,6 +204,17 @@ public enum Format {
         return getStream(name).map(inputStream -> new InputStreamReader(inputStream, storage.getCharset()));
     }
 
+    /**
+     * Config blobs (e.g. the formula index) are always stored as JSON, even if the compounds are stored in binary format.
+     */
+    @NotNull
+    protected Optional<Reader> getConfigReader(@NotNull String name) throws IOException {
+        if (format != Format.BINARY)
+            return getReader(name);
+        return Compressible.decompressRawStream(storage.reader(Path.of(name + Format.JSON.ext() + getCompression().ext())), getCompression(), isDecompressStreams())
+                .map(inputStream -> new InputStreamReader(inputStream, storage.getCharset()));
+    }
+
     @NotNull
     public Optional<InputStream> getCompoundStream(@NotNull MolecularFormula formula) throws IOException {
         return getStream(formula.toString());
@@ -282,18 +297,53 @@ public enum Format {
 
     @Override
     public <T extends Collection<FingerprintCandidate>> T lookupStructuresAndFingerprintsByFormula(MolecularFormula formula, T fingerprintCandidates) throws ChemicalDatabaseException {
-        try (final InputStream blobReader = getCompoundStream(formula).orElse(null)) {
-            if (blobReader != null) {
-                try (final CloseableIterator<FingerprintCandidate> iter = reader.readFingerprints(version, blobReader)) {
-                    iter.forEachRemaining(fingerprintCandidates::add);
-                }
-            }
+        try (final CloseableIterator<FingerprintCandidate> iter = readFingerprints(formula)) {
+            iter.forEachRemaining(fingerprintCandidates::add);
             return fingerprintCandidates;
         } catch (IOException e) {
             throw new ChemicalDatabaseException(e);
         }
     }
 
+    @Override
+    public CloseableIterator<FingerprintCandidate> streamStructuresAndFingerprintsByFormula(MolecularFormula formula) throws ChemicalDatabaseException {
+        try {
+            return readFingerprints(formula);
+        } catch (IOException e) {
+            throw new ChemicalDatabaseException(e);
+        }
+    }
+
+    /**
+     * Blobs of different formulas are independent, so they are fetched and decoded in parallel.
+     */
+    @Override
+    public Map<MolecularFormula, List<FingerprintCandidate>> lookupStructuresAndFingerprintsByFormulas(Collection<MolecularFormula> formulas) throws ChemicalDatabaseException {
+        return ChemDBs.lookupStructuresAndFingerprintsParallel(this::lookupStructuresAndFingerprintsByFormula, formulas);
+    }
+
+    /**
+     * Opens an iterator over the fingerprint candidates of the given formula. Uncompressed binary blobs
+     * of a {@link FileBlobStorage} are memory mapped and decoded without copying them to the heap first.
+     */
+    protected CloseableIterator<FingerprintCandidate> readFingerprints(MolecularFormula formula) throws IOException {
+        if (format == Format.BINARY && getCompression() == Compression.NONE && storage instanceof FileBlobStorage) {
+            final ByteBuffer mapped = ((FileBlobStorage) storage).map(Path.of(formula.toString() + format.ext()));
+            return mapped == null ? ChemDBs.closeableIterator(Collections.emptyIterator(), null)
+                    : ((BinaryReader) reader).readFingerprints(version, mapped);
+        }
+
+        final InputStream blobReader = getCompoundStream(formula).orElse(null);
+        if (blobReader == null)
+            return ChemDBs.closeableIterator(Collections.emptyIterator(), null);
+        try {
+            return ChemDBs.closeableIterator(reader.readFingerprints(version, blobReader), blobReader);
+        } catch (IOException e) {
+            blobReader.close();
+            throw e;
+        }
+    }
+
     @Override
     public List<FingerprintCandidate> lookupFingerprintsByInchis(Iterable<String> inchi_keys) throws ChemicalDatabaseException {
         throw new UnsupportedOperationException();
@@ -365,6 +415,26 @@ public enum Format {
     }
 
 
+    /**
+     * Converts all compound blobs of the given database into the {@link Format#BINARY} format and writes them
+     * uncompressed into the given target storage (together with the formula index and the storage tags).
+     * If the target is a {@link FileBlobStorage} the converted blobs can be memory mapped on lookup.
+     */
+    public static void convertToBinary(@NotNull ChemicalBlobDatabase<?> source, @NotNull BlobStorage target) throws IOException {
+        final Map<String, String> index = new LinkedHashMap<>(source.formulas.length);
+        for (MolecularFormula formula : source.formulas) {
+            final List<FingerprintCandidate> candidates = source.lookupStructuresAndFingerprintsByFormula(formula);
+            target.withWriter(Path.of(formula.toString() + Format.BINARY.ext()), out -> BinaryWriter.toBinaryList(candidates, out));
+            index.put(formula.toString(), String.valueOf(source.formulaFlags.get(formula)));
+        }
+        target.withWriter(Path.of(BLOB_FORMULAS + Format.JSON.ext()), out -> new ObjectMapper().writeValue(out, index));
+
+        final Map<String, String> tags = new HashMap<>(source.storage.getTags());
+        tags.put(TAG_FORMAT, Format.BINARY.name());
+        tags.put(TAG_COMPRESSION, Compression.NONE.name());
+        target.setTags(tags);
+    }
+
     public static ChemicalBlobDatabase<?> defaultChemDB() throws IOException {
        return new ChemicalBlobDatabase<>(BlobStorages.openDefault(FingerIDProperties.chemDBStorePropertyPrefix(),FingerIDProperties.defaultChemDBBucket()));
     }
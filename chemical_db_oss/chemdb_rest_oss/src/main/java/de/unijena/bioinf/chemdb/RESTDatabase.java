@@ -41,6 +41,7 @@ import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public class RESTDatabase implements AbstractChemicalDatabase {
     static {
@@ -140,6 +141,11 @@ public class RESTDatabase implements AbstractChemicalDatabase {
     }
 
 
+    @Override
+    public Map<MolecularFormula, List<FingerprintCandidate>> lookupStructuresAndFingerprintsByFormulas(Collection<MolecularFormula> formulas) throws ChemicalDatabaseException {
+        return cache.lookupStructuresAndFingerprintsByFormulas(formulas, filter);
+    }
+
     @Override
     public List<FingerprintCandidate> lookupFingerprintsByInchis(Iterable<String> inchi_keys) throws ChemicalDatabaseException {
         if (chemDBClient instanceof ChemDBClient) {
@@ -425,6 +425,89 @@ public class ChemicalDatabase implements AbstractChemicalDatabase, PooledDB<Conn
         }
     }
 
+    @Override
+    public Map<MolecularFormula, List<FingerprintCandidate>> lookupStructuresAndFingerprintsByFormulas(Collection<MolecularFormula> formulas) throws ChemicalDatabaseException {
+        return lookupStructuresAndFingerprintsByFormulas(DataSource.ALL.flag(), formulas);
+    }
+
+    private final static String SELECT_BY_FORMULAS = "SELECT inchi_key_1, inchi, name, smiles, flags, xlogp, formula FROM " + STRUCTURES_TABLE + " WHERE formula = ANY(?)";
+
+    /**
+     * Batch version of {@link #lookupStructuresAndFingerprintsByFormula(long, MolecularFormula, Collection)}.
+     * Needs three queries for all given formulas instead of three queries per formula.
+     */
+    public Map<MolecularFormula, List<FingerprintCandidate>> lookupStructuresAndFingerprintsByFormulas(long filter, Collection<MolecularFormula> formulas) throws ChemicalDatabaseException {
+        final Map<String, MolecularFormula> formulaStrings = new LinkedHashMap<>(formulas.size());
+        for (MolecularFormula formula : formulas)
+            formulaStrings.put(formula.toString(), formula);
+
+        final Map<MolecularFormula, List<FingerprintCandidate>> fingerprintCandidates = new LinkedHashMap<>(formulaStrings.size());
+        formulaStrings.values().forEach(f -> fingerprintCandidates.put(f, new ArrayList<>()));
+        if (formulaStrings.isEmpty())
+            return fingerprintCandidates;
+
+        try (final PooledConnection<Connection> c = connection.orderConnection()) {
+            final Array formulaArray = c.connection.createArrayOf("text", formulaStrings.keySet().toArray(String[]::new));
+            try {
+                // first lookup structures of all formulas. An InChIKey implies the formula, so keys are unique over all formulas
+                final HashMap<String, CompoundCandidate> hashMap = new HashMap<>();
+                final String structureQuery = filter == 0 ? SELECT_BY_FORMULAS : SELECT_BY_FORMULAS + " AND (flags & " + filter + ") != 0";
+                try (final PreparedStatement statement = c.connection.prepareStatement(structureQuery)) {
+                    statement.setArray(1, formulaArray);
+                    try (final ResultSet set = statement.executeQuery()) {
+                        while (set.next()) {
+                            final CompoundCandidate candidate = new CompoundCandidate(newInChI(set.getString(1), set.getString(2)));
+                            candidate.setName(set.getString(3));
+                            candidate.setSmiles(set.getString(4));
+                            candidate.setBitset(set.getLong(5));
+                            candidate.setXlogp(set.getObject(6) != null ? set.getDouble(6) : Double.NaN);
+                            hashMap.put(candidate.getInchiKey2D(), candidate);
+                        }
+                    }
+                }
+
+                // optionally lookup citations
+                try (final PreparedStatement statement = c.connection.prepareStatement("SELECT inchi_key_1, pmids FROM meta_information WHERE formula = ANY(?)")) {
+                    statement.setArray(1, formulaArray);
+                    try (final ResultSet r = statement.executeQuery()) {
+                        while (r.next()) {
+                            final CompoundCandidate compoundCandidate = hashMap.get(r.getString(1));
+                            if (compoundCandidate != null) {
+                                ResultSet rs = r.getArray(2).getResultSet();
+                                TIntSet idSet = new TIntHashSet();
+                                while (rs.next())
+                                    idSet.add(rs.getInt(2));
+                                compoundCandidate.setPubmedIDs(new PubmedLinks(idSet));
+                            }
+                        }
+                    }
+                }
+
+                // then lookup fingerprints
+                try (final PreparedStatement statement = c.connection.prepareStatement("SELECT inchi_key_1, fingerprint, formula FROM " + FINGERPRINT_TABLE + " WHERE fp_id = " + FINGERPRINT_ID + " AND formula = ANY(?)")) {
+                    statement.setArray(1, formulaArray);
+                    try (final ResultSet r = statement.executeQuery()) {
+                        while (r.next()) {
+                            final CompoundCandidate compoundCandidate = hashMap.get(r.getString(1));
+                            final MolecularFormula formula = formulaStrings.get(r.getString(3));
+                            if (compoundCandidate != null && formula != null)
+                                fingerprintCandidates.get(formula).add(new FingerprintCandidate(compoundCandidate, parseFingerprint(r, 2)));
+                        }
+                    }
+                }
+            } finally {
+                formulaArray.free();
+            }
+
+            return fingerprintCandidates;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return fingerprintCandidates;
+        } catch (IOException | SQLException e) {
+            throw new ChemicalDatabaseException(e);
+        }
+    }
+
     @Override
     public List<FingerprintCandidate> lookupFingerprintsByInchis(Iterable<String> inchi_keys) throws ChemicalDatabaseException {
         final ArrayList<FingerprintCandidate> candidates = new ArrayList<>();
@@ -0,0 +1,205 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.chemdb;
+
+import de.unijena.bioinf.ChemistryBase.chem.InChI;
+import de.unijena.bioinf.ChemistryBase.fp.ArrayFingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.FingerprintVersion;
+import de.unijena.bioinf.babelms.CloseableIterator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.NoSuchElementException;
+
+/**
+ * Reads compound candidates from the binary columnar format written by {@link BinaryWriter}.
+ * <p>
+ * Layout (big endian):
+ * <pre>
+ * int magic, int version, int numberOfCandidates, int numberOfSections, long[numberOfSections] sectionOffsets
+ * INCHIKEY, INCHI, NAME, SMILES: string columns: int[n] byte lengths (-1 = null) followed by UTF-8 bytes
+ * FLAGS:       long[n] bitsets
+ * LAYERS:      int[n] pLayer, int[n] qLayer
+ * XLOGP:       double[n]
+ * FINGERPRINT: int[n] number of indices (-1 = no fingerprint) followed by the short indices
+ * LINKS:       dictionary of database names (int size, strings), int[n] number of links (-1 = null), then per link
+ *              short dictionary index and string id
+ * PUBMED:      int[n] number of ids (-1 = null) followed by the int ids
+ * </pre>
+ * Since all columns are read from a {@link ByteBuffer}, the data can be decoded directly from a memory mapped file.
+ */
+public class BinaryReader extends CompoundReader {
+    static final int MAGIC = 0x53434442; // SCDB
+    static final int VERSION = 1;
+    static final int INCHIKEY = 0, INCHI = 1, NAME = 2, SMILES = 3, FLAGS = 4, LAYERS = 5, XLOGP = 6, FINGERPRINT = 7, LINKS = 8, PUBMED = 9;
+    static final int NUMBER_OF_SECTIONS = 10;
+
+    @Override
+    public CloseableIterator<CompoundCandidate> readCompounds(InputStream reader) throws IOException {
+        return new READ<>(ByteBuffer.wrap(reader.readAllBytes()), null);
+    }
+
+    @Override
+    public CloseableIterator<FingerprintCandidate> readFingerprints(FingerprintVersion version, InputStream reader) throws IOException {
+        return new READ<>(ByteBuffer.wrap(reader.readAllBytes()), version);
+    }
+
+    public CloseableIterator<CompoundCandidate> readCompounds(ByteBuffer buffer) throws IOException {
+        return new READ<>(buffer, null);
+    }
+
+    public CloseableIterator<FingerprintCandidate> readFingerprints(FingerprintVersion version, ByteBuffer buffer) throws IOException {
+        return new READ<>(buffer, version);
+    }
+
+    private static class READ<C extends CompoundCandidate> implements CloseableIterator<C> {
+        private final ByteBuffer buffer;
+        private final FingerprintVersion version;
+        private final int size;
+        private final StringColumn inchikeys, inchis, names, smiles;
+        private final int flagPos, layerPos, xlogpPos;
+        private int fpLengthPos, fpDataPos, linkCountPos, linkDataPos, pubmedLengthPos, pubmedDataPos;
+        private final String[] dbNames;
+        private int current = 0;
+
+        private READ(ByteBuffer source, FingerprintVersion version) throws IOException {
+            this.buffer = source.duplicate();
+            this.version = version;
+            final int start = buffer.position();
+            if (buffer.remaining() < 16 || buffer.getInt(start) != MAGIC)
+                throw new IOException("Not a binary candidate list.");
+            if (buffer.getInt(start + 4) != VERSION)
+                throw new IOException("Unsupported binary candidate list version: " + buffer.getInt(start + 4));
+            this.size = buffer.getInt(start + 8);
+            final int numberOfSections = buffer.getInt(start + 12);
+            if (numberOfSections < NUMBER_OF_SECTIONS)
+                throw new IOException("Binary candidate list is incomplete. Expected " + NUMBER_OF_SECTIONS + " sections but found " + numberOfSections);
+            final int[] sections = new int[numberOfSections];
+            for (int i = 0; i < numberOfSections; ++i)
+                sections[i] = start + Math.toIntExact(buffer.getLong(start + 16 + 8 * i));
+
+            inchikeys = new StringColumn(sections[INCHIKEY], size);
+            inchis = new StringColumn(sections[INCHI], size);
+            names = new StringColumn(sections[NAME], size);
+            smiles = new StringColumn(sections[SMILES], size);
+            flagPos = sections[FLAGS];
+            layerPos = sections[LAYERS];
+            xlogpPos = sections[XLOGP];
+            fpLengthPos = sections[FINGERPRINT];
+            fpDataPos = fpLengthPos + 4 * size;
+
+            int pos = sections[LINKS];
+            dbNames = new String[buffer.getInt(pos)];
+            pos += 4;
+            for (int i = 0; i < dbNames.length; ++i) {
+                final int len = buffer.getInt(pos);
+                dbNames[i] = readString(pos + 4, len);
+                pos += 4 + len;
+            }
+            linkCountPos = pos;
+            linkDataPos = pos + 4 * size;
+
+            pubmedLengthPos = sections[PUBMED];
+            pubmedDataPos = pubmedLengthPos + 4 * size;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return current < size;
+        }
+
+        @SuppressWarnings("unchecked")
+        @Override
+        public C next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            final int i = current++;
+
+            final int numberOfLinks = buffer.getInt(linkCountPos);
+            linkCountPos += 4;
+            final ArrayList<DBLink> links = numberOfLinks < 0 ? null : new ArrayList<>(numberOfLinks);
+            for (int l = 0; l < numberOfLinks; ++l) {
+                final String db = dbNames[buffer.getShort(linkDataPos)];
+                final int len = buffer.getInt(linkDataPos + 2);
+                links.add(new DBLink(db, readString(linkDataPos + 6, len)));
+                linkDataPos += 6 + Math.max(len, 0);
+            }
+
+            final int numberOfPubmedIds = buffer.getInt(pubmedLengthPos);
+            pubmedLengthPos += 4;
+            PubmedLinks pubmedLinks = null;
+            if (numberOfPubmedIds >= 0) {
+                final int[] ids = new int[numberOfPubmedIds];
+                buffer.position(pubmedDataPos);
+                buffer.asIntBuffer().get(ids);
+                pubmedDataPos += 4 * numberOfPubmedIds;
+                pubmedLinks = new PubmedLinks(ids);
+            }
+
+            final String key = inchikeys.next(), inchi = inchis.next();
+            final CompoundCandidate c = new CompoundCandidate(new InChI(key, inchi), names.next(), smiles.next(),
+                    buffer.getInt(layerPos + 4 * i), buffer.getInt(layerPos + 4 * (size + i)), buffer.getDouble(xlogpPos + 8 * i),
+                    null, buffer.getLong(flagPos + 8 * i), links, pubmedLinks);
+
+            final int numberOfIndices = buffer.getInt(fpLengthPos);
+            fpLengthPos += 4;
+            if (numberOfIndices < 0)
+                return (C) (version == null ? c : new FingerprintCandidate(c, null));
+            final short[] indizes = new short[numberOfIndices];
+            buffer.position(fpDataPos);
+            buffer.asShortBuffer().get(indizes);
+            fpDataPos += 2 * numberOfIndices;
+            return (C) (version == null ? c : new FingerprintCandidate(c, new ArrayFingerprint(version, indizes)));
+        }
+
+        @Override
+        public void close() {
+            current = size;
+        }
+
+        private String readString(int pos, int length) {
+            if (length < 0) return null;
+            final byte[] bytes = new byte[length];
+            buffer.position(pos);
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private class StringColumn {
+            private int lengthPos, dataPos;
+
+            private StringColumn(int sectionPos, int size) {
+                this.lengthPos = sectionPos;
+                this.dataPos = sectionPos + 4 * size;
+            }
+
+            private String next() {
+                final int len = buffer.getInt(lengthPos);
+                lengthPos += 4;
+                final String s = readString(dataPos, len);
+                dataPos += Math.max(len, 0);
+                return s;
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.chemdb;
+
+import gnu.trove.map.hash.TObjectIntHashMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static de.unijena.bioinf.chemdb.BinaryReader.*;
+
+/**
+ * Writes compound candidates in the binary columnar format that is read by {@link BinaryReader}.
+ */
+public class BinaryWriter {
+
+    public static <C extends CompoundCandidate> void toBinaryList(List<C> candidates, OutputStream out) throws IOException {
+        final int n = candidates.size();
+        final ByteArrayOutputStream[] sections = new ByteArrayOutputStream[NUMBER_OF_SECTIONS];
+        final DataOutputStream[] outs = new DataOutputStream[NUMBER_OF_SECTIONS];
+        for (int i = 0; i < NUMBER_OF_SECTIONS; ++i) {
+            sections[i] = new ByteArrayOutputStream();
+            outs[i] = new DataOutputStream(sections[i]);
+        }
+
+        writeStrings(outs[INCHIKEY], candidates, 0);
+        writeStrings(outs[INCHI], candidates, 1);
+        writeStrings(outs[NAME], candidates, 2);
+        writeStrings(outs[SMILES], candidates, 3);
+
+        for (C c : candidates) outs[FLAGS].writeLong(c.bitset);
+        for (C c : candidates) outs[LAYERS].writeInt(c.pLayer);
+        for (C c : candidates) outs[LAYERS].writeInt(c.qLayer);
+        for (C c : candidates) outs[XLOGP].writeDouble(c.xlogp);
+
+        final List<short[]> fingerprints = new ArrayList<>(n);
+        for (C c : candidates) {
+            final short[] indizes = (c instanceof FingerprintCandidate && ((FingerprintCandidate) c).fingerprint != null)
+                    ? ((FingerprintCandidate) c).fingerprint.toIndizesArray() : null;
+            fingerprints.add(indizes);
+            outs[FINGERPRINT].writeInt(indizes == null ? -1 : indizes.length);
+        }
+        for (short[] indizes : fingerprints)
+            if (indizes != null) for (short index : indizes) outs[FINGERPRINT].writeShort(index);
+
+        final TObjectIntHashMap<String> dictionary = new TObjectIntHashMap<>(16, 0.75f, -1);
+        final List<String> dbNames = new ArrayList<>();
+        for (C c : candidates)
+            if (c.links != null)
+                for (DBLink link : c.links)
+                    if (dictionary.putIfAbsent(link.name, dbNames.size()) == -1) dbNames.add(link.name);
+        if (dbNames.size() > Short.MAX_VALUE)
+            throw new IOException("Too many different database names: " + dbNames.size());
+        outs[LINKS].writeInt(dbNames.size());
+        for (String name : dbNames) writeString(outs[LINKS], name);
+        for (C c : candidates) outs[LINKS].writeInt(c.links == null ? -1 : c.links.size());
+        for (C c : candidates)
+            if (c.links != null)
+                for (DBLink link : c.links) {
+                    outs[LINKS].writeShort(dictionary.get(link.name));
+                    writeString(outs[LINKS], link.id);
+                }
+
+        for (C c : candidates) outs[PUBMED].writeInt(c.pubmedIDs == null ? -1 : c.pubmedIDs.getNumberOfPubmedIDs());
+        for (C c : candidates)
+            if (c.pubmedIDs != null) for (int id : c.pubmedIDs.getCopyOfPubmedIDs()) outs[PUBMED].writeInt(id);
+
+        final DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(n);
+        header.writeInt(NUMBER_OF_SECTIONS);
+        long offset = 16L + 8L * NUMBER_OF_SECTIONS;
+        for (int i = 0; i < NUMBER_OF_SECTIONS; ++i) {
+            outs[i].flush();
+            header.writeLong(offset);
+            offset += sections[i].size();
+        }
+        for (ByteArrayOutputStream section : sections) section.writeTo(header);
+        header.flush();
+    }
+
+    private static <C extends CompoundCandidate> void writeStrings(DataOutputStream out, List<C> candidates, int column) throws IOException {
+        final List<byte[]> values = new ArrayList<>(candidates.size());
+        for (C c : candidates) {
+            final String s;
+            switch (column) {
+                case 0: s = c.getInchiKey2D(); break;
+                case 1: s = c.inchi.in3D; break;
+                case 2: s = c.name; break;
+                default: s = c.smiles;
+            }
+            final byte[] bytes = s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+            values.add(bytes);
+            out.writeInt(bytes == null ? -1 : bytes.length);
+        }
+        for (byte[] bytes : values) if (bytes != null) out.write(bytes);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+}
@@ -20,43 +20,100 @@
 
 package de.unijena.bioinf.chemdb;
 
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
 import de.unijena.bioinf.ChemistryBase.fp.CdkFingerprintVersion;
 import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.babelms.CloseableIterator;
+import de.unijena.bioinf.ms.properties.PropertyManager;
 import de.unijena.bioinf.storage.blob.AbstractCompressible;
 import de.unijena.bioinf.storage.blob.BlobStorage;
 import de.unijena.bioinf.storage.blob.Compressible;
 import de.unijena.bioinf.storage.blob.file.FileBlobStorage;
 import de.unijena.bioinf.storage.blob.memory.InMemoryBlobStorage;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 /**
  * Class to read-cache any kind of {@link SearchStructureByFormula} using a {@link BlobStorage}.
  * Using a local {@link FileBlobStorage} or an {@link InMemoryBlobStorage} as cache is recommended
  * to ensure that the cache is faster enough to have positive impact on performance compared to the  actual resource.
+ * <p>
+ * Optionally, decoded candidates can be kept in memory in front of the cache storage. This in-memory layer is bounded by the
+ * estimated size of the decoded candidates in bytes, evicts least recently used formulas (approximate LRU) and loads
+ * each formula only once if it is requested concurrently.
  */
 public class ChemDBFileCache extends AbstractCompressible {
+    /**
+     * Default upper bound in (estimated) bytes for decoded candidates kept in memory. 0 disables the in-memory layer.
+     */
+    public static final long DEFAULT_MEMORY_CACHE_BYTES = PropertyManager.getLong("de.unijena.bioinf.chemdb.cache.memory.bytes", null, 0L);
 
     protected final BlobStorage cacheStorage;
     protected final SearchStructureByFormula structureProvider;
+    @Nullable
+    protected final LoadingCache<MolecularFormula, List<FingerprintCandidate>> memoryCache;
 
     public ChemDBFileCache(@NotNull BlobStorage cacheStorage, @NotNull SearchStructureByFormula structureProvider1) {
         this(cacheStorage, structureProvider1, Compression.GZIP);
     }
 
     public ChemDBFileCache(@NotNull BlobStorage cacheStorage, @NotNull SearchStructureByFormula structureProvider1, Compression compression) {
+        this(cacheStorage, structureProvider1, compression, DEFAULT_MEMORY_CACHE_BYTES);
+    }
+
+    /**
+     * @param memoryCacheBytes upper bound in (estimated) bytes for decoded candidates kept in memory. 0 disables the in-memory layer.
+     */
+    public ChemDBFileCache(@NotNull BlobStorage cacheStorage, @NotNull SearchStructureByFormula structureProvider1, Compression compression, long memoryCacheBytes) {
         super(compression);
         this.cacheStorage = cacheStorage;
         this.structureProvider = structureProvider1;
+        this.memoryCache = memoryCacheBytes <= 0 ? null : CacheBuilder.newBuilder()
+                .maximumWeight(memoryCacheBytes)
+                .weigher((MolecularFormula formula, List<FingerprintCandidate> candidates) -> estimateBytes(candidates))
+                .concurrencyLevel(PropertyManager.getNumberOfThreads())
+                .recordStats()
+                .build(new CacheLoader<>() {
+                    @Override
+                    public List<FingerprintCandidate> load(@NotNull MolecularFormula formula) throws Exception {
+                        return List.copyOf(loadStructuresAndFingerprintsByFormula(formula));
+                    }
+                });
+    }
+
+    /**
+     * @return hit, miss, load and eviction counters of the in-memory layer or NULL if it is disabled.
+     */
+    @Nullable
+    public CacheStats getMemoryCacheStats() {
+        return memoryCache == null ? null : memoryCache.stats();
+    }
+
+    /**
+     * @return estimated number of bytes of all decoded candidates in the in-memory layer.
+     */
+    public long getMemoryCacheWeight() {
+        if (memoryCache == null)
+            return 0;
+        return memoryCache.asMap().values().stream().mapToLong(ChemDBFileCache::estimateBytes).sum();
+    }
+
+    public void invalidateMemoryCache() {
+        if (memoryCache != null)
+            memoryCache.invalidateAll();
     }
 
     public List<FingerprintCandidate> lookupStructuresAndFingerprintsByFormula(MolecularFormula formula, long filter) throws ChemicalDatabaseException {
@@ -64,7 +121,76 @@ public class ChemDBFileCache extends AbstractCompressible {
     }
 
     public List<FingerprintCandidate> lookupStructuresAndFingerprintsByFormula(MolecularFormula formula) throws ChemicalDatabaseException {
-        Path blobKey = Path.of(formula.toString() + ".json.gz");
+        if (memoryCache == null)
+            return loadStructuresAndFingerprintsByFormula(formula);
+        return copyOf(getFromMemoryCache(formula));
+    }
+
+    /**
+     * Lookup of multiple formulas at once. Formulas are loaded from cache or requested from the underlying provider in parallel.
+     */
+    public Map<MolecularFormula, List<FingerprintCandidate>> lookupStructuresAndFingerprintsByFormulas(Collection<MolecularFormula> formulas, long filter) throws ChemicalDatabaseException {
+        final Map<MolecularFormula, List<FingerprintCandidate>> result = lookupStructuresAndFingerprintsByFormulas(formulas);
+        if (filter != 0)
+            result.replaceAll((formula, fpcs) -> fpcs.stream().filter(ChemDBs.inFilter((it) -> it.bitset, filter)).collect(Collectors.toList()));
+        return result;
+    }
+
+    public Map<MolecularFormula, List<FingerprintCandidate>> lookupStructuresAndFingerprintsByFormulas(Collection<MolecularFormula> formulas) throws ChemicalDatabaseException {
+        return ChemDBs.lookupStructuresAndFingerprintsParallel(this::lookupStructuresAndFingerprintsByFormula, formulas);
+    }
+
+    private List<FingerprintCandidate> getFromMemoryCache(MolecularFormula formula) throws ChemicalDatabaseException {
+        try {
+            return memoryCache.get(formula);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            if (e.getCause() instanceof ChemicalDatabaseException)
+                throw (ChemicalDatabaseException) e.getCause();
+            throw new ChemicalDatabaseException(e.getCause());
+        }
+    }
+
+    /*
+     * Candidates are mutable (e.g. db links are merged by the callers), so cached candidates are never handed out directly.
+     */
+    private static List<FingerprintCandidate> copyOf(List<FingerprintCandidate> cached) {
+        final List<FingerprintCandidate> copy = new ArrayList<>(cached.size());
+        for (FingerprintCandidate c : cached) {
+            final FingerprintCandidate fc = new FingerprintCandidate(c, c.getFingerprint());
+            if (c.links != null)
+                fc.setLinks(new ArrayList<>(c.links));
+            copy.add(fc);
+        }
+        return copy;
+    }
+
+    /**
+     * Rough estimate of the heap size of the given decoded candidates.
+     */
+    protected static int estimateBytes(List<FingerprintCandidate> candidates) {
+        long bytes = 16L + 4L * candidates.size();
+        for (FingerprintCandidate c : candidates) {
+            bytes += 96; //candidate object + inchi object
+            bytes += stringBytes(c.getInchiKey2D()) + stringBytes(c.getInchi().in3D) + stringBytes(c.name) + stringBytes(c.smiles);
+            if (c.getFingerprint() != null)
+                bytes += 40 + 2L * c.getFingerprint().cardinality();
+            if (c.links != null) {
+                bytes += 40 + 4L * c.links.size();
+                for (DBLink link : c.links)
+                    bytes += 24 + stringBytes(link.id); // db names are usually interned constants
+            }
+            if (c.pubmedIDs != null)
+                bytes += 32 + 4L * c.pubmedIDs.getNumberOfPubmedIDs();
+        }
+        return (int) Math.min(Integer.MAX_VALUE, bytes);
+    }
+
+    private static long stringBytes(@Nullable String s) {
+        return s == null ? 0 : 40 + s.length();
+    }
+
+    private List<FingerprintCandidate> loadStructuresAndFingerprintsByFormula(MolecularFormula formula) throws ChemicalDatabaseException {
+        Path blobKey = blobKey(formula);
 
         try {
             List<FingerprintCandidate> fpcs = new ArrayList<>();
@@ -78,7 +204,8 @@ public class ChemDBFileCache extends AbstractCompressible {
                         }
                     }
                 } catch (IOException e) {
-                    LoggerFactory.getLogger(getClass()).error("Error when searching for " + formula + " in file database. Deleting cache file '" + blobKey + "' an try fetching from Server");
+                    LoggerFactory.getLogger(getClass()).error("Error when searching for " + formula + " in file database. Deleting cache file '" + blobKey + "' and try fetching from Server");
+                    deleteCorruptCacheFile(blobKey);
                     fpcs = requestFormulaAndCache(blobKey, formula);
                 }
             } else {
@@ -91,6 +218,48 @@ public class ChemDBFileCache extends AbstractCompressible {
         }
     }
 
+    /**
+     * Streams the candidates directly from the cache file without collecting them into a list.
+     * If the formula is not cached yet, it is requested from the underlying provider and cached.
+     * If the cache file turns out to be corrupt while streaming, the remaining candidates are requested from the
+     * underlying provider as well. The returned iterator has to be closed by the caller.
+     */
+    public CloseableIterator<FingerprintCandidate> streamStructuresAndFingerprintsByFormula(MolecularFormula formula) throws ChemicalDatabaseException {
+        if (memoryCache != null)
+            return ChemDBs.closeableIterator(copyOf(getFromMemoryCache(formula)).iterator(), null);
+
+        Path blobKey = blobKey(formula);
+
+        try {
+            if (cacheStorage.hasBlob(blobKey)) {
+                final InputStream i = cacheStorage.reader(blobKey);
+                try {
+                    return new CacheFileIterator(formula, blobKey, ChemDBs.closeableIterator(new JSONReader().readFingerprints(CdkFingerprintVersion.getDefault(),
+                            Compressible.decompressRawStream(i, getCompression()).get()), i));
+                } catch (IOException e) {
+                    i.close();
+                    LoggerFactory.getLogger(getClass()).error("Error when searching for " + formula + " in file database. Deleting cache file '" + blobKey + "' and try fetching from Server");
+                    deleteCorruptCacheFile(blobKey);
+                }
+            }
+            return ChemDBs.closeableIterator(requestFormulaAndCache(blobKey, formula).iterator(), null);
+        } catch (IOException e) {
+            throw new ChemicalDatabaseException(e);
+        }
+    }
+
+    protected Path blobKey(MolecularFormula formula) {
+        return Path.of(formula.toString() + ".json.gz");
+    }
+
+    private void deleteCorruptCacheFile(final @NotNull Path relative) {
+        try {
+            cacheStorage.deleteBlob(relative);
+        } catch (IOException e) {
+            LoggerFactory.getLogger(getClass()).warn("Could not delete corrupt cache file '" + relative + "'. It will be overwritten.", e);
+        }
+    }
+
     private List<FingerprintCandidate> requestFormulaAndCache(final @NotNull Path relative, MolecularFormula formula) throws IOException {
         //get unfiltered list from server to write cache.
         final List<FingerprintCandidate> fpcs = structureProvider.lookupStructuresAndFingerprintsByFormula(formula);
@@ -101,6 +270,75 @@ public class ChemDBFileCache extends AbstractCompressible {
 
         return fpcs;
     }
-}
 
+    /**
+     * Candidates are decoded lazily, so a corrupt cache file might only be noticed while iterating. In this case the
+     * formula is requested from the underlying provider and the candidates that have not been returned yet are taken
+     * from there. This works because the cache file was written in the order of the provider.
+     */
+    private class CacheFileIterator implements CloseableIterator<FingerprintCandidate> {
+        private final MolecularFormula formula;
+        private final Path blobKey;
+        private CloseableIterator<FingerprintCandidate> current;
+        private boolean fromProvider = false;
+        private int returned = 0;
+
+        private CacheFileIterator(MolecularFormula formula, Path blobKey, CloseableIterator<FingerprintCandidate> cacheIterator) {
+            this.formula = formula;
+            this.blobKey = blobKey;
+            this.current = cacheIterator;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!fromProvider) {
+                try {
+                    return current.hasNext();
+                } catch (RuntimeException e) {
+                    switchToProvider(e);
+                }
+            }
+            return current.hasNext();
+        }
+
+        @Override
+        public FingerprintCandidate next() {
+            if (!fromProvider) {
+                try {
+                    final FingerprintCandidate next = current.next();
+                    ++returned;
+                    return next;
+                } catch (NoSuchElementException e) {
+                    throw e;
+                } catch (RuntimeException e) {
+                    switchToProvider(e);
+                }
+            }
+            return current.next();
+        }
 
+        private void switchToProvider(RuntimeException cause) {
+            LoggerFactory.getLogger(ChemDBFileCache.class).error("Error when reading " + formula + " from file database. Deleting cache file '" + blobKey + "' and fetching remaining candidates from Server.", cause);
+            try {
+                current.close();
+            } catch (IOException e) {
+                cause.addSuppressed(e);
+            }
+            deleteCorruptCacheFile(blobKey);
+            final List<FingerprintCandidate> fpcs;
+            try {
+                fpcs = requestFormulaAndCache(blobKey, formula);
+            } catch (IOException e) {
+                e.addSuppressed(cause);
+                throw new RuntimeException("Could not fetch " + formula + " after reading the cache file failed.", e);
+            }
+            current = ChemDBs.closeableIterator(fpcs.subList(Math.min(returned, fpcs.size()), fpcs.size()).iterator(), null);
+            fromProvider = true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            current.close();
+        }
+    }
+}
@@ -21,9 +21,17 @@
 package de.unijena.bioinf.chemdb;
 
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.utils.IOFunctions;
+import de.unijena.bioinf.babelms.CloseableIterator;
+import de.unijena.bioinf.jjobs.TinyBackgroundJJob;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
-import java.util.Arrays;
-import java.util.Comparator;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Function;
 import java.util.function.Predicate;
 
@@ -64,4 +72,80 @@ public class ChemDBs {
 
         return false;
     }
-}
\ No newline at end of file
+
+    /**
+     * Wraps the given iterator into a {@link CloseableIterator} that closes the given resource (if any) when closed.
+     */
+    public static <T> CloseableIterator<T> closeableIterator(@NotNull Iterator<T> iterator, @Nullable Closeable resource) {
+        return new CloseableIterator<>() {
+            private boolean closed = false;
+
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) return;
+                closed = true;
+                if (iterator instanceof Closeable)
+                    ((Closeable) iterator).close();
+                if (resource != null)
+                    resource.close();
+            }
+        };
+    }
+
+    /**
+     * Looks up the given formulas concurrently as background jobs, one job per CPU thread that looks up its share of
+     * the formulas sequentially. Intended for backends without native batch support whose single formula lookups are
+     * IO bound (e.g. blob or cache based databases).
+     *
+     * @return candidates per formula in iteration order of the given formulas
+     */
+    public static Map<MolecularFormula, List<FingerprintCandidate>> lookupStructuresAndFingerprintsParallel(@NotNull IOFunctions.IOFunction<MolecularFormula, List<FingerprintCandidate>> lookup, @NotNull Collection<MolecularFormula> formulas) throws ChemicalDatabaseException {
+        final List<MolecularFormula> distinct = new ArrayList<>(new LinkedHashSet<>(formulas));
+        final int numberOfJobs = Math.min(distinct.size(), SiriusJobs.getCPUThreads());
+        if (numberOfJobs <= 1)
+            return lookupStructuresAndFingerprintsSequential(lookup, distinct);
+
+        final int batchSize = (distinct.size() + numberOfJobs - 1) / numberOfJobs;
+        final List<TinyBackgroundJJob<Map<MolecularFormula, List<FingerprintCandidate>>>> jobs = new ArrayList<>(numberOfJobs);
+        for (int start = 0; start < distinct.size(); start += batchSize) {
+            final List<MolecularFormula> batch = distinct.subList(start, Math.min(distinct.size(), start + batchSize));
+            jobs.add(SiriusJobs.runInBackground(() -> lookupStructuresAndFingerprintsSequential(lookup, batch)));
+        }
+
+        final Map<MolecularFormula, List<FingerprintCandidate>> result = new LinkedHashMap<>(distinct.size());
+        try {
+            for (TinyBackgroundJJob<Map<MolecularFormula, List<FingerprintCandidate>>> job : jobs)
+                result.putAll(job.awaitResult());
+            return result;
+        } catch (ExecutionException e) {
+            jobs.forEach(j -> j.cancel(false));
+            if (e.getCause() instanceof ChemicalDatabaseException)
+                throw (ChemicalDatabaseException) e.getCause();
+            throw new ChemicalDatabaseException(e.getCause());
+        }
+    }
+
+    public static Map<MolecularFormula, List<FingerprintCandidate>> lookupStructuresAndFingerprintsSequential(@NotNull IOFunctions.IOFunction<MolecularFormula, List<FingerprintCandidate>> lookup, @NotNull Collection<MolecularFormula> formulas) throws ChemicalDatabaseException {
+        final Map<MolecularFormula, List<FingerprintCandidate>> result = new LinkedHashMap<>(formulas.size());
+        try {
+            for (MolecularFormula formula : formulas)
+                if (!result.containsKey(formula))
+                    result.put(formula, lookup.apply(formula));
+            return result;
+        } catch (ChemicalDatabaseException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new ChemicalDatabaseException(e);
+        }
+    }
+}
@@ -21,10 +21,12 @@
 package de.unijena.bioinf.chemdb;
 
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.babelms.CloseableIterator;
 
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 @FunctionalInterface
 public interface SearchStructureByFormula {
@@ -39,4 +41,25 @@ public interface SearchStructureByFormula {
     default List<FingerprintCandidate> lookupStructuresAndFingerprintsByFormula(MolecularFormula formula) throws ChemicalDatabaseException {
         return lookupStructuresAndFingerprintsByFormula(formula, new ArrayList<>());
     }
+
+    /**
+     * Lookup structures and corresponding fingerprints by the given molecular formula and provide them as stream.
+     * Implementations that are able to decode candidates lazily (e.g. from a blob) should override this method,
+     * so that the caller never has to hold all candidates of a formula in memory.
+     * The returned iterator has to be closed by the caller.
+     */
+    default CloseableIterator<FingerprintCandidate> streamStructuresAndFingerprintsByFormula(MolecularFormula formula) throws ChemicalDatabaseException {
+        return ChemDBs.closeableIterator(lookupStructuresAndFingerprintsByFormula(formula).iterator(), null);
+    }
+
+    /**
+     * Lookup structures and corresponding fingerprints for multiple molecular formulas at once.
+     * Backends that can answer several formulas with a single request (e.g. one SQL query) or fetch them
+     * in parallel should override this method. This method will NOT add database links to these structures
+     *
+     * @return candidates per formula. Every given formula is contained as key, formulas without structures map to an empty list.
+     */
+    default Map<MolecularFormula, List<FingerprintCandidate>> lookupStructuresAndFingerprintsByFormulas(Collection<MolecularFormula> formulas) throws ChemicalDatabaseException {
+        return ChemDBs.lookupStructuresAndFingerprintsSequential(this::lookupStructuresAndFingerprintsByFormula, formulas);
+    }
 }
@@ -0,0 +1,116 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.chemdb;
+
+import de.unijena.bioinf.ChemistryBase.chem.InChI;
+import de.unijena.bioinf.ChemistryBase.fp.ArrayFingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.CdkFingerprintVersion;
+import de.unijena.bioinf.babelms.CloseableIterator;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class BinaryReaderTest {
+
+    private static final CdkFingerprintVersion VERSION = CdkFingerprintVersion.getDefault();
+
+    @Test
+    public void testFingerprintCandidatesRoundTrip() throws IOException {
+        final List<FingerprintCandidate> candidates = makeCandidates();
+        final List<FingerprintCandidate> read = new ArrayList<>();
+        try (CloseableIterator<FingerprintCandidate> it = new BinaryReader().readFingerprints(VERSION, new ByteArrayInputStream(write(candidates)))) {
+            while (it.hasNext()) read.add(it.next());
+        }
+
+        Assert.assertEquals(candidates.size(), read.size());
+        for (int i = 0; i < candidates.size(); ++i) {
+            assertCandidateEquals(candidates.get(i), read.get(i));
+            final FingerprintCandidate expected = candidates.get(i), actual = read.get(i);
+            if (expected.getFingerprint() == null)
+                Assert.assertNull(actual.getFingerprint());
+            else
+                Assert.assertArrayEquals(expected.getFingerprint().toIndizesArray(), actual.getFingerprint().toIndizesArray());
+        }
+    }
+
+    @Test
+    public void testCompoundCandidatesRoundTrip() throws IOException {
+        final List<FingerprintCandidate> candidates = makeCandidates();
+        final List<CompoundCandidate> read = new ArrayList<>();
+        try (CloseableIterator<CompoundCandidate> it = new BinaryReader().readCompounds(ByteBuffer.wrap(write(candidates)))) {
+            while (it.hasNext()) read.add(it.next());
+        }
+
+        Assert.assertEquals(candidates.size(), read.size());
+        for (int i = 0; i < candidates.size(); ++i)
+            assertCandidateEquals(candidates.get(i), read.get(i));
+    }
+
+    private static byte[] write(List<FingerprintCandidate> candidates) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryWriter.toBinaryList(candidates, out);
+        return out.toByteArray();
+    }
+
+    private static List<FingerprintCandidate> makeCandidates() {
+        final List<FingerprintCandidate> candidates = new ArrayList<>();
+        candidates.add(new FingerprintCandidate(new CompoundCandidate(
+                new InChI("WQZGKKKJIJFFOK-UHFFFAOYSA-N", "InChI=1S/C6H12O6/c7-1-2-3(8)4(9)5(10)6(11)12-2/h2-11H,1H2"),
+                "glucose", "C(C1C(C(C(C(O1)O)O)O)O)O", 0, 0, -2.6, null, DataSource.PUBCHEM.flag() | DataSource.HMDB.flag(),
+                new DBLink[]{new DBLink(DataSource.PUBCHEM.realName(), "5793"), new DBLink(DataSource.HMDB.realName(), null)},
+                new PubmedLinks(1, 300, 70000)),
+                new ArrayFingerprint(VERSION, new short[]{0, 3, 200, 1500})));
+        // candidate without fingerprint
+        candidates.add(new FingerprintCandidate(new CompoundCandidate(
+                new InChI("RFSUNEUAIZKAJO-UHFFFAOYSA-N", "InChI=1S/C6H12O6/c7-1-3-4(9)5(10)6(11,2-8)12-3/h3-5,7-11H,1-2H2"),
+                "fructose", "C1C(C(C(O1)(CO)O)O)O", 1, -1, -3.1, null, DataSource.PUBCHEM.flag(),
+                new DBLink[]{new DBLink(DataSource.PUBCHEM.realName(), "2723872")}, new PubmedLinks()),
+                null));
+        // candidate without links, pubmed ids and name
+        candidates.add(new FingerprintCandidate(new CompoundCandidate(
+                new InChI("CDAISMWEOUEBRE-UHFFFAOYSA-N", "InChI=1S/C6H12O6/c7-1-2(8)4(10)6(12)5(11)3(1)9/h1-12H"),
+                null, "C1(C(C(C(C(C1O)O)O)O)O)O", 0, 0, Double.NaN, null, 0L, (ArrayList<DBLink>) null, null),
+                new ArrayFingerprint(VERSION, new short[0])));
+        return candidates;
+    }
+
+    private static void assertCandidateEquals(CompoundCandidate expected, CompoundCandidate actual) {
+        Assert.assertEquals(expected.getInchiKey2D(), actual.getInchiKey2D());
+        Assert.assertEquals(expected.getInchi().in3D, actual.getInchi().in3D);
+        Assert.assertEquals(expected.getName(), actual.getName());
+        Assert.assertEquals(expected.getSmiles(), actual.getSmiles());
+        Assert.assertEquals(expected.getpLayer(), actual.getpLayer());
+        Assert.assertEquals(expected.getqLayer(), actual.getqLayer());
+        Assert.assertEquals(expected.getXlogp(), actual.getXlogp(), 0d);
+        Assert.assertEquals(expected.getBitset(), actual.getBitset());
+        Assert.assertEquals(expected.getLinks(), actual.getLinks());
+        if (expected.getPubmedIDs() == null)
+            Assert.assertNull(actual.getPubmedIDs());
+        else
+            Assert.assertArrayEquals(expected.getPubmedIDs().getCopyOfPubmedIDs(), actual.getPubmedIDs().getCopyOfPubmedIDs());
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.chemdb;
+
+import com.google.common.cache.CacheStats;
+import de.unijena.bioinf.ChemistryBase.chem.InChI;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.fp.ArrayFingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.CdkFingerprintVersion;
+import de.unijena.bioinf.babelms.CloseableIterator;
+import de.unijena.bioinf.storage.blob.Compressible;
+import de.unijena.bioinf.storage.blob.memory.InMemoryBlobStorage;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ChemDBFileCacheTest {
+
+    private static final MolecularFormula FORMULA = MolecularFormula.parseOrThrow("C6H12O6");
+
+    @Test
+    public void testStreamIntactCacheFile() throws IOException {
+        final List<FingerprintCandidate> candidates = makeCandidates(10);
+        final AtomicInteger providerCalls = new AtomicInteger();
+        final InMemoryBlobStorage storage = new InMemoryBlobStorage("cache");
+        final ChemDBFileCache cache = new ChemDBFileCache(storage, countingProvider(candidates, providerCalls), Compressible.Compression.NONE, 0);
+        final byte[] json = toJSON(candidates);
+        storage.withWriter(cache.blobKey(FORMULA), w -> w.write(json));
+
+        Assert.assertEquals(keys(candidates), keys(stream(cache)));
+        Assert.assertEquals(0, providerCalls.get());
+    }
+
+    @Test
+    public void testStreamCorruptCacheFileFallsBackToProvider() throws IOException {
+        final List<FingerprintCandidate> candidates = makeCandidates(10);
+        final AtomicInteger providerCalls = new AtomicInteger();
+        final InMemoryBlobStorage storage = new InMemoryBlobStorage("cache");
+        final ChemDBFileCache cache = new ChemDBFileCache(storage, countingProvider(candidates, providerCalls), Compressible.Compression.NONE, 0);
+        // the header and the first candidates are intact, so the file is only recognized as corrupt while iterating
+        final byte[] json = toJSON(candidates);
+        storage.withWriter(cache.blobKey(FORMULA), w -> w.write(Arrays.copyOf(json, json.length * 7 / 10)));
+
+        Assert.assertEquals(keys(candidates), keys(stream(cache)));
+        Assert.assertEquals(1, providerCalls.get());
+    }
+
+    @Test
+    public void testStreamUncachedFormula() throws IOException {
+        final List<FingerprintCandidate> candidates = makeCandidates(3);
+        final AtomicInteger providerCalls = new AtomicInteger();
+        final ChemDBFileCache cache = new ChemDBFileCache(new InMemoryBlobStorage("cache"), countingProvider(candidates, providerCalls), Compressible.Compression.NONE, 0);
+
+        Assert.assertEquals(keys(candidates), keys(stream(cache)));
+        Assert.assertEquals(1, providerCalls.get());
+    }
+
+    @Test
+    public void testMemoryCacheHit() throws IOException {
+        final List<FingerprintCandidate> candidates = makeCandidates(10);
+        final AtomicInteger providerCalls = new AtomicInteger();
+        final ChemDBFileCache cache = new ChemDBFileCache(new InMemoryBlobStorage("cache"), countingProvider(candidates, providerCalls), Compressible.Compression.NONE, 1L << 20);
+
+        final List<FingerprintCandidate> first = cache.lookupStructuresAndFingerprintsByFormula(FORMULA);
+        Assert.assertEquals(keys(candidates), keys(first));
+        Assert.assertEquals(ChemDBFileCache.estimateBytes(candidates), cache.getMemoryCacheWeight());
+
+        // the cached candidates must not be changed by the caller
+        first.get(0).setLinks(new ArrayList<>());
+        final List<FingerprintCandidate> second = cache.lookupStructuresAndFingerprintsByFormula(FORMULA);
+        Assert.assertEquals(keys(candidates), keys(second));
+        Assert.assertEquals(1, second.get(0).links.size());
+        Assert.assertEquals(keys(candidates), keys(stream(cache)));
+        Assert.assertEquals(1, providerCalls.get());
+
+        final CacheStats stats = cache.getMemoryCacheStats();
+        Assert.assertEquals(1, stats.missCount());
+        Assert.assertEquals(2, stats.hitCount());
+
+        cache.invalidateMemoryCache();
+        Assert.assertEquals(0, cache.getMemoryCacheWeight());
+    }
+
+    @Test
+    public void testMemoryCacheIsBoundedByWeight() throws IOException {
+        final List<FingerprintCandidate> candidates = makeCandidates(10);
+        final long maxWeight = 3L * ChemDBFileCache.estimateBytes(candidates);
+        final AtomicInteger providerCalls = new AtomicInteger();
+        final ChemDBFileCache cache = new ChemDBFileCache(new InMemoryBlobStorage("cache"), countingProvider(candidates, providerCalls), Compressible.Compression.NONE, maxWeight);
+
+        final int formulas = 20;
+        for (int i = 1; i <= formulas; ++i) {
+            Assert.assertEquals(keys(candidates), keys(cache.lookupStructuresAndFingerprintsByFormula(MolecularFormula.parseOrThrow("C" + i + "H4"))));
+            Assert.assertTrue(cache.getMemoryCacheWeight() <= maxWeight);
+        }
+        Assert.assertTrue(cache.getMemoryCacheStats().evictionCount() > 0);
+
+        // evicted formulas are read from the cache storage again, not from the provider
+        Assert.assertEquals(keys(candidates), keys(cache.lookupStructuresAndFingerprintsByFormula(MolecularFormula.parseOrThrow("C1H4"))));
+        Assert.assertEquals(formulas, providerCalls.get());
+    }
+
+    @Test
+    public void testMemoryCacheDisabled() throws IOException {
+        final ChemDBFileCache cache = new ChemDBFileCache(new InMemoryBlobStorage("cache"), countingProvider(makeCandidates(3), new AtomicInteger()), Compressible.Compression.NONE, 0);
+        Assert.assertEquals(3, cache.lookupStructuresAndFingerprintsByFormula(FORMULA).size());
+        Assert.assertNull(cache.getMemoryCacheStats());
+        Assert.assertEquals(0, cache.getMemoryCacheWeight());
+    }
+
+    private static List<FingerprintCandidate> stream(ChemDBFileCache cache) throws IOException {
+        final List<FingerprintCandidate> read = new ArrayList<>();
+        try (CloseableIterator<FingerprintCandidate> it = cache.streamStructuresAndFingerprintsByFormula(FORMULA)) {
+            while (it.hasNext()) read.add(it.next());
+        }
+        return read;
+    }
+
+    private static SearchStructureByFormula countingProvider(List<FingerprintCandidate> candidates, AtomicInteger calls) {
+        return new SearchStructureByFormula() {
+            @Override
+            public <T extends Collection<FingerprintCandidate>> T lookupStructuresAndFingerprintsByFormula(MolecularFormula formula, T result) {
+                calls.incrementAndGet();
+                result.addAll(candidates);
+                return result;
+            }
+        };
+    }
+
+    private static byte[] toJSON(List<FingerprintCandidate> candidates) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompoundCandidate.toJSONList(candidates, out);
+        return out.toByteArray();
+    }
+
+    private static List<String> keys(List<FingerprintCandidate> candidates) {
+        final List<String> keys = new ArrayList<>();
+        for (FingerprintCandidate c : candidates) keys.add(c.getInchiKey2D());
+        return keys;
+    }
+
+    private static List<FingerprintCandidate> makeCandidates(int n) {
+        final List<FingerprintCandidate> candidates = new ArrayList<>();
+        for (int i = 0; i < n; ++i) {
+            candidates.add(new FingerprintCandidate(new CompoundCandidate(
+                    new InChI(String.format("WQZGKKKJIJFF%02d-UHFFFAOYSA-N", i), "InChI=1S/C6H12O6/c7-1-2-3(8)4(9)5(10)6(11)12-2/h2-11H,1H2/" + i),
+                    "candidate " + i, "C(C1C(C(C(C(O1)O)O)O)O)O", 0, 0, -2.6, null, DataSource.PUBCHEM.flag(),
+                    new DBLink[]{new DBLink(DataSource.PUBCHEM.realName(), String.valueOf(5793 + i))},
+                    new PubmedLinks(1, 300 + i)),
+                    new ArrayFingerprint(CdkFingerprintVersion.getDefault(), new short[]{0, 3, (short) (200 + i), 1500})));
+        }
+        return candidates;
+    }
+}
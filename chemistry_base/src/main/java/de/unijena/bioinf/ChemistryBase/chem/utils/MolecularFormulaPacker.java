@@ -304,6 +304,14 @@ public class MolecularFormulaPacker {
         return numberOfXthElement(formula, elementMapper.get(element.getId()));
     }
 
+    /**
+     * @return the largest amount of the given element that can be encoded, 0 if the element is not part of the encoding
+     */
+    public int getMaximalAmount(final Element element) {
+        final int pos = elementMapper.get(element.getId());
+        return pos < 0 ? 0 : (1 << BIT_SIZES[pos]) - 1;
+    }
+
     private int numberOfXthElement(long formula, int k) {
         if (k < BIT_SIZES.length) {
             return (int) ((formula & MASKS[k]) >> SHIFTS[k]);
@@ -73,6 +73,23 @@ public class ValenceFilter implements FormulaFilter {
         return minValence;
     }
 
+    /**
+     * @return the doubled RDBE a neutral compound needs to pass this filter
+     */
+    public int getMinDoubledRDBE() {
+        return minValenceInt;
+    }
+
+    /**
+     * @return the adduct types tried by {@link #isValid(MolecularFormula, Ionization)} for the given (non neutral) ionization
+     */
+    public Set<PrecursorIonType> getAdducts(Ionization ionization) {
+        Set<PrecursorIonType> adducts = possibleAdducts.getAdducts(ionization);
+        if (adducts.size() == 0)
+           adducts.add(PrecursorIonType.fromString(ionization.toString()));
+        return adducts;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj instanceof ValenceFilter && obj.getClass().equals(this.getClass())) {
@@ -89,11 +106,8 @@ public class ValenceFilter implements FormulaFilter {
     @Override
     public boolean isValid(MolecularFormula measuredNeutralFormula, Ionization ionization) {
         if (ionization==PeriodicTable.getInstance().neutralIonization()) return isValid(measuredNeutralFormula);
-        Set<PrecursorIonType> adducts = possibleAdducts.getAdducts(ionization);
-        if (adducts.size() == 0)
-           adducts.add(PrecursorIonType.fromString(ionization.toString()));
 
-        for (PrecursorIonType ionType : adducts) {
+        for (PrecursorIonType ionType : getAdducts(ionization)) {
             if (isValid(measuredNeutralFormula, ionType)) {
                 return true;
             }
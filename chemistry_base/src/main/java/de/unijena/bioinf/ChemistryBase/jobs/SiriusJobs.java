@@ -30,12 +30,15 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 public class SiriusJobs {
 
     private static volatile JobManagerFactory<?> instanceCreator = (cores) -> new JobManager(cores, Math.min(cores, 4));
     private static volatile JobManager globalJobManager = null;
+    private static final List<Runnable> shutdownHooks = new CopyOnWriteArrayList<>();
 
     private SiriusJobs() {/*prevent instantiation*/}
 
@@ -56,10 +59,25 @@ public class SiriusJobs {
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
+            for (Runnable hook : shutdownHooks) {
+                try {
+                    hook.run();
+                } catch (RuntimeException e) {
+                    LoggerFactory.getLogger(SiriusJobs.class).warn("Error when running shutdown hook of the job manager.", e);
+                }
+            }
         }
 
     }
 
+    /**
+     * Registers a task which releases resources bound to the threads of the global job manager (e.g. native solver
+     * models). It is run whenever the global job manager is replaced and shut down.
+     */
+    public static void addShutdownHook(@NotNull Runnable hook) {
+        shutdownHooks.add(hook);
+    }
+
     public synchronized static void setJobManagerFactory(@NotNull JobManagerFactory<?> factory) {
         if (factory == null)
             throw new IllegalArgumentException("Job factory must not be null!");
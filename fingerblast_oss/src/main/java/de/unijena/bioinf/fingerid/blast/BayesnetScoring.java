@@ -459,6 +459,58 @@ public class BayesnetScoring implements FingerblastScoringMethod<BayesnetScoring
             return logProbability;
         }
 
+        /**
+         * Block scoring via precomputed log-probability tables per node, indexed by the candidate bit of the node
+         * and its parent. Subclasses with their own conditional probabilities fall back to per candidate scoring.
+         */
+        @Override
+        public void score(ProbabilityFingerprint fingerprint, FingerprintCandidateBlock block, double[] scores) {
+            if (getClass() != BayesnetScoring.Scorer.class) {
+                FingerblastScoring.super.score(fingerprint, block, scores);
+                return;
+            }
+            if (!preparedProbabilityFingerprint.equals(fingerprint)){
+                throw new RuntimeException("the prepared fingerprint differs from the currently used one.");
+            }
+            final int n = nodeList.length;
+            final int[] childIdx = new int[n], parentIdx = new int[n];
+            //index: (child ? 1 : 0) + (parent ? 2 : 0), roots only use the first two entries
+            final double[] logTable = new double[4 * n];
+            for (int v = 0; v < n; ++v) {
+                final AbstractCorrelationTreeNode node = nodeList[v];
+                final int j = node.getFingerprintIndex();
+                childIdx[v] = j;
+                if (node.numberOfParents() == 0) {
+                    parentIdx[v] = -1;
+                    logTable[4 * v] = Math.log(1d - getProbability(j, false));
+                    logTable[4 * v + 1] = Math.log(getProbability(j, true));
+                } else if (node instanceof CorrelationTreeNode) {
+                    parentIdx[v] = ((CorrelationTreeNode) node).parent.getFingerprintIndex();
+                    for (int a = 0; a < 4; ++a) {
+                        final boolean real = (a & 1) != 0, realParent = (a & 2) != 0;
+                        double score = Math.log(getABCDMatrixEntry(node, real, realParent));
+                        if (allowOnlyNegativeScores && score > 0) score = 0;
+                        logTable[4 * v + node.getArrayIdxForGivenAssignment(real, realParent)] = score;
+                    }
+                } else {
+                    throw new RuntimeException("unknown class for AbstractCorrelationTreeNode");
+                }
+            }
+
+            final long[] words = block.getWords();
+            final int numberOfWords = block.getNumberOfWords();
+            for (int i = 0, offset = 0; i < block.size(); ++i, offset += numberOfWords) {
+                double logProbability = 0d;
+                for (int v = 0; v < n; ++v) {
+                    final int j = childIdx[v], p = parentIdx[v];
+                    int a = (int) (words[offset + (j >>> 6)] >>> j) & 1;
+                    if (p >= 0) a |= ((int) (words[offset + (p >>> 6)] >>> p) & 1) << 1;
+                    logProbability += logTable[4 * v + a];
+                }
+                scores[i] = logProbability;
+            }
+        }
+
 
         protected double conditional(boolean[] databaseEntry, AbstractCorrelationTreeNode x) {
             if (x.numberOfParents()==0){
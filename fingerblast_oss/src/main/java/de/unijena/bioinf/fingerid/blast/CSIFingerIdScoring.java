@@ -120,4 +120,42 @@ public class CSIFingerIdScoring implements FingerblastScoring<ProbabilityFingerp
         }
         return score;
     }
+
+    /**
+     * Block scoring: the score of a candidate is the score of the empty fingerprint plus, for each set bit,
+     * the difference between the set and the unset contribution of this bit. So only the set bits of each
+     * candidate have to be visited.
+     */
+    @Override
+    public void score(ProbabilityFingerprint fingerprint, FingerprintCandidateBlock block, double[] scores) {
+        if (!fingerprint.getFingerprintVersion().equals(block.getFingerprintVersion()))
+            throw new RuntimeException("Fingerprints are not compatible");
+        final double[] probabilities = fingerprint.toProbabilityArray();
+        final double[] delta = new double[probabilities.length];
+        double emptyScore = 0d;
+        for (int k = 0; k < probabilities.length; ++k) {
+            if (performances[k].getF() < threshold || performances[k].getSmallerClassSize() < minSamples) continue;
+            if (probabilities[k] >= 0.5) {
+                emptyScore += fp[k];
+                delta[k] = tp[k] - fp[k];
+            } else {
+                emptyScore += tn[k];
+                delta[k] = fn[k] - tn[k];
+            }
+        }
+        final long[] words = block.getWords();
+        final int numberOfWords = block.getNumberOfWords();
+        for (int i = 0, offset = 0; i < block.size(); ++i, offset += numberOfWords) {
+            double score = emptyScore;
+            for (int w = 0; w < numberOfWords; ++w) {
+                long word = words[offset + w];
+                final int base = w << 6;
+                while (word != 0) {
+                    score += delta[base + Long.numberOfTrailingZeros(word)];
+                    word &= word - 1;
+                }
+            }
+            scores[i] = score;
+        }
+    }
 }
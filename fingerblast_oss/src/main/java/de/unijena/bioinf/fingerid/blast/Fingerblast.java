@@ -25,6 +25,7 @@ import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
 import de.unijena.bioinf.ChemistryBase.fp.Fingerprint;
 import de.unijena.bioinf.ChemistryBase.fp.MaskedFingerprintVersion;
 import de.unijena.bioinf.ChemistryBase.fp.ProbabilityFingerprint;
+import de.unijena.bioinf.babelms.CloseableIterator;
 import de.unijena.bioinf.chemdb.ChemicalDatabaseException;
 import de.unijena.bioinf.chemdb.FingerprintCandidate;
 import de.unijena.bioinf.chemdb.SearchStructureByFormula;
@@ -32,16 +33,23 @@ import de.unijena.bioinf.jjobs.BasicJJob;
 import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.jjobs.Partition;
 import de.unijena.bioinf.ms.properties.PropertyManager;
+import gnu.trove.map.hash.TIntObjectHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
 import java.util.stream.Collectors;
 
 public class Fingerblast<P> {
+    /**
+     * Number of candidates that are decoded and scored at once when streaming candidates.
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
 
     private SearchStructureByFormula searchEngine;
     private FingerblastScoringMethod<? extends FingerblastScoring<P>> scoringMethod;
@@ -72,6 +80,20 @@ public class Fingerblast<P> {
         return score(candidates, fingerprint, parameter);
     }
 
+    /**
+     * Streams the candidates of the given formula from the search engine and keeps only the k best ones.
+     * At most k candidates plus one chunk of {@link #DEFAULT_CHUNK_SIZE} decoded candidates are held in memory.
+     */
+    public List<Scored<FingerprintCandidate>> searchTopK(@NotNull MolecularFormula formula, @NotNull ProbabilityFingerprint fingerprint, @Nullable P parameter, int k) throws ChemicalDatabaseException {
+        final FingerblastScoring<P> scorer = scoringMethod.getScoring();
+        scorer.prepare(parameter);
+        try (final CloseableIterator<FingerprintCandidate> candidates = searchEngine.streamStructuresAndFingerprintsByFormula(formula)) {
+            return scoreTopK(scorer, candidates, fingerprint, k, DEFAULT_CHUNK_SIZE);
+        } catch (IOException e) {
+            throw new ChemicalDatabaseException(e);
+        }
+    }
+
     public List<Scored<FingerprintCandidate>> score(@NotNull List<FingerprintCandidate> candidates, @NotNull ProbabilityFingerprint fingerprint, @Nullable P parameter) throws ChemicalDatabaseException {
         //this would make the P parameter obsolete
         final FingerblastScoring<P> scorer = scoringMethod.getScoring();
@@ -92,6 +114,73 @@ public class Fingerblast<P> {
         return results;
     }
 
+    public List<Scored<FingerprintCandidate>> scoreTopK(@NotNull List<FingerprintCandidate> candidates, @NotNull ProbabilityFingerprint fingerprint, @Nullable P parameter, int k) {
+        final FingerblastScoring<P> scorer = scoringMethod.getScoring();
+        scorer.prepare(parameter);
+        final FingerprintCandidateBlock block = FingerprintCandidateBlock.of(fingerprint.getFingerprintVersion(), candidates);
+        return toScoredCandidates(block, scoreTopK(scorer, block, fingerprint, k));
+    }
+
+    /**
+     * Scores a whole block of candidates at once and keeps only the k best (indices into the block) without
+     * creating intermediate candidate or {@link Scored} objects.
+     */
+    public static <P> TopKIndexScores scoreTopK(@NotNull final FingerblastScoring<P> preparedScorer, @NotNull final FingerprintCandidateBlock block, @NotNull final ProbabilityFingerprint fingerprint, int k) {
+        final double[] scores = new double[block.size()];
+        preparedScorer.score(fingerprint, block, scores);
+        final TopKIndexScores topK = new TopKIndexScores(Math.min(k, block.size()));
+        topK.offerAll(scores, 0, scores.length);
+        return topK;
+    }
+
+    /**
+     * Scores the candidates chunk by chunk while consuming the iterator and keeps only the k best candidates (sorted by descending score).
+     * Candidates that do not make it into the current top k are dropped directly after their chunk has been scored.
+     */
+    public static <P> List<Scored<FingerprintCandidate>> scoreTopK(@NotNull final FingerblastScoring<P> preparedScorer, @NotNull final Iterator<FingerprintCandidate> candidates, @NotNull final ProbabilityFingerprint fingerprint, int k, int chunkSize) {
+        final TopKIndexScores topK = new TopKIndexScores(k);
+        final TIntObjectHashMap<FingerprintCandidate> retained = new TIntObjectHashMap<>(Math.max(k, 10));
+        final ArrayList<FingerprintCandidate> chunk = new ArrayList<>(chunkSize);
+        final double[] scores = new double[chunkSize];
+        int offset = 0;
+        while (candidates.hasNext()) {
+            chunk.add(candidates.next());
+            if (chunk.size() < chunkSize && candidates.hasNext())
+                continue;
+
+            final FingerprintCandidateBlock block = FingerprintCandidateBlock.of(fingerprint.getFingerprintVersion(), chunk);
+            preparedScorer.score(fingerprint, block, scores);
+            for (int i = 0; i < block.size(); ++i) {
+                final int evicted = topK.getMinimumIndex();
+                if (topK.offer(offset + i, scores[i])) {
+                    if (evicted >= 0) retained.remove(evicted);
+                    retained.put(offset + i, block.getMaskedCandidate(i));
+                }
+            }
+            offset += chunk.size();
+            chunk.clear();
+        }
+
+        final int[] indices = topK.getIndices();
+        final double[] topScores = topK.getScores();
+        final ArrayList<Scored<FingerprintCandidate>> results = new ArrayList<>(indices.length);
+        for (int i = 0; i < indices.length; ++i)
+            results.add(new Scored<>(retained.get(indices[i]), topScores[i]));
+        return results;
+    }
+
+    /**
+     * Materializes the selected candidates of a block, sorted by descending score.
+     */
+    public static List<Scored<FingerprintCandidate>> toScoredCandidates(@NotNull final FingerprintCandidateBlock block, @NotNull final TopKIndexScores topK) {
+        final int[] indices = topK.getIndices();
+        final double[] scores = topK.getScores();
+        final ArrayList<Scored<FingerprintCandidate>> results = new ArrayList<>(indices.length);
+        for (int i = 0; i < indices.length; ++i)
+            results.add(new Scored<>(block.getMaskedCandidate(indices[i]), scores[i]));
+        return results;
+    }
+
 
     public static <P> List<JJob<List<Scored<FingerprintCandidate>>>> makeScoringJobs(@NotNull final FingerblastScoring<P> preparedScorer, @NotNull final Collection<FingerprintCandidate> candidates, @NotNull final ProbabilityFingerprint fingerprint) {
         final List<List<FingerprintCandidate>> inputs = Partition.ofNumber(candidates, PropertyManager.getNumberOfThreads());
@@ -105,4 +194,22 @@ public class Fingerblast<P> {
                 }
         ).collect(Collectors.toList());
     }
+
+    /**
+     * Like {@link #makeScoringJobs(FingerblastScoring, Collection, ProbabilityFingerprint)} but every job streams its
+     * partition chunk by chunk and only returns its k best candidates. The k best candidates of all jobs contain the
+     * k best candidates of the whole collection.
+     */
+    public static <P> List<JJob<List<Scored<FingerprintCandidate>>>> makeTopKScoringJobs(@NotNull final FingerblastScoring<P> preparedScorer, @NotNull final Collection<FingerprintCandidate> candidates, @NotNull final ProbabilityFingerprint fingerprint, int k) {
+        final List<List<FingerprintCandidate>> inputs = Partition.ofNumber(candidates, PropertyManager.getNumberOfThreads());
+
+        return inputs.stream().map(can ->
+                new BasicJJob<List<Scored<FingerprintCandidate>>>(JJob.JobType.CPU) {
+                    @Override
+                    protected List<Scored<FingerprintCandidate>> compute() {
+                        return scoreTopK(preparedScorer, can.iterator(), fingerprint, Math.min(k, can.size()), DEFAULT_CHUNK_SIZE);
+                    }
+                }
+        ).collect(Collectors.toList());
+    }
 }
@@ -45,6 +45,15 @@ public interface FingerblastScoring<Parameter> {
 
     double score(ProbabilityFingerprint fingerprint, Fingerprint databaseEntry);
 
+    /**
+     * Scores all candidates of the given block and writes the scores into the given array (same order as the block).
+     * Implementations may override this with a bit-parallel evaluation on the packed words of the block.
+     */
+    default void score(ProbabilityFingerprint fingerprint, FingerprintCandidateBlock block, double[] scores) {
+        for (int i = 0; i < block.size(); ++i)
+            scores[i] = score(fingerprint, block.getFingerprint(i));
+    }
+
     double getThreshold();
 
     void setThreshold(double threshold);
@@ -0,0 +1,145 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.fingerid.blast;
+
+import de.unijena.bioinf.ChemistryBase.fp.ArrayFingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.Fingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.FingerprintVersion;
+import de.unijena.bioinf.ChemistryBase.fp.MaskedFingerprintVersion;
+import de.unijena.bioinf.chemdb.FingerprintCandidate;
+import gnu.trove.list.array.TShortArrayList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Columnar, bit-packed representation of a list of {@link FingerprintCandidate}s.
+ * The fingerprints of all candidates are masked once by the given {@link FingerprintVersion}
+ * and stored as consecutive blocks of long words. Bit k of a candidate corresponds to the
+ * k-th (relative) index of the version.
+ */
+public class FingerprintCandidateBlock {
+
+    protected final FingerprintVersion version;
+    protected final List<FingerprintCandidate> candidates;
+    protected final int numberOfBits, numberOfWords;
+    protected final long[] words;
+
+    protected FingerprintCandidateBlock(FingerprintVersion version, List<FingerprintCandidate> candidates, long[] words) {
+        this.version = version;
+        this.candidates = candidates;
+        this.numberOfBits = version.size();
+        this.numberOfWords = wordsFor(numberOfBits);
+        this.words = words;
+    }
+
+    public static FingerprintCandidateBlock of(@NotNull FingerprintVersion version, @NotNull Collection<FingerprintCandidate> candidates) {
+        final int numberOfWords = wordsFor(version.size());
+        final long[] words = new long[numberOfWords * candidates.size()];
+        int offset = 0;
+        for (FingerprintCandidate c : candidates) {
+            for (short absoluteIndex : c.getFingerprint().toIndizesArray()) {
+                if (!version.hasProperty(absoluteIndex)) continue;
+                final int k = version.getRelativeIndexOf(absoluteIndex);
+                if (k < 0) continue;
+                words[offset + (k >>> 6)] |= 1L << k;
+            }
+            offset += numberOfWords;
+        }
+        return new FingerprintCandidateBlock(version, new ArrayList<>(candidates), words);
+    }
+
+    static int wordsFor(int numberOfBits) {
+        return (numberOfBits + 63) >>> 6;
+    }
+
+    public FingerprintVersion getFingerprintVersion() {
+        return version;
+    }
+
+    public int size() {
+        return candidates.size();
+    }
+
+    public int getNumberOfBits() {
+        return numberOfBits;
+    }
+
+    public int getNumberOfWords() {
+        return numberOfWords;
+    }
+
+    /**
+     * @return the backing word array. Candidate i occupies the words [i*getNumberOfWords(), (i+1)*getNumberOfWords()).
+     * The array must not be modified.
+     */
+    public long[] getWords() {
+        return words;
+    }
+
+    public boolean isSet(int candidateIndex, int relativeIndex) {
+        return (words[candidateIndex * numberOfWords + (relativeIndex >>> 6)] & (1L << relativeIndex)) != 0;
+    }
+
+    public int cardinality(int candidateIndex) {
+        int count = 0;
+        for (int i = candidateIndex * numberOfWords, n = i + numberOfWords; i < n; ++i)
+            count += Long.bitCount(words[i]);
+        return count;
+    }
+
+    public FingerprintCandidate getCandidate(int candidateIndex) {
+        return candidates.get(candidateIndex);
+    }
+
+    public List<FingerprintCandidate> getCandidates() {
+        return candidates;
+    }
+
+    /**
+     * @return the fingerprint of the given candidate in the version of this block.
+     */
+    public Fingerprint getFingerprint(int candidateIndex) {
+        final Fingerprint fp = candidates.get(candidateIndex).getFingerprint();
+        if (!(version instanceof MaskedFingerprintVersion) || fp.getFingerprintVersion().equals(version))
+            return fp;
+        final TShortArrayList indizes = new TShortArrayList(cardinality(candidateIndex));
+        final int offset = candidateIndex * numberOfWords;
+        for (int w = 0; w < numberOfWords; ++w) {
+            long word = words[offset + w];
+            while (word != 0) {
+                final int k = (w << 6) + Long.numberOfTrailingZeros(word);
+                indizes.add((short) version.getAbsoluteIndexOf(k));
+                word &= word - 1;
+            }
+        }
+        return new ArrayFingerprint(version, indizes.toArray());
+    }
+
+    /**
+     * @return the candidate with its fingerprint masked by the version of this block
+     */
+    public FingerprintCandidate getMaskedCandidate(int candidateIndex) {
+        return new FingerprintCandidate(candidates.get(candidateIndex), getFingerprint(candidateIndex));
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.fingerid.blast;
+
+import java.util.Arrays;
+
+/**
+ * Bounded selection of the k best (index, score) pairs without boxing.
+ * Internally a min-heap on primitive arrays. Ties are broken by the smaller index, so the result
+ * is identical to a stable descending sort of all scores cut after k elements.
+ */
+public class TopKIndexScores {
+
+    protected final int k;
+    protected final int[] indices;
+    protected final double[] scores;
+    protected int size;
+
+    public TopKIndexScores(int k) {
+        if (k < 0) throw new IllegalArgumentException("k must not be negative: " + k);
+        this.k = k;
+        this.indices = new int[k];
+        this.scores = new double[k];
+        this.size = 0;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size >= k;
+    }
+
+    /**
+     * @return the smallest score that is currently part of the top k or negative infinity if less than k elements were offered.
+     */
+    public double getMinimumScore() {
+        return isFull() && k > 0 ? scores[0] : Double.NEGATIVE_INFINITY;
+    }
+
+    /**
+     * @return the index belonging to {@link #getMinimumScore()}, i.e. the index that is evicted by the next accepted offer
+     * if the top k is full. -1 if the top k is not full yet.
+     */
+    public int getMinimumIndex() {
+        return isFull() && k > 0 ? indices[0] : -1;
+    }
+
+    /**
+     * @return true if the pair is part of the current top k
+     */
+    public boolean offer(int index, double score) {
+        if (size < k) {
+            indices[size] = index;
+            scores[size] = score;
+            siftUp(size++);
+            return true;
+        }
+        if (k == 0 || !isWorse(indices[0], scores[0], index, score)) return false;
+        indices[0] = index;
+        scores[0] = score;
+        siftDown(0);
+        return true;
+    }
+
+    public void offerAll(double[] scores, int offset, int length) {
+        for (int i = 0; i < length; ++i) offer(offset + i, scores[i]);
+    }
+
+    /**
+     * @return indices of the top k sorted by descending score
+     */
+    public int[] getIndices() {
+        final int[] order = sortedHeapPositions();
+        final int[] result = new int[order.length];
+        for (int i = 0; i < order.length; ++i) result[i] = indices[order[i]];
+        return result;
+    }
+
+    /**
+     * @return scores of the top k sorted descending
+     */
+    public double[] getScores() {
+        final int[] order = sortedHeapPositions();
+        final double[] result = new double[order.length];
+        for (int i = 0; i < order.length; ++i) result[i] = scores[order[i]];
+        return result;
+    }
+
+    private int[] sortedHeapPositions() {
+        final Integer[] order = new Integer[size];
+        for (int i = 0; i < size; ++i) order[i] = i;
+        Arrays.sort(order, (a, b) -> isWorse(indices[a], scores[a], indices[b], scores[b]) ? 1 : (isWorse(indices[b], scores[b], indices[a], scores[a]) ? -1 : 0));
+        final int[] result = new int[size];
+        for (int i = 0; i < size; ++i) result[i] = order[i];
+        return result;
+    }
+
+    /*
+    true if (i,a) is ranked behind (j,b)
+     */
+    private static boolean isWorse(int i, double a, int j, double b) {
+        final int c = Double.compare(a, b);
+        return c < 0 || (c == 0 && i > j);
+    }
+
+    private void siftUp(int pos) {
+        while (pos > 0) {
+            final int parent = (pos - 1) >>> 1;
+            if (!isWorse(indices[pos], scores[pos], indices[parent], scores[parent])) break;
+            swap(pos, parent);
+            pos = parent;
+        }
+    }
+
+    private void siftDown(int pos) {
+        while (true) {
+            final int left = 2 * pos + 1;
+            if (left >= size) break;
+            final int right = left + 1;
+            int worst = left;
+            if (right < size && isWorse(indices[right], scores[right], indices[left], scores[left])) worst = right;
+            if (!isWorse(indices[worst], scores[worst], indices[pos], scores[pos])) break;
+            swap(pos, worst);
+            pos = worst;
+        }
+    }
+
+    private void swap(int a, int b) {
+        final int i = indices[a];
+        indices[a] = indices[b];
+        indices[b] = i;
+        final double s = scores[a];
+        scores[a] = scores[b];
+        scores[b] = s;
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.fingerid.blast;
+
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.Scored;
+import de.unijena.bioinf.ChemistryBase.chem.InChI;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.fp.*;
+import de.unijena.bioinf.chemdb.ChemicalDatabaseException;
+import de.unijena.bioinf.chemdb.FingerprintCandidate;
+import de.unijena.bioinf.chemdb.SearchStructureByFormula;
+import gnu.trove.list.array.TShortArrayList;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class FingerprintCandidateBlockTest {
+
+    private static final int NUMBER_OF_PROPERTIES = 150;
+
+    @Test
+    public void testBlockScoringEqualsCandidateScoring() {
+        final Random r = new Random(42);
+        final MaskedFingerprintVersion.Builder b = MaskedFingerprintVersion.buildMaskFor(new TestFingerprintVersion(NUMBER_OF_PROPERTIES));
+        for (int i = 0; i < NUMBER_OF_PROPERTIES; ++i) b.set(i, i % 7 != 0);
+        final MaskedFingerprintVersion mask = b.toMask();
+
+        final PredictionPerformance[] performances = new PredictionPerformance[mask.size()];
+        for (int i = 0; i < performances.length; ++i)
+            performances[i] = new PredictionPerformance(10 + r.nextInt(100), r.nextInt(50), 100 + r.nextInt(100), r.nextInt(50));
+        final double[] probabilities = new double[mask.size()];
+        for (int i = 0; i < probabilities.length; ++i) probabilities[i] = r.nextDouble();
+        final ProbabilityFingerprint query = new ProbabilityFingerprint(mask, probabilities);
+
+        final List<FingerprintCandidate> candidates = new ArrayList<>();
+        for (int c = 0; c < 200; ++c) {
+            final TShortArrayList indizes = new TShortArrayList();
+            for (short i = 0; i < NUMBER_OF_PROPERTIES; ++i) if (r.nextDouble() < 0.3) indizes.add(i);
+            candidates.add(new FingerprintCandidate(new InChI("KEY" + c, "InChI=" + c), new ArrayFingerprint(mask.getMaskedFingerprintVersion(), indizes.toArray())));
+        }
+
+        final CSIFingerIdScoring scoring = new CSIFingerIdScoring(performances);
+        scoring.prepare(query);
+
+        final List<Scored<FingerprintCandidate>> expected = Fingerblast.score(scoring, candidates, query);
+        final FingerprintCandidateBlock block = FingerprintCandidateBlock.of(mask, candidates);
+        final List<Scored<FingerprintCandidate>> topK = Fingerblast.toScoredCandidates(block, Fingerblast.scoreTopK(scoring, block, query, 20));
+
+        Assert.assertEquals(20, topK.size());
+        for (int i = 0; i < topK.size(); ++i) {
+            Assert.assertEquals(expected.get(i).getScore(), topK.get(i).getScore(), 1e-9);
+            Assert.assertArrayEquals(expected.get(i).getCandidate().getFingerprint().toIndizesArray(), topK.get(i).getCandidate().getFingerprint().toIndizesArray());
+        }
+    }
+
+    @Test
+    public void testSearchTopKEqualsSearch() throws ChemicalDatabaseException {
+        final Random r = new Random(13);
+        final TestFingerprintVersion version = new TestFingerprintVersion(NUMBER_OF_PROPERTIES);
+        final MaskedFingerprintVersion.Builder b = MaskedFingerprintVersion.buildMaskFor(version);
+        b.enableAll();
+        final MaskedFingerprintVersion mask = b.toMask();
+
+        final PredictionPerformance[] performances = new PredictionPerformance[mask.size()];
+        for (int i = 0; i < performances.length; ++i)
+            performances[i] = new PredictionPerformance(10 + r.nextInt(100), r.nextInt(50), 100 + r.nextInt(100), r.nextInt(50));
+        final double[] probabilities = new double[mask.size()];
+        for (int i = 0; i < probabilities.length; ++i) probabilities[i] = r.nextDouble();
+        final ProbabilityFingerprint query = new ProbabilityFingerprint(mask, probabilities);
+
+        final List<FingerprintCandidate> candidates = new ArrayList<>();
+        for (int c = 0; c < 300; ++c) {
+            final TShortArrayList indizes = new TShortArrayList();
+            for (short i = 0; i < NUMBER_OF_PROPERTIES; ++i) if (r.nextDouble() < 0.3) indizes.add(i);
+            candidates.add(new FingerprintCandidate(new InChI("KEY" + c, "InChI=" + c), new ArrayFingerprint(mask.getMaskedFingerprintVersion(), indizes.toArray())));
+        }
+
+        final SearchStructureByFormula searchEngine = new SearchStructureByFormula() {
+            @Override
+            public <T extends Collection<FingerprintCandidate>> T lookupStructuresAndFingerprintsByFormula(MolecularFormula formula, T result) {
+                result.addAll(candidates);
+                return result;
+            }
+        };
+        final CSIFingerIdScoring scoring = new CSIFingerIdScoring(performances);
+        final Fingerblast<ProbabilityFingerprint> fingerblast = new Fingerblast<ProbabilityFingerprint>(() -> scoring, searchEngine);
+        final MolecularFormula formula = MolecularFormula.parseOrThrow("C6H12O6");
+
+        final List<Scored<FingerprintCandidate>> expected = fingerblast.search(formula, query, query);
+        final List<Scored<FingerprintCandidate>> topK = fingerblast.searchTopK(formula, query, query, 25);
+        assertSameTopK(expected, topK, 25);
+
+        // candidates spread over several chunks
+        scoring.prepare(query);
+        assertSameTopK(expected, Fingerblast.scoreTopK(scoring, candidates.iterator(), query, 25, 16), 25);
+    }
+
+    private static void assertSameTopK(List<Scored<FingerprintCandidate>> expected, List<Scored<FingerprintCandidate>> topK, int k) {
+        Assert.assertEquals(k, topK.size());
+        for (int i = 0; i < topK.size(); ++i) {
+            Assert.assertEquals(expected.get(i).getScore(), topK.get(i).getScore(), 1e-9);
+            Assert.assertEquals(expected.get(i).getCandidate().getInchi().key, topK.get(i).getCandidate().getInchi().key);
+        }
+    }
+
+    @Test
+    public void testTopKIndexScores() {
+        final Random r = new Random(7);
+        final double[] scores = new double[1000];
+        for (int i = 0; i < scores.length; ++i) scores[i] = r.nextInt(50);
+        final TopKIndexScores topK = new TopKIndexScores(100);
+        topK.offerAll(scores, 0, scores.length);
+
+        final List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < scores.length; ++i) order.add(i);
+        order.sort(Comparator.comparingDouble((Integer i) -> -scores[i]));
+
+        final int[] indices = topK.getIndices();
+        Assert.assertEquals(100, indices.length);
+        for (int i = 0; i < indices.length; ++i)
+            Assert.assertEquals(order.get(i).intValue(), indices[i]);
+    }
+
+    static class TestFingerprintVersion extends FingerprintVersion {
+        final int numberOfProperties;
+
+        TestFingerprintVersion(int numberOfProperties) {
+            this.numberOfProperties = numberOfProperties;
+        }
+
+        @Override
+        public MolecularProperty getMolecularProperty(int index) {
+            return null;
+        }
+
+        @Override
+        public int size() {
+            return numberOfProperties;
+        }
+
+        @Override
+        public boolean compatible(FingerprintVersion fingerprintVersion) {
+            return fingerprintVersion instanceof TestFingerprintVersion;
+        }
+
+        @Override
+        public boolean identical(FingerprintVersion fingerprintVersion) {
+            return fingerprintVersion instanceof TestFingerprintVersion && ((TestFingerprintVersion) fingerprintVersion).numberOfProperties == numberOfProperties;
+        }
+    }
+}
@@ -32,18 +32,43 @@ import de.unijena.bioinf.projectspace.FormulaResult;
 import gnu.trove.list.array.TShortArrayList;
 import org.jetbrains.annotations.Nullable;
 
-import java.io.DataInputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
+import java.io.*;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.stream.Collectors;
 
+import static de.unijena.bioinf.projectspace.fingerid.FBCandidatesBinarySerializer.readVarInt;
+import static de.unijena.bioinf.projectspace.fingerid.FBCandidatesBinarySerializer.writeVarInt;
 import static de.unijena.bioinf.projectspace.fingerid.FingerIdLocations.FINGERBLAST_FPs;
+import static de.unijena.bioinf.projectspace.fingerid.FingerIdLocations.FINGERBLAST_FPs_BINARY;
 
 public class FBCandidateFingerprintSerializer implements ComponentSerializer<FormulaResultId, FormulaResult, FBCandidateFingerprints> {
     protected List<Fingerprint> readFingerprints(ProjectReader reader, FormulaResultId id, FormulaResult container) throws IOException {
+        //read fingerprints from packed binary
+        if (reader.exists(FINGERBLAST_FPs_BINARY.relFilePath(id))) {
+            final FingerIdData fingerIdData = reader.getProjectSpaceProperty(FingerIdDataProperty.class)
+                    .map(p -> p.getByIonType(id.getIonType())).orElseThrow();
+
+            final FBCandidateNumber numC = id.getAnnotation(FBCandidateNumber.class).orElse(FBCandidateNumber.ALL);
+            return reader.binaryFile(FINGERBLAST_FPs_BINARY.relFilePath(id), br -> {
+                final DataInputStream dis = new DataInputStream(new BufferedInputStream(br));
+                final int n = dis.readInt();
+                final int k = numC.value <= 0 ? n : Math.min(n, numC.value);
+                final List<Fingerprint> fps = new ArrayList<>(k);
+                for (int i = 0; i < k; ++i) {
+                    // indices are sorted and stored as deltas
+                    final short[] indices = new short[readVarInt(dis)];
+                    int index = 0;
+                    for (int j = 0; j < indices.length; ++j) {
+                        index += readVarInt(dis);
+                        indices[j] = (short) index;
+                    }
+                    fps.add(new ArrayFingerprint(fingerIdData.getFingerprintVersion(), indices));
+                }
+                return fps;
+            });
+        }
         //read fingerprints from binary
         if (reader.exists(FINGERBLAST_FPs.relFilePath(id))) {
             final FingerIdData fingerIdData = reader.getProjectSpaceProperty(FingerIdDataProperty.class)
@@ -83,6 +108,26 @@ public class FBCandidateFingerprintSerializer implements ComponentSerializer<For
     public void write(ProjectWriter writer, FormulaResultId id, FormulaResult container, Optional<FBCandidateFingerprints> component) throws IOException {
         final FBCandidateFingerprints candidatefps = component.orElseThrow(() -> new IllegalArgumentException("Could not find CandidateFingerprints to write for ID: " + id));
 
+        if (FBCandidateFormat.isBinary(writer)) {
+            writer.binaryFile(FINGERBLAST_FPs_BINARY.relFilePath(id), (w) -> {
+                final DataOutputStream da = new DataOutputStream(new BufferedOutputStream(w));
+                final List<Fingerprint> fps = candidatefps.getFingerprints();
+                da.writeInt(fps.size());
+                for (Fingerprint fp : fps) {
+                    final short[] fpIdx = fp.toIndizesArray();
+                    writeVarInt(da, fpIdx.length);
+                    int last = 0;
+                    for (short idx : fpIdx) {
+                        writeVarInt(da, idx - last);
+                        last = idx;
+                    }
+                }
+                da.flush();
+            });
+            writer.deleteIfExists(FINGERBLAST_FPs.relFilePath(id));
+            return;
+        }
+
         writer.binaryFile(FINGERBLAST_FPs.relFilePath(id), (w) -> {
             try (DataOutputStream da = new DataOutputStream(w)) {
                 List<short[]> fpIdxs = candidatefps.getFingerprints().stream()
@@ -96,11 +141,13 @@ public class FBCandidateFingerprintSerializer implements ComponentSerializer<For
                 }
             }
         });
+        writer.deleteIfExists(FINGERBLAST_FPs_BINARY.relFilePath(id));
     }
 
     @Override
     public void delete(ProjectWriter writer, FormulaResultId id) throws IOException {
         writer.deleteIfExists(FINGERBLAST_FPs.relFilePath(id));
+        writer.deleteIfExists(FINGERBLAST_FPs_BINARY.relFilePath(id));
     }
 
     @Override
@@ -0,0 +1,88 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+
+package de.unijena.bioinf.projectspace.fingerid;
+
+import de.unijena.bioinf.projectspace.*;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+
+import static de.unijena.bioinf.projectspace.fingerid.FingerIdLocations.FINGERBLAST_FORMAT;
+
+/**
+ * Storage layout of structure candidates and their fingerprints within a project-space.
+ * {@link Layout#TSV} is human readable, {@link Layout#BINARY} is a compact columnar layout that is much faster to
+ * read, especially if only the top candidates are needed. Projects without this property use {@link Layout#TSV}.
+ * The property is only available if it is defined in the {@link ProjectSpaceConfiguration} with {@link Serializer},
+ * otherwise candidates are always written as {@link Layout#TSV}.
+ */
+public class FBCandidateFormat implements ProjectSpaceProperty {
+    public enum Layout {TSV, BINARY}
+
+    public static final FBCandidateFormat TSV = new FBCandidateFormat(Layout.TSV);
+    public static final FBCandidateFormat BINARY = new FBCandidateFormat(Layout.BINARY);
+
+    @NotNull
+    public final Layout layout;
+
+    public FBCandidateFormat(@NotNull Layout layout) {
+        this.layout = layout;
+    }
+
+    public boolean isBinary() {
+        return layout == Layout.BINARY;
+    }
+
+    /**
+     * The property file can only exist if the configuration of the project defines this property, so it is only
+     * looked up if the file exists. Looking up an undefined property would fail.
+     */
+    static boolean isBinary(ProjectIO io) throws IOException {
+        return io.exists(FINGERBLAST_FORMAT)
+                && io.getProjectSpaceProperty(FBCandidateFormat.class).map(FBCandidateFormat::isBinary).orElse(false);
+    }
+
+    public static class Serializer implements ComponentSerializer<ProjectSpaceContainerId, ProjectSpaceContainer<ProjectSpaceContainerId>, FBCandidateFormat> {
+        @Override
+        public FBCandidateFormat read(ProjectReader reader, ProjectSpaceContainerId id, ProjectSpaceContainer<ProjectSpaceContainerId> container) throws IOException {
+            if (!reader.exists(FINGERBLAST_FORMAT))
+                return null;
+            final String layout = reader.keyValues(FINGERBLAST_FORMAT).get("layout");
+            return layout == null ? null : new FBCandidateFormat(Layout.valueOf(layout));
+        }
+
+        @Override
+        public void write(ProjectWriter writer, ProjectSpaceContainerId id, ProjectSpaceContainer<ProjectSpaceContainerId> container, Optional<FBCandidateFormat> optProp) throws IOException {
+            if (optProp.isPresent()) {
+                writer.deleteIfExists(FINGERBLAST_FORMAT);
+                writer.keyValues(FINGERBLAST_FORMAT, Map.of("layout", optProp.get().layout.name()));
+            }
+        }
+
+        @Override
+        public void delete(ProjectWriter writer, ProjectSpaceContainerId id) throws IOException {
+            writer.deleteIfExists(FINGERBLAST_FORMAT);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+
+package de.unijena.bioinf.projectspace.fingerid;
+
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.Scored;
+import de.unijena.bioinf.ChemistryBase.chem.InChIs;
+import de.unijena.bioinf.chemdb.CompoundCandidate;
+import de.unijena.bioinf.chemdb.DBLink;
+import de.unijena.bioinf.chemdb.PubmedLinks;
+import de.unijena.bioinf.chemdb.custom.CustomDataSources;
+import de.unijena.bioinf.fingerid.blast.FBCandidates;
+import de.unijena.bioinf.projectspace.*;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+import static de.unijena.bioinf.projectspace.fingerid.FingerIdLocations.FINGERBLAST_BINARY;
+
+/**
+ * Stores structure candidates in a compact columnar binary layout:
+ * <pre>
+ * magic, version, number of candidates
+ * dictionary of all database names
+ * columns: score, tanimoto, xlogp, db flags (fixed width), inchikey, inchi, name, smiles, pubmed ids, db links
+ * </pre>
+ * Every column is prefixed with its length in bytes. Strings are stored as UTF-8 bytes prefixed with their length, so
+ * they are not limited to the 64 KB of {@link DataOutput#writeUTF(String)}. Reading the top k candidates only decodes
+ * the first k entries of each column and skips the remaining bytes.
+ */
+public class FBCandidatesBinarySerializer implements ComponentSerializer<FormulaResultId, FormulaResult, FBCandidates> {
+    private static final int MAGIC = 0x46424331; // "FBC1"
+    private static final int VERSION = 2;
+
+    protected ArrayList<Scored<CompoundCandidate>> readCandidates(ProjectReader reader, FormulaResultId id, FormulaResult container) throws IOException {
+        if (!reader.exists(FINGERBLAST_BINARY.relFilePath(id)))
+            return null;
+        final FBCandidateNumber numC = id.getAnnotation(FBCandidateNumber.class).orElse(FBCandidateNumber.ALL);
+
+        return reader.binaryFile(FINGERBLAST_BINARY.relFilePath(id), stream -> {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Unknown candidate format in '" + FINGERBLAST_BINARY.relFilePath(id) + "'.");
+            final int n = in.readInt();
+            final int k = numC.value <= 0 ? n : Math.min(n, numC.value);
+
+            // db flags are resolved once per database instead of once per link
+            final String[] dbNames = new String[in.readInt()];
+            final long[] dbFlags = new long[dbNames.length];
+            for (int i = 0; i < dbNames.length; ++i) {
+                dbNames[i] = readUTF8(in);
+                if (CustomDataSources.containsDB(dbNames[i]))
+                    dbFlags[i] = CustomDataSources.getDBFlagsFromNames(List.of(dbNames[i]));
+                else
+                    LoggerFactory.getLogger(getClass()).warn("Importing Unmatched DB flag '" + dbNames[i] + "'. This might be due to an Custom DB that is not available.");
+            }
+
+            final double[] scores = readDoubles(in, n, k);
+            final double[] tanimotos = readDoubles(in, n, k);
+            final double[] xlogps = readDoubles(in, n, k);
+            final long[] bits = readLongs(in, n, k);
+            final String[] inchikeys = readStrings(in, k);
+            final String[] inchis = readStrings(in, k);
+            final String[] names = readStrings(in, k);
+            final String[] smiles = readStrings(in, k);
+
+            final ArrayList<Scored<CompoundCandidate>> results = new ArrayList<>(k);
+            final CompoundCandidate[] candidates = new CompoundCandidate[k];
+            for (int i = 0; i < k; ++i) {
+                final CompoundCandidate candidate = new CompoundCandidate(InChIs.newInChI(inchikeys[i], inchis[i]));
+                candidate.setName(names[i]);
+                candidate.setSmiles(smiles[i]);
+                candidate.setXlogp(xlogps[i]);
+                candidate.setTanimoto(Double.isNaN(tanimotos[i]) ? null : tanimotos[i]);
+                candidates[i] = candidate;
+                results.add(new Scored<>(candidate, scores[i]));
+            }
+
+            try (final DataInputStream pubmed = readColumn(in)) {
+                for (int i = 0; i < k; ++i) {
+                    final int[] ids = new int[readVarInt(pubmed)];
+                    for (int j = 0; j < ids.length; ++j)
+                        ids[j] = readVarInt(pubmed);
+                    candidates[i].setPubmedIDs(new PubmedLinks(ids));
+                }
+            }
+
+            try (final DataInputStream links = readColumn(in)) {
+                for (int i = 0; i < k; ++i) {
+                    final int numberOfLinks = readVarInt(links);
+                    final ArrayList<DBLink> dbLinks = new ArrayList<>(numberOfLinks);
+                    long bitset = bits[i];
+                    for (int j = 0; j < numberOfLinks; ++j) {
+                        final int db = readVarInt(links);
+                        dbLinks.add(new DBLink(dbNames[db], links.readBoolean() ? readUTF8(links) : null));
+                        bitset |= dbFlags[db];
+                    }
+                    candidates[i].setLinks(dbLinks);
+                    candidates[i].setBitset(bitset);
+                }
+            }
+            return results;
+        });
+    }
+
+    @Override
+    public FBCandidates read(ProjectReader reader, FormulaResultId id, FormulaResult container) throws IOException {
+        final ArrayList<Scored<CompoundCandidate>> c = readCandidates(reader, id, container);
+        return c == null ? null : new FBCandidates(c);
+    }
+
+    @Override
+    public void write(ProjectWriter writer, FormulaResultId id, FormulaResult container, Optional<FBCandidates> optFingeridResult) throws IOException {
+        final FBCandidates fingerblastResult = optFingeridResult.orElseThrow(() -> new IllegalArgumentException("Could not find FingerIdResult to write for ID: " + id));
+        final List<Scored<CompoundCandidate>> hits = fingerblastResult.getResults();
+        final int n = hits.size();
+
+        final TObjectIntHashMap<String> dictionary = new TObjectIntHashMap<>(16, 0.75f, -1);
+        final List<String> dbNames = new ArrayList<>();
+        for (Scored<CompoundCandidate> hit : hits)
+            for (DBLink link : hit.getCandidate().getLinks())
+                if (dictionary.putIfAbsent(link.name, dbNames.size()) < 0)
+                    dbNames.add(link.name);
+
+        writer.binaryFile(FINGERBLAST_BINARY.relFilePath(id), stream -> {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(n);
+            out.writeInt(dbNames.size());
+            for (String name : dbNames)
+                writeUTF8(out, name);
+
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            final DataOutputStream column = new DataOutputStream(buffer);
+            for (Scored<CompoundCandidate> hit : hits) column.writeDouble(hit.getScore());
+            writeColumn(out, buffer);
+            for (Scored<CompoundCandidate> hit : hits) {
+                final Double tanimoto = hit.getCandidate().getTanimoto();
+                column.writeDouble(tanimoto == null ? Double.NaN : tanimoto);
+            }
+            writeColumn(out, buffer);
+            for (Scored<CompoundCandidate> hit : hits) column.writeDouble(hit.getCandidate().getXlogp());
+            writeColumn(out, buffer);
+            //We remove custom db bits since they are only valid ad runtime and user dependent.
+            for (Scored<CompoundCandidate> hit : hits)
+                column.writeLong(CustomDataSources.removeCustomSourceFromFlag(hit.getCandidate().getBitset()));
+            writeColumn(out, buffer);
+            for (Scored<CompoundCandidate> hit : hits) writeString(column, hit.getCandidate().getInchiKey2D());
+            writeColumn(out, buffer);
+            for (Scored<CompoundCandidate> hit : hits) writeString(column, hit.getCandidate().getInchi().in2D);
+            writeColumn(out, buffer);
+            for (Scored<CompoundCandidate> hit : hits) writeString(column, hit.getCandidate().getName());
+            writeColumn(out, buffer);
+            for (Scored<CompoundCandidate> hit : hits) writeString(column, hit.getCandidate().getSmiles());
+            writeColumn(out, buffer);
+            for (Scored<CompoundCandidate> hit : hits) {
+                final PubmedLinks pubmed = hit.getCandidate().getPubmedIDs();
+                final int[] ids = pubmed == null ? new int[0] : pubmed.getCopyOfPubmedIDs();
+                writeVarInt(column, ids.length);
+                for (int pid : ids) writeVarInt(column, pid);
+            }
+            writeColumn(out, buffer);
+            for (Scored<CompoundCandidate> hit : hits) {
+                final List<DBLink> links = hit.getCandidate().getLinks();
+                writeVarInt(column, links.size());
+                for (DBLink link : links) {
+                    writeVarInt(column, dictionary.get(link.name));
+                    column.writeBoolean(link.id != null);
+                    if (link.id != null)
+                        writeUTF8(column, link.id);
+                }
+            }
+            writeColumn(out, buffer);
+            out.flush();
+        });
+    }
+
+    @Override
+    public void delete(ProjectWriter writer, FormulaResultId id) throws IOException {
+        writer.deleteIfExists(FINGERBLAST_BINARY.relFilePath(id));
+    }
+
+    @Override
+    public void deleteAll(ProjectWriter writer) throws IOException {
+        writer.deleteIfExists(FINGERBLAST_BINARY.relDir());
+    }
+
+    private static void writeColumn(DataOutputStream out, ByteArrayOutputStream column) throws IOException {
+        out.writeInt(column.size());
+        column.writeTo(out);
+        column.reset();
+    }
+
+    /**
+     * reads a complete column into memory without decoding it
+     */
+    private static DataInputStream readColumn(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    private static double[] readDoubles(DataInputStream in, int n, int k) throws IOException {
+        final int length = in.readInt();
+        final double[] values = new double[k];
+        for (int i = 0; i < k; ++i) values[i] = in.readDouble();
+        skipFully(in, length - 8L * k);
+        return values;
+    }
+
+    private static long[] readLongs(DataInputStream in, int n, int k) throws IOException {
+        final int length = in.readInt();
+        final long[] values = new long[k];
+        for (int i = 0; i < k; ++i) values[i] = in.readLong();
+        skipFully(in, length - 8L * k);
+        return values;
+    }
+
+    private static String[] readStrings(DataInputStream in, int k) throws IOException {
+        try (final DataInputStream column = readColumn(in)) {
+            final String[] values = new String[k];
+            for (int i = 0; i < k; ++i)
+                values[i] = column.readBoolean() ? readUTF8(column) : null;
+            return values;
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            writeUTF8(out, value);
+    }
+
+    static void writeUTF8(DataOutput out, String value) throws IOException {
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static String readUTF8(DataInput in) throws IOException {
+        final byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static void skipFully(DataInputStream in, long bytes) throws IOException {
+        while (bytes > 0) {
+            final int skipped = in.skipBytes((int) Math.min(Integer.MAX_VALUE, bytes));
+            if (skipped <= 0) {
+                in.readByte(); // throws EOFException at the end of the stream
+                --bytes;
+            } else bytes -= skipped;
+        }
+    }
+
+    static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(DataInput in) throws IOException {
+        int value = 0, shift = 0;
+        byte b;
+        do {
+            b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
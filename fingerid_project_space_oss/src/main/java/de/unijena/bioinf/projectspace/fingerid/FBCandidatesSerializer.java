@@ -41,10 +41,18 @@ import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import static de.unijena.bioinf.projectspace.fingerid.FingerIdLocations.FINGERBLAST;
+import static de.unijena.bioinf.projectspace.fingerid.FingerIdLocations.FINGERBLAST_BINARY;
 
+/**
+ * Reads candidates from whichever layout is present and writes them in the layout selected by {@link FBCandidateFormat}.
+ */
 public class FBCandidatesSerializer implements ComponentSerializer<FormulaResultId, FormulaResult, FBCandidates> {
     public static final List<Class<? extends SerializerParameter>> supportedParameters = List.of(FBCandidateNumber.class);
+    private final FBCandidatesBinarySerializer binarySerializer = new FBCandidatesBinarySerializer();
+
     protected ArrayList<Scored<CompoundCandidate>> readCandidates(ProjectReader reader, FormulaResultId id, FormulaResult container) throws IOException {
+        if (reader.exists(FINGERBLAST_BINARY.relFilePath(id)))
+            return binarySerializer.readCandidates(reader, id, container);
         if (!reader.exists(FINGERBLAST.relFilePath(id)))
             return null;
 
@@ -123,6 +131,11 @@ public class FBCandidatesSerializer implements ComponentSerializer<FormulaResult
 
     @Override
     public void write(ProjectWriter writer, FormulaResultId id, FormulaResult container, Optional<FBCandidates> optFingeridResult) throws IOException {
+        if (FBCandidateFormat.isBinary(writer)) {
+            binarySerializer.write(writer, id, container, optFingeridResult);
+            writer.deleteIfExists(FINGERBLAST.relFilePath(id));
+            return;
+        }
         final FBCandidates fingerblastResult = optFingeridResult.orElseThrow(() -> new IllegalArgumentException("Could not find FingerIdResult to write for ID: " + id));
 
         final String[] header = new String[]{
@@ -146,12 +159,13 @@ public class FBCandidatesSerializer implements ComponentSerializer<FormulaResult
             row[11] = String.valueOf(CustomDataSources.removeCustomSourceFromFlag(c.getBitset())); //We remove custom db bits since they are only valid ad runtime and user dependent.
             return row;
         })::iterator);
-
+        binarySerializer.delete(writer, id);
     }
 
     @Override
     public void delete(ProjectWriter writer, FormulaResultId id) throws IOException {
         writer.deleteIfExists(FINGERBLAST.relFilePath(id));
+        binarySerializer.delete(writer, id);
     }
 
     @Override
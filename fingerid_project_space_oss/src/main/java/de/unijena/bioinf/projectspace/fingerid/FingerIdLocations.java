@@ -27,9 +27,12 @@ public interface FingerIdLocations {
     Location
             FINGERBLAST = new Location("fingerid", "tsv", FormulaResultId::fileName),
             FINGERBLAST_FPs = new Location("fingerid", "fps", FormulaResultId::fileName),
+            FINGERBLAST_BINARY = new Location("fingerid", "fbc", FormulaResultId::fileName),
+            FINGERBLAST_FPs_BINARY = new Location("fingerid", "fpp", FormulaResultId::fileName),
             FINGERPRINTS = new Location("fingerprints", "fpt", FormulaResultId::fileName);
 
     String
             FINGERID_CLIENT_DATA = "csi_fingerid.tsv",
-            FINGERID_CLIENT_DATA_NEG = "csi_fingerid_neg.tsv";
+            FINGERID_CLIENT_DATA_NEG = "csi_fingerid_neg.tsv",
+            FINGERBLAST_FORMAT = ".fingerblast.format";
 }
@@ -0,0 +1,217 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace.fingerid;
+
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.Scored;
+import de.unijena.bioinf.ChemistryBase.chem.InChI;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.fp.ArrayFingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.CdkFingerprintVersion;
+import de.unijena.bioinf.ChemistryBase.fp.Fingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.MaskedFingerprintVersion;
+import de.unijena.bioinf.ChemistryBase.fp.PredictionPerformance;
+import de.unijena.bioinf.chemdb.CompoundCandidate;
+import de.unijena.bioinf.chemdb.DBLink;
+import de.unijena.bioinf.chemdb.DataSource;
+import de.unijena.bioinf.chemdb.PubmedLinks;
+import de.unijena.bioinf.fingerid.blast.FBCandidateFingerprints;
+import de.unijena.bioinf.fingerid.blast.FBCandidates;
+import de.unijena.bioinf.ms.rest.model.fingerid.FingerIdData;
+import de.unijena.bioinf.projectspace.*;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Function;
+
+import static de.unijena.bioinf.projectspace.fingerid.FingerIdLocations.*;
+
+public class FBCandidatesBinarySerializerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private FormulaResultId id;
+    private FingerIdData fingerIdData;
+    private PathProjectSpaceIOProvider provider;
+
+    @Before
+    public void setUp() throws IOException {
+        final SiriusProjectSpace space = new ProjectSpaceIO(new ProjectSpaceConfiguration())
+                .createNewProjectSpace(tmp.newFolder("project").toPath(), false);
+        final CompoundContainerId cid = space.newUniqueCompoundId("compound", idx -> idx + "_compound").orElseThrow();
+        space.close();
+
+        id = new FormulaResultId(cid, MolecularFormula.parseOrThrow("C6H13O6"), PrecursorIonType.getPrecursorIonType("[M+H]+"));
+        fingerIdData = new FingerIdData(MaskedFingerprintVersion.allowAll(CdkFingerprintVersion.getDefault()), new PredictionPerformance[0]);
+        provider = new PathProjectSpaceIOProvider(tmp.newFolder("io").toPath(), null);
+        // the format is only looked up if its property file exists
+        new FBCandidateFormat.Serializer().write(provider.newWriter(properties(null)), null, null, Optional.of(FBCandidateFormat.BINARY));
+    }
+
+    @Test
+    public void testUnregisteredFormatWritesTsv() throws IOException {
+        final Path root = tmp.newFolder("unregistered").toPath();
+        final SiriusProjectSpace space = new ProjectSpaceIO(new ProjectSpaceConfiguration()).createNewProjectSpace(root, false);
+        try {
+            final PathProjectSpaceIOProvider spaceProvider = new PathProjectSpaceIOProvider(root, null);
+            new FBCandidatesSerializer().write(spaceProvider.newWriter(space::getProjectSpaceProperty), id, null, Optional.of(new FBCandidates(makeCandidates())));
+            final ProjectReader reader = spaceProvider.newReader(space::getProjectSpaceProperty);
+            Assert.assertTrue(reader.exists(FINGERBLAST.relFilePath(id)));
+            Assert.assertFalse(reader.exists(FINGERBLAST_BINARY.relFilePath(id)));
+        } finally {
+            space.close();
+        }
+    }
+
+    @Test
+    public void testCandidatesRoundTrip() throws IOException {
+        final List<Scored<CompoundCandidate>> candidates = makeCandidates();
+        final FBCandidatesSerializer serializer = new FBCandidatesSerializer();
+        serializer.write(provider.newWriter(properties(FBCandidateFormat.BINARY)), id, null, Optional.of(new FBCandidates(candidates)));
+
+        final ProjectReader reader = provider.newReader(properties(FBCandidateFormat.BINARY));
+        Assert.assertTrue(reader.exists(FINGERBLAST_BINARY.relFilePath(id)));
+        Assert.assertFalse(reader.exists(FINGERBLAST.relFilePath(id)));
+
+        final List<Scored<CompoundCandidate>> read = serializer.read(reader, id, null).getResults();
+        Assert.assertEquals(candidates.size(), read.size());
+        for (int i = 0; i < candidates.size(); ++i)
+            assertCandidateEquals(candidates.get(i), read.get(i));
+
+        // top k read only decodes the first candidates
+        id.setAnnotation(FBCandidateNumber.class, new FBCandidateNumber(2));
+        final List<Scored<CompoundCandidate>> topK = serializer.read(reader, id, null).getResults();
+        Assert.assertEquals(2, topK.size());
+        for (int i = 0; i < topK.size(); ++i)
+            assertCandidateEquals(candidates.get(i), topK.get(i));
+    }
+
+    @Test
+    public void testStringsLongerThan64KB() throws IOException {
+        final List<Scored<CompoundCandidate>> candidates = makeCandidates();
+        final String longName = "\u00e4-ring".repeat(10_000);
+        candidates.get(0).getCandidate().setName(longName);
+        candidates.get(0).getCandidate().setLinks(List.of(new DBLink(DataSource.PUBCHEM.realName(), longName)));
+
+        final FBCandidatesSerializer serializer = new FBCandidatesSerializer();
+        serializer.write(provider.newWriter(properties(FBCandidateFormat.BINARY)), id, null, Optional.of(new FBCandidates(candidates)));
+        final List<Scored<CompoundCandidate>> read = serializer.read(provider.newReader(properties(FBCandidateFormat.BINARY)), id, null).getResults();
+        Assert.assertEquals(candidates.size(), read.size());
+        for (int i = 0; i < candidates.size(); ++i)
+            assertCandidateEquals(candidates.get(i), read.get(i));
+    }
+
+    @Test
+    public void testCandidatesWithoutFormatAreWrittenAsTsv() throws IOException {
+        new FBCandidatesSerializer().write(provider.newWriter(properties(null)), id, null, Optional.of(new FBCandidates(makeCandidates())));
+        final ProjectReader reader = provider.newReader(properties(null));
+        Assert.assertTrue(reader.exists(FINGERBLAST.relFilePath(id)));
+        Assert.assertFalse(reader.exists(FINGERBLAST_BINARY.relFilePath(id)));
+    }
+
+    @Test
+    public void testPackedFingerprintsRoundTrip() throws IOException {
+        final List<Fingerprint> fps = new ArrayList<>();
+        final CdkFingerprintVersion version = fingerIdData.getCdkFingerprintVersion();
+        fps.add(new ArrayFingerprint(version, new short[]{0, 3, 200, 1500}));
+        fps.add(new ArrayFingerprint(version, new short[0]));
+        fps.add(new ArrayFingerprint(version, new short[]{127, 128, 1000, (short) (version.size() - 1)}));
+
+        final FBCandidateFingerprintSerializer serializer = new FBCandidateFingerprintSerializer();
+        serializer.write(provider.newWriter(properties(FBCandidateFormat.BINARY)), id, null, Optional.of(new FBCandidateFingerprints(fps)));
+
+        final ProjectReader reader = provider.newReader(properties(FBCandidateFormat.BINARY));
+        Assert.assertTrue(reader.exists(FINGERBLAST_FPs_BINARY.relFilePath(id)));
+        Assert.assertFalse(reader.exists(FINGERBLAST_FPs.relFilePath(id)));
+
+        final List<Fingerprint> read = serializer.read(reader, id, null).getFingerprints();
+        Assert.assertEquals(fps.size(), read.size());
+        for (int i = 0; i < fps.size(); ++i)
+            Assert.assertArrayEquals(fps.get(i).toIndizesArray(), read.get(i).toIndizesArray());
+    }
+
+    private Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> properties(FBCandidateFormat format) {
+        final FingerIdDataProperty data = new FingerIdDataProperty(fingerIdData, fingerIdData);
+        return klass -> {
+            if (klass.equals(FingerIdDataProperty.class))
+                return Optional.of(data);
+            if (klass.equals(FBCandidateFormat.class))
+                return Optional.ofNullable(format);
+            return Optional.empty();
+        };
+    }
+
+    private static List<Scored<CompoundCandidate>> makeCandidates() {
+        final List<Scored<CompoundCandidate>> candidates = new ArrayList<>();
+        final CompoundCandidate glucose = new CompoundCandidate(new InChI("WQZGKKKJIJFFOK-UHFFFAOYSA-N", "InChI=1S/C6H12O6/c7-1-2-3(8)4(9)5(10)6(11)12-2/h2-11H,1H2"));
+        glucose.setName("glucose");
+        glucose.setSmiles("C(C1C(C(C(C(O1)O)O)O)O)O");
+        glucose.setXlogp(-2.6);
+        glucose.setTanimoto(0.75);
+        glucose.setPubmedIDs(new PubmedLinks(1, 300, 70000));
+        glucose.setLinks(List.of(new DBLink(DataSource.PUBCHEM.realName(), "5793"), new DBLink(DataSource.PUBCHEM.realName(), null)));
+        glucose.setBitset(DataSource.PUBCHEM.flag());
+        candidates.add(new Scored<>(glucose, -12.5));
+
+        final CompoundCandidate fructose = new CompoundCandidate(new InChI("RFSUNEUAIZKAJO-UHFFFAOYSA-N", "InChI=1S/C6H12O6/c7-1-3-4(9)5(10)6(11,2-8)12-3/h3-5,7-11H,1-2H2"));
+        fructose.setName(null);
+        fructose.setSmiles("C1C(C(C(O1)(CO)O)O)O");
+        fructose.setXlogp(-3.1);
+        fructose.setTanimoto(null);
+        fructose.setPubmedIDs(new PubmedLinks());
+        fructose.setLinks(new ArrayList<>());
+        candidates.add(new Scored<>(fructose, -20));
+
+        final CompoundCandidate inositol = new CompoundCandidate(new InChI("CDAISMWEOUEBRE-UHFFFAOYSA-N", "InChI=1S/C6H12O6/c7-1-2(8)4(10)6(12)5(11)3(1)9/h1-12H"));
+        inositol.setName("inositol");
+        inositol.setSmiles("C1(C(C(C(C(C1O)O)O)O)O)O");
+        inositol.setXlogp(Double.NaN);
+        inositol.setTanimoto(0.1);
+        inositol.setPubmedIDs(new PubmedLinks(42));
+        inositol.setLinks(List.of(new DBLink(DataSource.PUBCHEM.realName(), "892")));
+        inositol.setBitset(DataSource.PUBCHEM.flag());
+        candidates.add(new Scored<>(inositol, -25));
+        return candidates;
+    }
+
+    private static void assertCandidateEquals(Scored<CompoundCandidate> expected, Scored<CompoundCandidate> actual) {
+        Assert.assertEquals(expected.getScore(), actual.getScore(), 0d);
+        final CompoundCandidate e = expected.getCandidate(), a = actual.getCandidate();
+        Assert.assertEquals(e.getInchiKey2D(), a.getInchiKey2D());
+        Assert.assertEquals(e.getInchi().in2D, a.getInchi().in2D);
+        Assert.assertEquals(e.getName(), a.getName());
+        Assert.assertEquals(e.getSmiles(), a.getSmiles());
+        Assert.assertEquals(e.getXlogp(), a.getXlogp(), 0d);
+        Assert.assertEquals(e.getTanimoto(), a.getTanimoto());
+        Assert.assertArrayEquals(e.getPubmedIDs().getCopyOfPubmedIDs(), a.getPubmedIDs().getCopyOfPubmedIDs());
+        Assert.assertEquals(e.getLinks(), a.getLinks());
+        Assert.assertEquals(e.getBitset(), a.getBitset());
+    }
+}
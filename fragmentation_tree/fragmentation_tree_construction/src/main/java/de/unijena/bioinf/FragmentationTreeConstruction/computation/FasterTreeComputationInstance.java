@@ -44,10 +44,12 @@ import de.unijena.bioinf.sirius.ProcessedInput;
 import de.unijena.bioinf.sirius.annotations.DecompositionList;
 import de.unijena.bioinf.sirius.annotations.SpectralRecalibration;
 import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
@@ -183,7 +185,16 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
 
         //we do not resolve here anymore -> because we need unresolved trees to expand adducts for fingerid
         final List<FTree> trees = Arrays.stream(results).map(r -> fixIonization(r.tree)).collect(Collectors.toList());
-        return new FinalResult(trees);
+        return new FinalResult(trees, getCostStatistics());
+    }
+
+    /**
+     * @return predicted vs. measured solving times of the trees computed by this instance, per tree builder
+     */
+    public Map<String, TreeComputationCostModel.Statistics> getCostStatistics() {
+        final Map<String, TreeComputationCostModel.Statistics> statistics = new LinkedHashMap<>();
+        costObservations.forEach((solver, observations) -> statistics.put(solver, observations.getStatistics()));
+        return statistics;
     }
 
     private FTree fixIonization(FTree tree) {
@@ -237,7 +248,7 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
             if (tss != null) tss.fastReplace(pinput, new TreeSizeScorer.TreeSizeBonus(treeSize));
             results.clear();
             final TreeBuilder builder = useHeuristic ? getHeuristicTreeBuilder() : analyzer.getTreeBuilder();
-            final List<TreeComputationJob> jobs = decompositions.stream().filter(d -> !Double.isInfinite(d.getScore())).map(d -> (TreeComputationJob) new TreeComputationJob(builder, null, d).withEndTime(getEndTime()).withTimeLimit(millisPerTree)).collect(Collectors.toList());
+            final List<TreeComputationJob> jobs = scheduleTreeComputations(builder, decompositions);
             checkForInterruption();
             submitSubJobsInBatches(jobs, SiriusJobs.getCPUThreads() * 4).forEach(JJob::takeResult);
 
@@ -252,13 +263,14 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
 
 //            int counter = 0;
             for (TreeComputationJob job : jobs) {
-                results.add(job.awaitResult());
+                results.addAll(job.awaitResult());
                 checkForInterruption();
                 /*if (++counter % 100 == 0) {
                     checkForInterruption();
                     checkTimeout();
                 }*/
             }
+            LoggerFactory.getLogger(FasterTreeComputationInstance.class).debug("Tree computation cost model: " + TreeComputationCostModel.forTreeBuilder(builder).getStatistics());
             results.sort(Collections.reverseOrder());
             final int treeSizeCheck = Math.min(results.size(), MIN_NUMBER_OF_TREES_CHECK_FOR_INTENSITY);
             if (tss == null || checkForTreeQuality(results.subList(0, treeSizeCheck))) {
@@ -360,6 +372,49 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
         return recalibrated;
     }
 
+    /**
+     * Creates the tree computation jobs ordered by their predicted solving time, most expensive graphs first, such that
+     * a single large graph does not end up as long tail. Graphs which are predicted to be cheap are batched into
+     * a single job. Graph sizes are estimated in the first round and known exactly in the following tree size rounds.
+     */
+    private List<TreeComputationJob> scheduleTreeComputations(TreeBuilder builder, List<Decomposition> decompositions) {
+        final TreeComputationCostModel costModel = TreeComputationCostModel.forTreeBuilder(builder);
+        final List<Decomposition> todo = new ArrayList<>(decompositions.size());
+        final TObjectDoubleHashMap<Decomposition> predictions = new TObjectDoubleHashMap<>(decompositions.size());
+        for (Decomposition d : decompositions) {
+            if (Double.isInfinite(d.getScore())) continue;
+            final TreeComputationCostModel.GraphSize size = graphSizes.get(d);
+            predictions.put(d, costModel.predictSeconds(size != null ? size : costModel.estimateGraphSize(pinput, d)));
+            todo.add(d);
+        }
+        todo.sort(Comparator.comparingDouble(predictions::get).reversed());
+
+        // do not batch so much that we end up with fewer jobs than we can compute in parallel
+        final int maxBatchSize = Math.max(1, Math.min(MAX_TREES_PER_JOB, todo.size() / (4 * SiriusJobs.getCPUThreads())));
+        final List<TreeComputationJob> jobs = new ArrayList<>();
+        List<Decomposition> batch = new ArrayList<>();
+        double batchSeconds = 0d;
+        for (Decomposition d : todo) {
+            batch.add(d);
+            batchSeconds += predictions.get(d);
+            if (batchSeconds >= MIN_SECONDS_PER_JOB || batch.size() >= maxBatchSize) {
+                jobs.add(newTreeComputationJob(builder, batch, predictions));
+                batch = new ArrayList<>();
+                batchSeconds = 0d;
+            }
+        }
+        if (!batch.isEmpty())
+            jobs.add(newTreeComputationJob(builder, batch, predictions));
+        return jobs;
+    }
+
+    private TreeComputationJob newTreeComputationJob(TreeBuilder builder, List<Decomposition> batch, TObjectDoubleHashMap<Decomposition> predictions) {
+        final double[] predictedSeconds = new double[batch.size()];
+        for (int k = 0; k < predictedSeconds.length; ++k)
+            predictedSeconds[k] = predictions.get(batch.get(k));
+        return (TreeComputationJob) new TreeComputationJob(builder, null, batch, predictedSeconds).withEndTime(getEndTime()).withTimeLimit(millisPerTree * batch.size());
+    }
+
     private void revertTreeSizeIncrease(ExactResult[] exact, double orig) {
         //pinput.setAnnotation(TreeSizeScorer.TreeSizeBonus.class, new TreeSizeScorer.TreeSizeBonus(orig));
         for (ExactResult r : exact) {
@@ -439,7 +494,8 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
             final ProcessedInput input = template.input == null ? pinput : template.input;
             final FGraph graph = treeBuilder instanceof ExtendedCriticalPathHeuristicTreeBuilder ? analyzer.buildGraphWithoutReduction(pinput, template.decomposition) : analyzer.buildGraph(pinput, template.decomposition);
             checkForInterruption();
-            final TreeBuilder.Result tree = treeBuilder.computeTree().withMultithreading(1).withTimeLimit(Math.min(restTimeSec(), secsPerTree))/*.withMinimalScore(template.score - 1e-3).withTemplate(template.tree)*/.solve(pinput, graph);
+            // the tree of the previous round is still a feasible solution and serves as MIP start
+            final TreeBuilder.Result tree = treeBuilder.computeTree().withMultithreading(1).withTimeLimit(Math.min(restTimeSec(), secsPerTree)).withTemplate(template.tree)/*.withMinimalScore(template.score - 1e-3)*/.solve(pinput, graph);
             checkForInterruption();
             analyzer.makeTreeReleaseReady(input, graph, tree.tree, tree.mapping);
             checkForInterruption();
@@ -471,41 +527,64 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
         }
     }
 
-    protected class TreeComputationJob extends BasicJJob<ExactResult> {
+    protected class TreeComputationJob extends BasicJJob<List<ExactResult>> {
 
         private TreeBuilder treeBuilder;
         private DoubleEndWeightedQueue2<ExactResult> graphCache;
-        private Decomposition decomposition;
+        private List<Decomposition> decompositions;
+        private double[] predictedSeconds;
 
         public TreeComputationJob(TreeBuilder treeBuilder, DoubleEndWeightedQueue2<ExactResult> graphCache, Decomposition decomposition) {
+            this(treeBuilder, graphCache, Collections.singletonList(decomposition), null);
+        }
+
+        /**
+         * computes the trees of several (small) graphs in a single job
+         * @param predictedSeconds predicted solving time of each graph or null if unknown
+         */
+        public TreeComputationJob(TreeBuilder treeBuilder, DoubleEndWeightedQueue2<ExactResult> graphCache, List<Decomposition> decompositions, double[] predictedSeconds) {
             this.treeBuilder = treeBuilder;
             this.graphCache = graphCache;
-            this.decomposition = decomposition;
+            this.decompositions = decompositions;
+            this.predictedSeconds = predictedSeconds;
         }
 
 
         @Override
-        protected ExactResult compute() throws Exception {
-            final FGraph graph = treeBuilder instanceof ExtendedCriticalPathHeuristicTreeBuilder ? analyzer.buildGraphWithoutReduction(pinput, decomposition) : analyzer.buildGraph(pinput, decomposition);
-            checkForInterruption();
+        protected List<ExactResult> compute() throws Exception {
+            final TreeComputationCostModel costModel = TreeComputationCostModel.forTreeBuilder(treeBuilder);
+            final List<ExactResult> results = new ArrayList<>(decompositions.size());
+            for (int k = 0; k < decompositions.size(); ++k) {
+                final Decomposition decomposition = decompositions.get(k);
+                final FGraph graph = treeBuilder instanceof ExtendedCriticalPathHeuristicTreeBuilder ? analyzer.buildGraphWithoutReduction(pinput, decomposition) : analyzer.buildGraph(pinput, decomposition);
+                checkForInterruption();
 //            System.err.println(Objects.toString(treeBuilder));
-            final FTree tree = treeBuilder.computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).solve(pinput, graph).tree;
-            checkForInterruption();
-            final ExactResult er = new ExactResult(decomposition, null, tree, tree.getTreeWeight());
-            if (graphCache != null) {
-                double score = graphCache.getWeightLowerbound();
-                if (tree.getTreeWeight() > score) {
-                    synchronized (graphCache) {
-                        if (tree.getTreeWeight() > graphCache.getWeightLowerbound()) {
-                            er.graph = graph;
-                            if (!graphCache.add(er, tree.getTreeWeight()))
-                                er.graph = null;
+                final long startTime = System.nanoTime();
+                final FTree tree = treeBuilder.computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).solve(pinput, graph).tree;
+                final double measuredSeconds = (System.nanoTime() - startTime) / 1e9;
+                final TreeComputationCostModel.GraphSize size = TreeComputationCostModel.GraphSize.of(graph);
+                graphSizes.put(decomposition, size);
+                final double predicted = predictedSeconds == null ? costModel.predictSeconds(size) : predictedSeconds[k];
+                costModel.record(size, predicted, measuredSeconds);
+                costObservations.computeIfAbsent(treeBuilder.toString(), TreeComputationCostModel.Observations::new).add(predicted, measuredSeconds);
+                checkForInterruption();
+                final ExactResult er = new ExactResult(decomposition, null, tree, tree.getTreeWeight());
+                if (graphCache != null) {
+                    double score = graphCache.getWeightLowerbound();
+                    if (tree.getTreeWeight() > score) {
+                        synchronized (graphCache) {
+                            if (tree.getTreeWeight() > graphCache.getWeightLowerbound()) {
+                                er.graph = graph;
+                                if (!graphCache.add(er, tree.getTreeWeight()))
+                                    er.graph = null;
+                            }
                         }
                     }
                 }
+                tick();
+                results.add(er);
             }
-            tick();
-            return er;
+            return results;
         }
 
         @Override
@@ -513,12 +592,13 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
             super.cleanup();
             this.treeBuilder = null;
             this.graphCache = null;
-            this.decomposition = null;
+            this.decompositions = null;
+            this.predictedSeconds = null;
         }
 
         @Override
         public String identifier() {
-            return super.identifier() + " | " + experiment.getName() + "@" + experiment.getIonMass() + "m/z | " +decomposition;
+            return super.identifier() + " | " + experiment.getName() + "@" + experiment.getIonMass() + "m/z | " + (decompositions == null ? "" : decompositions.size() == 1 ? decompositions.get(0) : decompositions.size() + " decompositions");
         }
     }
 
@@ -574,7 +654,7 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
         checkForInterruption();
         TreeBuilder.Result finalTree;
         if (recal.tree.getTreeWeight() >= tree.getTreeWeight()) {
-            finalTree = builder == finalBuilder ? recal : finalBuilder.computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).solve(pin, graph);
+            finalTree = builder == finalBuilder ? recal : finalBuilder.computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).withTemplate(recal.tree).solve(pin, graph);
             checkForInterruption();
             //this is to prevent null trees in case the ILP solver fails.
             if (finalTree == null || finalTree.tree == null) {
@@ -592,7 +672,7 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
             pin.setAnnotation(SpectralRecalibration.class, SpectralRecalibration.none());
             final FGraph origGraph = origGraphOrNull == null ? analyzer.buildGraph(pinput, decomp) : origGraphOrNull;
             checkForInterruption();
-            finalTree = finalBuilder.computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).solve(pin, origGraph);
+            finalTree = finalBuilder.computeTree().withTimeLimit(Math.min(restTimeSec(), secsPerTree)).withTemplate(tree).solve(pin, origGraph);
             checkForInterruption();
             //this is to prevent null trees in case the ILP solver fails.
             if (finalTree == null || finalTree.tree == null) {
@@ -612,6 +692,15 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
     protected final FragmentationPatternAnalysis analyzer;
     protected ProcessedInput pinput;
 
+    // graph sizes of the decompositions computed so far, used to schedule the next tree size round
+    protected final ConcurrentHashMap<Decomposition, TreeComputationCostModel.GraphSize> graphSizes = new ConcurrentHashMap<>();
+    // predicted vs. measured solving times of this instance, per tree builder
+    protected final ConcurrentHashMap<String, TreeComputationCostModel.Observations> costObservations = new ConcurrentHashMap<>();
+
+    // trees which are predicted to be cheaper are batched into a single job
+    public static final double MIN_SECONDS_PER_JOB = 0.01d;
+    public static final int MAX_TREES_PER_JOB = 32;
+
     public static final double MAX_TREESIZE = 2.5d;
     public static final double MAX_TREESIZE_INCREASE = 3d;
     public static final double TREE_SIZE_INCREASE = 1d;
@@ -626,20 +715,34 @@ public class FasterTreeComputationInstance extends BasicMasterJJob<FasterTreeCom
     public final static class FinalResult {
         protected final boolean canceledDueToLowScore;
         protected final List<FTree> results;
+        protected final Map<String, TreeComputationCostModel.Statistics> costStatistics;
 
         public FinalResult(List<FTree> results) {
+            this(results, Collections.emptyMap());
+        }
+
+        public FinalResult(List<FTree> results, Map<String, TreeComputationCostModel.Statistics> costStatistics) {
             this.canceledDueToLowScore = false;
             this.results = results;
+            this.costStatistics = costStatistics;
         }
 
         public FinalResult() {
             this.canceledDueToLowScore = true;
             this.results = null;
+            this.costStatistics = Collections.emptyMap();
         }
 
         public List<FTree> getResults() {
             return results;
         }
+
+        /**
+         * @return predicted vs. measured solving times of the computed trees, per tree builder
+         */
+        public Map<String, TreeComputationCostModel.Statistics> getCostStatistics() {
+            return costStatistics;
+        }
     }
 
 
@@ -0,0 +1,190 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.FragmentationTreeConstruction.computation;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.model.Decomposition;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
+import de.unijena.bioinf.sirius.PeakAnnotation;
+import de.unijena.bioinf.sirius.ProcessedInput;
+import de.unijena.bioinf.sirius.ProcessedPeak;
+import de.unijena.bioinf.sirius.annotations.DecompositionList;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Predicts the time for computing a fragmentation tree from the size of its graph (vertices, edges and colors).
+ * There is one model per tree builder, which is trained online with the measured solving times of all instances.
+ * The prediction is used to schedule expensive graphs first and to batch small graphs into a single job.
+ */
+public class TreeComputationCostModel {
+
+    private static final ConcurrentHashMap<String, TreeComputationCostModel> MODELS = new ConcurrentHashMap<>();
+
+    // weight of a new observation in the exponential moving averages
+    private static final double LEARNING_RATE = 0.05d;
+
+    public static TreeComputationCostModel forTreeBuilder(TreeBuilder builder) {
+        return MODELS.computeIfAbsent(builder.toString(), TreeComputationCostModel::new);
+    }
+
+    protected final String solverName;
+    // seconds per cost unit (see GraphSize#costUnits). Initial values are rough guesses which are corrected by the first observations
+    private volatile double secondsPerUnit = 2e-6d;
+    // number of edges relative to the number of vertex pairs
+    private volatile double edgeDensity = 0.25d;
+
+    // statistics of predicted vs. measured solving times
+    private final Observations observations;
+
+    protected TreeComputationCostModel(String solverName) {
+        this.solverName = solverName;
+        this.observations = new Observations(solverName);
+    }
+
+    public double predictSeconds(GraphSize size) {
+        return secondsPerUnit * size.costUnits();
+    }
+
+    /**
+     * estimates the size of the graph for the given decomposition without building it: every peak decomposition that is a
+     * subformula of the candidate will become a vertex, while the number of edges is estimated from the average edge
+     * density of the graphs seen so far.
+     */
+    public GraphSize estimateGraphSize(ProcessedInput input, Decomposition decomposition) {
+        final MolecularFormula candidate = decomposition.getCandidate();
+        final double candidateMass = candidate.getMass();
+        final PeakAnnotation<DecompositionList> decompositions = input.getPeakAnnotationOrThrow(DecompositionList.class);
+        int vertices = 2, colors = 0; // pseudo root and root
+        for (ProcessedPeak peak : input.getMergedPeaks()) {
+            final DecompositionList list = decompositions.get(peak);
+            if (list == null) continue;
+            int explanations = 0;
+            for (Decomposition d : list.getDecompositions()) {
+                final MolecularFormula f = d.getCandidate();
+                if (f.getMass() < candidateMass && candidate.isSubtractable(f))
+                    ++explanations;
+            }
+            if (explanations > 0) {
+                vertices += explanations;
+                ++colors;
+            }
+        }
+        final long edges = Math.max(vertices - 1, Math.round(edgeDensity * vertices * (vertices - 1L) / 2d));
+        return new GraphSize(vertices, edges, colors + 1);
+    }
+
+    /**
+     * adds an observation of the measured solving time for a graph
+     */
+    public void record(GraphSize size, double predictedSeconds, double measuredSeconds) {
+        final double units = Math.max(1d, size.costUnits());
+        final long pairs = size.vertices * (size.vertices - 1L) / 2;
+        synchronized (this) {
+            secondsPerUnit += LEARNING_RATE * (measuredSeconds / units - secondsPerUnit);
+            if (pairs > 0)
+                edgeDensity += LEARNING_RATE * (Math.min(1d, size.edges / (double) pairs) - edgeDensity);
+        }
+        observations.add(predictedSeconds, measuredSeconds);
+    }
+
+    /**
+     * @return predicted vs. measured solving times of all trees computed with this tree builder
+     */
+    public Statistics getStatistics() {
+        return observations.getStatistics();
+    }
+
+    /**
+     * Accumulates predicted vs. measured solving times, e.g. of all trees of a single instance.
+     */
+    public static class Observations {
+        private final String solverName;
+        private long numberOfObservations;
+        private double sumOfPredictedSeconds, sumOfMeasuredSeconds, sumOfSquaredLogErrors;
+
+        public Observations(String solverName) {
+            this.solverName = solverName;
+        }
+
+        public synchronized void add(double predictedSeconds, double measuredSeconds) {
+            ++numberOfObservations;
+            sumOfPredictedSeconds += predictedSeconds;
+            sumOfMeasuredSeconds += measuredSeconds;
+            final double logError = Math.log((predictedSeconds + 1e-4) / (measuredSeconds + 1e-4));
+            sumOfSquaredLogErrors += logError * logError;
+        }
+
+        public synchronized Statistics getStatistics() {
+            return new Statistics(solverName, numberOfObservations, sumOfPredictedSeconds, sumOfMeasuredSeconds,
+                    numberOfObservations == 0 ? 0d : Math.sqrt(sumOfSquaredLogErrors / numberOfObservations));
+        }
+    }
+
+    public static class GraphSize {
+        public final int vertices;
+        public final long edges;
+        public final int colors;
+
+        public GraphSize(int vertices, long edges, int colors) {
+            this.vertices = vertices;
+            this.edges = edges;
+            this.colors = colors;
+        }
+
+        public static GraphSize of(FGraph graph) {
+            return new GraphSize(graph.numberOfVertices(), graph.numberOfEdges(), graph.maxColor() + 1);
+        }
+
+        /**
+         * the ILP has one variable per edge and one constraint per vertex and color. Solving time grows slightly
+         * superlinear with this size
+         */
+        public double costUnits() {
+            final double size = edges + vertices + colors;
+            return size * Math.log(2d + size);
+        }
+    }
+
+    public static class Statistics {
+        public final String solverName;
+        public final long numberOfObservations;
+        public final double predictedSeconds, measuredSeconds;
+        // root mean squared error of log(predicted/measured)
+        public final double rmsLogError;
+
+        private Statistics(String solverName, long numberOfObservations, double predictedSeconds, double measuredSeconds, double rmsLogError) {
+            this.solverName = solverName;
+            this.numberOfObservations = numberOfObservations;
+            this.predictedSeconds = predictedSeconds;
+            this.measuredSeconds = measuredSeconds;
+            this.rmsLogError = rmsLogError;
+        }
+
+        @NotNull
+        @Override
+        public String toString() {
+            return solverName + ": " + numberOfObservations + " trees, predicted " + String.format("%.3f", predictedSeconds) + " s, measured " + String.format("%.3f", measuredSeconds) + " s, rms log error " + String.format("%.3f", rmsLogError);
+        }
+    }
+}
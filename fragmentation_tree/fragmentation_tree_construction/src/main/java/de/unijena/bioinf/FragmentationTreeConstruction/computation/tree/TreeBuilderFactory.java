@@ -56,7 +56,7 @@ public final class TreeBuilderFactory {
 
     private static TreeBuilderFactory INSTANCE = null;
 
-    public enum DefaultBuilder {GUROBI, CPLEX, GLPK, CLP}
+    public enum DefaultBuilder {GUROBI, CPLEX, GLPK, CLP, BNB}
 
     private TreeBuilderFactory() {
     }
@@ -135,6 +135,10 @@ public final class TreeBuilderFactory {
             case CLP:
                 factory = getTreeBuilderFromClass("de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp.CLPSolver");
                 break;
+            case BNB:
+                // pure java exact solver, no native libraries needed
+                factory = BranchAndBoundSolver.Factory;
+                break;
             default:
                 LoggerFactory.getLogger(this.getClass()).warn("TreeBuilder " + builder.toString() + " is Unknown, supported are: " + Arrays.toString(DefaultBuilder.values()), new IllegalArgumentException("Unknown BuilderType!"));
                 return null;
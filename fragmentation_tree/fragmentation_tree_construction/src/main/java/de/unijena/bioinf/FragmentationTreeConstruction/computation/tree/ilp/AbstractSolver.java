@@ -33,7 +33,10 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 /**
  * Created by Spectar on 13.11.2014.
@@ -49,6 +52,9 @@ abstract public class AbstractSolver {
 
     protected TreeBuilder.FluentInterface options;
 
+    // true if the solver returned without error, so the model is in a state where it can be reused
+    protected boolean modelIsReusable = false;
+
     ////////////////////////
     //--- CONSTRUCTORS ---//
     ////////////////////////
@@ -92,7 +98,9 @@ abstract public class AbstractSolver {
      */
     protected void prepareSolver() {
         try {
-            initializeModel();
+            final boolean reuse = reusePooledModel();
+            if (!reuse)
+                initializeModel();
             if (options.getNumberOfCPUS() > 0)
                 setNumberOfCpus(options.getNumberOfCPUS());
             if (options.getTimeLimitsInSeconds() > 0)
@@ -100,13 +108,19 @@ abstract public class AbstractSolver {
             computeOffsets();
             assert (edgeOffsets != null && (edgeOffsets.length != 0 || losses.size() == 0)) : "Edge edgeOffsets were not calculated?!";
 
-            defineVariables();
+            if (!reuse)
+                defineVariables();
             if (options.getTemplate() != null) {
                 setVariableStartValues(options.getTemplate());
             }
 
-            setConstraints();
-            setObjective();
+            if (reuse) {
+                // constraints and objective are up to date, but the minimal score might differ from the previous computation
+                setMinimalScoreConstraints(options.getMinimalScore());
+            } else {
+                setConstraints();
+                setObjective();
+            }
         } catch (Exception e) {
             e.printStackTrace();
             throw new RuntimeException(String.valueOf(e.getMessage()), e);
@@ -115,6 +129,37 @@ abstract public class AbstractSolver {
 
     protected abstract void initializeModel() throws Exception;
 
+    /**
+     * - solvers may keep their model alive after a computation (e.g. one model per thread) and reuse it for the next
+     * graph with the same topology (see {@link #graphTopology()}). This is the common case for recalibration and
+     * tree size increase, where the same graph is recomputed with slightly different edge weights.
+     * - reuse is opt-in: solvers which do not override this method always build a new model.
+     * - if this method returns true, the model is neither initialized nor are variables and constraints defined again.
+     * The implementation has to update the objective coefficients of the reused model to the edge weights of the
+     * current graph before returning.
+     *
+     * @return true if a pooled model is used for this computation
+     */
+    protected boolean reusePooledModel() throws Exception {
+        return false;
+    }
+
+    /**
+     * - the topology of the graph as used by the ILP: number of vertices followed by source, target and color of
+     * every edge in variable order. Two graphs with equal topology only differ in their edge weights.
+     */
+    protected int[] graphTopology() {
+        final int[] topology = new int[1 + 3 * losses.size()];
+        topology[0] = graph.numberOfVertices();
+        int k = 1;
+        for (Loss l : losses) {
+            topology[k++] = l.getSource().getVertexId();
+            topology[k++] = l.getTarget().getVertexId();
+            topology[k++] = l.getTarget().getColor();
+        }
+        return topology;
+    }
+
 
     /**
      * - edgeOffsets will be used to access edges more efficiently
@@ -176,6 +221,7 @@ abstract public class AbstractSolver {
             prepareSolver();
             // get optimal solution (score) if existing
             TreeBuilder.AbortReason c = solveMIP();
+            modelIsReusable = true;
 
             if (c == TreeBuilder.AbortReason.COMPUTATION_CORRECT) {
                 // reconstruct tree after having determined the (possible) optimal solution
@@ -434,6 +480,78 @@ abstract public class AbstractSolver {
 
     private static Logger logger = LoggerFactory.getLogger(AbstractSolver.class);
 
+    /**
+     * A solver model which is kept alive between two computations, together with the graph topology it was built for.
+     */
+    protected static class PooledModel<M> {
+        protected final M model;
+        protected final int[] topology;
+
+        protected PooledModel(M model, int[] topology) {
+            this.model = model;
+            this.topology = topology;
+        }
+
+        protected boolean fits(int[] topology) {
+            return Arrays.equals(this.topology, topology);
+        }
+    }
+
+    /**
+     * A bounded pool of solver models shared by all threads. Models which are evicted from the pool or left in the
+     * pool on {@link #clear()} are disposed.
+     */
+    protected static class ModelPool<P extends PooledModel<?>> {
+        private final ArrayDeque<P> models = new ArrayDeque<>();
+        private final Consumer<P> dispose;
+
+        protected ModelPool(Consumer<P> dispose) {
+            this.dispose = dispose;
+        }
+
+        /**
+         * @return the most recently added model accepted by the filter, which is removed from the pool, or null
+         */
+        protected P take(Predicate<P> filter) {
+            synchronized (models) {
+                final Iterator<P> iterator = models.iterator();
+                while (iterator.hasNext()) {
+                    final P model = iterator.next();
+                    if (filter.test(model)) {
+                        iterator.remove();
+                        return model;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * adds the model to the pool and disposes the least recently added models if the pool exceeds its capacity
+         */
+        protected void offer(P model, int capacity) {
+            final List<P> evicted = new ArrayList<>();
+            synchronized (models) {
+                models.addFirst(model);
+                while (models.size() > capacity)
+                    evicted.add(models.removeLast());
+            }
+            evicted.forEach(dispose);
+        }
+
+        /**
+         * disposes all pooled models. Models currently in use are not affected.
+         */
+        protected void clear() {
+            final List<P> evicted;
+            synchronized (models) {
+                evicted = new ArrayList<>(models);
+                models.clear();
+            }
+            evicted.forEach(dispose);
+        }
+    }
+
     protected static class Stackitem {
         protected final Fragment treeNode;
         protected final Fragment graphNode;
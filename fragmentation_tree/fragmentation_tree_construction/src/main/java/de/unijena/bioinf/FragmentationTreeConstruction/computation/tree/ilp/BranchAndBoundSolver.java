@@ -0,0 +1,680 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp;
+
+import de.unijena.bioinf.ChemistryBase.ms.ft.*;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.treebuilder.ExtendedCriticalPathHeuristicTreeBuilder;
+import de.unijena.bioinf.sirius.ProcessedInput;
+import gnu.trove.list.array.TIntArrayList;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * Exact solver for the maximum colorful subtree problem in pure Java, so no native ILP solver is needed.
+ * <p>
+ * Graphs with few colors are solved by a color-coding dynamic program over subsets of colors
+ * (runtime O(3^colors * edges)). All other graphs are solved by a depth-first branch-and-bound over the edges:
+ * each node either includes or excludes the best candidate edge and is pruned by an upper bound that sums up the best
+ * incoming edge of every color that can still be added. The search is seeded with the critical path heuristic
+ * (and the template tree, if given) as incumbent.
+ * <p>
+ * The worst case runtime of the branch-and-bound is exponential, so for large graphs the time limit should be set.
+ * A minimal score is used for pruning: subtrees whose upper bound is below it are not searched and no tree is returned
+ * if the optimum is below it.
+ */
+public class BranchAndBoundSolver extends AbstractSolver {
+
+    public final static IlpFactory<BranchAndBoundSolver> Factory = new IlpFactory<>() {
+        @Override
+        public BranchAndBoundSolver create(ProcessedInput input, FGraph graph, TreeBuilder.FluentInterface options) {
+            return new BranchAndBoundSolver(graph, input, options);
+        }
+
+        @Override
+        public boolean isThreadSafe() {
+            return true;
+        }
+
+        @Override
+        public String name() {
+            return "BranchAndBound";
+        }
+
+        @Override
+        public void checkSolver() throws ILPSolverException {
+            // pure java, always available
+        }
+    };
+
+    /**
+     * the dynamic program is used if 3^colors * edges is below this value and the number of colors is at most {@link #MAX_DP_COLORS}
+     */
+    public final static double MAX_DP_OPERATIONS = 5e7;
+    public final static int MAX_DP_COLORS = 14;
+
+    private final static double EPSILON = 1e-9;
+
+    protected final double maxDpOperations;
+
+    // edges are indexed by their id in losses
+    protected int[] edgeSource, edgeTarget, edgeColor;
+    protected double[] edgeWeight;
+    protected boolean[] useless;
+    protected int[][] outEdges;
+    protected int[] vertexColor; // compact color of each vertex, -1 for pseudo root
+    protected int numberOfColors;
+
+    protected int[] templateEdges;
+    protected long deadline = Long.MAX_VALUE;
+    protected double minimalScore = Double.NEGATIVE_INFINITY;
+
+    protected double bestScore = Double.NEGATIVE_INFINITY;
+    protected boolean[] bestEdges;
+
+    // branch-and-bound state
+    private boolean[] inTree, colorUsed, excluded, chosen, reachable;
+    private double[] subtreeBound;
+    // lagrangian relaxation of the color constraints
+    private double[] lambda, lagrangianSubtreeBound;
+    private double lambdaSum;
+
+    protected int lagrangianIterations = 100;
+    private long visitedNodes = 0;
+    private boolean aborted = false;
+
+    protected BranchAndBoundSolver(FGraph graph, ProcessedInput input, TreeBuilder.FluentInterface options) {
+        this(graph, input, options, MAX_DP_OPERATIONS);
+    }
+
+    protected BranchAndBoundSolver(FGraph graph, ProcessedInput input, TreeBuilder.FluentInterface options, double maxDpOperations) {
+        super(graph, input, options);
+        this.maxDpOperations = maxDpOperations;
+    }
+
+    @Override
+    protected void setTimeLimitInSeconds(double timeLimitsInSeconds) throws Exception {
+        deadline = System.nanoTime() + (long) (timeLimitsInSeconds * 1e9);
+    }
+
+    @Override
+    protected void setNumberOfCpus(int numberOfCPUS) throws Exception {
+        // single threaded. Parallelism is achieved by computing multiple graphs in parallel
+    }
+
+    @Override
+    protected void initializeModel() throws Exception {
+        // nothing to do
+    }
+
+    @Override
+    protected void defineVariables() throws Exception {
+        final int E = losses.size(), V = graph.numberOfVertices();
+        edgeSource = new int[E];
+        edgeTarget = new int[E];
+        edgeColor = new int[E];
+        edgeWeight = new double[E];
+
+        // compact colors of all vertices except the pseudo root
+        final int[] colorMap = new int[graph.maxColor() + 1];
+        Arrays.fill(colorMap, -1);
+        vertexColor = new int[V];
+        numberOfColors = 0;
+        for (Fragment f : graph) {
+            if (f == graph.getRoot()) {
+                vertexColor[f.getVertexId()] = -1;
+            } else {
+                if (colorMap[f.getColor()] < 0)
+                    colorMap[f.getColor()] = numberOfColors++;
+                vertexColor[f.getVertexId()] = colorMap[f.getColor()];
+            }
+        }
+
+        for (int k = 0; k < E; ++k) {
+            final Loss l = losses.get(k);
+            edgeSource[k] = l.getSource().getVertexId();
+            edgeTarget[k] = l.getTarget().getVertexId();
+            edgeColor[k] = vertexColor[edgeTarget[k]];
+            edgeWeight[k] = l.getWeight();
+        }
+
+        outEdges = new int[V][];
+        for (Fragment f : graph) {
+            final int u = f.getVertexId();
+            outEdges[u] = Arrays.copyOfRange(edgeIds, edgeOffsets[u], edgeOffsets[u] + f.getOutDegree());
+        }
+    }
+
+    @Override
+    protected void setVariableStartValues(int[] usedEdgeIds) throws Exception {
+        templateEdges = usedEdgeIds;
+    }
+
+    @Override
+    protected void setTreeConstraint() throws Exception {
+        // implicitly given by the search
+    }
+
+    @Override
+    protected void setColorConstraint() throws Exception {
+        // implicitly given by the search
+    }
+
+    @Override
+    protected void setMinimalTreeSizeConstraint() throws Exception {
+        // implicitly given by the search
+    }
+
+    @Override
+    protected void setMinimalScoreConstraints(double minimalScore) throws Exception {
+        // used as additional lower bound by the search
+        this.minimalScore = minimalScore;
+    }
+
+    @Override
+    protected void setObjective() throws Exception {
+        // implicitly given by the search
+    }
+
+    @Override
+    protected TreeBuilder.AbortReason solveMIP() throws Exception {
+        if (graph.getRoot().getOutDegree() == 0)
+            return TreeBuilder.AbortReason.NO_SOLUTION;
+
+        final int[] topologicalOrder = topologicalOrder();
+
+        if (numberOfColors <= MAX_DP_COLORS && Math.pow(3, numberOfColors) * losses.size() <= maxDpOperations)
+            solveByColorCoding(topologicalOrder);
+        else
+            solveByBranchAndBound(topologicalOrder);
+
+        if (aborted)
+            return TreeBuilder.AbortReason.TIMEOUT;
+        if (bestEdges == null || bestScore < minimalScore - EPSILON)
+            return TreeBuilder.AbortReason.NO_SOLUTION;
+        return TreeBuilder.AbortReason.COMPUTATION_CORRECT;
+    }
+
+    @Override
+    protected void pastBuildSolution() throws Exception {
+        inTree = colorUsed = excluded = chosen = reachable = null;
+        subtreeBound = lambda = lagrangianSubtreeBound = null;
+    }
+
+    @Override
+    protected boolean[] getVariableAssignment() throws Exception {
+        return bestEdges;
+    }
+
+    @Override
+    protected double getSolverScore() throws Exception {
+        return bestScore;
+    }
+
+    /**
+     * @return vertex ids such that each vertex comes before all of its children
+     */
+    protected int[] topologicalOrder() {
+        final int V = graph.numberOfVertices();
+        final int[] inDegree = new int[V];
+        for (int k = 0; k < edgeTarget.length; ++k)
+            ++inDegree[edgeTarget[k]];
+        final int[] order = new int[V];
+        int head = 0, tail = 0;
+        for (int v = 0; v < V; ++v)
+            if (inDegree[v] == 0) order[tail++] = v;
+        while (head < tail) {
+            final int u = order[head++];
+            for (int e : outEdges[u])
+                if (--inDegree[edgeTarget[e]] == 0)
+                    order[tail++] = edgeTarget[e];
+        }
+        if (tail != V)
+            throw new IllegalArgumentException("Fragmentation graph is not acyclic.");
+        return order;
+    }
+
+    private boolean checkAbort() {
+        if (aborted)
+            return true;
+        if (System.nanoTime() > deadline) {
+            aborted = true;
+        } else if (options.getInterruptionCheck() != null) {
+            try {
+                aborted = options.getInterruptionCheck().call();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return aborted;
+    }
+
+    //region color-coding dynamic program
+
+    /**
+     * W[v][S] is the maximum score of a colorful subtree rooted in v that only uses colors of S.
+     * It is computed bottom up as maximum over the child u of v, the colors S1 used by the subtree of u
+     * and the best tree of v that uses the remaining colors S\S1.
+     */
+    protected void solveByColorCoding(int[] topologicalOrder) {
+        final int V = graph.numberOfVertices(), sets = 1 << numberOfColors, all = sets - 1;
+        final double[][] W = new double[V][];
+        final int[][] choiceEdge = new int[V][];
+        final int[][] choiceSet = new int[V][];
+
+        for (int i = topologicalOrder.length - 1; i >= 0; --i) {
+            final int v = topologicalOrder[i];
+            if (vertexColor[v] < 0) continue;
+            if (checkAbort()) return;
+            final int vbit = 1 << vertexColor[v];
+            final double[] Wv = W[v] = new double[sets];
+            final int[] ce = choiceEdge[v] = new int[sets];
+            final int[] cs = choiceSet[v] = new int[sets];
+            Arrays.fill(ce, -1);
+            for (int S = 0; S < sets; ++S) {
+                if ((S & vbit) == 0) continue;
+                final int rest = S & ~vbit;
+                double best = 0d;
+                for (int e : outEdges[v]) {
+                    final int ubit = 1 << edgeColor[e];
+                    if ((rest & ubit) == 0) continue;
+                    final double[] Wu = W[edgeTarget[e]];
+                    final double w = edgeWeight[e];
+                    final int remaining = rest & ~ubit;
+                    for (int sub = remaining; ; sub = (sub - 1) & remaining) {
+                        final int S1 = sub | ubit;
+                        final double value = Wu[S1] + w + Wv[S & ~S1];
+                        if (value > best) {
+                            best = value;
+                            ce[S] = e;
+                            cs[S] = S1;
+                        }
+                        if (sub == 0) break;
+                    }
+                }
+                Wv[S] = best;
+            }
+        }
+
+        int bestRootEdge = -1;
+        for (int e : outEdges[graph.getRoot().getVertexId()]) {
+            final double score = edgeWeight[e] + W[edgeTarget[e]][all];
+            if (score > bestScore) {
+                bestScore = score;
+                bestRootEdge = e;
+            }
+        }
+        if (bestRootEdge < 0)
+            return;
+
+        bestEdges = new boolean[losses.size()];
+        bestEdges[bestRootEdge] = true;
+        final TIntArrayList stack = new TIntArrayList();
+        stack.add(edgeTarget[bestRootEdge]);
+        stack.add(all);
+        while (!stack.isEmpty()) {
+            int S = stack.removeAt(stack.size() - 1);
+            final int v = stack.removeAt(stack.size() - 1);
+            while (choiceEdge[v][S] >= 0) {
+                final int e = choiceEdge[v][S], S1 = choiceSet[v][S];
+                bestEdges[e] = true;
+                stack.add(edgeTarget[e]);
+                stack.add(S1);
+                S &= ~S1;
+            }
+        }
+    }
+
+    //endregion
+
+    //region branch-and-bound
+
+    protected void solveByBranchAndBound(int[] topologicalOrder) {
+        final int V = graph.numberOfVertices(), E = losses.size();
+
+        // upper bound for the score of any subtree: sum over colors of the best incoming edge
+        final double[] bestPerColor = new double[numberOfColors];
+        for (int e = 0; e < E; ++e)
+            if (edgeColor[e] >= 0)
+                bestPerColor[edgeColor[e]] = Math.max(bestPerColor[edgeColor[e]], edgeWeight[e]);
+        double colorBound = 0d;
+        for (double b : bestPerColor) colorBound += b;
+
+        // upper bound of the subtree below each vertex. An edge is useless if its weight plus this bound is not positive:
+        // removing it together with its subtree never decreases the score
+        subtreeBound = new double[V];
+        for (int i = topologicalOrder.length - 1; i >= 0; --i) {
+            final int v = topologicalOrder[i];
+            double b = 0d;
+            for (int e : outEdges[v])
+                b += Math.max(0d, edgeWeight[e] + subtreeBound[edgeTarget[e]]);
+            subtreeBound[v] = Math.min(b, colorBound);
+        }
+        useless = new boolean[E];
+        for (int e = 0; e < E; ++e)
+            useless[e] = edgeColor[e] >= 0 && edgeSource[e] != graph.getRoot().getVertexId() && edgeWeight[e] + subtreeBound[edgeTarget[e]] <= 0;
+
+        inTree = new boolean[V];
+        colorUsed = new boolean[numberOfColors];
+        excluded = new boolean[E];
+        chosen = new boolean[E];
+        reachable = new boolean[V];
+
+        seedIncumbents();
+        optimizeLagrangeMultipliers(topologicalOrder);
+
+        // one search per root, most promising roots first
+        final int[] rootEdges = outEdges[graph.getRoot().getVertexId()];
+        final Integer[] order = new Integer[rootEdges.length];
+        for (int i = 0; i < order.length; ++i) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(edgeWeight[rootEdges[b]] + subtreeBound[edgeTarget[rootEdges[b]]], edgeWeight[rootEdges[a]] + subtreeBound[edgeTarget[rootEdges[a]]]));
+
+        for (int i : order) {
+            final int e = rootEdges[i], root = edgeTarget[e];
+            if (!canImprove(edgeWeight[e] + Math.min(subtreeBound[root], lambdaSum - lambda[edgeColor[e]] + lagrangianSubtreeBound[root])))
+                continue;
+            computeReachable(root, topologicalOrder);
+            add(e);
+            search(edgeWeight[e]);
+            remove(e);
+            if (aborted) return;
+        }
+    }
+
+    private void search(double score) {
+        if ((++visitedNodes & 1023) == 0 && checkAbort())
+            return;
+        if (score > bestScore + EPSILON) {
+            bestScore = score;
+            bestEdges = chosen.clone();
+        }
+        final TIntArrayList excludedHere = new TIntArrayList();
+        while (!aborted) {
+            if (!canImprove(score + remainingBound()))
+                break;
+            final int e = selectBranchEdge();
+            if (e < 0)
+                break;
+            // branch 1: include edge
+            add(e);
+            search(score + edgeWeight[e]);
+            remove(e);
+            // branch 2: exclude edge
+            excluded[e] = true;
+            excludedHere.add(e);
+        }
+        for (int i = 0; i < excludedHere.size(); ++i)
+            excluded[excludedHere.get(i)] = false;
+    }
+
+    /**
+     * @return true if a tree with the given upper bound can be better than the incumbent and reach the minimal score
+     */
+    private boolean canImprove(double upperBound) {
+        return upperBound > bestScore + EPSILON && upperBound >= minimalScore - EPSILON;
+    }
+
+    private void add(int e) {
+        chosen[e] = true;
+        inTree[edgeTarget[e]] = true;
+        colorUsed[edgeColor[e]] = true;
+    }
+
+    private void remove(int e) {
+        chosen[e] = false;
+        inTree[edgeTarget[e]] = false;
+        colorUsed[edgeColor[e]] = false;
+    }
+
+    /**
+     * Minimum of three upper bounds for the score that can still be added to the current tree:
+     * every unused color can contribute at most its best incoming edge that might still be added to the tree,
+     * every edge leaving the tree can contribute at most its weight plus the (color-free) bound of its subtree and
+     * the same with lagrangian penalties for the colors.
+     */
+    private double remainingBound() {
+        double hangingBound = 0d, lagrangianBound = 0d;
+        for (int v = 0; v < inTree.length; ++v) {
+            if (!inTree[v]) continue;
+            for (int e : outEdges[v]) {
+                if (useless[e] || excluded[e] || colorUsed[edgeColor[e]])
+                    continue;
+                final int t = edgeTarget[e];
+                hangingBound += Math.max(0d, edgeWeight[e] + subtreeBound[t]);
+                lagrangianBound += Math.max(0d, edgeWeight[e] - lambda[edgeColor[e]] + lagrangianSubtreeBound[t]);
+            }
+        }
+        for (int c = 0; c < numberOfColors; ++c)
+            if (!colorUsed[c]) lagrangianBound += lambda[c];
+        return Math.min(Math.min(hangingBound, lagrangianBound), remainingColorBound());
+    }
+
+    /**
+     * Relaxes the color constraints with multipliers lambda. The relaxed problem (best subtree of the unfolded graph with
+     * edge weights w(e) - lambda(color(e)) plus the sum of all lambda) is solved by a simple dynamic program and
+     * is an upper bound for every lambda {@literal >=} 0. The multipliers are optimized by subgradient descent.
+     */
+    private void optimizeLagrangeMultipliers(int[] topologicalOrder) {
+        final int V = graph.numberOfVertices();
+        final int pseudoRoot = graph.getRoot().getVertexId();
+        lambda = new double[numberOfColors];
+        lagrangianSubtreeBound = new double[V];
+        double[] bestLambda = lambda.clone();
+        double bestBound = Double.POSITIVE_INFINITY, theta = 2d;
+        int notImproved = 0;
+        final double[] multiplicity = new double[V];
+        final double[] subgradient = new double[numberOfColors];
+
+        for (int iteration = 0; iteration < lagrangianIterations; ++iteration) {
+            final double bound = lagrangianDP(topologicalOrder, lambda, lagrangianSubtreeBound);
+            if (bound < bestBound - EPSILON) {
+                bestBound = bound;
+                bestLambda = lambda.clone();
+                notImproved = 0;
+            } else if (++notImproved >= 5) {
+                theta /= 2;
+                notImproved = 0;
+            }
+            if (!canImprove(bestBound) || theta < 1e-3)
+                break;
+
+            // subgradient: 1 - number of occurrences of each color in the relaxed solution
+            Arrays.fill(multiplicity, 0d);
+            int bestRoot = -1;
+            for (int e : outEdges[pseudoRoot])
+                if (bestRoot < 0 || edgeWeight[e] - lambda[edgeColor[e]] + lagrangianSubtreeBound[edgeTarget[e]] > edgeWeight[bestRoot] - lambda[edgeColor[bestRoot]] + lagrangianSubtreeBound[edgeTarget[bestRoot]])
+                    bestRoot = e;
+            multiplicity[edgeTarget[bestRoot]] = 1d;
+            for (int v : topologicalOrder) {
+                if (multiplicity[v] <= 0 || v == pseudoRoot) continue;
+                for (int e : outEdges[v])
+                    if (edgeWeight[e] - lambda[edgeColor[e]] + lagrangianSubtreeBound[edgeTarget[e]] > 0)
+                        multiplicity[edgeTarget[e]] = Math.min(1e6, multiplicity[edgeTarget[e]] + multiplicity[v]);
+            }
+            Arrays.fill(subgradient, 1d);
+            for (int v = 0; v < V; ++v)
+                if (vertexColor[v] >= 0) subgradient[vertexColor[v]] -= multiplicity[v];
+            double norm = 0d;
+            for (int c = 0; c < numberOfColors; ++c) {
+                if (lambda[c] <= 0 && subgradient[c] > 0) subgradient[c] = 0; // projection
+                norm += subgradient[c] * subgradient[c];
+            }
+            if (norm <= 0)
+                break;
+            final double step = theta * (bound - bestScore) / norm;
+            if (!(step > 0) || Double.isInfinite(step))
+                break;
+            for (int c = 0; c < numberOfColors; ++c)
+                lambda[c] = Math.max(0d, lambda[c] - step * subgradient[c]);
+        }
+
+        lambda = bestLambda;
+        lagrangianDP(topologicalOrder, lambda, lagrangianSubtreeBound);
+        lambdaSum = 0d;
+        for (double l : lambda) lambdaSum += l;
+    }
+
+    /**
+     * @return the lagrangian upper bound of the whole graph. Fills the bound of each subtree into the given array.
+     */
+    private double lagrangianDP(int[] topologicalOrder, double[] lambda, double[] bound) {
+        final int pseudoRoot = graph.getRoot().getVertexId();
+        for (int i = topologicalOrder.length - 1; i >= 0; --i) {
+            final int v = topologicalOrder[i];
+            if (v == pseudoRoot) continue;
+            double b = 0d;
+            for (int e : outEdges[v])
+                if (!useless[e])
+                    b += Math.max(0d, edgeWeight[e] - lambda[edgeColor[e]] + bound[edgeTarget[e]]);
+            bound[v] = b;
+        }
+        double best = Double.NEGATIVE_INFINITY;
+        for (int e : outEdges[pseudoRoot])
+            best = Math.max(best, edgeWeight[e] - lambda[edgeColor[e]] + bound[edgeTarget[e]]);
+        double sum = 0d;
+        for (double l : lambda) sum += l;
+        return best + sum;
+    }
+
+    private double remainingColorBound() {
+        final double[] best = new double[numberOfColors];
+        for (int e = 0; e < edgeSource.length; ++e) {
+            final int c = edgeColor[e], s = edgeSource[e];
+            if (c < 0 || useless[e] || excluded[e] || colorUsed[c] || !reachable[s] || edgeWeight[e] <= best[c])
+                continue;
+            if (inTree[s] || !colorUsed[vertexColor[s]])
+                best[c] = edgeWeight[e];
+        }
+        double bound = 0d;
+        for (double b : best) bound += b;
+        return bound;
+    }
+
+    /**
+     * @return the heaviest edge leaving the current tree into an unused color or -1 if there is none
+     */
+    private int selectBranchEdge() {
+        int bestEdge = -1;
+        double bestWeight = Double.NEGATIVE_INFINITY;
+        for (int v = 0; v < inTree.length; ++v) {
+            if (!inTree[v]) continue;
+            for (int e : outEdges[v]) {
+                if (useless[e] || excluded[e] || colorUsed[edgeColor[e]])
+                    continue;
+                if (edgeWeight[e] > bestWeight) {
+                    bestWeight = edgeWeight[e];
+                    bestEdge = e;
+                }
+            }
+        }
+        return bestEdge;
+    }
+
+    private void computeReachable(int root, int[] topologicalOrder) {
+        Arrays.fill(reachable, false);
+        reachable[root] = true;
+        for (int v : topologicalOrder) {
+            if (!reachable[v]) continue;
+            for (int e : outEdges[v])
+                if (!useless[e])
+                    reachable[edgeTarget[e]] = true;
+        }
+    }
+
+    /**
+     * use the template tree and the critical path heuristic as initial lower bound
+     */
+    private void seedIncumbents() {
+        for (int e : outEdges[graph.getRoot().getVertexId()])
+            offerIncumbent(new int[]{e});
+        if (templateEdges != null)
+            offerIncumbent(templateEdges);
+        try {
+            final Callable<Boolean> check = options.getInterruptionCheck() != null ? options.getInterruptionCheck() : () -> false;
+            final TreeBuilder.Result heuristic = new ExtendedCriticalPathHeuristicTreeBuilder(check)
+                    .computeTree().solve(input, graph);
+            if (heuristic != null && heuristic.tree != null && heuristic.mapping != null)
+                offerIncumbent(edgesOf(heuristic.tree, heuristic.mapping));
+        } catch (RuntimeException e) {
+            LoggerFactory.getLogger(getClass()).debug("Could not compute heuristic lower bound. Starting without incumbent.", e);
+        }
+    }
+
+    private int[] edgesOf(FTree tree, IntergraphMapping mapping) {
+        // losses are ordered by target vertex, so we need the first loss id of each vertex
+        final int[] firstIncoming = new int[graph.numberOfVertices()];
+        int k = 0;
+        for (Fragment f : graph) {
+            firstIncoming[f.getVertexId()] = k;
+            k += f.getInDegree();
+        }
+        final TIntArrayList edges = new TIntArrayList(tree.numberOfVertices());
+        for (Fragment t : tree) {
+            final Fragment g = mapping.mapRightToLeft(t);
+            final Fragment parent = t.isRoot() ? graph.getRoot() : mapping.mapRightToLeft(t.getParent());
+            if (g == null || parent == null)
+                return null;
+            for (int i = 0; i < g.getInDegree(); ++i) {
+                if (g.getIncomingEdge(i).getSource() == parent) {
+                    edges.add(firstIncoming[g.getVertexId()] + i);
+                    break;
+                }
+            }
+        }
+        return edges.toArray();
+    }
+
+    /**
+     * accepts the given edges as incumbent if they form a colorful tree hanging at the pseudo root
+     */
+    private void offerIncumbent(int[] edges) {
+        if (edges == null || edges.length == 0)
+            return;
+        final boolean[] used = new boolean[losses.size()];
+        final boolean[] vertexUsed = new boolean[graph.numberOfVertices()];
+        final boolean[] color = new boolean[numberOfColors];
+        int rootEdges = 0;
+        double score = 0d;
+        for (int e : edges) {
+            if (used[e] || edgeColor[e] < 0 || color[edgeColor[e]])
+                return;
+            used[e] = true;
+            color[edgeColor[e]] = true;
+            vertexUsed[edgeTarget[e]] = true;
+            score += edgeWeight[e];
+            if (edgeSource[e] == graph.getRoot().getVertexId())
+                ++rootEdges;
+        }
+        if (rootEdges != 1)
+            return;
+        for (int e : edges)
+            if (edgeSource[e] != graph.getRoot().getVertexId() && !vertexUsed[edgeSource[e]])
+                return;
+        if (score > bestScore) {
+            bestScore = score;
+            bestEdges = used;
+        }
+    }
+
+    //endregion
+}
@@ -34,4 +34,11 @@ public interface IlpFactory<T extends AbstractSolver> {
 
     public void checkSolver() throws ILPSolverException;
 
+    /**
+     * releases all models the solvers of this factory keep alive between two computations
+     * (see {@link AbstractSolver#reusePooledModel()}). Solvers created afterwards build new models.
+     */
+    public default void disposePooledModels() {
+    }
+
 }
@@ -19,6 +19,7 @@
 */
 package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp;
 
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
@@ -40,6 +41,21 @@ public class GLPKSolver extends AbstractSolver {
     protected final static Lock GLPK_LOCK = new ReentrantLock();
     protected glp_prob LP;
     protected glp_iocp parm;
+    protected int[] topology;
+
+    // GLPK computations are serialized by GLPK_LOCK, so a single model is kept for the next graph with the same topology
+    private static final ModelPool<PooledModel<glp_prob>> MODEL_POOL = new ModelPool<>(pooled -> {
+        GLPK_LOCK.lock();
+        try {
+            GLPK.glp_delete_prob(pooled.model);
+        } finally {
+            GLPK_LOCK.unlock();
+        }
+    });
+
+    static {
+        SiriusJobs.addShutdownHook(MODEL_POOL::clear);
+    }
 
     public final static IlpFactory<GLPKSolver> Factory = new IlpFactory<>() {
         @Override
@@ -65,6 +81,11 @@ public class GLPKSolver extends AbstractSolver {
                 throw new ILPSolverException(e);
             }
         }
+
+        @Override
+        public void disposePooledModels() {
+            MODEL_POOL.clear();
+        }
     };
 
     protected GLPKSolver(FGraph graph, ProcessedInput input, TreeBuilder.FluentInterface options) {
@@ -94,12 +115,28 @@ public class GLPKSolver extends AbstractSolver {
         }
     }
 
+    @Override
+    protected boolean reusePooledModel() throws Exception {
+        this.topology = graphTopology();
+        final PooledModel<glp_prob> pooled = MODEL_POOL.take(m -> m.fits(topology));
+        if (pooled == null)
+            return false;
+        this.LP = pooled.model;
+        initializeParameters();
+        updateObjective();
+        return true;
+    }
+
     @Override
     protected void initializeModel() throws Exception {
         this.LP = GLPK.glp_create_prob();
         GLPK.glp_set_prob_name(this.LP, "ColSubtreeProbGLPK");
         GLPK.glp_java_set_msg_lvl(GLPKConstants.GLP_JAVA_MSG_LVL_OFF);
         GLPK.glp_term_out(GLPKConstants.GLP_OFF);
+        initializeParameters();
+    }
+
+    protected void initializeParameters() {
         parm = new glp_iocp();
         GLPK.glp_init_iocp(parm);
         parm.setPresolve(GLPKConstants.GLP_ON);
@@ -249,8 +286,10 @@ public class GLPKSolver extends AbstractSolver {
         GLPK.glp_set_obj_name(this.LP, "z");
 
         GLPK.glp_set_obj_coef(this.LP, 0, 0.0); // non-variables constant of function
+        updateObjective();
+    }
 
-        final int N = losses.size();
+    protected void updateObjective() throws Exception {
         int k=1;
         for (int i=0; i < graph.numberOfVertices(); ++i) {
             final Fragment u = graph.getFragmentAt(i);
@@ -314,7 +353,11 @@ public class GLPKSolver extends AbstractSolver {
     @Override
     protected void pastBuildSolution() throws Exception {
         parm.delete();
-        GLPK.glp_delete_prob(this.LP); // free memory
+        if (modelIsReusable && topology != null) {
+            MODEL_POOL.offer(new PooledModel<>(this.LP, topology), 1);
+        } else {
+            GLPK.glp_delete_prob(this.LP); // free memory
+        }
     }
 
     @Override
@@ -0,0 +1,136 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp;
+
+import de.unijena.bioinf.ChemistryBase.chem.Ionization;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
+import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares the pure java {@link BranchAndBoundSolver} with itself (dynamic program vs. branch-and-bound)
+ * and with GLPK on a fixed corpus of random fragmentation graphs.
+ */
+public class BranchAndBoundSolverTest {
+
+    private static final long SEED = 20201030L;
+
+    @Test
+    public void testColorCodingAgreesWithBranchAndBound() {
+        for (FGraph graph : corpus(25, 4, 11)) {
+            final TreeBuilder.Result dp = new BranchAndBoundSolver(graph, null, options(), BranchAndBoundSolver.MAX_DP_OPERATIONS).compute();
+            final TreeBuilder.Result bnb = new BranchAndBoundSolver(graph, null, options(), 0).compute();
+            assertTrue(dp.isOptimal && bnb.isOptimal);
+            assertEquals(dp.tree.getTreeWeight(), bnb.tree.getTreeWeight(), 1e-6);
+        }
+    }
+
+    @Test
+    public void testMinimalScorePrunesWorseTrees() {
+        for (FGraph graph : corpus(15, 4, 20)) {
+            final TreeBuilder.Result optimal = new BranchAndBoundSolver(graph, null, options(), 0).compute();
+            final double score = optimal.tree.getTreeWeight();
+
+            final TreeBuilder.Result reachable = new BranchAndBoundSolver(graph, null, options(score - 1e-3), 0).compute();
+            assertTrue(reachable.isOptimal);
+            assertEquals(score, reachable.tree.getTreeWeight(), 1e-6);
+
+            for (double maxDpOperations : new double[]{0, BranchAndBoundSolver.MAX_DP_OPERATIONS}) {
+                final TreeBuilder.Result unreachable = new BranchAndBoundSolver(graph, null, options(score + 1), maxDpOperations).compute();
+                assertNull(unreachable.tree);
+                assertEquals(TreeBuilder.AbortReason.NO_SOLUTION, unreachable.error);
+            }
+        }
+    }
+
+    @Test
+    public void testAgreesWithGLPK() {
+        try {
+            GLPKSolver.Factory.checkSolver();
+        } catch (Throwable e) {
+            Assume.assumeNoException("GLPK is not available.", e);
+        }
+
+        for (FGraph graph : corpus(30, 8, 40)) {
+            final TreeBuilder.Result glpk = GLPKSolver.Factory.create(null, graph, options()).compute();
+            final TreeBuilder.Result bnb = BranchAndBoundSolver.Factory.create(null, graph, options()).compute();
+            assertTrue(glpk.isOptimal && bnb.isOptimal);
+            assertEquals(glpk.tree.getTreeWeight(), bnb.tree.getTreeWeight(), 1e-6);
+        }
+    }
+
+    private static TreeBuilder.FluentInterface options() {
+        return options(Double.NEGATIVE_INFINITY);
+    }
+
+    private static TreeBuilder.FluentInterface options(double minimalScore) {
+        return new TreeBuilder.FluentInterface(null, minimalScore, 60, 1, null, null);
+    }
+
+    /**
+     * Random graphs with the structure of fragmentation graphs: a single root, vertices sorted by color and
+     * edges only from smaller to larger colors (heavier to lighter peaks).
+     */
+    private static List<FGraph> corpus(int size, int minColors, int maxColors) {
+        final Random r = new Random(SEED);
+        final Ionization ion = PrecursorIonType.getPrecursorIonType("[M+H]+").getIonization();
+        final List<FGraph> graphs = new ArrayList<>(size);
+        for (int g = 0; g < size; ++g) {
+            final int colors = minColors + r.nextInt(maxColors - minColors + 1);
+            final FGraph graph = new FGraph();
+            graph.getRoot().setColor(0);
+            final Fragment root = graph.addRootVertex(MolecularFormula.parseOrThrow("C" + (colors + 1) + "H" + (2 * colors + 6)), ion);
+            root.setColor(1);
+            graph.getRoot().getOutgoingEdge(0).setWeight(r.nextGaussian());
+
+            final List<Fragment> vertices = new ArrayList<>();
+            vertices.add(root);
+            for (int c = 2; c <= colors; ++c) {
+                final int alternatives = 1 + r.nextInt(3);
+                for (int a = 0; a < alternatives; ++a) {
+                    final Fragment f = graph.addFragment(MolecularFormula.parseOrThrow("C" + (colors + 2 - c) + "H" + (2 * (colors + 2 - c) + a)), ion);
+                    f.setColor(c);
+                    for (Fragment u : vertices) {
+                        if (u.getColor() < c && (u == root || r.nextDouble() < 0.3)) {
+                            final Loss l = graph.addLoss(u, f);
+                            l.setWeight(2 * r.nextGaussian() - 0.5);
+                        }
+                    }
+                }
+                for (Fragment f : graph)
+                    if (f.getColor() == c) vertices.add(f);
+            }
+            graphs.add(graph);
+        }
+        return graphs;
+    }
+}
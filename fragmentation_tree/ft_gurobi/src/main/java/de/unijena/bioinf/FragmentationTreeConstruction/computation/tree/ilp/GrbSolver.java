@@ -1,5 +1,6 @@
 package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp;
 
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.ChemistryBase.ms.ft.*;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
 import de.unijena.bioinf.sirius.ProcessedInput;
@@ -34,11 +35,24 @@ public class GrbSolver extends AbstractSolver{
                 throw new ILPSolverException(e);
             }
         }
+
+        @Override
+        public void disposePooledModels() {
+            MODEL_POOL.clear();
+        }
     };
 
     protected GRBModel model;
     protected GRBVar[] variables;
     protected GRBEnv env;
+    protected int[] topology;
+
+    // models which are reused if the next graph has the same topology, at most one per cpu thread
+    private static final ModelPool<GrbPooledModel> MODEL_POOL = new ModelPool<>(pooled -> pooled.model.dispose());
+
+    static {
+        SiriusJobs.addShutdownHook(MODEL_POOL::clear);
+    }
 
     public GrbSolver(GRBEnv env, FGraph graph, ProcessedInput input, TreeBuilder.FluentInterface options) {
         super(graph, input, options);
@@ -55,6 +69,28 @@ public class GrbSolver extends AbstractSolver{
         env.set(GRB.IntParam.Threads, numberOfCPUS);
     }
 
+    @Override
+    protected boolean reusePooledModel() throws Exception {
+        this.topology = graphTopology();
+        final GrbPooledModel pooled = MODEL_POOL.take(m -> m.env == env && m.fits(topology));
+        if (pooled == null)
+            return false;
+        this.model = pooled.model;
+        this.variables = model.getVars();
+        // the previous computation might have used a time limit
+        model.getEnv().set(GRB.DoubleParam.TimeLimit, GRB.INFINITY);
+        updateObjective();
+        return true;
+    }
+
+    protected void updateObjective() throws Exception {
+        // Gurobi keeps the previous solution, which is still feasible and used as warm start
+        final double[] objective = new double[variables.length];
+        for (int i = 0; i < objective.length; ++i)
+            objective[i] = -losses.get(i).getWeight();
+        model.set(GRB.DoubleAttr.Obj, variables, objective);
+    }
+
     @Override
     protected void initializeModel() throws Exception {
         this.model = new GRBModel(env);
@@ -178,7 +214,11 @@ public class GrbSolver extends AbstractSolver{
 
     @Override
     protected void pastBuildSolution() throws Exception {
-        model.dispose();
+        if (modelIsReusable && topology != null) {
+            MODEL_POOL.offer(new GrbPooledModel(env, model, topology), SiriusJobs.getCPUThreads());
+        } else {
+            model.dispose();
+        }
         //env.dispose();
     }
 
@@ -199,6 +239,15 @@ public class GrbSolver extends AbstractSolver{
         return -model.get(GRB.DoubleAttr.ObjVal);
     }
 
+    private static class GrbPooledModel extends PooledModel<GRBModel> {
+        private final GRBEnv env;
+
+        private GrbPooledModel(GRBEnv env, GRBModel model, int[] topology) {
+            super(model, topology);
+            this.env = env;
+        }
+    }
+
     private static GRBEnv getDefaultEnv() {
         try {
             final GRBEnv env = new GRBEnv();
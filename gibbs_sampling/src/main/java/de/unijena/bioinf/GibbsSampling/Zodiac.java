@@ -26,10 +26,12 @@ import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
 import de.unijena.bioinf.GibbsSampling.model.*;
+import de.unijena.bioinf.GibbsSampling.properties.ZodiacConvergence;
 import de.unijena.bioinf.jjobs.BasicMasterJJob;
 import de.unijena.bioinf.jjobs.InterruptionCheck;
 import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.jjobs.MasterJJob;
+import de.unijena.bioinf.ms.properties.PropertyManager;
 import gnu.trove.map.hash.TObjectIntHashMap;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
@@ -52,6 +54,8 @@ public class Zodiac {
     int maxCandidates; //todo always use all!?
     private final boolean clusterCompounds;
     private final boolean runTwoStep;
+    private double convergenceTolerance;
+    private int convergenceCheckInterval;
 
     MasterJJob masterJJob;
 
@@ -86,9 +90,24 @@ public class Zodiac {
         this.masterJJob = masterJJob;
         this.clusterCompounds = clusterCompounds;
         this.runTwoStep = runTwoStep;
+        setConvergenceCriterion(PropertyManager.DEFAULTS.createInstanceWithDefaults(ZodiacConvergence.class));
         this.Log = masterJJob != null ? LoggerFactory.getLogger(masterJJob.loggerKey()) : LoggerFactory.getLogger(Zodiac.class); //todo this is a bit ugly, we should use log through the job API instead (correct Job ID prefixing).
     }
 
+    /**
+     * stop sampling early once the candidate probabilities are stable.
+     * @param tolerance maximum change of any candidate probability between two checks. Values <= 0 disable early stopping.
+     * @param checkInterval number of epochs between two checks
+     */
+    public void setConvergenceCriterion(double tolerance, int checkInterval) {
+        this.convergenceTolerance = tolerance;
+        this.convergenceCheckInterval = checkInterval;
+    }
+
+    public void setConvergenceCriterion(ZodiacConvergence convergence) {
+        setConvergenceCriterion(convergence.tolerance, convergence.checkInterval);
+    }
+
     public JJob<ZodiacResultsWithClusters> makeComputeJob(final int iterationSteps, final int burnIn, final int repetitions) {
         return new BasicMasterJJob<ZodiacResultsWithClusters>(JJob.JobType.CPU) {
             @Override
@@ -106,6 +125,7 @@ public class Zodiac {
                 if (runTwoStep){
                     TwoPhaseGibbsSampling<FragmentsCandidate> twoPhaseGibbsSampling = new TwoPhaseGibbsSampling<>(ids, candidatesArray, nodeScorers, edgeScorers, edgeFilter, repetitions, FragmentsCandidate.class);
                     twoPhaseGibbsSampling.setIterationSteps(iterationSteps, burnIn);
+                    twoPhaseGibbsSampling.setConvergenceCriterion(convergenceTolerance, convergenceCheckInterval);
                     if (masterJJob!=null) masterJJob.submitSubJob(twoPhaseGibbsSampling);
                     else this.submitSubJob(twoPhaseGibbsSampling);
                     zodiacResult = twoPhaseGibbsSampling.awaitResult();
@@ -142,8 +162,9 @@ public class Zodiac {
         interruption.check();
 
         Log.info("ZODIAC: run sampling.");
-        GibbsParallel<FragmentsCandidate> gibbsParallel = new GibbsParallel<>(graph, repetitions);
+        ComponentGibbsParallel<FragmentsCandidate> gibbsParallel = new ComponentGibbsParallel<>(graph, repetitions);
         gibbsParallel.setIterationSteps(iterationSteps, burnIn);
+        gibbsParallel.setConvergenceCriterion(convergenceTolerance, convergenceCheckInterval);
 
         if (masterJJob!=null) masterJJob.submitSubJob(gibbsParallel);
         else SiriusJobs.getGlobalJobManager().submitJob(gibbsParallel);
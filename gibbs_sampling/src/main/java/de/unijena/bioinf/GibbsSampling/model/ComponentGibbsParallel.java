@@ -0,0 +1,185 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.GibbsSampling.model;
+
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.Scored;
+import de.unijena.bioinf.jjobs.BasicMasterJJob;
+import gnu.trove.set.hash.TIntHashSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Splits the graph into its connected components and samples each component independently with a {@link GibbsParallel}.
+ * Components are submitted largest first. Compounds without any edge are solved analytically: their probabilities are
+ * the normalized candidate scores, which is what sampling converges to. Results are returned in the compound order of the graph.
+ */
+public class ComponentGibbsParallel<C extends Candidate<?>> extends BasicMasterJJob<CompoundResult<C>[]> {
+    private final Graph<C> graph;
+    private final int repetitions;
+    private final TIntHashSet fixedCompounds;
+
+    private int maxSteps = -1;
+    private int burnIn = -1;
+
+    private long[] componentProgress;
+    private long currentProgress;
+    private long maxProgress;
+
+    public ComponentGibbsParallel(Graph<C> graph, int repetitions, TIntHashSet fixedCompounds) {
+        super(JobType.CPU);
+        this.graph = graph;
+        this.repetitions = repetitions;
+        this.fixedCompounds = fixedCompounds == null ? new TIntHashSet() : fixedCompounds;
+    }
+
+    public ComponentGibbsParallel(Graph<C> graph, int repetitions) {
+        this(graph, repetitions, null);
+    }
+
+    public void setIterationSteps(int maxSteps, int burnIn) {
+        this.maxSteps = maxSteps;
+        this.burnIn = burnIn;
+    }
+
+    private double convergenceTolerance = 0d;
+    private int convergenceCheckInterval = -1;
+
+    /**
+     * enable early stopping of the Markov chains. See {@link GibbsMFCorrectionNetwork#setConvergenceCriterion(double, int)}
+     */
+    public void setConvergenceCriterion(double tolerance, int checkInterval) {
+        this.convergenceTolerance = tolerance;
+        this.convergenceCheckInterval = checkInterval;
+    }
+
+    @Override
+    protected CompoundResult<C>[] compute() throws Exception {
+        if (maxSteps<0 || burnIn<0) throw new IllegalArgumentException("Number of iterations steps not set.");
+        graph.freeze();
+        final int[][] components = graph.getConnectedComponents();
+        final CompoundResult<C>[] results = new CompoundResult[graph.numberOfCompounds()];
+
+        final List<int[]> sampledComponents = new ArrayList<>();
+        final List<GibbsParallel<C>> jobs = new ArrayList<>();
+        int numberOfSingletons = 0;
+        //every component samples the same number of epochs, progress is aggregated over all of them
+        final int epochsPerComponent = (maxSteps / repetitions + burnIn) * repetitions;
+        int numberOfComponents = 0;
+        for (int[] component : components) {
+            if (component.length > 1) ++numberOfComponents;
+        }
+        componentProgress = new long[numberOfComponents];
+        currentProgress = 0;
+        maxProgress = (long) epochsPerComponent * numberOfComponents;
+        updateProgress(0, maxProgress, 0, "Sample probabilities");
+        //largest first, singletons come last and are computed while the samplers run
+        for (int[] component : components) {
+            checkForInterruption();
+            if (component.length == 1) {
+                results[component[0]] = computeSingleton(component[0]);
+                ++numberOfSingletons;
+                continue;
+            }
+            final Graph<C> componentGraph = graph.extractComponent(component);
+            final TIntHashSet componentFixedCompounds = new TIntHashSet();
+            for (int i = 0; i < component.length; i++) {
+                if (fixedCompounds.contains(component[i])) componentFixedCompounds.add(i);
+            }
+            final GibbsParallel<C> gibbsParallel = new GibbsParallel<>(componentGraph, repetitions, componentFixedCompounds);
+            gibbsParallel.setIterationSteps(maxSteps, burnIn);
+            gibbsParallel.setConvergenceCriterion(convergenceTolerance, convergenceCheckInterval);
+            final int componentIdx = jobs.size();
+            gibbsParallel.addJobProgressListener(progressEvent -> progressChanged(componentIdx, progressEvent.getProgress()));
+            submitSubJob(gibbsParallel);
+            jobs.add(gibbsParallel);
+            sampledComponents.add(component);
+        }
+        logInfo("Sampling " + jobs.size() + " connected components. " + numberOfSingletons + " unconnected compounds are scored directly.");
+
+        long usedEpochs = 0, maxEpochs = 0;
+        double maxPotentialScaleReduction = Double.NaN;
+        for (int k = 0; k < jobs.size(); k++) {
+            final GibbsParallel<C> job = jobs.get(k);
+            final CompoundResult<C>[] componentResults = job.awaitResult();
+            final int[] component = sampledComponents.get(k);
+            for (int i = 0; i < component.length; i++) {
+                results[component[i]] = componentResults[i];
+            }
+            for (int used : job.getIterationsUsed()) {
+                usedEpochs += used;
+                maxEpochs += maxSteps / repetitions + burnIn;
+            }
+            final double r = job.getPotentialScaleReduction();
+            if (!Double.isNaN(r) && (Double.isNaN(maxPotentialScaleReduction) || r > maxPotentialScaleReduction)) maxPotentialScaleReduction = r;
+        }
+        if (jobs.size() > 0) {
+            logInfo("Markov chains used " + usedEpochs + " of " + maxEpochs + " epochs. Maximum potential scale reduction factor: " + maxPotentialScaleReduction);
+        }
+        checkForInterruption();
+        return results;
+    }
+
+    private synchronized void progressChanged(int componentIdx, long progress) {
+        if (progress <= componentProgress[componentIdx]) return;
+        currentProgress += progress - componentProgress[componentIdx];
+        componentProgress[componentIdx] = progress;
+        updateProgress(0, maxProgress, currentProgress, "Sample probabilities");
+    }
+
+    /*
+    without edges the posterior of a compound only depends on its candidate scores.
+    fixed compounds keep their probabilities as in GibbsMFCorrectionNetwork.
+     */
+    private CompoundResult<C> computeSingleton(int compoundIdx) {
+        final Scored<C>[] candidates = graph.getPossibleFormulas(compoundIdx);
+        final Scored<C>[] scored = new Scored[candidates.length];
+        if (fixedCompounds.contains(compoundIdx)) {
+            for (int j = 0; j < candidates.length; j++) {
+                scored[j] = new Scored<>(candidates[j].getCandidate(), Math.exp(candidates[j].getScore()));
+            }
+        } else {
+            double maxLog = Double.NEGATIVE_INFINITY;
+            for (Scored<C> candidate : candidates) {
+                maxLog = Math.max(maxLog, candidate.getScore());
+            }
+            double sum = 0d;
+            final double[] probs = new double[candidates.length];
+            for (int j = 0; j < candidates.length; j++) {
+                probs[j] = Math.exp(candidates[j].getScore() - maxLog);
+                sum += probs[j];
+            }
+            for (int j = 0; j < candidates.length; j++) {
+                scored[j] = new Scored<>(candidates[j].getCandidate(), probs[j] / sum);
+            }
+        }
+        Arrays.sort(scored, Comparator.reverseOrder());
+        final CompoundResult<C> result = new CompoundResult<>(graph.getIds()[compoundIdx], scored);
+        result.addAnnotation(Connectivity.class, new Connectivity(0));
+        return result;
+    }
+
+    public Graph<C> getGraph() {
+        return graph;
+    }
+}
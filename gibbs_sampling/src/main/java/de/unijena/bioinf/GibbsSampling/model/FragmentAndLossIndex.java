@@ -0,0 +1,165 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.GibbsSampling.model;
+
+import de.unijena.bioinf.GibbsSampling.model.distributions.ScoreProbabilityDistributionEstimator;
+import de.unijena.bioinf.GibbsSampling.model.scorer.CommonFragmentAndLossScorer;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+/**
+ * Inverted index from fragment and loss formulas to the candidates of a {@link Graph} explaining them.
+ * Used by {@link GraphBuilder} to only score candidate pairs which share enough fragments and losses to get a
+ * non-zero {@link CommonFragmentAndLossScorer} score. All other pairs of different compounds get the constant
+ * score of two non-matching candidates, which is exactly what the scorers would return for them.
+ */
+class FragmentAndLossIndex {
+
+    private final Graph<? extends FragmentsCandidate> graph;
+    private final TLongObjectHashMap<int[]> fragmentIndex;
+    private final TLongObjectHashMap<int[]> lossIndex;
+    private final int minimumSharedEntries;
+    private final double nonMatchingScore;
+
+    private FragmentAndLossIndex(Graph<? extends FragmentsCandidate> graph, int minimumSharedEntries, double nonMatchingScore) {
+        this.graph = graph;
+        this.minimumSharedEntries = minimumSharedEntries;
+        this.nonMatchingScore = nonMatchingScore;
+        final TLongObjectHashMap<TIntArrayList> fragments = new TLongObjectHashMap<>();
+        final TLongObjectHashMap<TIntArrayList> losses = new TLongObjectHashMap<>();
+        for (int i = 0; i < graph.getSize(); i++) {
+            final FragmentsCandidate candidate = graph.getPossibleFormulas1D(i).getCandidate();
+            addPostings(fragments, candidate.getFragments(), i);
+            addPostings(losses, candidate.getLosses(), i);
+        }
+        this.fragmentIndex = toArrays(fragments);
+        this.lossIndex = toArrays(losses);
+    }
+
+    /**
+     * @return the index for the given graph or null if some of the edge scorers are not based on
+     * common fragments and losses, so that every candidate pair has to be scored.
+     */
+    static FragmentAndLossIndex createIndexIfApplicable(Graph<?> graph, EdgeScorer<?>[] edgeScorers) {
+        if (edgeScorers.length == 0) return null;
+        int minimumSharedEntries = Integer.MAX_VALUE;
+        double nonMatchingScore = 0.0D;
+        for (EdgeScorer<?> edgeScorer : edgeScorers) {
+            final CommonFragmentAndLossScorer scorer = getCommonFragmentAndLossScorer(edgeScorer);
+            if (scorer == null) return null;
+            final int minShared = scorer.getMinimumNumberOfSharedFragmentsAndLosses();
+            if (minShared <= 0) return null;
+            minimumSharedEntries = Math.min(minimumSharedEntries, minShared);
+            //same summation order as in GraphBuilder.scoreEdge
+            nonMatchingScore += nonMatchingScore(edgeScorer);
+        }
+        for (int i = 0; i < graph.getSize(); i++) {
+            if (!(graph.getPossibleFormulas1D(i).getCandidate() instanceof FragmentsCandidate)) return null;
+        }
+        return new FragmentAndLossIndex((Graph<? extends FragmentsCandidate>) graph, minimumSharedEntries, nonMatchingScore);
+    }
+
+    private static CommonFragmentAndLossScorer getCommonFragmentAndLossScorer(EdgeScorer<?> edgeScorer) {
+        if (edgeScorer instanceof CommonFragmentAndLossScorer) return (CommonFragmentAndLossScorer) edgeScorer;
+        if (edgeScorer instanceof ScoreProbabilityDistributionEstimator)
+            return getCommonFragmentAndLossScorer(((ScoreProbabilityDistributionEstimator<?>) edgeScorer).getEdgeScorer());
+        return null;
+    }
+
+    private static double nonMatchingScore(EdgeScorer<?> edgeScorer) {
+        if (edgeScorer instanceof ScoreProbabilityDistributionEstimator) {
+            final ScoreProbabilityDistributionEstimator<?> estimator = (ScoreProbabilityDistributionEstimator<?>) edgeScorer;
+            return estimator.getProbabilityDistribution().toLogPvalue(nonMatchingScore(estimator.getEdgeScorer()));
+        }
+        return 0.0D;
+    }
+
+    /**
+     * score of two candidates of different compounds which do not share enough fragments and losses.
+     */
+    double getNonMatchingScore() {
+        return nonMatchingScore;
+    }
+
+    /**
+     * Collects all candidates of other compounds which share at least the minimum number of fragments and losses
+     * with the given candidate. Shared entries are counted with multiplicity, which is an upper bound of the
+     * number of matches found by {@link CommonFragmentAndLossScorer}.
+     *
+     * @param counts   working array of size {@link Graph#getSize()}, all zero. It is reset before returning.
+     * @param touched  working list, cleared before use
+     * @param result   receives the indices of the candidate partners
+     */
+    void collectCandidatePartners(int candidateIdx, int[] counts, TIntArrayList touched, TIntArrayList result) {
+        touched.resetQuick();
+        result.resetQuick();
+        final FragmentsCandidate candidate = graph.getPossibleFormulas1D(candidateIdx).getCandidate();
+        countShared(fragmentIndex, candidate.getFragments(), counts, touched);
+        countShared(lossIndex, candidate.getLosses(), counts, touched);
+
+        final int peakIdx = graph.getPeakIdx(candidateIdx);
+        for (int k = 0; k < touched.size(); k++) {
+            final int j = touched.getQuick(k);
+            if (counts[j] >= minimumSharedEntries && graph.getPeakIdx(j) != peakIdx) result.add(j);
+            counts[j] = 0;
+        }
+        result.sort();
+    }
+
+    private static void countShared(TLongObjectHashMap<int[]> index, FragmentWithIndex[] fragments, int[] counts, TIntArrayList touched) {
+        for (FragmentWithIndex fragment : fragments) {
+            final int[] postings = index.get(key(fragment));
+            if (postings == null) continue;
+            for (int j : postings) {
+                if (counts[j]++ == 0) touched.add(j);
+            }
+        }
+    }
+
+    private static void addPostings(TLongObjectHashMap<TIntArrayList> index, FragmentWithIndex[] fragments, int candidateIdx) {
+        for (FragmentWithIndex fragment : fragments) {
+            final long key = key(fragment);
+            TIntArrayList postings = index.get(key);
+            if (postings == null) {
+                postings = new TIntArrayList(4);
+                index.put(key, postings);
+            }
+            postings.add(candidateIdx);
+        }
+    }
+
+    private static TLongObjectHashMap<int[]> toArrays(TLongObjectHashMap<TIntArrayList> index) {
+        final TLongObjectHashMap<int[]> arrays = new TLongObjectHashMap<>(index.size());
+        index.forEachEntry((key, postings) -> {
+            arrays.put(key, postings.toArray());
+            return true;
+        });
+        return arrays;
+    }
+
+    /*
+    fragments are matched by MolecularFormula.compareTo. Equal formulas have equal masses, so keying by mass
+    never misses a match. Different formulas with identical mass only add candidate pairs which are scored anyway.
+     */
+    private static long key(FragmentWithIndex fragment) {
+        return Double.doubleToLongBits(fragment.getFormula().getMass());
+    }
+}
@@ -71,6 +71,8 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
     public GibbsMFCorrectionNetwork(Graph graph, TIntHashSet fixedCompounds) {
         super(JobType.CPU);
         this.graph = graph;
+        //sampling iterates the compressed edge arrays
+        this.graph.freeze();
         this.fixedCompounds = fixedCompounds==null?new TIntHashSet():fixedCompounds;
         this.random = new Random();
         this.setActive();
@@ -133,10 +135,11 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
             int peak = graph.getPeakIdx(i);
             if (isFixed(fixedCompounds, peak)) continue;
 
-            int[] conn = this.graph.getConnections(i);
-            for(int j = 0; j < conn.length; ++j) {
-                if(this.active[conn[j]]) {
-                    this.addActiveEdge(conn[j], i);
+            final int end = this.graph.getEdgesEnd(i);
+            for(int k = this.graph.getEdgesStart(i); k < end; ++k) {
+                final int c = this.graph.getEdgeTarget(k);
+                if(this.active[c]) {
+                    this.addActiveEdge(c, i, this.graph.getLogWeight(c, i));
                     ++this.activeEdgeCounter[i];
                 }
             }
@@ -166,6 +169,84 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
         this.burnIn = burnIn;
     }
 
+    /*
+    optional early stopping: after burn-in, the estimated candidate probabilities are compared every checkInterval epochs.
+    Sampling stops once they changed less than the tolerance in REQUIRED_STABLE_CHECKS consecutive checks.
+     */
+    private static final int REQUIRED_STABLE_CHECKS = 2;
+    private double convergenceTolerance = 0d;
+    private int convergenceCheckInterval = -1;
+    private double[] lastMarginals;
+    private double lastMarginalChange = Double.NaN;
+    private int stableChecks;
+    private int iterationsUsed;
+    private int numberOfSamples;
+
+    /**
+     * enable early stopping of the sampling.
+     * @param tolerance maximum absolute change of any candidate probability between two checks to consider the chain converged. Values <= 0 disable early stopping.
+     * @param checkInterval number of epochs between two convergence checks
+     */
+    public void setConvergenceCriterion(double tolerance, int checkInterval) {
+        this.convergenceTolerance = tolerance;
+        this.convergenceCheckInterval = checkInterval;
+    }
+
+    /**
+     * @return number of epochs (including burn-in) that were actually sampled
+     */
+    public int getIterationsUsed() {
+        return iterationsUsed;
+    }
+
+    /**
+     * @return number of assignments per compound which contribute to the candidate probabilities
+     */
+    public int getNumberOfSamples() {
+        return numberOfSamples;
+    }
+
+    /**
+     * @return maximum change of a candidate probability at the last convergence check. NaN if no two checks were performed.
+     */
+    public double getLastMarginalChange() {
+        return lastMarginalChange;
+    }
+
+    /**
+     * @return the current estimate of each candidate's probability, indexed like the candidates of the graph. Fixed compounds are 0.
+     */
+    public double[] getCurrentMarginals() {
+        final double[] marginals = new double[graph.getSize()];
+        for (int i = 0; i < graph.numberOfCompounds(); i++) {
+            if (isFixed(fixedCompounds, i)) continue;
+            final int[] b = graph.getPeakBoundaries(i);
+            int sum = 0;
+            for (int j = b[0]; j <= b[1]; j++) sum += overallAssignmentFreq[j];
+            if (sum == 0) continue;
+            for (int j = b[0]; j <= b[1]; j++) marginals[j] = ((double) overallAssignmentFreq[j]) / sum;
+        }
+        return marginals;
+    }
+
+    private boolean hasConverged(int round) {
+        if (!(convergenceTolerance > 0) || convergenceCheckInterval <= 0) return false;
+        final int samplingRounds = round - burnInRounds;
+        if (samplingRounds <= 0 || samplingRounds % convergenceCheckInterval != 0) return false;
+        final double[] marginals = getCurrentMarginals();
+        if (lastMarginals != null) {
+            double maxChange = 0d;
+            for (int j = 0; j < marginals.length; j++) {
+                maxChange = Math.max(maxChange, Math.abs(marginals[j] - lastMarginals[j]));
+            }
+            lastMarginalChange = maxChange;
+            if (maxChange < convergenceTolerance) ++stableChecks;
+            else stableChecks = 0;
+        }
+        lastMarginals = marginals;
+        return stableChecks >= REQUIRED_STABLE_CHECKS;
+    }
+
     @Override
     protected Scored<C>[][] compute() throws Exception {
         if (maxSteps<0 || burnIn<0) throw new IllegalArgumentException("number of iterations steps not set.");
@@ -218,6 +299,14 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
             checkForInterruption();
             if (DEBUG && !changed) System.out.println("nothing changed in step "+i);
 
+            if (i > burnIn && (i - burnIn) % DEFAULT_CORRELATION_STEPSIZE == 0) ++numberOfSamples;
+            iterationsUsed = i+1;
+            if (hasConverged(i)) {
+                logDebug("candidate probabilities converged after "+(i+1)+" of "+(maxSteps+burnIn)+" epochs (max change "+lastMarginalChange+").");
+                updateProgress(0, maxSteps+burnIn, maxSteps+burnIn);
+                break;
+            }
+
             updateProgress(0, maxSteps+burnIn, i+1);
 //            if((i % step == 0 && i>0) || i == (burnIn+maxSteps-1)) {
 //                logInfo("step "+((double)(((i+1)*100/(maxSteps+burnIn))))+"%");
@@ -364,19 +453,21 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
             return false;
         } else {
             BitSet toUpdate = new BitSet();
-            int[] c = this.graph.getConnections(absCurrentActive);
-            for (int conjugate : c) {
+            int end = this.graph.getEdgesEnd(absCurrentActive);
+            for (int k = this.graph.getEdgesStart(absCurrentActive); k < end; ++k) {
+                final int conjugate = this.graph.getEdgeTarget(k);
                 final int corrspondingPeakIdx = this.graph.getPeakIdx(conjugate);
                 if (isFixed(fixedCompounds, corrspondingPeakIdx)) continue;
-                this.removeActiveEdge(absCurrentActive, conjugate);
+                this.removeActiveEdge(absCurrentActive, conjugate, this.graph.getEdgeLogWeight(k));
                 toUpdate.set(corrspondingPeakIdx);
             }
 
-            c = this.graph.getConnections(absIdx);
-            for (int conjugate : c) {
+            end = this.graph.getEdgesEnd(absIdx);
+            for (int k = this.graph.getEdgesStart(absIdx); k < end; ++k) {
+                final int conjugate = this.graph.getEdgeTarget(k);
                 final int corrspondingPeakIdx = this.graph.getPeakIdx(conjugate);
                 if (isFixed(fixedCompounds, corrspondingPeakIdx)) continue;
-                this.addActiveEdge(absIdx, conjugate);
+                this.addActiveEdge(absIdx, conjugate, this.graph.getEdgeLogWeight(k));
                 toUpdate.set(corrspondingPeakIdx);
             }
 
@@ -396,19 +487,22 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
     }
 
 
-    private void removeActiveEdge(int outgoing, int incoming) {
+    /**
+     * @param weight log weight of the edge from outgoing to incoming
+     */
+    private void removeActiveEdge(int outgoing, int incoming, double weight) {
         if (USE_MAX_PRIOR_PROBABILITY) {
-            final double removedWeight = this.graph.getLogWeight(outgoing, incoming);
+            final double removedWeight = weight;
             final double currentWeight = this.priorProb[incoming];
             if (removedWeight==currentWeight){
                 //find 2nd best score
                 double max = 0; //no active edge = 0;
-                int[] conn = this.graph.getConnections(incoming);
-                for(int j = 0; j < conn.length; ++j) {
-                    final int c = conn[j];
+                final int end = this.graph.getEdgesEnd(incoming);
+                for(int k = this.graph.getEdgesStart(incoming); k < end; ++k) {
+                    final int c = this.graph.getEdgeTarget(k);
                     if(this.active[c] && c!=outgoing) {
-                        final double weight = graph.getLogWeight(c, incoming);
-                        if (weight>max) max = weight;
+                        final double w = graph.getLogWeight(c, incoming);
+                        if (w>max) max = w;
                     }
                 }
 
@@ -419,25 +513,28 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
 
         } else {
             if (USE_SQRT_PRIOR_PROBABILITY){
-                this.priorProb[incoming] -= Math.sqrt(this.graph.getLogWeight(outgoing, incoming));
+                this.priorProb[incoming] -= Math.sqrt(weight);
             } else {
-                this.priorProb[incoming] -= (this.graph.getLogWeight(outgoing, incoming));
+                this.priorProb[incoming] -= weight;
             }
         }
     }
 
-    private void addActiveEdge(int outgoing, int incoming) {
+    /**
+     * @param weight log weight of the edge from outgoing to incoming
+     */
+    private void addActiveEdge(int outgoing, int incoming, double weight) {
         if (USE_MAX_PRIOR_PROBABILITY) {
-            final double newWeight = this.graph.getLogWeight(outgoing, incoming);
+            final double newWeight = weight;
             final double currentWeight = this.priorProb[incoming];
             if (newWeight>currentWeight){
                 this.priorProb[incoming] = newWeight;
             }
         } else {
             if (USE_SQRT_PRIOR_PROBABILITY){
-                this.priorProb[incoming] += Math.sqrt(this.graph.getLogWeight(outgoing, incoming));
+                this.priorProb[incoming] += Math.sqrt(weight);
             } else {
-                this.priorProb[incoming] += (this.graph.getLogWeight(outgoing, incoming));
+                this.priorProb[incoming] += weight;
             }
         }
     }
@@ -23,8 +23,6 @@ package de.unijena.bioinf.GibbsSampling.model;
 import de.unijena.bioinf.ChemistryBase.algorithm.scoring.Scored;
 import de.unijena.bioinf.jjobs.BasicJJob;
 import de.unijena.bioinf.jjobs.BasicMasterJJob;
-import de.unijena.bioinf.jjobs.JobProgressEvent;
-import de.unijena.bioinf.jjobs.JobProgressEventListener;
 import gnu.trove.map.hash.TObjectDoubleHashMap;
 import gnu.trove.set.hash.TIntHashSet;
 
@@ -34,13 +32,14 @@ import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 
-public class GibbsParallel<C extends Candidate<?>> extends BasicMasterJJob<CompoundResult<C>[]> implements JobProgressEventListener {
+public class GibbsParallel<C extends Candidate<?>> extends BasicMasterJJob<CompoundResult<C>[]> {
     private int repetitions;
     private final List<GibbsMFCorrectionNetwork> gibbsNetworks;
     private Scored<C>[][] sampling;
     private Graph graph;
     private int maxProgress;
-    private int currentProgress;
+    private long[] networkProgress;
+    private long currentProgress;
     private int step;
 
     public GibbsParallel(Graph<C> graph, int repetitions, TIntHashSet fixedCompounds) throws ExecutionException {
@@ -134,20 +133,53 @@ public class GibbsParallel<C extends Candidate<?>> extends BasicMasterJJob<Compo
         this.burnIn = burnIn;
     }
 
+    private double convergenceTolerance = 0d;
+    private int convergenceCheckInterval = -1;
+    private int[] iterationsUsed;
+    private int maxIterations;
+    private double potentialScaleReduction = Double.NaN;
+
+    /**
+     * enable early stopping of each Markov chain. See {@link GibbsMFCorrectionNetwork#setConvergenceCriterion(double, int)}
+     */
+    public void setConvergenceCriterion(double tolerance, int checkInterval) {
+        this.convergenceTolerance = tolerance;
+        this.convergenceCheckInterval = checkInterval;
+    }
+
+    /**
+     * @return number of epochs (including burn-in) each Markov chain actually sampled
+     */
+    public int[] getIterationsUsed() {
+        return iterationsUsed;
+    }
+
+    /**
+     * @return maximum Gelman-Rubin potential scale reduction factor over all candidates. Values close to 1 indicate that the chains agree.
+     * NaN if it cannot be estimated (e.g. only a single chain).
+     */
+    public double getPotentialScaleReduction() {
+        return potentialScaleReduction;
+    }
+
     @Override
     protected CompoundResult<C>[] compute() throws Exception {
         if (maxSteps<0 || burnIn<0) throw new IllegalArgumentException("Number of iterations steps not set.");
         final int maxStepProportioned = maxSteps / this.repetitions;
         maxProgress = maxStepProportioned*repetitions+burnIn*repetitions;
+        networkProgress = new long[gibbsNetworks.size()];
         currentProgress = 0;
-        step = maxProgress/20;
+        step = Math.max(1, maxProgress/20);
 
         updateProgress(0, maxProgress, 0, "Sample probabilities");
         List<BasicJJob> jobs = new ArrayList<>();
-        for (final GibbsMFCorrectionNetwork gibbsNetwork : gibbsNetworks) {
+        for (int k = 0; k < gibbsNetworks.size(); k++) {
             checkForInterruption();
+            final GibbsMFCorrectionNetwork gibbsNetwork = gibbsNetworks.get(k);
+            final int networkIdx = k;
             gibbsNetwork.setIterationSteps(maxStepProportioned, burnIn);
-            gibbsNetwork.addJobProgressListener(this);
+            gibbsNetwork.setConvergenceCriterion(convergenceTolerance, convergenceCheckInterval);
+            gibbsNetwork.addJobProgressListener(progressEvent -> progressChanged(networkIdx, progressEvent.getProgress()));
             jobs.add(gibbsNetwork);
             submitSubJob(gibbsNetwork);
         }
@@ -158,6 +190,10 @@ public class GibbsParallel<C extends Candidate<?>> extends BasicMasterJJob<Compo
             job.awaitResult();
         }
 
+        maxIterations = maxStepProportioned+burnIn;
+        computeConvergenceDiagnostics();
+        logDebug("Markov chains used "+Arrays.toString(iterationsUsed)+" of "+maxIterations+" epochs. Potential scale reduction: "+potentialScaleReduction);
+
         long start = System.currentTimeMillis();
         combineResults();
         logDebug("combined all results in: "+(System.currentTimeMillis()-start)+" ms");
@@ -169,14 +205,75 @@ public class GibbsParallel<C extends Candidate<?>> extends BasicMasterJJob<Compo
     }
 
 
+    private void computeConvergenceDiagnostics() {
+        iterationsUsed = new int[gibbsNetworks.size()];
+        final double[][] marginals = new double[gibbsNetworks.size()][];
+        final int[] samples = new int[gibbsNetworks.size()];
+        for (int k = 0; k < gibbsNetworks.size(); k++) {
+            final GibbsMFCorrectionNetwork gibbsNetwork = gibbsNetworks.get(k);
+            iterationsUsed[k] = gibbsNetwork.getIterationsUsed();
+            marginals[k] = gibbsNetwork.getCurrentMarginals();
+            samples[k] = gibbsNetwork.getNumberOfSamples();
+        }
+        potentialScaleReduction = computePotentialScaleReduction(marginals, samples);
+    }
+
+    /**
+     * Gelman-Rubin diagnostic on the indicator variable 'candidate is chosen' of each candidate.
+     * @param marginals estimated candidate probabilities per chain
+     * @param samples number of samples per chain
+     * @return the maximum potential scale reduction factor over all candidates
+     */
+    static double computePotentialScaleReduction(double[][] marginals, int[] samples) {
+        final int m = marginals.length;
+        if (m < 2) return Double.NaN;
+        double n = 0d;
+        for (int s : samples) {
+            if (s < 2) return Double.NaN;
+            n += s;
+        }
+        n /= m;
+
+        double maxR = Double.NaN;
+        for (int j = 0; j < marginals[0].length; j++) {
+            double mean = 0d, within = 0d;
+            for (int k = 0; k < m; k++) {
+                final double p = marginals[k][j];
+                mean += p;
+                within += p * (1 - p) * samples[k] / (samples[k] - 1);
+            }
+            mean /= m;
+            within /= m;
+            double betweenByN = 0d;
+            for (int k = 0; k < m; k++) {
+                final double d = marginals[k][j] - mean;
+                betweenByN += d * d;
+            }
+            betweenByN /= (m - 1);
+
+            final double r;
+            if (within <= 0) {
+                //all chains are stuck. Only converged if they are stuck at the same assignment.
+                if (betweenByN <= 0) continue;
+                r = Double.POSITIVE_INFINITY;
+            } else {
+                r = Math.sqrt(((n - 1) / n * within + betweenByN) / within);
+            }
+            if (Double.isNaN(maxR) || r > maxR) maxR = r;
+        }
+        return Double.isNaN(maxR) ? 1d : maxR;
+    }
+
     protected CompoundResult<C>[] createCompoundResults(){
         final String[] ids = graph.getIds();
         final CompoundResult<C>[] results = new CompoundResult[ids.length];
+        final SamplingConvergence convergence = new SamplingConvergence(iterationsUsed, maxIterations, potentialScaleReduction);
         for (int i = 0; i < ids.length; i++) {
             String id = ids[i];
             Scored<C>[] candidates = sampling[i];
             final CompoundResult<C> compoundResult = new CompoundResult(id, candidates);
             compoundResult.addAnnotation(Connectivity.class, new Connectivity(graph.getMaxNumberOfConnectedCompounds(i)));
+            compoundResult.addAnnotation(SamplingConvergence.class, convergence);
             results[i] = compoundResult;
         }
         return results;
@@ -196,12 +293,16 @@ public class GibbsParallel<C extends Candidate<?>> extends BasicMasterJJob<Compo
     }
 
 
-    @Override
-    public void progressChanged(JobProgressEvent progressEvent) {
-        long progress = progressEvent.getProgress();
-        if (progress<=0) return;
-        ++currentProgress;
-        if(currentProgress % step == 0) {
+    /*
+    a chain which stops early reports all its epochs as done, so the progress is the sum over the latest progress of each chain
+     */
+    private synchronized void progressChanged(int networkIdx, long progress) {
+        if (progress <= networkProgress[networkIdx]) return;
+        final long before = currentProgress;
+        currentProgress += progress - networkProgress[networkIdx];
+        networkProgress[networkIdx] = progress;
+        updateProgress(0, maxProgress, currentProgress, "Sample probabilities");
+        if (currentProgress / step > before / step) {
             logInfo((100*(currentProgress)/maxProgress)+"%");
         }
     }
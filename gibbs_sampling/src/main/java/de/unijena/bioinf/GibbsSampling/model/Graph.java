@@ -43,6 +43,13 @@ public class Graph<C extends Candidate<?>> {
     protected final String[] ids;
     protected Scored<C>[][] possibleFormulas;
     protected Scored<C>[] possibleFormulas1D;
+    /*
+    compressed sparse row representation of the connections, set by freeze().
+    edges of candidate i are stored at positions edgeOffsets[i] to edgeOffsets[i+1]-1, sorted by target.
+     */
+    protected int[] edgeOffsets;
+    protected int[] edgeTargets;
+    protected float[] edgeLogWeights;
 //    private EdgeScorer<C>[] edgeScorers;
 //    private EdgeFilter edgeFilter;
 
@@ -141,25 +148,99 @@ public class Graph<C extends Candidate<?>> {
 
     }
 
+    /**
+     * Replaces the hash based edge maps and the connections by a compressed sparse row representation:
+     * one array of offsets per candidate, one array of targets sorted per candidate and one array of log-weights.
+     * Afterwards the graph is read-only, weights are stored with float precision and only edges contained in
+     * the connections are kept. All other weights are 0, as before.
+     * Must be called after the connections are set and before the graph is shared between threads.
+     */
+    public synchronized void freeze() {
+        if (isFrozen()) return;
+        if (connections == null) throw new IllegalStateException("Connections are not set. Cannot freeze graph.");
+        final int[] offsets = new int[size + 1];
+        for (int i = 0; i < size; i++) {
+            offsets[i + 1] = offsets[i] + connections[i].length;
+        }
+        final int[] targets = new int[offsets[size]];
+        final float[] logWeights = new float[offsets[size]];
+        for (int i = 0; i < size; i++) {
+            final int[] conns = connections[i].clone();
+            Arrays.sort(conns);
+            int pos = offsets[i];
+            for (int c : conns) {
+                targets[pos] = c;
+                logWeights[pos] = (float) getLogWeight(i, c);
+                ++pos;
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            indexMap[i] = null;
+            weights[i] = null;
+        }
+        connections = null;
+        edgeTargets = targets;
+        edgeLogWeights = logWeights;
+        edgeOffsets = offsets;
+    }
+
+    public boolean isFrozen() {
+        return edgeOffsets != null;
+    }
+
+    /**
+     * @return position of the first edge of candidate i. Only available after {@link #freeze()}.
+     */
+    public int getEdgesStart(int i) {
+        return edgeOffsets[i];
+    }
+
+    /**
+     * @return position after the last edge of candidate i. Only available after {@link #freeze()}.
+     */
+    public int getEdgesEnd(int i) {
+        return edgeOffsets[i + 1];
+    }
+
+    public int getEdgeTarget(int pos) {
+        return edgeTargets[pos];
+    }
+
+    public double getEdgeLogWeight(int pos) {
+        return edgeLogWeights[pos];
+    }
+
+    private int findEdge(int i, int j) {
+        return Arrays.binarySearch(edgeTargets, edgeOffsets[i], edgeOffsets[i + 1], j);
+    }
+
     public double getLogWeight(int i, int j) {
+        if (isFrozen()) {
+            final int pos = findEdge(i, j);
+            return pos < 0 ? 0.0D : edgeLogWeights[pos];
+        }
         int relJ = this.indexMap[i].get(j);
         return relJ < 0?0.0D:this.weights[i].get(relJ);
     }
 
     public int getNumberOfConnections(int i) {
+        if (isFrozen()) return edgeOffsets[i + 1] - edgeOffsets[i];
         return this.weights[i].size();
     }
 
     public int[] getLogWeightConnections(int i) {
+        if (isFrozen()) return getConnections(i);
         return this.indexMap[i].keys();
     }
 
     public boolean hasLogWeightConnections(int i, int j) {
+        if (isFrozen()) return findEdge(i, j) >= 0;
         return this.indexMap[i].containsKey(j);
     }
 
     public void setLogWeight(int i, int j, double weight) {
         assert !Double.isNaN(weight);
+        if (isFrozen()) throw new IllegalStateException("Graph is frozen. Cannot change edge weights.");
 
         int relJ = this.indexMap[i].get(j);
         if(relJ < 0) {
@@ -180,10 +261,21 @@ public class Graph<C extends Candidate<?>> {
     }
 
     public int[][] getConnections() {
+        if (isFrozen()) {
+            final int[][] conns = new int[size][];
+            for (int i = 0; i < size; i++) {
+                conns[i] = getConnections(i);
+            }
+            return conns;
+        }
         return this.connections;
     }
 
+    /**
+     * for frozen graphs this returns a copy. Use {@link #getEdgesStart(int)} and {@link #getEdgesEnd(int)} in performance critical code.
+     */
     public int[] getConnections(int index) {
+        if (isFrozen()) return Arrays.copyOfRange(edgeTargets, edgeOffsets[index], edgeOffsets[index + 1]);
         return this.connections[index];
     }
 
@@ -508,7 +600,7 @@ public class Graph<C extends Candidate<?>> {
     }
 
     protected boolean isSymmetricSparse() {
-        return isSymmetricSparse(connections);
+        return isSymmetricSparse(getConnections());
     }
 
     private boolean isSymmetricSparse(int[][] connections) {
@@ -593,7 +685,7 @@ public class Graph<C extends Candidate<?>> {
     }
 
     protected boolean arePeaksConnected(){
-        return arePeaksConnected(connections);
+        return arePeaksConnected(getConnections());
     }
 
     private boolean arePeaksConnected(int[][] connections){
@@ -845,7 +937,12 @@ public class Graph<C extends Candidate<?>> {
         }
 
 
-        return new Graph<C>(this.ids, possibleFormulasSorted, indexMap.clone(), weights, connections.clone(), edgeThresholds);
+        final Graph<C> graph = new Graph<C>(this.ids, possibleFormulasSorted, indexMap.clone(), weights, connections==null ? null : connections.clone(), edgeThresholds);
+        //frozen edges are immutable and can be shared
+        graph.edgeTargets = edgeTargets;
+        graph.edgeLogWeights = edgeLogWeights;
+        graph.edgeOffsets = edgeOffsets;
+        return graph;
 
     }
 
@@ -935,6 +1032,111 @@ public class Graph<C extends Candidate<?>> {
 
     }
 
+    /**
+     * Compounds are connected if any of their candidates share an edge.
+     * @return compound indices of each connected component in ascending order, largest component first
+     */
+    public int[][] getConnectedComponents() {
+        final int numberOfCompounds = numberOfCompounds();
+        final int[] parent = new int[numberOfCompounds];
+        for (int i = 0; i < numberOfCompounds; i++) parent[i] = i;
+
+        for (int i = 0; i < size; i++) {
+            final int peakIdx = getPeakIdx(i);
+            if (isFrozen()) {
+                for (int k = edgeOffsets[i]; k < edgeOffsets[i + 1]; k++) {
+                    union(parent, peakIdx, getPeakIdx(edgeTargets[k]));
+                }
+            } else {
+                for (int c : connections[i]) {
+                    union(parent, peakIdx, getPeakIdx(c));
+                }
+            }
+        }
+
+        final Map<Integer, TIntArrayList> rootToComponent = new LinkedHashMap<>();
+        for (int i = 0; i < numberOfCompounds; i++) {
+            rootToComponent.computeIfAbsent(find(parent, i), k -> new TIntArrayList()).add(i);
+        }
+        //stable sort keeps components of equal size ordered by their first compound
+        return rootToComponent.values().stream()
+                .map(TIntArrayList::toArray)
+                .sorted(Comparator.comparingInt((int[] c) -> c.length).reversed())
+                .toArray(int[][]::new);
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int i, int j) {
+        final int rootI = find(parent, i);
+        final int rootJ = find(parent, j);
+        if (rootI != rootJ) parent[Math.max(rootI, rootJ)] = Math.min(rootI, rootJ);
+    }
+
+    /**
+     * Creates the graph induced by the given compounds, e.g. one of {@link #getConnectedComponents()}.
+     * The graph is frozen if necessary and the returned graph is frozen as well. Candidates keep their index in this graph.
+     * @param compoundIndices ascending compound indices. None of their candidates may have an edge to any other compound.
+     */
+    public Graph<C> extractComponent(int[] compoundIndices) {
+        freeze();
+        final int[] oldToNew = new int[size];
+        Arrays.fill(oldToNew, -1);
+        int newSize = 0;
+        for (int compoundIdx : compoundIndices) {
+            for (int i = getPeakLeftBoundary(compoundIdx); i <= getPeakRightBoundary(compoundIdx); i++) {
+                oldToNew[i] = newSize++;
+            }
+        }
+
+        final String[] ids2 = new String[compoundIndices.length];
+        final Scored<C>[][] possibleFormulas2 = new Scored[compoundIndices.length][];
+        final double[] edgeThresholds2 = new double[newSize];
+        final int[] edgeOffsets2 = new int[newSize + 1];
+        int numberOfEdges = 0;
+        for (int compoundIdx : compoundIndices) {
+            for (int i = getPeakLeftBoundary(compoundIdx); i <= getPeakRightBoundary(compoundIdx); i++) {
+                numberOfEdges += getNumberOfConnections(i);
+            }
+        }
+        final int[] edgeTargets2 = new int[numberOfEdges];
+        final float[] edgeLogWeights2 = new float[numberOfEdges];
+
+        int pos = 0;
+        for (int k = 0; k < compoundIndices.length; k++) {
+            final int compoundIdx = compoundIndices[k];
+            if (k > 0 && compoundIdx <= compoundIndices[k - 1]) throw new IllegalArgumentException("compound indices must be sorted ascending");
+            ids2[k] = ids[compoundIdx];
+            possibleFormulas2[k] = possibleFormulas[compoundIdx];
+            for (int i = getPeakLeftBoundary(compoundIdx); i <= getPeakRightBoundary(compoundIdx); i++) {
+                final int newIdx = oldToNew[i];
+                edgeThresholds2[newIdx] = edgeThresholds[i];
+                edgeOffsets2[newIdx] = pos;
+                for (int e = edgeOffsets[i]; e < edgeOffsets[i + 1]; e++) {
+                    final int target = oldToNew[edgeTargets[e]];
+                    if (target < 0) throw new IllegalArgumentException("compound "+ids[compoundIdx]+" is connected to a compound outside the component");
+                    //mapping is monotone, so targets stay sorted
+                    edgeTargets2[pos] = target;
+                    edgeLogWeights2[pos] = edgeLogWeights[e];
+                    ++pos;
+                }
+            }
+        }
+        edgeOffsets2[newSize] = pos;
+
+        final Graph<C> graph = new Graph<C>(ids2, possibleFormulas2, new TIntIntHashMap[newSize], new TDoubleArrayList[newSize], null, edgeThresholds2);
+        graph.edgeTargets = edgeTargets2;
+        graph.edgeLogWeights = edgeLogWeights2;
+        graph.edgeOffsets = edgeOffsets2;
+        return graph;
+    }
+
     public int getNumberOfConnectedCompounds(int peakdIdx, C candidate) {
         Scored<C>[] candidates = getPossibleFormulas(peakdIdx);
         for (int i = 0; i < candidates.length; i++) {
@@ -30,6 +30,7 @@ import de.unijena.bioinf.jjobs.JobProgressEvent;
 import de.unijena.bioinf.jjobs.JobProgressEventListener;
 import gnu.trove.list.TDoubleList;
 import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.procedure.TDoubleProcedure;
 import gnu.trove.set.hash.TIntHashSet;
 import org.slf4j.LoggerFactory;
@@ -53,6 +54,12 @@ public class GraphBuilder<C extends Candidate<?>> extends BasicMasterJJob<Graph<
     private double step;
     private int size;
 
+    /*
+    if possible, only score candidate pairs with enough common fragments and losses instead of all pairs
+     */
+    private boolean useFragmentIndex = true;
+    private FragmentAndLossIndex fragmentIndex;
+
     public GraphBuilder(Graph<C> graph, EdgeScorer<C>[] edgeScorers, EdgeFilter edgeFilter, Class<C> cClass) {
         super(JobType.CPU);
         this.graph = graph;
@@ -114,6 +121,19 @@ public class GraphBuilder<C extends Candidate<?>> extends BasicMasterJJob<Graph<
         return Graph.getGraph(filteredIds, scoredPossibleFormulas);
     }
 
+    /**
+     * @param useFragmentIndex if true (default) and all {@link EdgeScorer}s are based on common fragments and losses,
+     *                         only candidate pairs sharing enough fragments and losses are scored. Otherwise all pairs are scored.
+     *                         The resulting graph is the same.
+     */
+    public void setUseFragmentIndex(boolean useFragmentIndex) {
+        this.useFragmentIndex = useFragmentIndex;
+    }
+
+    public boolean isUseFragmentIndex() {
+        return useFragmentIndex;
+    }
+
     private static boolean isFixed(TIntHashSet fixedCompounds, int i) {
         if (fixedCompounds==null) return false;
         if (fixedCompounds.contains(i)) return true;
@@ -135,6 +155,8 @@ public class GraphBuilder<C extends Candidate<?>> extends BasicMasterJJob<Graph<
                 if (GibbsMFCorrectionNetwork.DEBUG) System.out.println("thinning out graph in "+(System.currentTimeMillis()-time)+" ms");
             }
         }
+        //compact read-only edge representation for sampling
+        graph.freeze();
         return graph;
     }
 
@@ -190,6 +212,11 @@ public class GraphBuilder<C extends Candidate<?>> extends BasicMasterJJob<Graph<
         logDebug("computing edges");
         long start = System.currentTimeMillis();
 
+        fragmentIndex = useFragmentIndex ? FragmentAndLossIndex.createIndexIfApplicable(graph, edgeScorers) : null;
+        if (fragmentIndex != null) {
+            logInfo("using fragment and loss index to compute edges. Index built after "+(System.currentTimeMillis()-start));
+        }
+
         List<Integer> allIndices = new ArrayList<>(size);
         for (int i = 0; i < size; i++) {
             allIndices.add(i);
@@ -209,6 +236,7 @@ public class GraphBuilder<C extends Candidate<?>> extends BasicMasterJJob<Graph<
         for (BasicJJob job : jobs) {
             job.awaitResult();
         }
+        fragmentIndex = null;
         logInfo("finished computing edges after "+(System.currentTimeMillis()-start));
 
     }
@@ -305,30 +333,39 @@ public class GraphBuilder<C extends Candidate<?>> extends BasicMasterJJob<Graph<
         @Override
         protected Object compute() throws Exception {
             final int edgesPerPercentagePoint = (int)Math.max(1, Math.floor(totalEdges/100d));
+            final FragmentAndLossIndex index = fragmentIndex;
+            final int[] sharedCounts = index==null ? null : new int[graph.getSize()];
+            final TIntArrayList touched = new TIntArrayList();
+            final TIntArrayList partners = new TIntArrayList();
             while (!remainingCandidates.isEmpty()){
                 Integer idx = remainingCandidates.poll();
                 if (idx==null) continue;
                 final C candidate = graph.getPossibleFormulas1D(idx).getCandidate();
 
-                TDoubleArrayList scores = new TDoubleArrayList(graph.getSize());
-
-                for(int j = 0; j < graph.getSize(); ++j) {
-                    if(graph.getPeakIdx(idx) == graph.getPeakIdx(j)) {
-                        scores.add(0.0D);
-                    } else {
-                        C candidate2 = graph.getPossibleFormulas1D(j).getCandidate();
-                        double score = 0.0D;
-
-                        for(int k = 0; k < edgeScorers.length; ++k) {
-                            EdgeScorer edgeScorer = edgeScorers[k];
-                            score += edgeScorer.score(candidate, candidate2);
+                final double[] scores;
+                if (index==null) {
+                    scores = new double[graph.getSize()];
+                    for(int j = 0; j < graph.getSize(); ++j) {
+                        if(graph.getPeakIdx(idx) == graph.getPeakIdx(j)) {
+                            scores[j] = 0.0D;
+                        } else {
+                            scores[j] = scoreEdge(candidate, graph.getPossibleFormulas1D(j).getCandidate());
                         }
-
-                        scores.add(score);
+                    }
+                } else {
+                    //only pairs with enough common fragments and losses can have a score different from the non-matching score
+                    scores = new double[graph.getSize()];
+                    Arrays.fill(scores, index.getNonMatchingScore());
+                    final int peakIdx = graph.getPeakIdx(idx);
+                    Arrays.fill(scores, graph.getPeakLeftBoundary(peakIdx), graph.getPeakRightBoundary(peakIdx)+1, 0.0D);
+                    index.collectCandidatePartners(idx, sharedCounts, touched, partners);
+                    for (int k = 0; k < partners.size(); k++) {
+                        final int j = partners.getQuick(k);
+                        scores[j] = scoreEdge(candidate, graph.getPossibleFormulas1D(j).getCandidate());
                     }
                 }
 
-                edgeFilter.filterEdgesAndSetThreshold(graph, idx, scores.toArray());
+                edgeFilter.filterEdgesAndSetThreshold(graph, idx, scores);
 
                 ++computedEdges;
                 if (computedEdges%edgesPerPercentagePoint==0 && totalEdges>0) {
@@ -340,5 +377,14 @@ public class GraphBuilder<C extends Candidate<?>> extends BasicMasterJJob<Graph<
             }
             return null;
         }
+
+        private double scoreEdge(C candidate, C candidate2) {
+            double score = 0.0D;
+            for(int k = 0; k < edgeScorers.length; ++k) {
+                EdgeScorer edgeScorer = edgeScorers[k];
+                score += edgeScorer.score(candidate, candidate2);
+            }
+            return score;
+        }
     }
 }
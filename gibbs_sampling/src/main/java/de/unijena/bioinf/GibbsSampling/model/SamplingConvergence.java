@@ -0,0 +1,65 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.GibbsSampling.model;
+
+/**
+ * Convergence diagnostics of the Markov chains that sampled the connected component of a compound.
+ * Not present for compounds without any edge, since these are scored directly.
+ */
+public class SamplingConvergence {
+    private final int[] iterationsUsed;
+    private final int maxIterations;
+    private final double potentialScaleReduction;
+
+    public SamplingConvergence(int[] iterationsUsed, int maxIterations, double potentialScaleReduction) {
+        this.iterationsUsed = iterationsUsed.clone();
+        this.maxIterations = maxIterations;
+        this.potentialScaleReduction = potentialScaleReduction;
+    }
+
+    /**
+     * @return number of epochs (including burn-in) each Markov chain actually sampled
+     */
+    public int[] getIterationsUsed() {
+        return iterationsUsed.clone();
+    }
+
+    /**
+     * @return number of epochs (including burn-in) each Markov chain would have sampled without early stopping
+     */
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    /**
+     * @return maximum Gelman-Rubin potential scale reduction factor over all candidates. NaN if it could not be estimated.
+     */
+    public double getPotentialScaleReduction() {
+        return potentialScaleReduction;
+    }
+
+    public boolean isStoppedEarly() {
+        for (int used : iterationsUsed) {
+            if (used < maxIterations) return true;
+        }
+        return false;
+    }
+}
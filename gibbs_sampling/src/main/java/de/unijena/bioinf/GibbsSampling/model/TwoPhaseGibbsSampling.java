@@ -55,7 +55,7 @@ public class TwoPhaseGibbsSampling<C extends Candidate<?>> extends BasicMasterJJ
     private String[] usedIds;
 
     private Graph<C> graph;
-    private GibbsParallel<C> gibbsParallel;
+    private ComponentGibbsParallel<C> gibbsParallel;
     private String[] firstRoundIds;
     private TIntArrayList firstRoundCompoundsIdx;
 
@@ -160,6 +160,17 @@ public class TwoPhaseGibbsSampling<C extends Candidate<?>> extends BasicMasterJJ
         this.burnIn = burnIn;
     }
 
+    private double convergenceTolerance = 0d;
+    private int convergenceCheckInterval = -1;
+
+    /**
+     * enable early stopping of the Markov chains in both rounds. See {@link GibbsMFCorrectionNetwork#setConvergenceCriterion(double, int)}
+     */
+    public void setConvergenceCriterion(double tolerance, int checkInterval) {
+        this.convergenceTolerance = tolerance;
+        this.convergenceCheckInterval = checkInterval;
+    }
+
     @Override
     protected ZodiacResult<C> compute() throws Exception {
         if (maxSteps<0 || burnIn<0) throw new IllegalArgumentException("number of iterations steps not set.");
@@ -168,8 +179,9 @@ public class TwoPhaseGibbsSampling<C extends Candidate<?>> extends BasicMasterJJ
         checkForInterruption();
         logInfo("Running ZODIAC with "+firstRoundIds.length+" of "+ids.length+" compounds.");
         Graph.validateAndThrowError(graph, this::logWarn);
-        gibbsParallel = new GibbsParallel<>(graph, repetitions);
+        gibbsParallel = new ComponentGibbsParallel<>(graph, repetitions);
         gibbsParallel.setIterationSteps(maxSteps, burnIn);
+        gibbsParallel.setConvergenceCriterion(convergenceTolerance, convergenceCheckInterval);
         long start = System.currentTimeMillis();
         submitSubJob(gibbsParallel);
         checkForInterruption();
@@ -204,8 +216,9 @@ public class TwoPhaseGibbsSampling<C extends Candidate<?>> extends BasicMasterJJ
             checkForInterruption();
             Graph.validateAndThrowError(graph, this::logWarn);
 
-            gibbsParallel = new GibbsParallel<>(graph, repetitions, fixedIds);
+            gibbsParallel = new ComponentGibbsParallel<>(graph, repetitions, fixedIds);
             gibbsParallel.setIterationSteps(maxSteps, burnIn);
+            gibbsParallel.setConvergenceCriterion(convergenceTolerance, convergenceCheckInterval);
             submitSubJob(gibbsParallel);
 
             results2 = gibbsParallel.awaitResult();
@@ -23,7 +23,6 @@ package de.unijena.bioinf.GibbsSampling.model.scorer;
 import de.unijena.bioinf.ChemistryBase.chem.Ionization;
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
 import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
-import de.unijena.bioinf.ChemistryBase.math.MatrixUtils;
 import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
 import de.unijena.bioinf.GibbsSampling.model.*;
 import de.unijena.bioinf.jjobs.BasicJJob;
@@ -33,9 +32,11 @@ import gnu.trove.map.hash.TObjectDoubleHashMap;
 import gnu.trove.map.hash.TObjectIntHashMap;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 public class CommonFragmentAndLossScorer implements EdgeScorer<FragmentsCandidate> {
@@ -49,6 +50,8 @@ public class CommonFragmentAndLossScorer implements EdgeScorer<FragmentsCandidat
     protected TObjectDoubleHashMap<Ms2Experiment> normalizationMap;
     PeakWithExplanation[][] allFragmentPeaks;
     PeakWithExplanation[][] allLossPeaks;
+    //index on packed formulas of allFragmentPeaks and allLossPeaks. null if formulas could not be packed
+    PackedPeakIndex peakIndex;
     double[] norm;
     private double used_minimum_number_matched_peaks_losses = Double.NaN;
 
@@ -96,25 +99,17 @@ public class CommonFragmentAndLossScorer implements EdgeScorer<FragmentsCandidat
                 this.maybeSimilar[i] = new BitSet(i+1);
 
             }
+            peakIndex = PackedPeakIndex.build(allFragmentPeaks, allLossPeaks);
 
             LoggerFactory.getLogger(CommonFragmentAndLossScorer.class).debug("prepare, computed maps in "+(System.currentTimeMillis()-start));
         }
 
         long start = System.currentTimeMillis();
+        final int minShared = minimumNumberOfSharedFragmentsAndLosses(minimum_number_matched_peaks_losses);
+        final int[] upperBound = new int[allFragmentPeaks.length];
+        final int[] partners = new int[allFragmentPeaks.length];
         for(int i = 0; i < allFragmentPeaks.length; ++i) {
-            for(int j = 0; j < i; ++j) {
-                final double commonL = this.scoreCommons(allFragmentPeaks[i], allFragmentPeaks[j]);
-                final double commonF = this.scoreCommons(allLossPeaks[i], allLossPeaks[j]);
-
-                final double sumFLMinusMinCount = commonF+commonL-minimum_number_matched_peaks_losses;
-                final double score =  ((sumFLMinusMinCount) / norm[i]) + ((sumFLMinusMinCount) / norm[j]);
-
-                if((sumFLMinusMinCount>0) && (score >= this.threshold)){
-                    this.maybeSimilar[i].set(j);
-
-                }
-
-            }
+            computeMaybeSimilar(i, minimum_number_matched_peaks_losses, minShared, upperBound, partners);
         }
 
         int sum = 0;
@@ -379,29 +374,37 @@ public class CommonFragmentAndLossScorer implements EdgeScorer<FragmentsCandidat
                             return "";
                         }
                     }).takeResult();
+                    peakIndex = PackedPeakIndex.build(allFragmentPeaks, allLossPeaks);
 
                     System.out.println("STEP 2");
 
                 }
 
                 System.out.println("STEP 3");
-                submitSubJob(MatrixUtils.parallelizeSymmetricMatrixComputation(allFragmentPeaks.length, (i,j)->{
-                    if(i!=j) {
-                        final double commonL = scoreCommons(allFragmentPeaks[i], allFragmentPeaks[j]);
-                        final double commonF = scoreCommons(allLossPeaks[i], allLossPeaks[j]);
-
-                        final double extraPenaltyForLargeTrees = (int)Math.min(allFragmentPeaks[i].length*0.1, allFragmentPeaks[j].length*0.1);
-
-                        final double sumFLMinusMinCount = commonF + commonL - minimum_number_matched_peaks_losses;
-                        final double score = ((sumFLMinusMinCount) / norm[i]) + ((sumFLMinusMinCount) / norm[j]);
-
-//                        if ((sumFLMinusMinCount > 0) && (score >= threshold)  &&   (commonF+commonL > extraPenaltyForLargeTrees)) {
-                        //todo do not penalize large trees for now
-                        if ((sumFLMinusMinCount > 0) && (score >= threshold)) {
-                            maybeSimilar[i].set(j);
+                final int minShared = minimumNumberOfSharedFragmentsAndLosses(minimum_number_matched_peaks_losses);
+                final int n = allFragmentPeaks.length;
+                //rows are split into buckets with roughly the same number of compound pairs (row i has i pairs)
+                final int numberOfBuckets = Math.max(1, Math.min(n, 4 * jobManager.getCPUThreads()));
+                final List<BasicJJob<Object>> jobs = new ArrayList<>(numberOfBuckets);
+                for (int b = 0; b < numberOfBuckets; b++) {
+                    final int from = bucketBoundary(n, b, numberOfBuckets);
+                    final int to = bucketBoundary(n, b + 1, numberOfBuckets);
+                    if (from >= to) continue;
+                    jobs.add(submitSubJob(new BasicJJob<Object>() {
+                        @Override
+                        protected Object compute() throws Exception {
+                            final int[] upperBound = new int[n];
+                            final int[] partners = new int[n];
+                            for (int i = from; i < to; i++) {
+                                computeMaybeSimilar(i, minimum_number_matched_peaks_losses, minShared, upperBound, partners);
+                            }
+                            return "";
                         }
-                    }
-                })).takeResult();
+                    }));
+                }
+                for (BasicJJob<Object> job : jobs) {
+                    job.takeResult();
+                }
 
                 System.out.println("STEP 4");
 
@@ -419,6 +422,42 @@ public class CommonFragmentAndLossScorer implements EdgeScorer<FragmentsCandidat
         };
     }
 
+    private static int bucketBoundary(int n, int bucket, int numberOfBuckets) {
+        return (int)Math.round(n * Math.sqrt(((double)bucket) / numberOfBuckets));
+    }
+
+    /**
+     * computes which compounds j &lt; i might be similar to compound i. Only compounds sharing enough packed fragment or loss
+     * formulas are compared if the index is available.
+     * @param upperBound working array of size number of compounds, all zero
+     * @param partners working array of size number of compounds
+     */
+    private void computeMaybeSimilar(int i, double minimum_number_matched_peaks_losses, int minShared, int[] upperBound, int[] partners) {
+        final BitSet similar = maybeSimilar[i];
+        similar.clear();
+        if (peakIndex != null && minShared > 0) {
+            final int numberOfPartners = peakIndex.collectPartners(i, minShared, upperBound, partners);
+            for (int k = 0; k < numberOfPartners; k++) {
+                final int j = partners[k];
+                if (isMaybeSimilar(i, j, minimum_number_matched_peaks_losses)) similar.set(j);
+            }
+        } else {
+            for (int j = 0; j < i; ++j) {
+                if (isMaybeSimilar(i, j, minimum_number_matched_peaks_losses)) similar.set(j);
+            }
+        }
+    }
+
+    private boolean isMaybeSimilar(int i, int j, double minimum_number_matched_peaks_losses) {
+        final double commonL = scoreCommons(allFragmentPeaks[i], allFragmentPeaks[j]);
+        final double commonF = scoreCommons(allLossPeaks[i], allLossPeaks[j]);
+
+        final double sumFLMinusMinCount = commonF + commonL - minimum_number_matched_peaks_losses;
+        final double score = ((sumFLMinusMinCount) / norm[i]) + ((sumFLMinusMinCount) / norm[j]);
+
+        return (sumFLMinusMinCount > 0) && (score >= threshold);
+    }
+
     protected double scoreCommons(PeakWithExplanation[] peaks1, PeakWithExplanation[] peaks2){
         if (peaks1.length==0 || peaks2.length==0) return 0d;
         double commonScore = 0;
@@ -428,7 +467,7 @@ public class CommonFragmentAndLossScorer implements EdgeScorer<FragmentsCandidat
         double mz2 = peaks2[0].mass;
 
         while(i < peaks1.length && j < peaks2.length) {
-            boolean match = hasMatch(peaks1[i].formulas, peaks2[j].formulas);
+            boolean match = hasMatch(peaks1[i], peaks2[j]);
             int compare = Double.compare(mz1, mz2);
             if(match) {
                 commonScore += scoreMatchedPeaks(peaks1[i], peaks2[j]);
@@ -464,6 +503,28 @@ public class CommonFragmentAndLossScorer implements EdgeScorer<FragmentsCandidat
         return 1;
     }
 
+    private boolean hasMatch(PeakWithExplanation peak1, PeakWithExplanation peak2){
+        if (peak1.packedFormulas != null && peak2.packedFormulas != null) {
+            return hasMatch(peak1.packedFormulas, peak2.packedFormulas);
+        }
+        return hasMatch(peak1.formulas, peak2.formulas);
+    }
+
+    private boolean hasMatch(long[] fragments1, long[] fragments2){
+        int i = 0;
+        int j = 0;
+        while(i < fragments1.length && j < fragments2.length) {
+            if(fragments1[i] < fragments2[j]) {
+                ++i;
+            } else if(fragments1[i] > fragments2[j]) {
+                ++j;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private boolean hasMatch(MolecularFormula[] fragments1, MolecularFormula[] fragments2){
         int i = 0;
         int j = 0;
@@ -513,9 +574,32 @@ public class CommonFragmentAndLossScorer implements EdgeScorer<FragmentsCandidat
         return 1;
     }
 
+    /**
+     * @return upper bound of {@link #scoreMatchedFragments(FragmentWithIndex, FragmentWithIndex)}
+     */
+    protected double getMaximumMatchScore() {
+        return 1d;
+    }
+
+    /**
+     * Candidates sharing fewer fragment and loss formulas than this number always have a {@link #score} of 0.
+     * Used to build sparse graphs from an index instead of scoring all candidate pairs.
+     * @return the minimum number of common fragments and losses for a non-zero score or 0 if there is no such bound
+     */
+    public int getMinimumNumberOfSharedFragmentsAndLosses() {
+        return minimumNumberOfSharedFragmentsAndLosses(MINIMUM_NUMBER_MATCHED_PEAKS_LOSSES);
+    }
+
+    private int minimumNumberOfSharedFragmentsAndLosses(double minimum_number_matched_peaks_losses) {
+        if (minimum_number_matched_peaks_losses < 0) return 0;
+        return (int)Math.floor(minimum_number_matched_peaks_losses / getMaximumMatchScore()) + 1;
+    }
+
 
     static class PeakWithExplanation implements Comparable<PeakWithExplanation>{
         MolecularFormula[] formulas;
+        //sorted packed formulas. Replaces formulas once the peaks are indexed by PackedPeakIndex
+        long[] packedFormulas;
         double mass;
         double bestScore;
 
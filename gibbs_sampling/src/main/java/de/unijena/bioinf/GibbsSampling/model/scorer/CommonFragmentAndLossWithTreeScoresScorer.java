@@ -170,4 +170,10 @@ public class CommonFragmentAndLossWithTreeScoresScorer extends CommonFragmentAnd
     protected double scoreMatchedFragments(FragmentWithIndex fragment1, FragmentWithIndex fragment2){
         return Math.max(0, Math.min(fragment1.getScore(),fragment2.getScore()));//changed to take minimum score of both (at least enables reasonable normalization)
     }
+
+    @Override
+    protected double getMaximumMatchScore() {
+        //tree scores are not bounded
+        return Double.POSITIVE_INFINITY;
+    }
 }
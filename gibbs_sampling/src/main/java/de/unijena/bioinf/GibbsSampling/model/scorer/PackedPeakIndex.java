@@ -0,0 +1,245 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.GibbsSampling.model.scorer;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.utils.FormulaEncodingError;
+import de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPacker;
+import gnu.trove.map.hash.TLongIntHashMap;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Inverted index from packed fragment and loss formulas to the compounds whose peaks are explained by these formulas.
+ * Used by {@link CommonFragmentAndLossScorer} to only compare compound pairs which share enough explanations.
+ * Fragments and losses use disjoint key ids, so a fragment never matches a loss.
+ * All arrays are flat, so the index is linear in the number of peak explanations.
+ */
+class PackedPeakIndex {
+
+    private final int numberOfCompounds;
+    //compound -> range of its key ids and the number of its peaks explained by each key
+    private final int[] compoundOffsets;
+    private final int[] compoundKeys;
+    private final int[] compoundKeyCounts;
+    //key id -> range of compounds (ascending) containing this key and the corresponding number of peaks
+    private final int[] postingOffsets;
+    private final int[] postingCompounds;
+    private final int[] postingCounts;
+
+    private PackedPeakIndex(int numberOfCompounds, int[] compoundOffsets, int[] compoundKeys, int[] compoundKeyCounts, int[] postingOffsets, int[] postingCompounds, int[] postingCounts) {
+        this.numberOfCompounds = numberOfCompounds;
+        this.compoundOffsets = compoundOffsets;
+        this.compoundKeys = compoundKeys;
+        this.compoundKeyCounts = compoundKeyCounts;
+        this.postingOffsets = postingOffsets;
+        this.postingCompounds = postingCompounds;
+        this.postingCounts = postingCounts;
+    }
+
+    /**
+     * Packs the formulas of all peaks into sorted long arrays ({@link CommonFragmentAndLossScorer.PeakWithExplanation#packedFormulas}) and builds the index.
+     * @return the index or null if the formulas cannot be packed. In this case the peaks are not changed.
+     */
+    static PackedPeakIndex build(CommonFragmentAndLossScorer.PeakWithExplanation[][] fragmentPeaks, CommonFragmentAndLossScorer.PeakWithExplanation[][] lossPeaks) {
+        final MolecularFormulaPacker packer = createPacker(fragmentPeaks, lossPeaks);
+        if (packer == null) return null;
+        final long[][][] packedFragments = pack(packer, fragmentPeaks);
+        final long[][][] packedLosses = pack(packer, lossPeaks);
+        if (packedFragments == null || packedLosses == null) return null;
+
+        final TLongIntHashMap fragmentIds = assignKeyIds(packedFragments, 0);
+        final TLongIntHashMap lossIds = assignKeyIds(packedLosses, fragmentIds.size());
+        final int numberOfKeys = fragmentIds.size() + lossIds.size();
+
+        final int n = fragmentPeaks.length;
+        final int[] compoundOffsets = new int[n + 1];
+        final int[][] keysPerCompound = new int[n][];
+        final int[][] countsPerCompound = new int[n][];
+        final int[] postingSizes = new int[numberOfKeys];
+        for (int i = 0; i < n; i++) {
+            final int[] ids = collectKeyIds(packedFragments[i], fragmentIds, packedLosses[i], lossIds);
+            Arrays.sort(ids);
+            //run-length encode: number of peaks per key
+            int distinct = 0;
+            for (int k = 0; k < ids.length; k++) {
+                if (k == 0 || ids[k] != ids[k - 1]) ++distinct;
+            }
+            final int[] keys = new int[distinct];
+            final int[] counts = new int[distinct];
+            int pos = -1;
+            for (int k = 0; k < ids.length; k++) {
+                if (k == 0 || ids[k] != ids[k - 1]) {
+                    keys[++pos] = ids[k];
+                    ++postingSizes[ids[k]];
+                }
+                ++counts[pos];
+            }
+            keysPerCompound[i] = keys;
+            countsPerCompound[i] = counts;
+            compoundOffsets[i + 1] = compoundOffsets[i] + distinct;
+        }
+
+        final int total = compoundOffsets[n];
+        final int[] compoundKeys = new int[total];
+        final int[] compoundKeyCounts = new int[total];
+        final int[] postingOffsets = new int[numberOfKeys + 1];
+        for (int k = 0; k < numberOfKeys; k++) {
+            postingOffsets[k + 1] = postingOffsets[k] + postingSizes[k];
+        }
+        final int[] postingCompounds = new int[total];
+        final int[] postingCounts = new int[total];
+        final int[] fill = Arrays.copyOf(postingOffsets, numberOfKeys);
+        for (int i = 0; i < n; i++) {
+            final int[] keys = keysPerCompound[i];
+            final int[] counts = countsPerCompound[i];
+            System.arraycopy(keys, 0, compoundKeys, compoundOffsets[i], keys.length);
+            System.arraycopy(counts, 0, compoundKeyCounts, compoundOffsets[i], counts.length);
+            for (int k = 0; k < keys.length; k++) {
+                final int p = fill[keys[k]]++;
+                postingCompounds[p] = i;
+                postingCounts[p] = counts[k];
+            }
+            keysPerCompound[i] = null;
+            countsPerCompound[i] = null;
+        }
+
+        //index is complete, now switch peaks to the packed representation
+        setPackedFormulas(fragmentPeaks, packedFragments);
+        setPackedFormulas(lossPeaks, packedLosses);
+
+        return new PackedPeakIndex(n, compoundOffsets, compoundKeys, compoundKeyCounts, postingOffsets, postingCompounds, postingCounts);
+    }
+
+    int numberOfCompounds() {
+        return numberOfCompounds;
+    }
+
+    /**
+     * Collects all compounds j &lt; i which might share at least minShared peaks with compound i.
+     * For each key, at most min(peaks of i, peaks of j) explained by this key can be matched, so the sum over all keys is an upper bound.
+     * @param upperBound working array of size {@link #numberOfCompounds()} which must be all zero. It is reset before returning.
+     * @param partners working array of size {@link #numberOfCompounds()}. Receives the partner indices.
+     * @return number of partners written to partners
+     */
+    int collectPartners(int i, int minShared, int[] upperBound, int[] partners) {
+        int touched = 0;
+        for (int k = compoundOffsets[i]; k < compoundOffsets[i + 1]; k++) {
+            final int key = compoundKeys[k];
+            final int count = compoundKeyCounts[k];
+            for (int p = postingOffsets[key]; p < postingOffsets[key + 1]; p++) {
+                final int j = postingCompounds[p];
+                if (j >= i) break;
+                if (upperBound[j] == 0) partners[touched++] = j;
+                upperBound[j] += Math.min(count, postingCounts[p]);
+            }
+        }
+        int numberOfPartners = 0;
+        for (int t = 0; t < touched; t++) {
+            final int j = partners[t];
+            if (upperBound[j] >= minShared) partners[numberOfPartners++] = j;
+            upperBound[j] = 0;
+        }
+        return numberOfPartners;
+    }
+
+    private static MolecularFormulaPacker createPacker(CommonFragmentAndLossScorer.PeakWithExplanation[][] fragmentPeaks, CommonFragmentAndLossScorer.PeakWithExplanation[][] lossPeaks) {
+        final Set<MolecularFormula> formulas = new HashSet<>();
+        if (!collectFormulas(fragmentPeaks, formulas) || !collectFormulas(lossPeaks, formulas)) return null;
+        if (formulas.isEmpty()) return null;
+        try {
+            return MolecularFormulaPacker.newPackerFor(formulas.toArray(new MolecularFormula[0]));
+        } catch (FormulaEncodingError e) {
+            return null;
+        }
+    }
+
+    private static boolean collectFormulas(CommonFragmentAndLossScorer.PeakWithExplanation[][] allPeaks, Set<MolecularFormula> formulas) {
+        for (CommonFragmentAndLossScorer.PeakWithExplanation[] peaks : allPeaks) {
+            for (CommonFragmentAndLossScorer.PeakWithExplanation peak : peaks) {
+                //already packed by a different packer or negative amounts which cannot be encoded
+                if (peak.formulas == null) return false;
+                for (MolecularFormula formula : peak.formulas) {
+                    if (!formula.isAllPositiveOrZero()) return false;
+                    formulas.add(formula);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static long[][][] pack(MolecularFormulaPacker packer, CommonFragmentAndLossScorer.PeakWithExplanation[][] allPeaks) {
+        final long[][][] packed = new long[allPeaks.length][][];
+        for (int i = 0; i < allPeaks.length; i++) {
+            final CommonFragmentAndLossScorer.PeakWithExplanation[] peaks = allPeaks[i];
+            packed[i] = new long[peaks.length][];
+            for (int j = 0; j < peaks.length; j++) {
+                final MolecularFormula[] formulas = peaks[j].formulas;
+                final long[] keys = new long[formulas.length];
+                for (int k = 0; k < formulas.length; k++) {
+                    keys[k] = packer.tryEncode(formulas[k]);
+                    if (keys[k] < 0) return null;
+                }
+                Arrays.sort(keys);
+                packed[i][j] = keys;
+            }
+        }
+        return packed;
+    }
+
+    private static TLongIntHashMap assignKeyIds(long[][][] packed, int firstId) {
+        final TLongIntHashMap ids = new TLongIntHashMap(1000, 0.75f, -1L, -1);
+        for (long[][] peaks : packed) {
+            for (long[] keys : peaks) {
+                for (long key : keys) {
+                    if (!ids.containsKey(key)) ids.put(key, firstId + ids.size());
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static int[] collectKeyIds(long[][] fragments, TLongIntHashMap fragmentIds, long[][] losses, TLongIntHashMap lossIds) {
+        int size = 0;
+        for (long[] keys : fragments) size += keys.length;
+        for (long[] keys : losses) size += keys.length;
+        final int[] ids = new int[size];
+        int pos = 0;
+        for (long[] keys : fragments) {
+            for (long key : keys) ids[pos++] = fragmentIds.get(key);
+        }
+        for (long[] keys : losses) {
+            for (long key : keys) ids[pos++] = lossIds.get(key);
+        }
+        return ids;
+    }
+
+    private static void setPackedFormulas(CommonFragmentAndLossScorer.PeakWithExplanation[][] allPeaks, long[][][] packed) {
+        for (int i = 0; i < allPeaks.length; i++) {
+            for (int j = 0; j < allPeaks[i].length; j++) {
+                allPeaks[i][j].packedFormulas = packed[i][j];
+                allPeaks[i][j].formulas = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.GibbsSampling.properties;
+
+import de.unijena.bioinf.ms.annotations.Ms2ExperimentAnnotation;
+import de.unijena.bioinf.ms.properties.DefaultProperty;
+
+public class ZodiacConvergence implements Ms2ExperimentAnnotation {
+
+    /**
+     * Stop a Markov chain early when no candidate's ZODIAC score changes by more than this value between two checks.
+     * Values smaller or equal 0 disable early stopping and all epochs are sampled.
+     */
+    @DefaultProperty public final double tolerance;
+
+    /**
+     * Number of epochs after the burn-in period between two convergence checks.
+     */
+    @DefaultProperty public final int checkInterval;
+
+
+    private ZodiacConvergence() {
+        tolerance = Double.NaN;
+        checkInterval = -1;
+    }
+
+    public ZodiacConvergence(double tolerance, int checkInterval) {
+        this.tolerance = tolerance;
+        this.checkInterval = checkInterval;
+    }
+}
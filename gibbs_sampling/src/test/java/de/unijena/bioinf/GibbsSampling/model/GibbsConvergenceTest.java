@@ -0,0 +1,133 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.GibbsSampling.model;
+
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.Scored;
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GibbsConvergenceTest {
+
+    private static final int MAX_STEPS = 5000;
+    private static final int BURN_IN = 10;
+    private static final int CHECK_INTERVAL = 50;
+
+    @Test
+    public void testPotentialScaleReductionOfIdenticalChains() {
+        final double r = GibbsParallel.computePotentialScaleReduction(new double[][]{{0.3, 0.7}, {0.3, 0.7}, {0.3, 0.7}}, new int[]{100, 100, 100});
+        assertEquals(1d, r, 0.01);
+    }
+
+    @Test
+    public void testPotentialScaleReductionOfDisagreeingChains() {
+        final double r = GibbsParallel.computePotentialScaleReduction(new double[][]{{0.1, 0.9}, {0.9, 0.1}}, new int[]{100, 100});
+        assertTrue(r > 1.5);
+        assertTrue(Double.isFinite(r));
+    }
+
+    @Test
+    public void testPotentialScaleReductionOfStuckChains() {
+        //stuck at different assignments
+        assertEquals(Double.POSITIVE_INFINITY, GibbsParallel.computePotentialScaleReduction(new double[][]{{1, 0}, {0, 1}}, new int[]{100, 100}), 0d);
+        //stuck at the same assignment
+        assertEquals(1d, GibbsParallel.computePotentialScaleReduction(new double[][]{{1, 0}, {1, 0}}, new int[]{100, 100}), 0d);
+    }
+
+    @Test
+    public void testPotentialScaleReductionNotEstimable() {
+        assertTrue(Double.isNaN(GibbsParallel.computePotentialScaleReduction(new double[][]{{0.3, 0.7}}, new int[]{100})));
+        assertTrue(Double.isNaN(GibbsParallel.computePotentialScaleReduction(new double[][]{{0.3, 0.7}, {0.3, 0.7}}, new int[]{100, 1})));
+    }
+
+    @Test
+    public void testChainStopsEarly() throws Exception {
+        final GibbsMFCorrectionNetwork<Candidate<String>> network = new GibbsMFCorrectionNetwork<>(buildGraph());
+        network.setIterationSteps(MAX_STEPS, BURN_IN);
+        network.setConvergenceCriterion(0.01, CHECK_INTERVAL);
+        SiriusJobs.getGlobalJobManager().submitJob(network).awaitResult();
+
+        assertTrue(network.getIterationsUsed() < MAX_STEPS + BURN_IN);
+        assertEquals(0d, network.getLastMarginalChange(), 0d);
+    }
+
+    @Test
+    public void testChainRunsAllEpochsWithoutTolerance() throws Exception {
+        final GibbsMFCorrectionNetwork<Candidate<String>> network = new GibbsMFCorrectionNetwork<>(buildGraph());
+        network.setIterationSteps(MAX_STEPS, BURN_IN);
+        network.setConvergenceCriterion(0d, CHECK_INTERVAL);
+        SiriusJobs.getGlobalJobManager().submitJob(network).awaitResult();
+
+        assertEquals(MAX_STEPS + BURN_IN, network.getIterationsUsed());
+        assertTrue(Double.isNaN(network.getLastMarginalChange()));
+    }
+
+    @Test
+    public void testConvergenceIsAnnotated() throws Exception {
+        final int repetitions = 2;
+        final GibbsParallel<Candidate<String>> stopped = new GibbsParallel<>(buildGraph(), repetitions);
+        stopped.setIterationSteps(MAX_STEPS, BURN_IN);
+        stopped.setConvergenceCriterion(0.01, CHECK_INTERVAL);
+        final CompoundResult<Candidate<String>>[] stoppedResults = SiriusJobs.getGlobalJobManager().submitJob(stopped).awaitResult();
+
+        for (CompoundResult<Candidate<String>> result : stoppedResults) {
+            final SamplingConvergence convergence = result.getAnnotationOrThrow(SamplingConvergence.class);
+            assertEquals(MAX_STEPS / repetitions + BURN_IN, convergence.getMaxIterations());
+            assertEquals(repetitions, convergence.getIterationsUsed().length);
+            assertTrue(convergence.isStoppedEarly());
+            assertEquals(1d, convergence.getPotentialScaleReduction(), 0d);
+        }
+
+        final GibbsParallel<Candidate<String>> full = new GibbsParallel<>(buildGraph(), repetitions);
+        full.setIterationSteps(MAX_STEPS, BURN_IN);
+        final CompoundResult<Candidate<String>>[] fullResults = SiriusJobs.getGlobalJobManager().submitJob(full).awaitResult();
+
+        for (CompoundResult<Candidate<String>> result : fullResults) {
+            final SamplingConvergence convergence = result.getAnnotationOrThrow(SamplingConvergence.class);
+            assertFalse(convergence.isStoppedEarly());
+            for (int used : convergence.getIterationsUsed())
+                assertEquals(MAX_STEPS / repetitions + BURN_IN, used);
+        }
+    }
+
+    /*
+    three connected compounds with a single candidate each. Their probabilities are 1 after the first sample, so the
+    chains are guaranteed to converge.
+     */
+    private static Graph<Candidate<String>> buildGraph() {
+        final String[] ids = new String[]{"c0", "c1", "c2"};
+        final Scored<Candidate<String>>[][] possibleFormulas = new Scored[ids.length][];
+        for (int i = 0; i < ids.length; i++) {
+            possibleFormulas[i] = new Scored[]{new Scored<>(new Candidate<>(ids[i], 0d), 0d)};
+        }
+        final Graph<Candidate<String>> graph = Graph.getGraph(ids, possibleFormulas);
+        graph.setLogWeight(0, 1, 1d);
+        graph.setLogWeight(1, 0, 1d);
+        graph.setLogWeight(1, 2, 1d);
+        graph.setLogWeight(2, 1, 1d);
+        graph.connections = new int[][]{{1}, {0, 2}, {1}};
+        graph.freeze();
+        return graph;
+    }
+}
@@ -18,6 +18,7 @@ package de.unijena.bioinf.GibbsSampling.model;/*
  *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
  */
 
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.Scored;
 import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
@@ -28,7 +29,9 @@ import de.unijena.bioinf.GibbsSampling.model.distributions.ScoreProbabilityDistr
 import de.unijena.bioinf.GibbsSampling.model.scorer.CommonFragmentAndLossScorer;
 import de.unijena.bioinf.GibbsSampling.model.scorer.CommonFragmentAndLossScorerNoiseIntensityWeighted;
 import de.unijena.bioinf.jjobs.JJob;
+import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.set.hash.TIntHashSet;
 import org.junit.Test;
 import org.slf4j.LoggerFactory;
 
@@ -38,9 +41,14 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class GraphBuilderTest {
 
@@ -94,6 +102,170 @@ public class GraphBuilderTest {
 
     }
 
+    @Test
+    public void testFragmentIndexEqualsDenseEdgeComputation() throws Exception {
+        final Path exampleDir = Paths.get(getClass().getResource("/tiny-example").getFile());
+        for (boolean intensityWeighted : new boolean[]{true, false}) {
+            Graph<FragmentsCandidate> dense = buildGraph(exampleDir, intensityWeighted, false);
+            Graph<FragmentsCandidate> sparse = buildGraph(exampleDir, intensityWeighted, true);
+
+            assertArrayEquals(dense.edgeThresholds, sparse.edgeThresholds, 0d);
+            assertEquals(dense.connections.length, sparse.connections.length);
+            for (int i = 0; i < dense.connections.length; i++) {
+                assertArrayEquals(dense.connections[i], sparse.connections[i]);
+                assertEquals(dense.indexMap[i], sparse.indexMap[i]);
+                assertArrayEquals(dense.weights[i].toArray(), sparse.weights[i].toArray(), 0d);
+            }
+        }
+    }
+
+    @Test
+    public void testFrozenGraphKeepsEdges() throws Exception {
+        final Path exampleDir = Paths.get(getClass().getResource("/tiny-example").getFile());
+        Graph<FragmentsCandidate> graph = buildGraph(exampleDir, true, true);
+
+        final int size = graph.getSize();
+        int[][] connections = new int[size][];
+        double[][] logWeights = new double[size][size];
+        for (int i = 0; i < size; i++) {
+            connections[i] = graph.getConnections(i).clone();
+            Arrays.sort(connections[i]);
+            for (int j = 0; j < size; j++) {
+                logWeights[i][j] = graph.getLogWeight(i, j);
+            }
+        }
+
+        graph.freeze();
+
+        for (int i = 0; i < size; i++) {
+            assertArrayEquals(connections[i], graph.getConnections(i));
+            assertEquals(connections[i].length, graph.getEdgesEnd(i) - graph.getEdgesStart(i));
+            for (int k = graph.getEdgesStart(i); k < graph.getEdgesEnd(i); k++) {
+                assertEquals(logWeights[i][graph.getEdgeTarget(k)], graph.getEdgeLogWeight(k), 1e-6);
+            }
+            for (int j = 0; j < size; j++) {
+                assertEquals(logWeights[i][j], graph.getLogWeight(i, j), 1e-6);
+            }
+        }
+    }
+
+    @Test
+    public void testConnectedComponents() throws Exception {
+        final Path exampleDir = Paths.get(getClass().getResource("/tiny-example").getFile());
+        Graph<FragmentsCandidate> graph = buildGraph(exampleDir, true, true);
+        graph.freeze();
+
+        int[][] components = graph.getConnectedComponents();
+        assertEquals(1, components.length);
+        assertArrayEquals(new int[]{0, 1, 2}, components[0]);
+
+        Graph<FragmentsCandidate> component = graph.extractComponent(components[0]);
+        assertArrayEquals(graph.getIds(), component.getIds());
+        assertEquals(graph.getSize(), component.getSize());
+        for (int i = 0; i < graph.getSize(); i++) {
+            assertArrayEquals(graph.getConnections(i), component.getConnections(i));
+            assertEquals(graph.getEdgeThreshold(i), component.getEdgeThreshold(i), 0d);
+            for (int j = 0; j < graph.getSize(); j++) {
+                assertEquals(graph.getLogWeight(i, j), component.getLogWeight(i, j), 0d);
+            }
+        }
+
+        try {
+            graph.extractComponent(new int[]{1});
+            fail("compound is connected to compounds outside of the component");
+        } catch (IllegalArgumentException e) {
+            //expected
+        }
+    }
+
+    @Test
+    public void testComponentSamplingWithSingletons() throws Exception {
+        //compounds 0 and 3 form one component, 2, 4 and 5 another one. 1 and 6 are unconnected, 6 is fixed.
+        final String[] ids = new String[]{"c0", "c1", "c2", "c3", "c4", "c5", "c6"};
+        final double[][] probabilities = new double[][]{{0.7, 0.3}, {0.5, 0.3, 0.2}, {0.6, 0.4}, {0.4, 0.6}, {0.5, 0.5}, {0.9, 0.1}, {0.6, 0.4}};
+        final Scored<Candidate<String>>[][] possibleFormulas = new Scored[ids.length][];
+        for (int i = 0; i < ids.length; i++) {
+            possibleFormulas[i] = new Scored[probabilities[i].length];
+            for (int j = 0; j < probabilities[i].length; j++) {
+                final double logScore = Math.log(probabilities[i][j]);
+                possibleFormulas[i][j] = new Scored<>(new Candidate<>(ids[i] + "_" + j, logScore), logScore);
+            }
+        }
+        final Graph<Candidate<String>> graph = Graph.getGraph(ids, possibleFormulas);
+        final TIntArrayList[] connections = new TIntArrayList[graph.getSize()];
+        for (int i = 0; i < connections.length; i++) connections[i] = new TIntArrayList();
+        connect(graph, connections, graph.getAbsoluteFormulaIdx(0, 0), graph.getAbsoluteFormulaIdx(3, 0), 2d);
+        connect(graph, connections, graph.getAbsoluteFormulaIdx(2, 0), graph.getAbsoluteFormulaIdx(4, 0), 1d);
+        connect(graph, connections, graph.getAbsoluteFormulaIdx(4, 1), graph.getAbsoluteFormulaIdx(5, 0), 1d);
+        graph.connections = Arrays.stream(connections).map(TIntArrayList::toArray).toArray(int[][]::new);
+        graph.freeze();
+
+        assertArrayEquals(new int[][]{{2, 4, 5}, {0, 3}, {1}, {6}}, graph.getConnectedComponents());
+
+        final TIntHashSet fixedCompounds = new TIntHashSet(new int[]{6});
+        final ComponentGibbsParallel<Candidate<String>> job = new ComponentGibbsParallel<>(graph, 2, fixedCompounds);
+        job.setIterationSteps(2000, 100);
+        final AtomicLong progress = new AtomicLong();
+        job.addJobProgressListener(evt -> progress.accumulateAndGet(evt.getProgress(), Math::max));
+        final CompoundResult<Candidate<String>>[] results = SiriusJobs.getGlobalJobManager().submitJob(job).awaitResult();
+
+        //two sampled components with 2 chains of 2000/2 steps and 100 burn-in epochs each
+        assertEquals(2 * 2 * (1000 + 100), progress.get());
+
+        assertEquals(ids.length, results.length);
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(ids[i], results[i].getId());
+            final Set<Candidate<String>> expectedCandidates = Arrays.stream(possibleFormulas[i]).map(Scored::getCandidate).collect(Collectors.toSet());
+            final Set<Candidate<String>> candidates = Arrays.stream(results[i].getCandidates()).map(Scored::getCandidate).collect(Collectors.toSet());
+            assertEquals(expectedCandidates, candidates);
+            if (i != 6) assertEquals(1d, Arrays.stream(results[i].getCandidates()).mapToDouble(Scored::getScore).sum(), 1e-9);
+        }
+
+        //unconnected compounds get their normalized candidate scores, fixed ones keep their probabilities
+        for (int i : new int[]{1, 6}) {
+            assertEquals(0, results[i].getAnnotationOrThrow(Connectivity.class).getNumberOfConnectedCompounds());
+            final Scored<Candidate<String>>[] candidates = results[i].getCandidates();
+            for (int j = 0; j < candidates.length; j++) {
+                assertEquals(Math.exp(candidates[j].getCandidate().getScore()), candidates[j].getScore(), 1e-9);
+                if (j > 0) assertTrue(candidates[j - 1].getScore() >= candidates[j].getScore());
+            }
+        }
+        assertEquals(1, results[0].getAnnotationOrThrow(Connectivity.class).getNumberOfConnectedCompounds());
+        assertEquals(1, results[4].getAnnotationOrThrow(Connectivity.class).getNumberOfConnectedCompounds());
+    }
+
+    private static void connect(Graph<?> graph, TIntArrayList[] connections, int i, int j, double logWeight) {
+        graph.setLogWeight(i, j, logWeight);
+        graph.setLogWeight(j, i, logWeight);
+        connections[i].add(j);
+        connections[j].add(i);
+    }
+
+    private Graph<FragmentsCandidate> buildGraph(Path exampleDir, boolean intensityWeighted, boolean useFragmentIndex) throws Exception {
+        Map<Ms2Experiment, List<FTree>> data = ExamplePreparationUtils.readData(exampleDir);
+
+        EdgeFilter edgeFilter = new EdgeThresholdMinConnectionsFilter(0.5, 1, 1);
+        ScoreProbabilityDistribution probabilityDistribution = new LogNormalDistribution(true);
+        CommonFragmentAndLossScorer c = intensityWeighted ? new CommonFragmentAndLossScorerNoiseIntensityWeighted(0) : new CommonFragmentAndLossScorer(0);
+        EdgeScorer[] edgeScorers = new EdgeScorer[]{new ScoreProbabilityDistributionFix(c, probabilityDistribution, 0.9)};
+        NodeScorer[] nodeScorers = new NodeScorer[]{new StandardNodeScorer(true, 1d)};
+
+        String[] ids = data.keySet().stream().map(Ms2Experiment::getName).toArray(String[]::new);
+        List<FragmentsCandidate[]> candidateList = new ArrayList<>();
+        for (Map.Entry<Ms2Experiment, List<FTree>> entry : data.entrySet()) {
+            candidateList.add(FragmentsCandidate.createAllCandidateInstances(entry.getValue(), entry.getKey()).toArray(new FragmentsCandidate[0]));
+        }
+        FragmentsCandidate[][] candidates = candidateList.toArray(new FragmentsCandidate[0][]);
+
+        GraphBuilder<FragmentsCandidate> graphBuilder = GraphBuilder.createGraphBuilder(ids, candidates, nodeScorers, edgeScorers, edgeFilter, FragmentsCandidate.class);
+        graphBuilder.setUseFragmentIndex(useFragmentIndex);
+        graphBuilder.registerJobManager(SiriusJobs.getGlobalJobManager());
+        graphBuilder.setState(JJob.JobState.RUNNING);
+        graphBuilder.calculateWeight();
+        graphBuilder.setConnections();
+        return graphBuilder.graph;
+    }
+
     private void assertAfterCalculatingWeights(Graph<FragmentsCandidate> graph) {
         double[][] weights = new double[][]{
                 new double[]{0.6836898487475431, 0.6836898487475431},
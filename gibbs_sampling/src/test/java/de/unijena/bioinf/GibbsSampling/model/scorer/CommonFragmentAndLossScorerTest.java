@@ -202,6 +202,34 @@ public class CommonFragmentAndLossScorerTest {
         assertAfterCalculatingWeights(c, minNumberMatchedPeaksLossesExpected, thresholdExpected, normalizationExpected, maybeSimilarExpected);
     }
 
+    @Test
+    public void testPackedPeakIndexEqualsPairwisePreparation() throws IOException {
+        Map<Ms2Experiment, List<FTree>> data = ExamplePreparationUtils.getData("/tiny-example", 15, true);
+        FragmentsCandidate[][] candidates = ExamplePreparationUtils.parseExpectedCandidatesFromString(data);
+
+        CommonFragmentAndLossScorer c = new CommonFragmentAndLossScorer(0);
+        CommonFragmentAndLossScorer.PeakWithExplanation[][] allFragmentPeaks = extractFragmentPeaks(candidates, c, true);
+        CommonFragmentAndLossScorer.PeakWithExplanation[][] allLossPeaks = extractFragmentPeaks(candidates, c, false);
+        double[][] fragmentScores = calculateScores(allFragmentPeaks, c);
+        double[][] lossScores = calculateScores(allLossPeaks, c);
+
+        assertNotNull(PackedPeakIndex.build(allFragmentPeaks, allLossPeaks));
+        assertNull(allFragmentPeaks[0][0].formulas);
+        for (int i = 0; i < candidates.length; i++) {
+            assertArrayEquals(fragmentScores[i], calculateScores(allFragmentPeaks, c)[i], 1e-15);
+            assertArrayEquals(lossScores[i], calculateScores(allLossPeaks, c)[i], 1e-15);
+        }
+
+        c.prepare(candidates);
+        assertNotNull(c.peakIndex);
+        BitSet[] maybeSimilarIndexed = Arrays.stream(c.maybeSimilar).map(b -> (BitSet)b.clone()).toArray(BitSet[]::new);
+
+        //recompute by comparing all compound pairs
+        c.peakIndex = null;
+        c.prepare(candidates);
+        assertArrayEquals(maybeSimilarIndexed, c.maybeSimilar);
+    }
+
     protected void assertAfterCalculatingWeights(CommonFragmentAndLossScorer c, double minNumberMatchedPeaksLossesExpected, double thresholdExpected, double[] normalizationExpected, BitSet[] maybeSimilarExpected) throws IOException {
         Map<Ms2Experiment, List<FTree>> data = ExamplePreparationUtils.getData("/tiny-example", 15, true);
         System.out.println();
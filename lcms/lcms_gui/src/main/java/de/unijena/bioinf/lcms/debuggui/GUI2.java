@@ -2,10 +2,11 @@ package de.unijena.bioinf.lcms.debuggui;
 
 import com.google.common.base.Joiner;
 import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
-import de.unijena.bioinf.ChemistryBase.exceptions.InvalidInputData;
 import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
 import de.unijena.bioinf.ChemistryBase.ms.ft.model.AdductSettings;
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
 import de.unijena.bioinf.ChemistryBase.utils.FileUtils;
+import de.unijena.bioinf.ChemistryBase.utils.IOFunctions;
 import de.unijena.bioinf.babelms.ms.InputFileConfig;
 import de.unijena.bioinf.babelms.ms.JenaMsWriter;
 import de.unijena.bioinf.io.lcms.LCMSParser;
@@ -13,8 +14,8 @@ import de.unijena.bioinf.io.lcms.MzMLParser;
 import de.unijena.bioinf.io.lcms.MzXMLParser;
 import de.unijena.bioinf.jjobs.BasicJJob;
 import de.unijena.bioinf.lcms.LCMSProccessingInstance;
-import de.unijena.bioinf.lcms.MemoryFileStorage;
 import de.unijena.bioinf.lcms.ProcessedSample;
+import de.unijena.bioinf.lcms.SpectrumStorage;
 import de.unijena.bioinf.lcms.align.Cluster;
 import de.unijena.bioinf.lcms.peakshape.GaussianShape;
 import de.unijena.bioinf.lcms.peakshape.PeakShape;
@@ -271,32 +272,21 @@ public class GUI2 extends JFrame implements KeyListener, ClipboardOwner {
                 //"/home/kaidu/data/raw/mzml"
                // "/home/kaidu/data/raw/diatom"
                 );
-        MemoryFileStorage storage= null;
         try {
             final LCMSProccessingInstance i = new LCMSProccessingInstance();
             i.setDetectableIonTypes(PropertyManager.DEFAULTS.createInstanceWithDefaults(AdductSettings.class).getDetectable());
             i.getMs2Storage().keepInMemory();
-            int k=0;
+            final List<IOFunctions.IOFunction<SpectrumStorage, LCMSRun>> parsers = new ArrayList<>();
             for (File f : mzxmlFile.listFiles()) {
                 if (!f.getName().endsWith(".mzXML") && !f.getName().endsWith(".mzML"))
                     continue;
-                if (++k > 100)
+                if (parsers.size() >= 100)
                     break;
-                storage = new MemoryFileStorage();
-                LCMSParser parser;
-                if (f.getName().endsWith(".mzXML"))
-                    parser = new MzXMLParser();
-                else
-                    parser = new MzMLParser();
-                final LCMSRun parse = parser.parse(f, storage);
-                final ProcessedSample sample;
-                try {
-                    sample = i.addSample(parse, storage);
-                } catch (InvalidInputData e){
-                    System.err.println("Error while processing run " + f + ": " + e.getMessage());
-                    continue;
-                }
-                i.detectFeatures(sample);
+                final LCMSParser parser = f.getName().endsWith(".mzXML") ? new MzXMLParser() : new MzMLParser();
+                parsers.add(s -> parser.parse(f, s));
+            }
+            // samples are parsed and processed in parallel, their spectra are written back on disc when they are done
+            for (ProcessedSample sample : SiriusJobs.getGlobalJobManager().submitJob(i.makeSampleProcessingJob(parsers, true)).takeResult()) {
                 int c1=0, c2=0,c3=0;
                 for (FragmentedIon ion : sample.ions) {
                     if (ion.getPeakShape().getPeakShapeQuality().betterThan(Quality.UNUSABLE))
@@ -308,9 +298,6 @@ public class GUI2 extends JFrame implements KeyListener, ClipboardOwner {
                 }
 
                 System.out.println(sample.ions.size() + " ions, with " + c1 +  " have a bad but defined peak shape and " +c2 + " even have a decent peak shape. " + c3 + " ions have a good peak shape."  );
-
-                storage.backOnDisc();
-                storage.dropBuffer();
             }
             i.getMs2Storage().backOnDisc();
             i.getMs2Storage().dropBuffer();
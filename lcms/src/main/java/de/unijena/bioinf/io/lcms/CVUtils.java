@@ -27,20 +27,29 @@ import java.util.HashMap;
 public class CVUtils {
 
     public static double getTimeInSeconds(CVParam param) {
+        if (param.getUnitAccession()==null && param.getUnitName()==null)
+            throw new IllegalArgumentException("Unknown time unit for " + param);
+        return getTimeInSeconds(param.getValue(), param.getUnitAccession(), param.getUnitName());
+    }
+
+    public static long getTimeInMilliseconds(CVParam param) {
+        return Math.round(getTimeInSeconds(param)*1000d);
+    }
+
+    public static double getTimeInSeconds(String value, String unitAccession, String unitName) {
         TimeUnit timeUnit;
-        if (param.getUnitAccession()!=null) {
-            timeUnit = getTimeUnit(param.getUnitAccession());
-        } else if (param.getUnitName()!=null) {
-            timeUnit = getTimeUnit(param.getUnitName());
+        if (unitAccession!=null) {
+            timeUnit = getTimeUnit(unitAccession);
+        } else if (unitName!=null) {
+            timeUnit = getTimeUnit(unitName);
         } else {
-            throw new IllegalArgumentException("Unknown time unit for " + param);
+            throw new IllegalArgumentException("Unknown time unit for value " + value);
         }
-        String value = param.getValue();
         return Double.parseDouble(value) * timeUnit.inSeconds;
     }
 
-    public static long getTimeInMilliseconds(CVParam param) {
-        return Math.round(getTimeInSeconds(param)*1000d);
+    public static long getTimeInMilliseconds(String value, String unitAccession, String unitName) {
+        return Math.round(getTimeInSeconds(value, unitAccession, unitName)*1000d);
     }
 
     private final static HashMap<String, TimeUnit> term2time;
@@ -0,0 +1,230 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+
+package de.unijena.bioinf.io.lcms;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Decodes the content of mzML {@code <binary>} elements directly into primitive arrays.
+ * Supports 32/64 bit float and integer arrays, zlib compression and the MS-Numpress codecs (linear, pic and slof),
+ * optionally combined with zlib.
+ */
+final class MzMLBinaryDecoder {
+
+    enum Precision {FLOAT32, FLOAT64, INT32, INT64}
+
+    enum Compression {NONE, ZLIB, NUMPRESS_LINEAR, NUMPRESS_PIC, NUMPRESS_SLOF, NUMPRESS_LINEAR_ZLIB, NUMPRESS_PIC_ZLIB, NUMPRESS_SLOF_ZLIB}
+
+    private MzMLBinaryDecoder() {
+    }
+
+    /**
+     * @param base64         content of the binary element
+     * @param expectedLength expected number of values (array length of the spectrum), only used for buffer sizing.
+     */
+    static double[] decode(String base64, Precision precision, Compression compression, int expectedLength) throws IOException {
+        byte[] bytes = Base64.getMimeDecoder().decode(base64);
+        switch (compression) {
+            case ZLIB:
+            case NUMPRESS_LINEAR_ZLIB:
+            case NUMPRESS_PIC_ZLIB:
+            case NUMPRESS_SLOF_ZLIB:
+                bytes = inflate(bytes, Math.max(expectedLength, 1) * 8);
+        }
+        switch (compression) {
+            case NUMPRESS_LINEAR:
+            case NUMPRESS_LINEAR_ZLIB:
+                return decodeLinear(bytes);
+            case NUMPRESS_PIC:
+            case NUMPRESS_PIC_ZLIB:
+                return decodePic(bytes);
+            case NUMPRESS_SLOF:
+            case NUMPRESS_SLOF_ZLIB:
+                return decodeSlof(bytes);
+            default:
+                return decodeNumbers(bytes, precision);
+        }
+    }
+
+    private static double[] decodeNumbers(byte[] bytes, Precision precision) {
+        final ByteBuffer buf = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        final double[] values;
+        switch (precision) {
+            case FLOAT32:
+                values = new double[bytes.length / 4];
+                for (int i = 0; i < values.length; ++i) values[i] = buf.getFloat(i * 4);
+                return values;
+            case INT32:
+                values = new double[bytes.length / 4];
+                for (int i = 0; i < values.length; ++i) values[i] = buf.getInt(i * 4);
+                return values;
+            case INT64:
+                values = new double[bytes.length / 8];
+                for (int i = 0; i < values.length; ++i) values[i] = buf.getLong(i * 8);
+                return values;
+            default:
+                values = new double[bytes.length / 8];
+                for (int i = 0; i < values.length; ++i) values[i] = buf.getDouble(i * 8);
+                return values;
+        }
+    }
+
+    private static byte[] inflate(byte[] compressed, int sizeHint) throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            byte[] out = new byte[Math.max(sizeHint, 64)];
+            int length = 0;
+            while (!inflater.finished()) {
+                if (length == out.length)
+                    out = Arrays.copyOf(out, out.length * 2);
+                final int written = inflater.inflate(out, length, out.length - length);
+                if (written == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                length += written;
+            }
+            return length == out.length ? out : Arrays.copyOf(out, length);
+        } catch (DataFormatException e) {
+            throw new IOException("Could not inflate zlib compressed binary data.", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    //region MS-Numpress, see Teleman et al. 2014 (https://doi.org/10.1074/mcp.O114.037879)
+    private static double decodeFixedPoint(byte[] data) {
+        long fp = 0;
+        for (int i = 0; i < 8; i++)
+            fp |= ((0xFFL & data[7 - i]) << (8 * i));
+        return Double.longBitsToDouble(fp);
+    }
+
+    private static long decodeUnsignedInt(byte[] data, int offset) {
+        long value = 0;
+        for (int i = 0; i < 4; i++)
+            value |= ((0xFFL & data[offset + i]) << (i * 8));
+        return value;
+    }
+
+    /**
+     * Reads the variable length, half byte encoded integers of numpress.
+     */
+    private static final class HalfByteDecoder {
+        private final byte[] bytes;
+        private int pos;
+        private boolean half = false;
+
+        private HalfByteDecoder(byte[] bytes, int pos) {
+            this.bytes = bytes;
+            this.pos = pos;
+        }
+
+        private boolean hasNext() {
+            if (pos >= bytes.length)
+                return false;
+            // a trailing half byte is either an encoded zero (0x8) or padding
+            return !(pos == bytes.length - 1 && half && (bytes[pos] & 0xf) != 0x8);
+        }
+
+        private int nextHalfByte() {
+            final int hb = half ? (0xf & bytes[pos++]) : ((0xff & bytes[pos]) >> 4);
+            half = !half;
+            return hb;
+        }
+
+        private int next() {
+            final int head = nextHalfByte();
+            int res = 0;
+            final int n;
+            if (head <= 8) {
+                n = head;
+            } else { // leading ones
+                n = head - 8;
+                for (int i = 0; i < n; i++)
+                    res |= 0xf0000000 >>> (4 * i);
+            }
+            if (n == 8)
+                return 0;
+            for (int i = n; i < 8; i++)
+                res |= nextHalfByte() << ((i - n) * 4);
+            return res;
+        }
+    }
+
+    static double[] decodeLinear(byte[] data) throws IOException {
+        if (data.length < 8)
+            return new double[0];
+        final double fixedPoint = decodeFixedPoint(data);
+        if (data.length < 12)
+            throw new IOException("Corrupt numpress linear data.");
+        final double[] result = new double[Math.max(2, (data.length - 8) * 2)];
+        long previous = decodeUnsignedInt(data, 8);
+        result[0] = previous / fixedPoint;
+        if (data.length == 12)
+            return Arrays.copyOf(result, 1);
+        if (data.length < 16)
+            throw new IOException("Corrupt numpress linear data.");
+        long current = decodeUnsignedInt(data, 12);
+        result[1] = current / fixedPoint;
+
+        int ri = 2;
+        final HalfByteDecoder dec = new HalfByteDecoder(data, 16);
+        while (dec.hasNext()) {
+            final long extrapolation = current + (current - previous);
+            final long y = extrapolation + dec.next();
+            result[ri++] = y / fixedPoint;
+            previous = current;
+            current = y;
+        }
+        return Arrays.copyOf(result, ri);
+    }
+
+    static double[] decodePic(byte[] data) {
+        final double[] result = new double[data.length * 2];
+        int ri = 0;
+        final HalfByteDecoder dec = new HalfByteDecoder(data, 0);
+        while (dec.hasNext())
+            result[ri++] = dec.next();
+        return Arrays.copyOf(result, ri);
+    }
+
+    static double[] decodeSlof(byte[] data) throws IOException {
+        if (data.length < 8)
+            return new double[0];
+        if (data.length % 2 != 0)
+            throw new IOException("Corrupt numpress slof data.");
+        final double fixedPoint = decodeFixedPoint(data);
+        final double[] result = new double[(data.length - 8) / 2];
+        for (int i = 8, ri = 0; i < data.length; i += 2, ++ri) {
+            final int x = (0xff & data[i]) | ((0xff & data[i + 1]) << 8);
+            result[ri] = Math.exp(x / fixedPoint) - 1;
+        }
+        return result;
+    }
+    //endregion
+}
@@ -0,0 +1,593 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+
+package de.unijena.bioinf.io.lcms;
+
+import de.unijena.bioinf.ChemistryBase.data.DataSource;
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.CollisionEnergy;
+import de.unijena.bioinf.ChemistryBase.ms.IsolationWindow;
+import de.unijena.bioinf.ChemistryBase.ms.MsInstrumentation;
+import de.unijena.bioinf.ChemistryBase.ms.lcms.MsDataSourceReference;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.ChemistryBase.ms.utils.Spectrums;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.lcms.SpectrumStorage;
+import de.unijena.bioinf.model.lcms.LCMSRun;
+import de.unijena.bioinf.model.lcms.Polarity;
+import de.unijena.bioinf.model.lcms.Precursor;
+import de.unijena.bioinf.model.lcms.Scan;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Streaming mzML parser based on StAX. In contrast to {@link MzMLParser} it never materializes the XML document,
+ * binary arrays are decoded directly into primitive arrays (base64, zlib and MS-Numpress) and pushed into the
+ * {@link SpectrumStorage}. The resulting {@link LCMSRun} and {@link Scan}s are the same as produced by {@link MzMLParser}.
+ * <p>
+ * Decoding of binary arrays can be done by jobs of the global {@link SiriusJobs} job manager. The XML is still tokenized
+ * by the calling thread and at most {@code queueSize} spectra are waiting for decoding. Scans are added to the run in document order.
+ * <p>
+ * Precursor references are resolved against the spectra seen so far, which is always the case for valid mzML where the
+ * precursor spectrum is listed before its fragment spectra.
+ */
+public class MzMLStaxParser implements LCMSParser {
+
+    private final int queueSize;
+
+    /**
+     * Parser that decodes binary arrays in the calling thread
+     */
+    public MzMLStaxParser() {
+        this(0);
+    }
+
+    /**
+     * @param queueSize maximum number of spectra that are tokenized but not yet decoded by the CPU jobs of the global
+     *                  job manager, 0 to decode in the calling thread.
+     */
+    public MzMLStaxParser(int queueSize) {
+        if (queueSize < 0)
+            throw new IllegalArgumentException("Queue size must not be negative.");
+        this.queueSize = queueSize;
+    }
+
+    @Override
+    public LCMSRun parse(File file, SpectrumStorage storage) throws IOException {
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            return parse(new DataSource(file), in, storage);
+        } catch (Throwable w) {
+            LoggerFactory.getLogger(MzMLStaxParser.class).error("Error when parsing file: " + file.getName());
+            throw w;
+        }
+    }
+
+    public LCMSRun parse(URI source, SpectrumStorage storage) throws IOException {
+        try (InputStream in = new BufferedInputStream(source.toURL().openStream())) {
+            return parse(new DataSource(source), in, storage);
+        }
+    }
+
+    public LCMSRun parse(@NotNull DataSource source, @NotNull InputStream in, @NotNull SpectrumStorage storage) throws IOException {
+        try {
+            final XMLInputFactory factory = XMLInputFactory.newFactory();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+            final XMLStreamReader reader = factory.createXMLStreamReader(in);
+            final Tokenizer tokenizer = new Tokenizer(source, reader, storage);
+            try {
+                return tokenizer.parse();
+            } finally {
+                tokenizer.cancelPendingDecoding();
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Decodes the binary arrays and creates the scan, same semantics as {@link MzMLParser}.
+     *
+     * @return null if the spectrum is no mass spectrum and has to be skipped
+     */
+    @Nullable
+    private static Decoded decode(RawSpectrum raw) throws IOException {
+        Polarity polarity = Polarity.UNKNOWN;
+        Integer msLevel = null;
+        boolean centroided = true;
+        final List<Param> skipList = new ArrayList<>();
+        for (Param p : raw.spectrumParams) {
+            if (p.accession == null)
+                continue;
+            switch (p.accession) {
+                case "MS:1000129":
+                case "MS:1000076":
+                    polarity = Polarity.NEGATIVE;
+                    break;
+                case "MS:1000130":
+                case "MS:1000077":
+                    polarity = Polarity.POSITIVE;
+                    break;
+                case "MS:1000511":
+                    msLevel = Integer.parseInt(p.value);
+                    break;
+                case "MS:1000127":
+                    centroided = true;
+                    break;
+                case "MS:1000128":
+                    centroided = false;
+                    break;
+                // add to skiplist
+                case "MS:1000804":
+                    skipList.add(p);
+                    break;
+            }
+        }
+
+        if (!skipList.isEmpty()) {
+            LoggerFactory.getLogger(MzMLStaxParser.class).debug("Spectrum with ID '" + raw.id + "' contains parameters that indicate non Mass Spectrometry data (e.g. EMR spectra). Skipping! Parameters: " + skipList.stream().map(p -> p.accession).collect(Collectors.joining(", ")));
+            return null;
+        }
+        if (msLevel == null && polarity == Polarity.UNKNOWN) {
+            LoggerFactory.getLogger(MzMLStaxParser.class).warn("Spectrum with ID '" + raw.id + "' does neither contain mslevel nor polarity information. Spectrum is likely to not be an Mass Spectrum. Skipping this entry." + System.lineSeparator() + "Spectrum information: " + raw.spectrumParams.stream().map(Param::toString).collect(Collectors.joining(System.lineSeparator())));
+            return null;
+        }
+
+        if (msLevel == null)
+            msLevel = 1;
+
+        long retentionTimeMillis = 0L;
+        for (Param p : raw.scanParams)
+            if ("MS:1000016".equals(p.accession))
+                retentionTimeMillis = CVUtils.getTimeInMilliseconds(p.value, p.unitAccession, p.unitName);
+
+        double collisionEnergy = Double.NaN;
+        Precursor precursor = null;
+        if (msLevel > 1 && raw.precursors > 0) {
+            collisionEnergy = raw.activationParams.stream().filter(p -> "MS:1000045".equals(p.accession))
+                    .findFirst().map(p -> Double.parseDouble(p.value)).orElse(0d);
+            precursor = makePrecursor(raw);
+        }
+
+        double[] mzArray = null;
+        double[] intArray = null;
+        for (RawArray array : raw.arrays) {
+            boolean mz = false, intensity = false;
+            MzMLBinaryDecoder.Precision precision = MzMLBinaryDecoder.Precision.FLOAT64;
+            MzMLBinaryDecoder.Compression compression = MzMLBinaryDecoder.Compression.NONE;
+            for (Param p : array.params) {
+                if (p.accession == null)
+                    continue;
+                switch (p.accession) {
+                    case "MS:1000514": mz = true; break;
+                    case "MS:1000515": intensity = true; break;
+                    case "MS:1000521": precision = MzMLBinaryDecoder.Precision.FLOAT32; break;
+                    case "MS:1000523": precision = MzMLBinaryDecoder.Precision.FLOAT64; break;
+                    case "MS:1000519": precision = MzMLBinaryDecoder.Precision.INT32; break;
+                    case "MS:1000522": precision = MzMLBinaryDecoder.Precision.INT64; break;
+                    case "MS:1000576": compression = MzMLBinaryDecoder.Compression.NONE; break;
+                    case "MS:1000574": compression = MzMLBinaryDecoder.Compression.ZLIB; break;
+                    case "MS:1002312": compression = MzMLBinaryDecoder.Compression.NUMPRESS_LINEAR; break;
+                    case "MS:1002313": compression = MzMLBinaryDecoder.Compression.NUMPRESS_PIC; break;
+                    case "MS:1002314": compression = MzMLBinaryDecoder.Compression.NUMPRESS_SLOF; break;
+                    case "MS:1002746": compression = MzMLBinaryDecoder.Compression.NUMPRESS_LINEAR_ZLIB; break;
+                    case "MS:1002747": compression = MzMLBinaryDecoder.Compression.NUMPRESS_PIC_ZLIB; break;
+                    case "MS:1002748": compression = MzMLBinaryDecoder.Compression.NUMPRESS_SLOF_ZLIB; break;
+                }
+            }
+            if (mz)
+                mzArray = MzMLBinaryDecoder.decode(array.base64, precision, compression, array.arrayLength);
+            else if (intensity)
+                intArray = MzMLBinaryDecoder.decode(array.base64, precision, compression, array.arrayLength);
+        }
+
+        if (mzArray == null || intArray == null) {
+            LoggerFactory.getLogger(MzMLStaxParser.class).warn("No spectrum data found in Spectrum with id: " + raw.id);
+            mzArray = new double[0];
+            intArray = new double[0];
+        }
+        final SimpleSpectrum spec = Spectrums.getBaselined(Spectrums.wrap(mzArray, intArray), 0);
+
+        final Scan scan = new Scan(
+                raw.index,
+                polarity,
+                retentionTimeMillis, //retention time
+                Double.isFinite(collisionEnergy) ? new CollisionEnergy(collisionEnergy) : CollisionEnergy.none(), //collision energy
+                spec.size(),
+                Spectrums.calculateTIC(spec),
+                centroided,
+                precursor
+        );
+        return new Decoded(scan, spec);
+    }
+
+    private static Precursor makePrecursor(RawSpectrum raw) {
+        IsolationWindow w = new IsolationWindow(0, Double.NaN);
+        double target_mz = Double.NaN;
+        if (raw.hasIsolationWindow) {
+            double lower = 0;
+            double higher = 0;
+            for (Param p : raw.isolationParams) {
+                if (p.accession == null)
+                    continue;
+                switch (p.accession) {
+                    case "MS:1000827": // isolation window target m/z
+                        target_mz = Double.parseDouble(p.value);
+                        break;
+                    case "MS:1000828":
+                        lower = Double.parseDouble(p.value);
+                        break;
+                    case "MS:1000829":
+                        higher = Double.parseDouble(p.value);
+                        break;
+                }
+            }
+            w = IsolationWindow.fromOffsets(lower, higher);
+        }
+
+        double intensity = Double.NaN;
+        double selectedIon_mz = Double.NaN;
+        int chargeState = 0;
+        for (Param p : raw.selectedIonParams) {
+            if (p.accession == null)
+                continue;
+            switch (p.accession) {
+                case "MS:1000744": // selected ion m/z
+                    selectedIon_mz = Double.parseDouble(p.value);
+                    break;
+                case "MS:1000042": // intensity
+                    intensity = Double.parseDouble(p.value);
+                    break;
+                case "MS:1000041": // charge state
+                    chargeState = Integer.parseInt(p.value);
+                    break;
+            }
+        }
+        //use isolation target m/z if available
+        //(it happens that the instrument targets the +2 isotope peak but the selected ion m/z is the monoisotopic m/z)
+        double mz = !Double.isNaN(target_mz) ? target_mz : selectedIon_mz;
+
+        return new Precursor(raw.precursorIndex, mz, intensity, chargeState, w);
+    }
+
+    private static class Param {
+        private final String accession, name, value, unitAccession, unitName;
+        private final boolean userParam;
+
+        private Param(XMLStreamReader r, boolean userParam) {
+            this.accession = r.getAttributeValue(null, "accession");
+            this.name = r.getAttributeValue(null, "name");
+            this.value = r.getAttributeValue(null, "value");
+            this.unitAccession = r.getAttributeValue(null, "unitAccession");
+            this.unitName = r.getAttributeValue(null, "unitName");
+            this.userParam = userParam;
+        }
+
+        @Override
+        public String toString() {
+            return accession + " " + name + (value == null || value.isEmpty() ? "" : " = " + value);
+        }
+    }
+
+    private static class InstrumentInfo {
+        private final List<Param> configurationParams = new ArrayList<>(), analyzerParams = new ArrayList<>();
+        private final List<String> analyzers = new ArrayList<>();
+
+        private static void add(List<String> target, List<Param> params) {
+            // user params first, then cv params as done by MzMLParser
+            params.stream().filter(p -> p.userParam).forEach(p -> target.add(p.value));
+            params.stream().filter(p -> !p.userParam).forEach(p -> target.add(p.name));
+        }
+
+        private void endAnalyzer() {
+            add(analyzers, analyzerParams);
+            analyzerParams.clear();
+        }
+
+        private String info() {
+            final List<String> all = new ArrayList<>();
+            add(all, configurationParams);
+            all.addAll(analyzers);
+            return String.join(", ", all);
+        }
+    }
+
+    private static class RawArray {
+        private final List<Param> params = new ArrayList<>();
+        private final int arrayLength;
+        private String base64 = "";
+
+        private RawArray(int arrayLength) {
+            this.arrayLength = arrayLength;
+        }
+    }
+
+    /**
+     * Spectrum as tokenized from the XML, binary arrays are not decoded yet.
+     */
+    private static class RawSpectrum {
+        private final int index;
+        private final String id;
+        private final int defaultArrayLength;
+        private final List<Param> spectrumParams = new ArrayList<>(), scanParams = new ArrayList<>(),
+                isolationParams = new ArrayList<>(), selectedIonParams = new ArrayList<>(), activationParams = new ArrayList<>();
+        private final List<RawArray> arrays = new ArrayList<>();
+        private int scans = 0, precursors = 0, selectedIons = 0;
+        private boolean hasIsolationWindow = false;
+        private int precursorIndex = -1;
+
+        private RawSpectrum(int index, String id, int defaultArrayLength) {
+            this.index = index;
+            this.id = id;
+            this.defaultArrayLength = defaultArrayLength;
+        }
+    }
+
+    private static class Decoded {
+        private final Scan scan;
+        private final SimpleSpectrum spectrum;
+
+        private Decoded(Scan scan, SimpleSpectrum spectrum) {
+            this.scan = scan;
+            this.spectrum = spectrum;
+        }
+    }
+
+    private class Tokenizer {
+        private final DataSource source;
+        private final XMLStreamReader r;
+        private final SpectrumStorage storage;
+        private final ArrayDeque<BasicJJob<Decoded>> queue = new ArrayDeque<>();
+
+        private final LCMSRun run;
+        private final Map<String, List<Param>> paramGroups = new HashMap<>();
+        private final Map<String, InstrumentInfo> instruments = new HashMap<>();
+        private final Map<String, Integer> idToIndex = new HashMap<>();
+        private final ArrayDeque<String> path = new ArrayDeque<>();
+
+        private String mzMlId, runId, defaultInstrumentRef;
+        private List<Param> currentGroup;
+        private InstrumentInfo currentInstrument;
+        private RawSpectrum current;
+        private RawArray currentArray;
+
+        private Tokenizer(DataSource source, XMLStreamReader r, SpectrumStorage storage) {
+            this.source = source;
+            this.r = r;
+            this.storage = storage;
+            this.run = new LCMSRun(source);
+        }
+
+        private String attr(String name) {
+            return r.getAttributeValue(null, name);
+        }
+
+        private int intAttr(String name, int defaultValue) {
+            final String value = attr(name);
+            return value == null ? defaultValue : Integer.parseInt(value);
+        }
+
+        private LCMSRun parse() throws XMLStreamException, IOException {
+            while (r.hasNext()) {
+                final int event = r.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    final String name = r.getLocalName();
+                    if (name.equals("binary")) { // reads until the end element
+                        final String text = r.getElementText();
+                        if (currentArray != null)
+                            currentArray.base64 = text;
+                        continue;
+                    }
+                    startElement(name);
+                    path.push(name);
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    path.pop();
+                    endElement(r.getLocalName());
+                }
+            }
+            while (!queue.isEmpty())
+                commit(take(queue.poll()));
+
+            {
+                // get source location oO
+                URI s = source.getURI();
+                URI parent = s.getPath().endsWith("/") ? s.resolve("..") : s.resolve(".");
+                String fileName = parent.relativize(s).toString();
+                run.setReference(new MsDataSourceReference(parent, fileName, runId, mzMlId));
+            }
+
+            //instrumentationstuff
+            final InstrumentInfo instrument = defaultInstrumentRef == null ? null : instruments.get(defaultInstrumentRef);
+            final String instrumentInfo = instrument == null ? "" : instrument.info();
+            run.setInstrument(Arrays.stream(MsInstrumentation.Instrument.values()).map(i -> (MsInstrumentation) i)
+                    .filter(i -> i.isInstrument(instrumentInfo)).findFirst().orElse(MsInstrumentation.Unknown)
+            );
+            return run;
+        }
+
+        private void startElement(String name) {
+            switch (name) {
+                case "mzML":
+                    mzMlId = attr("id");
+                    break;
+                case "referenceableParamGroup":
+                    currentGroup = new ArrayList<>();
+                    paramGroups.put(attr("id"), currentGroup);
+                    break;
+                case "instrumentConfiguration":
+                    currentInstrument = new InstrumentInfo();
+                    instruments.put(attr("id"), currentInstrument);
+                    break;
+                case "run":
+                    runId = attr("id");
+                    defaultInstrumentRef = attr("defaultInstrumentConfigurationRef");
+                    break;
+                case "spectrum":
+                    current = new RawSpectrum(intAttr("index", -1), attr("id"), intAttr("defaultArrayLength", 0));
+                    break;
+                case "scan":
+                    if (current != null) ++current.scans;
+                    break;
+                case "precursor":
+                    if (current != null && ++current.precursors == 1) {
+                        final String ref = attr("spectrumRef");
+                        current.precursorIndex = ref == null ? -1 : idToIndex.getOrDefault(ref, -1);
+                    }
+                    break;
+                case "isolationWindow":
+                    if (current != null && current.precursors == 1) current.hasIsolationWindow = true;
+                    break;
+                case "selectedIon":
+                    if (current != null && current.precursors == 1) ++current.selectedIons;
+                    break;
+                case "binaryDataArray":
+                    if (current != null) currentArray = new RawArray(intAttr("arrayLength", current.defaultArrayLength));
+                    break;
+                case "cvParam":
+                    addParams(List.of(new Param(r, false)));
+                    break;
+                case "userParam":
+                    addParams(List.of(new Param(r, true)));
+                    break;
+                case "referenceableParamGroupRef":
+                    addParams(paramGroups.getOrDefault(attr("ref"), List.of()));
+                    break;
+            }
+        }
+
+        private void addParams(List<Param> params) {
+            final String parent = path.peek();
+            if (parent == null || params.isEmpty())
+                return;
+            final List<Param> target;
+            switch (parent) {
+                case "referenceableParamGroup":
+                    target = currentGroup;
+                    break;
+                case "instrumentConfiguration":
+                    target = currentInstrument == null ? null : currentInstrument.configurationParams;
+                    break;
+                case "analyzer":
+                    target = currentInstrument == null ? null : currentInstrument.analyzerParams;
+                    break;
+                case "spectrum":
+                    target = current == null ? null : current.spectrumParams;
+                    break;
+                case "scan":
+                    target = current == null || current.scans != 1 ? null : current.scanParams;
+                    break;
+                case "isolationWindow":
+                    target = current == null || current.precursors != 1 ? null : current.isolationParams;
+                    break;
+                case "selectedIon":
+                    target = current == null || current.precursors != 1 || current.selectedIons != 1 ? null : current.selectedIonParams;
+                    break;
+                case "activation":
+                    target = current == null || current.precursors != 1 ? null : current.activationParams;
+                    break;
+                case "binaryDataArray":
+                    target = currentArray == null ? null : currentArray.params;
+                    break;
+                default:
+                    target = null;
+            }
+            if (target != null)
+                target.addAll(params);
+        }
+
+        private void endElement(String name) throws IOException {
+            switch (name) {
+                case "referenceableParamGroup":
+                    currentGroup = null;
+                    break;
+                case "instrumentConfiguration":
+                    currentInstrument = null;
+                    break;
+                case "analyzer":
+                    if (currentInstrument != null) currentInstrument.endAnalyzer();
+                    break;
+                case "binaryDataArray":
+                    if (current != null && currentArray != null) current.arrays.add(currentArray);
+                    currentArray = null;
+                    break;
+                case "spectrum":
+                    final RawSpectrum raw = current;
+                    current = null;
+                    if (raw == null)
+                        break;
+                    if (raw.id != null)
+                        idToIndex.put(raw.id, raw.index);
+                    if (queueSize == 0) {
+                        commit(decode(raw));
+                    } else {
+                        if (queue.size() >= queueSize)
+                            commit(take(queue.poll()));
+                        queue.add(SiriusJobs.getGlobalJobManager().submitJob(new BasicJJob<Decoded>(JJob.JobType.CPU) {
+                            @Override
+                            protected Decoded compute() throws Exception {
+                                return decode(raw);
+                            }
+                        }));
+                    }
+                    break;
+            }
+        }
+
+        private Decoded take(BasicJJob<Decoded> job) throws IOException {
+            try {
+                return job.awaitResult();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+        }
+
+        /**
+         * spectra that are still decoded when parsing fails are not needed anymore
+         */
+        private void cancelPendingDecoding() {
+            queue.forEach(job -> job.cancel(false));
+            queue.clear();
+        }
+
+        private void commit(@Nullable Decoded decoded) {
+            if (decoded == null)
+                return;
+            storage.add(decoded.scan, decoded.spectrum);
+            run.addScan(decoded.scan);
+        }
+    }
+}
@@ -27,7 +27,7 @@ import gnu.trove.map.hash.TIntObjectHashMap;
 import java.io.IOException;
 
 /**
- * Stores spectra in memory. Not threadsafe when used for writing!
+ * Stores spectra in memory. Threadsafe.
  */
 public class InMemoryStorage implements SpectrumStorage {
 
@@ -43,7 +43,7 @@ public class InMemoryStorage implements SpectrumStorage {
     }
 
     @Override
-    public SimpleSpectrum getScan(Scan scan) {
+    public synchronized SimpleSpectrum getScan(Scan scan) {
         return scan2spectrum.get(scan.getIndex());
     }
 
@@ -34,8 +34,10 @@ import de.unijena.bioinf.ChemistryBase.ms.lcms.CoelutingTraceSet;
 import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleMutableSpectrum;
 import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
 import de.unijena.bioinf.ChemistryBase.ms.utils.Spectrums;
+import de.unijena.bioinf.ChemistryBase.utils.IOFunctions;
 import de.unijena.bioinf.MassDecomposer.Chemistry.MassToFormulaDecomposer;
 import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.BasicMasterJJob;
 import de.unijena.bioinf.jjobs.JJob;
 import de.unijena.bioinf.jjobs.JobManager;
 import de.unijena.bioinf.jjobs.ProgressJJob;
@@ -59,13 +61,19 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 public class LCMSProccessingInstance {
     protected HashMap<ProcessedSample, SpectrumStorage> storages;
     protected List<ProcessedSample> samples;
     protected MemoryFileStorage ms2Storage;
-    protected AtomicInteger numberOfMs2Scans = new AtomicInteger();
+    /**
+     * the merged MS/MS scans of each sample get their ids from their own block, so ids do not depend on the order in
+     * which samples are processed in parallel
+     */
+    protected static final int MS2_SCAN_IDS_PER_SAMPLE = 1 << 19;
+    protected final AtomicInteger numberOfSampleSlots = new AtomicInteger();
     protected volatile boolean centroided = true;
     protected MassToFormulaDecomposer formulaDecomposer = new MassToFormulaDecomposer(
             new ChemicalAlphabet(MolecularFormula.parseOrThrow("CHNOPS").elementArray())
@@ -73,6 +81,11 @@ public class LCMSProccessingInstance {
 
     protected Set<PrecursorIonType> detectableIonTypes;
 
+    /**
+     * maximum number of samples that are processed in parallel and keep their spectra in memory
+     */
+    protected int maxResidentSamples = Math.max(1, SiriusJobs.getCPUThreads());
+
     public LCMSProccessingInstance() {
         this.samples = new ArrayList<>();
         try {
@@ -129,6 +142,16 @@ public class LCMSProccessingInstance {
         return ms2Storage;
     }
 
+    public int getMaxResidentSamples() {
+        return maxResidentSamples;
+    }
+
+    public void setMaxResidentSamples(int maxResidentSamples) {
+        if (maxResidentSamples < 1)
+            throw new IllegalArgumentException("At least one sample has to be resident.");
+        this.maxResidentSamples = maxResidentSamples;
+    }
+
     public FragmentedIon createMs2Ion(ProcessedSample sample, MergedSpectrumWithCollisionEnergies merged, MutableChromatographicPeak peak, ChromatographicPeak.Segment segment) {
         Scan[] scans = new Scan[merged.numberOfEnergies()];
         CollisionEnergy[] energies = new CollisionEnergy[merged.numberOfEnergies()];
@@ -136,7 +159,7 @@ public class LCMSProccessingInstance {
         Quality bestQuality = Quality.UNUSABLE;
         for (int k=0; k < merged.numberOfEnergies(); ++k) {
             energies[k] = merged.energyAt(k);
-            final int id = numberOfMs2Scans.incrementAndGet();
+            final int id = nextMs2ScanId(sample);
             final SimpleSpectrum spec = merged.spectrumAt(k).finishMerging();
             final Quality quality = merged.spectrumAt(k).getQuality(spec);
             if (quality.betterThan(bestQuality)) bestQuality = quality;
@@ -152,6 +175,23 @@ public class LCMSProccessingInstance {
         return ion;
     }
 
+    private static int nextMs2ScanId(ProcessedSample sample) {
+        final int id = sample.numberOfMs2Scans.incrementAndGet();
+        if (id >= MS2_SCAN_IDS_PER_SAMPLE)
+            throw new IllegalStateException("Too many merged MS/MS spectra in run " + sample.run.getIdentifier());
+        return sample.ms2ScanIdOffset + id;
+    }
+
+    /**
+     * reserves the MS/MS scan id blocks of the given number of samples and returns the first of them
+     */
+    private int reserveSampleSlots(int numberOfSamples) {
+        final int first = numberOfSampleSlots.getAndAdd(numberOfSamples);
+        if (first + (long) numberOfSamples > Integer.MAX_VALUE / MS2_SCAN_IDS_PER_SAMPLE)
+            throw new IllegalStateException("Too many samples for a single LCMSProccessingInstance.");
+        return first;
+    }
+
     /**
      * has to be called after alignment
      */
@@ -280,6 +320,17 @@ public class LCMSProccessingInstance {
     }
 
     public ProcessedSample addSample(LCMSRun run, SpectrumStorage storage, boolean enforceMs2) throws InvalidInputData {
+        final ProcessedSample sample = createSample(run, storage, enforceMs2, reserveSampleSlots(1));
+        registerSample(sample);
+        return sample;
+    }
+
+    /**
+     * estimates the noise models of the given run without adding it to this instance. Thread safe.
+     *
+     * @param slot the MS/MS scan id block of this sample, see {@link #reserveSampleSlots(int)}
+     */
+    protected ProcessedSample createSample(LCMSRun run, SpectrumStorage storage, boolean enforceMs2, int slot) throws InvalidInputData {
         final NoiseStatistics noiseStatisticsMs1 = new NoiseStatistics(100, 0.2, 1000)/*, noiseStatisticsMs2 = new NoiseStatistics(10, 0.85, 60)*/;
 
         Ms2NoiseStatistics ms2NoiseStatistics = new Ms2NoiseStatistics();
@@ -308,13 +359,108 @@ public class LCMSProccessingInstance {
                 run, noiseStatisticsMs1.getLocalNoiseModel(), ms2NoiseStatistics,
                 new ChromatogramCache(), storage
         );
-        synchronized (this) {
-            this.samples.add(sample);
-            this.storages.put(sample, storage);
-        }
+        sample.ms2ScanIdOffset = slot * MS2_SCAN_IDS_PER_SAMPLE;
         return sample;
     }
 
+    protected synchronized void registerSample(ProcessedSample sample) {
+        this.samples.add(sample);
+        this.storages.put(sample, sample.storage);
+    }
+
+    /**
+     * Parses the given samples, estimates their noise models and detects their features, one sub job per sample. Each
+     * sample gets its own {@link MemoryFileStorage}, which is written back on disc as soon as the sample is processed.
+     * At most {@link #getMaxResidentSamples()} samples are parsed or processed at the same time, so memory does not grow
+     * with the number of samples. Samples are added to this instance in input order. Samples without MS/MS are skipped
+     * if enforceMs2 is set.
+     *
+     * @param sampleParsers parse a single sample into the given storage, e.g. {@code s -> LCMSParsing.parseRun(file, s)}
+     * @return job that returns the processed samples in input order
+     */
+    public BasicMasterJJob<List<ProcessedSample>> makeSampleProcessingJob(List<? extends IOFunctions.IOFunction<SpectrumStorage, LCMSRun>> sampleParsers, boolean enforceMs2) {
+        // id blocks are reserved in input order when the job is created, not when the samples are finished
+        final int firstSlot = reserveSampleSlots(sampleParsers.size());
+        return new BasicMasterJJob<List<ProcessedSample>>(JJob.JobType.SCHEDULER) {
+            @Override
+            protected List<ProcessedSample> compute() throws Exception {
+                final ArrayDeque<BasicJJob<ProcessedSample>> running = new ArrayDeque<>();
+                final List<ProcessedSample> processed = new ArrayList<>(sampleParsers.size());
+                try {
+                    for (int k = 0; k < sampleParsers.size(); ++k) {
+                        checkForInterruption();
+                        if (running.size() >= maxResidentSamples)
+                            registerProcessed(running.poll().awaitResult(), processed);
+                        running.add(submitSubJob(makeSampleJob(sampleParsers.get(k), firstSlot + k, enforceMs2)));
+                    }
+                    while (!running.isEmpty())
+                        registerProcessed(running.poll().awaitResult(), processed);
+                } finally {
+                    // samples of cancelled or still running jobs are not registered, so their storages are closed here
+                    running.forEach(job -> job.cancel(false));
+                    for (BasicJJob<ProcessedSample> job : running) {
+                        try {
+                            final ProcessedSample sample = job.awaitResult();
+                            if (sample != null)
+                                sample.storage.close();
+                        } catch (ExecutionException | RuntimeException | IOException e) {
+                            // failed or cancelled, the first error is already propagated
+                        }
+                    }
+                }
+                return processed;
+            }
+        };
+    }
+
+    private void registerProcessed(ProcessedSample sample, List<ProcessedSample> processed) {
+        if (sample != null) {
+            registerSample(sample);
+            processed.add(sample);
+        }
+    }
+
+    private BasicJJob<ProcessedSample> makeSampleJob(IOFunctions.IOFunction<SpectrumStorage, LCMSRun> parser, int slot, boolean enforceMs2) {
+        return new BasicJJob<ProcessedSample>() {
+            @Override
+            protected ProcessedSample compute() throws Exception {
+                final MemoryFileStorage storage = new MemoryFileStorage();
+                boolean keep = false;
+                try {
+                    final LCMSRun run = parser.apply(storage);
+                    final ProcessedSample sample;
+                    try {
+                        sample = createSample(run, storage, enforceMs2, slot);
+                    } catch (InvalidInputData e) {
+                        LoggerFactory.getLogger(LCMSProccessingInstance.class).warn("Skipping run " + run.getIdentifier() + ": " + e.getMessage());
+                        return null;
+                    }
+                    try {
+                        detectFeatures(sample);
+                    } finally {
+                        evictSpectra(sample);
+                    }
+                    keep = true;
+                    return sample;
+                } finally {
+                    if (!keep)
+                        storage.close();
+                }
+            }
+        };
+    }
+
+    /**
+     * writes the spectra of a processed sample back on disc, they are mapped again on demand
+     */
+    private static void evictSpectra(ProcessedSample sample) throws IOException {
+        if (sample.storage instanceof MemoryFileStorage) {
+            final MemoryFileStorage storage = (MemoryFileStorage) sample.storage;
+            storage.backOnDisc();
+            storage.dropBuffer();
+        }
+    }
+
     public Feature makeFeature(ProcessedSample sample, FragmentedIon ion, boolean gapFilled) {
         int charge = ion.getPolarity();
         if (charge == 0) {
@@ -519,10 +665,55 @@ public class LCMSProccessingInstance {
         }
     }
 
+    /**
+     * detects the features of all samples in parallel, at most {@link #getMaxResidentSamples()} at the same time.
+     */
     public void detectFeatures() {
-        for (ProcessedSample sample : samples) {
-            detectFeatures(sample);
-        }
+        SiriusJobs.getGlobalJobManager().submitJob(makeFeatureDetectionJob()).takeResult();
+    }
+
+    /**
+     * @return job that detects the features of each sample in its own sub job, at most {@link #getMaxResidentSamples()}
+     * at the same time. The spectra of a sample are written back on disc as soon as its features are detected.
+     */
+    public BasicMasterJJob<Object> makeFeatureDetectionJob() {
+        return new BasicMasterJJob<Object>(JJob.JobType.SCHEDULER) {
+            @Override
+            protected Object compute() throws Exception {
+                final ArrayDeque<BasicJJob<Object>> running = new ArrayDeque<>();
+                try {
+                    for (ProcessedSample sample : samples) {
+                        checkForInterruption();
+                        if (running.size() >= maxResidentSamples)
+                            running.poll().awaitResult();
+                        running.add(submitSubJob(new BasicJJob<Object>() {
+                            @Override
+                            protected Object compute() throws Exception {
+                                try {
+                                    detectFeatures(sample);
+                                } finally {
+                                    evictSpectra(sample);
+                                }
+                                return null;
+                            }
+                        }));
+                    }
+                    while (!running.isEmpty())
+                        running.poll().awaitResult();
+                } finally {
+                    // if one sample failed, the other sub jobs must not keep running and hold their spectra in memory
+                    running.forEach(job -> job.cancel(false));
+                    for (BasicJJob<Object> job : running) {
+                        try {
+                            job.awaitResult();
+                        } catch (ExecutionException | RuntimeException e) {
+                            // failed or cancelled, the first error is already propagated
+                        }
+                    }
+                }
+                return null;
+            }
+        };
     }
 
     public Cluster alignAndGapFilling() {
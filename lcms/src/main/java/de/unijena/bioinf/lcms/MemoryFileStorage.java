@@ -18,73 +18,169 @@
  *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
  */
 
+
 package de.unijena.bioinf.lcms;
 
 import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
 import de.unijena.bioinf.ChemistryBase.ms.utils.Spectrums;
 import de.unijena.bioinf.model.lcms.Scan;
-import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.impl.Constants;
+import gnu.trove.map.hash.TIntLongHashMap;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.FloatBuffer;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 
+/**
+ * Stores spectra in a temporary file that is memory mapped in segments of at most {@link #SEGMENT_SIZE} bytes.
+ * Offsets are 64 bit, so a single sample is not limited to 2 GB. Spectra are appended to the file and never span
+ * two segments. Reading uses absolute gets only, so it is lock free and can be done by many threads in parallel.
+ * <p>
+ * Writing ({@link #add(Scan, SimpleSpectrum)} and {@link #backOnDisc()}) is not thread safe.
+ */
 public class MemoryFileStorage implements SpectrumStorage {
 
-    private final TIntIntHashMap offsets;
-    private MappedByteBuffer buffer;
+    /**
+     * Encoding of m/z values on disc. Intensities are always stored as float.
+     */
+    public enum MzEncoding {
+        /**
+         * 4 bytes per peak, the original encoding
+         */
+        FLOAT,
+        /**
+         * 8 bytes per peak, exact
+         */
+        DOUBLE,
+        /**
+         * first m/z as double, all following as float differences to their predecessor. 4 bytes per peak, but the
+         * error does not grow with the mass like for {@link #FLOAT}.
+         */
+        DELTA
+    }
+
+    protected static final int SEGMENT_SIZE = 1 << 30;
+
+    private final TIntLongHashMap offsets;
+    private final MzEncoding encoding;
+    private final int segmentSize;
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
     private InMemoryStorage tempStorage;
     protected boolean dirty = false;
     private FileChannel writableChannel;
-    private int totalSize;
+    private long totalSize;
 
     public MemoryFileStorage() throws IOException {
-        this.offsets = new TIntIntHashMap();
+        this(MzEncoding.FLOAT);
+    }
+
+    public MemoryFileStorage(MzEncoding encoding) throws IOException {
+        this(encoding, SEGMENT_SIZE);
+    }
+
+    /**
+     * @param segmentSize maximal size of a mapped segment in bytes. Smaller segments are only useful for testing.
+     */
+    MemoryFileStorage(MzEncoding encoding, int segmentSize) throws IOException {
+        if (segmentSize <= 0)
+            throw new IllegalArgumentException("Segment size has to be positive: " + segmentSize);
+        this.segmentSize = segmentSize;
+        this.offsets = new TIntLongHashMap(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1, -1L);
+        this.encoding = encoding;
         this.tempStorage = new InMemoryStorage();
     }
 
+    public MzEncoding getEncoding() {
+        return encoding;
+    }
+
     public void keepInMemory() {
         this.tempStorage = new InMemoryStorage();
     }
 
+    /**
+     * appends all spectra that are not on disc yet to the file.
+     */
     public void backOnDisc() throws IOException {
         if (dirty) {
-            int totalSize = 0;
-            for (SimpleSpectrum s : tempStorage.scan2spectrum.valueCollection()) {
-                totalSize += s.size();
-            }
-            final int bytes = totalSize * 8 + tempStorage.scan2spectrum.size() * 4;
-            if (writableChannel!=null) {
-                writableChannel.close();
-            }
-            writableChannel = FileChannel.open(File.createTempFile("sirius_spectrum", ".binary").toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
-            this.buffer = writableChannel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+            if (writableChannel == null)
+                writableChannel = FileChannel.open(File.createTempFile("sirius_spectrum", ".binary").toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+
+            final IOException[] error = new IOException[1];
             tempStorage.scan2spectrum.forEachEntry((i, s) -> {
-                offsets.put(i, buffer.position());
-                buffer.putInt(s.size());
-                for (int j = 0; j < s.size(); ++j) {
-                    buffer.putFloat((float) s.getMzAt(j));
-                }
-                for (int j = 0; j < s.size(); ++j) {
-                    buffer.putFloat((float) s.getIntensityAt(j));
+                if (offsets.containsKey(i))
+                    return true; // already on disc
+                try {
+                    offsets.put(i, append(s));
+                    return true;
+                } catch (IOException e) {
+                    error[0] = e;
+                    return false;
                 }
-                return true;
             });
-            this.totalSize = buffer.position();
-            this.buffer.rewind();
+            if (error[0] != null)
+                throw error[0];
+            // the last segment might have grown and has to be mapped again
+            dropBuffer();
         }
         this.tempStorage = null;
         this.dirty = false;
     }
 
+    private long append(SimpleSpectrum s) throws IOException {
+        final int n = s.size();
+        final int mzBytes = encoding == MzEncoding.DOUBLE ? 8 * n : (encoding == MzEncoding.DELTA && n > 0 ? 8 + 4 * (n - 1) : 4 * n);
+        final int bytes = 4 + mzBytes + 4 * n;
+        if (bytes > segmentSize)
+            throw new IOException("Spectrum with " + n + " peaks is too large to be stored.");
+
+        long offset = totalSize;
+        if (offset / segmentSize != (offset + bytes - 1) / segmentSize)
+            offset = (offset / segmentSize + 1) * segmentSize; // start in the next segment
+
+        final ByteBuffer buf = ByteBuffer.allocate(bytes);
+        buf.putInt(n);
+        switch (encoding) {
+            case FLOAT:
+                for (int j = 0; j < n; ++j) buf.putFloat((float) s.getMzAt(j));
+                break;
+            case DOUBLE:
+                for (int j = 0; j < n; ++j) buf.putDouble(s.getMzAt(j));
+                break;
+            case DELTA:
+                if (n > 0) {
+                    double last = s.getMzAt(0);
+                    buf.putDouble(last);
+                    for (int j = 1; j < n; ++j) {
+                        // encode against the decoded predecessor, so rounding errors do not accumulate
+                        final float delta = (float) (s.getMzAt(j) - last);
+                        buf.putFloat(delta);
+                        last += delta;
+                    }
+                }
+                break;
+        }
+        for (int j = 0; j < n; ++j) buf.putFloat((float) s.getIntensityAt(j));
+        buf.flip();
+
+        long pos = offset;
+        while (buf.hasRemaining())
+            pos += writableChannel.write(buf, pos);
+        totalSize = offset + bytes;
+        return offset;
+    }
+
     public void dropBuffer() {
-        if (buffer!=null) {
-            buffer.force();
+        synchronized (this) {
+            for (MappedByteBuffer segment : segments)
+                if (segment != null)
+                    segment.force();
+            this.segments = new MappedByteBuffer[0];
         }
-        this.buffer = null;
     }
 
     @Override
@@ -104,31 +200,64 @@ public class MemoryFileStorage implements SpectrumStorage {
         return readFromMemory(scan);
     }
 
-    private synchronized SimpleSpectrum readFromMemory(Scan scan) {
-        final int offset = offsets.get(scan.getIndex());
-        if (offset < 0) return null;
-        if (buffer==null) {
+    private MappedByteBuffer segment(int index) {
+        MappedByteBuffer[] segs = segments;
+        if (index < segs.length && segs[index] != null)
+            return segs[index];
+        synchronized (this) {
+            segs = segments;
+            if (index < segs.length && segs[index] != null)
+                return segs[index];
+            final MappedByteBuffer[] nu = Arrays.copyOf(segs, Math.max(segs.length, index + 1));
+            final long start = (long) index * segmentSize;
             try {
-                buffer = writableChannel.map(FileChannel.MapMode.PRIVATE, 0, totalSize);
+                nu[index] = writableChannel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(segmentSize, totalSize - start));
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
+            segments = nu;
+            return nu[index];
         }
-        buffer.position(offset);
-        final int size = buffer.getInt();
-        final FloatBuffer floats = buffer.asFloatBuffer();
-        final float[] mz = new float[size], ints = new float[size];
-        floats.get(mz);
-        floats.get(ints);
+    }
+
+    private SimpleSpectrum readFromMemory(Scan scan) {
+        final long offset = offsets.get(scan.getIndex());
+        if (offset < 0) return null;
+        final MappedByteBuffer buffer = segment((int) (offset / segmentSize));
+        int pos = (int) (offset % segmentSize);
+
+        final int size = buffer.getInt(pos);
+        pos += 4;
+        final double[] mz = new double[size];
+        final float[] ints = new float[size];
+        switch (encoding) {
+            case FLOAT:
+                for (int j = 0; j < size; ++j, pos += 4) mz[j] = buffer.getFloat(pos);
+                break;
+            case DOUBLE:
+                for (int j = 0; j < size; ++j, pos += 8) mz[j] = buffer.getDouble(pos);
+                break;
+            case DELTA:
+                if (size > 0) {
+                    mz[0] = buffer.getDouble(pos);
+                    pos += 8;
+                    for (int j = 1; j < size; ++j, pos += 4) mz[j] = mz[j - 1] + buffer.getFloat(pos);
+                }
+                break;
+        }
+        for (int j = 0; j < size; ++j, pos += 4) ints[j] = buffer.getFloat(pos);
+
         final SimpleSpectrum spectrum = new SimpleSpectrum(Spectrums.getAlreadyOrderedSpectrum(Spectrums.wrap(mz, ints)));
-        if (tempStorage!=null) tempStorage.add(scan, spectrum);
+        final InMemoryStorage cache = tempStorage;
+        if (cache!=null) cache.add(scan, spectrum);
         return spectrum;
     }
 
     @Override
     public void close() throws IOException {
-        writableChannel.close();
-        buffer=null;
+        if (writableChannel != null)
+            writableChannel.close();
+        segments = new MappedByteBuffer[0];
         writableChannel=null;
     }
 }
@@ -43,6 +43,7 @@ import org.apache.commons.math3.analysis.function.Identity;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ProcessedSample implements Annotated<DataAnnotation> {
 
@@ -66,6 +67,10 @@ public class ProcessedSample implements Annotated<DataAnnotation> {
     public final ArrayList<FragmentedIon> gapFilledIons;
     public final ArrayList<FragmentedIon> otherIons; // any ions used for alignment solely
 
+    // ids of the merged MS/MS scans of this sample start after this offset, see LCMSProccessingInstance#createMs2Ion
+    protected int ms2ScanIdOffset;
+    protected final AtomicInteger numberOfMs2Scans = new AtomicInteger();
+
     // can be used for multiple charge detection
     protected RealDistribution intensityAfterPrecursorDistribution;
 
@@ -0,0 +1,245 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.io.lcms;
+
+import de.unijena.bioinf.io.lcms.MzMLBinaryDecoder.Compression;
+import de.unijena.bioinf.io.lcms.MzMLBinaryDecoder.Precision;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.Deflater;
+
+/**
+ * The numpress test data is encoded with a port of the reference encoder of MS-Numpress.
+ */
+public class MzMLBinaryDecoderTest {
+
+    private static final double[] MZ = {100.0001, 100.0523, 101.1234, 150.07, 150.0701, 305.5, 305.49, 999.9999};
+    private static final double[] INTENSITIES = {0, 1, 17, 250.4, 1e4, 1234567.8, 3, 0};
+
+    @Test
+    public void testUncompressed() throws IOException {
+        Assert.assertArrayEquals(MZ, decode(doubles(MZ), Precision.FLOAT64, Compression.NONE), 0d);
+        Assert.assertArrayEquals(toFloat(MZ), decode(floats(MZ), Precision.FLOAT32, Compression.NONE), 0d);
+        final double[] ints = {0, 1, -5, 1 << 20};
+        Assert.assertArrayEquals(ints, decode(int32(ints), Precision.INT32, Compression.NONE), 0d);
+    }
+
+    @Test
+    public void testZlib() throws IOException {
+        Assert.assertArrayEquals(MZ, decode(zlib(doubles(MZ)), Precision.FLOAT64, Compression.ZLIB), 0d);
+        Assert.assertArrayEquals(toFloat(INTENSITIES), decode(zlib(floats(INTENSITIES)), Precision.FLOAT32, Compression.ZLIB), 0d);
+        // larger than the size hint
+        final double[] many = new double[5000];
+        for (int i = 0; i < many.length; ++i) many[i] = i * 0.25;
+        Assert.assertArrayEquals(many, MzMLBinaryDecoder.decode(base64(zlib(doubles(many))), Precision.FLOAT64, Compression.ZLIB, 10), 0d);
+    }
+
+    @Test
+    public void testNumpressLinear() throws IOException {
+        final double fixedPoint = 1e5;
+        final byte[] encoded = encodeLinear(MZ, fixedPoint);
+        assertWithin(MZ, decode(encoded, Precision.FLOAT64, Compression.NUMPRESS_LINEAR), 0.5 / fixedPoint);
+        assertWithin(MZ, decode(zlib(encoded), Precision.FLOAT64, Compression.NUMPRESS_LINEAR_ZLIB), 0.5 / fixedPoint);
+        // one and two values are stored without residuals
+        assertWithin(new double[]{MZ[0]}, decode(encodeLinear(new double[]{MZ[0]}, fixedPoint), Precision.FLOAT64, Compression.NUMPRESS_LINEAR), 0.5 / fixedPoint);
+        assertWithin(Arrays.copyOf(MZ, 2), decode(encodeLinear(Arrays.copyOf(MZ, 2), fixedPoint), Precision.FLOAT64, Compression.NUMPRESS_LINEAR), 0.5 / fixedPoint);
+        // a constant difference results in encoded zeros
+        final double[] equidistant = {100, 100.5, 101, 101.5, 102};
+        assertWithin(equidistant, decode(encodeLinear(equidistant, fixedPoint), Precision.FLOAT64, Compression.NUMPRESS_LINEAR), 0.5 / fixedPoint);
+    }
+
+    @Test
+    public void testNumpressPic() throws IOException {
+        final double[] expected = new double[INTENSITIES.length];
+        for (int i = 0; i < expected.length; ++i) expected[i] = Math.round(INTENSITIES[i]);
+        final byte[] encoded = encodePic(INTENSITIES);
+        Assert.assertArrayEquals(expected, decode(encoded, Precision.FLOAT32, Compression.NUMPRESS_PIC), 0d);
+        Assert.assertArrayEquals(expected, decode(zlib(encoded), Precision.FLOAT32, Compression.NUMPRESS_PIC_ZLIB), 0d);
+    }
+
+    @Test
+    public void testNumpressSlof() throws IOException {
+        final double fixedPoint = 5000;
+        final double[] intensities = {0, 1, 17, 250.4, 1e4};
+        final byte[] encoded = encodeSlof(intensities, fixedPoint);
+        final double[] decoded = decode(encoded, Precision.FLOAT32, Compression.NUMPRESS_SLOF);
+        final double[] decodedZlib = decode(zlib(encoded), Precision.FLOAT32, Compression.NUMPRESS_SLOF_ZLIB);
+        Assert.assertEquals(intensities.length, decoded.length);
+        for (int i = 0; i < intensities.length; ++i) {
+            // slof stores log(x + 1) with fixed precision, so the error is relative
+            final double tolerance = (intensities[i] + 1) * (Math.exp(0.5 / fixedPoint) - 1);
+            Assert.assertEquals(intensities[i], decoded[i], tolerance);
+            Assert.assertEquals(decoded[i], decodedZlib[i], 0d);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptZlib() throws IOException {
+        decode(new byte[]{1, 2, 3, 4, 5}, Precision.FLOAT64, Compression.ZLIB);
+    }
+
+    private static double[] decode(byte[] bytes, Precision precision, Compression compression) throws IOException {
+        return MzMLBinaryDecoder.decode(base64(bytes), precision, compression, MZ.length);
+    }
+
+    private static void assertWithin(double[] expected, double[] actual, double tolerance) {
+        Assert.assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; ++i)
+            Assert.assertEquals(expected[i], actual[i], tolerance);
+    }
+
+    private static String base64(byte[] bytes) {
+        return Base64.getEncoder().encodeToString(bytes);
+    }
+
+    private static double[] toFloat(double[] values) {
+        final double[] result = new double[values.length];
+        for (int i = 0; i < values.length; ++i) result[i] = (float) values[i];
+        return result;
+    }
+
+    private static byte[] doubles(double[] values) {
+        final ByteBuffer buf = ByteBuffer.allocate(values.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (double v : values) buf.putDouble(v);
+        return buf.array();
+    }
+
+    private static byte[] floats(double[] values) {
+        final ByteBuffer buf = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (double v : values) buf.putFloat((float) v);
+        return buf.array();
+    }
+
+    private static byte[] int32(double[] values) {
+        final ByteBuffer buf = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (double v : values) buf.putInt((int) v);
+        return buf.array();
+    }
+
+    private static byte[] zlib(byte[] bytes) {
+        final Deflater deflater = new Deflater();
+        deflater.setInput(bytes);
+        deflater.finish();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[1024];
+        while (!deflater.finished())
+            out.write(buffer, 0, deflater.deflate(buffer));
+        deflater.end();
+        return out.toByteArray();
+    }
+
+    //region MS-Numpress reference encoder
+    private static void encodeFixedPoint(double fixedPoint, ByteArrayOutputStream out) {
+        final long fp = Double.doubleToLongBits(fixedPoint);
+        for (int i = 7; i >= 0; i--)
+            out.write((int) ((fp >> (8 * i)) & 0xff));
+    }
+
+    private static void encodeUnsignedInt(long value, ByteArrayOutputStream out) {
+        for (int i = 0; i < 4; i++)
+            out.write((int) ((value >> (8 * i)) & 0xff));
+    }
+
+    /**
+     * Appends the half bytes of the given integer: a head with the number of leading zero (0-8) or one (9-15)
+     * half bytes followed by the remaining half bytes, least significant first.
+     */
+    private static void encodeInt(int x, ByteArrayOutputStream halfBytes) {
+        final int mask = 0xf0000000;
+        final int init = x & mask;
+        int l;
+        if (init == 0) {
+            l = 8;
+            for (int i = 0; i < 8; i++) {
+                if ((x & (mask >>> (4 * i))) != 0) {
+                    l = i;
+                    break;
+                }
+            }
+            halfBytes.write(l);
+        } else if (init == mask) {
+            l = 7;
+            for (int i = 0; i < 8; i++) {
+                final int m = mask >>> (4 * i);
+                if ((x & m) != m) {
+                    l = i;
+                    break;
+                }
+            }
+            halfBytes.write(l + 8);
+        } else {
+            l = 0;
+            halfBytes.write(0);
+        }
+        for (int i = l; i < 8; i++)
+            halfBytes.write(0xf & (x >> (4 * (i - l))));
+    }
+
+    private static void packHalfBytes(byte[] halfBytes, ByteArrayOutputStream out) {
+        for (int i = 0; i + 1 < halfBytes.length; i += 2)
+            out.write((halfBytes[i] << 4) | (halfBytes[i + 1] & 0xf));
+        if (halfBytes.length % 2 != 0)
+            out.write(halfBytes[halfBytes.length - 1] << 4);
+    }
+
+    private static byte[] encodeLinear(double[] data, double fixedPoint) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encodeFixedPoint(fixedPoint, out);
+        final long[] ints = new long[data.length];
+        for (int i = 0; i < data.length; i++) ints[i] = (long) (data[i] * fixedPoint + 0.5);
+        encodeUnsignedInt(ints[0], out);
+        if (data.length >= 2) encodeUnsignedInt(ints[1], out);
+        final ByteArrayOutputStream halfBytes = new ByteArrayOutputStream();
+        for (int i = 2; i < data.length; i++) {
+            final long extrapolation = ints[i - 1] + (ints[i - 1] - ints[i - 2]);
+            encodeInt((int) (ints[i] - extrapolation), halfBytes);
+        }
+        packHalfBytes(halfBytes.toByteArray(), out);
+        return out.toByteArray();
+    }
+
+    private static byte[] encodePic(double[] data) {
+        final ByteArrayOutputStream halfBytes = new ByteArrayOutputStream();
+        for (double v : data) encodeInt((int) (v + 0.5), halfBytes);
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        packHalfBytes(halfBytes.toByteArray(), out);
+        return out.toByteArray();
+    }
+
+    private static byte[] encodeSlof(double[] data, double fixedPoint) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        encodeFixedPoint(fixedPoint, out);
+        for (double v : data) {
+            final int x = (int) (Math.log(v + 1) * fixedPoint + 0.5);
+            out.write(x & 0xff);
+            out.write((x >> 8) & 0xff);
+        }
+        return out.toByteArray();
+    }
+    //endregion
+}
@@ -0,0 +1,129 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.io.lcms;
+
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.lcms.InMemoryStorage;
+import de.unijena.bioinf.model.lcms.LCMSRun;
+import de.unijena.bioinf.model.lcms.Polarity;
+import de.unijena.bioinf.model.lcms.Precursor;
+import de.unijena.bioinf.model.lcms.Scan;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MzMLStaxParserTest {
+
+    private static File fixture() throws URISyntaxException {
+        return new File(MzMLStaxParserTest.class.getResource("/small.mzML").toURI());
+    }
+
+    @Test
+    public void testSameRunAsMzMLParser() throws Exception {
+        final File file = fixture();
+        final InMemoryStorage expectedStorage = new InMemoryStorage();
+        final LCMSRun expected = new MzMLParser().parse(file, expectedStorage);
+
+        final InMemoryStorage storage = new InMemoryStorage();
+        assertSameRun(expected, expectedStorage, new MzMLStaxParser().parse(file, storage), storage);
+
+        final InMemoryStorage parallelStorage = new InMemoryStorage();
+        assertSameRun(expected, expectedStorage, new MzMLStaxParser(1).parse(file, parallelStorage), parallelStorage);
+
+        final InMemoryStorage defaultStorage = new InMemoryStorage();
+        assertSameRun(expected, expectedStorage, LCMSParsing.parseRunFromMzMl(file, defaultStorage), defaultStorage);
+    }
+
+    @Test
+    public void testFixtureContent() throws Exception {
+        final InMemoryStorage storage = new InMemoryStorage();
+        final List<Scan> scans = new ArrayList<>(new MzMLStaxParser().parse(fixture(), storage).getScans());
+        Assert.assertEquals(3, scans.size());
+
+        final Scan ms1 = scans.get(0);
+        Assert.assertFalse(ms1.isMsMs());
+        Assert.assertEquals(Polarity.POSITIVE, ms1.getPolarity());
+        Assert.assertEquals(60500L, ms1.getRetentionTime());
+        // zero intensity peaks are removed
+        Assert.assertEquals(3, ms1.getNumberOfPeaks());
+        Assert.assertEquals(53000.25, storage.getScan(ms1).getIntensityAt(1), 1e-3);
+
+        final Scan ms2 = scans.get(1);
+        Assert.assertTrue(ms2.isMsMs());
+        Assert.assertEquals(61200L, ms2.getRetentionTime());
+        Assert.assertEquals(35d, ms2.getCollisionEnergy().getMinEnergy(), 0d);
+        final Precursor precursor = ms2.getPrecursor();
+        Assert.assertEquals(0, precursor.getIndex());
+        Assert.assertEquals(300.1234, precursor.getMass(), 1e-9);
+        Assert.assertEquals(1, precursor.getCharge());
+        Assert.assertEquals(2d, precursor.getIsolationWindow().getWindowWidth(), 1e-9);
+        final SimpleSpectrum spectrum = storage.getScan(ms2);
+        Assert.assertEquals(5, spectrum.size());
+        Assert.assertEquals(163.0601, spectrum.getMzAt(3), 1e-9);
+
+        Assert.assertFalse(scans.get(2).isCentroided());
+    }
+
+    private static void assertSameRun(LCMSRun expected, InMemoryStorage expectedStorage, LCMSRun actual, InMemoryStorage actualStorage) throws IOException {
+        Assert.assertEquals(expected.getInstrument(), actual.getInstrument());
+        Assert.assertEquals(expected.getReference().getRunId(), actual.getReference().getRunId());
+        Assert.assertEquals(expected.getReference().getMzmlId(), actual.getReference().getMzmlId());
+        Assert.assertEquals(expected.getReference().getFileName(), actual.getReference().getFileName());
+        Assert.assertEquals(expected.getReference().getSourceLocation(), actual.getReference().getSourceLocation());
+
+        final List<Scan> expectedScans = new ArrayList<>(expected.getScans());
+        final List<Scan> actualScans = new ArrayList<>(actual.getScans());
+        Assert.assertEquals(expectedScans.size(), actualScans.size());
+        for (int i = 0; i < expectedScans.size(); ++i) {
+            final Scan e = expectedScans.get(i), a = actualScans.get(i);
+            Assert.assertEquals(e.getIndex(), a.getIndex());
+            Assert.assertEquals(e.getPolarity(), a.getPolarity());
+            Assert.assertEquals(e.getRetentionTime(), a.getRetentionTime());
+            Assert.assertEquals(e.getCollisionEnergy(), a.getCollisionEnergy());
+            Assert.assertEquals(e.getNumberOfPeaks(), a.getNumberOfPeaks());
+            Assert.assertEquals(e.getTIC(), a.getTIC(), 0d);
+            Assert.assertEquals(e.isCentroided(), a.isCentroided());
+            Assert.assertEquals(e.isMsMs(), a.isMsMs());
+            if (e.getPrecursor() == null) {
+                Assert.assertNull(a.getPrecursor());
+            } else {
+                Assert.assertEquals(e.getPrecursor().getIndex(), a.getPrecursor().getIndex());
+                Assert.assertEquals(e.getPrecursor().getMass(), a.getPrecursor().getMass(), 0d);
+                Assert.assertEquals(e.getPrecursor().getIntensity(), a.getPrecursor().getIntensity(), 0d);
+                Assert.assertEquals(e.getPrecursor().getCharge(), a.getPrecursor().getCharge());
+                Assert.assertEquals(e.getPrecursor().getIsolationWindow().getLeftOffset(), a.getPrecursor().getIsolationWindow().getLeftOffset(), 0d);
+                Assert.assertEquals(e.getPrecursor().getIsolationWindow().getRightOffset(), a.getPrecursor().getIsolationWindow().getRightOffset(), 0d);
+            }
+
+            final SimpleSpectrum es = expectedStorage.getScan(e), as = actualStorage.getScan(a);
+            Assert.assertEquals(es.size(), as.size());
+            for (int k = 0; k < es.size(); ++k) {
+                Assert.assertEquals(es.getMzAt(k), as.getMzAt(k), 0d);
+                Assert.assertEquals(es.getIntensityAt(k), as.getIntensityAt(k), 0d);
+            }
+        }
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.lcms;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.ChemistryBase.utils.IOFunctions;
+import de.unijena.bioinf.io.lcms.LCMSParsing;
+import de.unijena.bioinf.model.lcms.FragmentedIon;
+import de.unijena.bioinf.model.lcms.LCMSRun;
+import de.unijena.bioinf.model.lcms.Scan;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class LCMSProccessingInstanceTest {
+
+    private static final int SAMPLES = 6;
+
+    @Test
+    public void testParallelProcessingEqualsSequential() throws Exception {
+        final File file = new File(LCMSProccessingInstanceTest.class.getResource("/small.mzML").toURI());
+
+        final LCMSProccessingInstance sequential = new LCMSProccessingInstance();
+        for (int k = 0; k < SAMPLES; ++k) {
+            final InMemoryStorage storage = new InMemoryStorage();
+            sequential.detectFeatures(sequential.addSample(LCMSParsing.parseRunFromMzMl(file, storage), storage, false));
+        }
+
+        final LCMSProccessingInstance parallel = new LCMSProccessingInstance();
+        parallel.setMaxResidentSamples(3);
+        final List<MemoryFileStorage> storages = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger maxResident = new AtomicInteger();
+        final List<IOFunctions.IOFunction<SpectrumStorage, LCMSRun>> parsers = new ArrayList<>();
+        for (int k = 0; k < SAMPLES; ++k) {
+            parsers.add(storage -> {
+                // samples that are parsed but not yet written back on disc
+                int resident = 1;
+                synchronized (storages) {
+                    for (MemoryFileStorage s : storages)
+                        if (s.dirty) ++resident;
+                    storages.add((MemoryFileStorage) storage);
+                }
+                maxResident.accumulateAndGet(resident, Math::max);
+                return LCMSParsing.parseRunFromMzMl(file, storage);
+            });
+        }
+        final List<ProcessedSample> processed = SiriusJobs.getGlobalJobManager().submitJob(parallel.makeSampleProcessingJob(parsers, false)).awaitResult();
+
+        Assert.assertTrue("at most 3 samples should be resident, but were " + maxResident.get(), maxResident.get() <= 3);
+        Assert.assertEquals(parallel.getSamples(), processed);
+        Assert.assertEquals(SAMPLES, processed.size());
+        Assert.assertEquals(SAMPLES, sequential.getSamples().size());
+
+        for (int k = 0; k < SAMPLES; ++k) {
+            final ProcessedSample a = sequential.getSamples().get(k), b = processed.get(k);
+            Assert.assertEquals(a.run.getIdentifier(), b.run.getIdentifier());
+            Assert.assertEquals(a.ions.size(), b.ions.size());
+            for (int i = 0; i < a.ions.size(); ++i) {
+                final FragmentedIon x = a.ions.get(i), y = b.ions.get(i);
+                Assert.assertEquals(x.getIntensity(), y.getIntensity(), 0d);
+                Assert.assertEquals(x.getMsMsScans().length, y.getMsMsScans().length);
+                for (int j = 0; j < x.getMsMsScans().length; ++j) {
+                    final Scan s = x.getMsMsScans()[j], t = y.getMsMsScans()[j];
+                    // ids are taken from the block of the sample, independent of the processing order
+                    Assert.assertEquals(s.getIndex(), t.getIndex());
+                    Assert.assertEquals(k, (t.getIndex() - 1) / LCMSProccessingInstance.MS2_SCAN_IDS_PER_SAMPLE);
+                    assertSameSpectrum(sequential.getMs2Storage().getScan(s), parallel.getMs2Storage().getScan(t));
+                }
+            }
+            // spectra of processed samples are written back on disc, but can still be read
+            for (Scan scan : b.run.getScans())
+                if (scan.isCentroided())
+                    assertSameSpectrum(a.storage.getScan(a.run.getScanByNumber(scan.getIndex()).orElseThrow()), b.storage.getScan(scan));
+            Assert.assertFalse(((MemoryFileStorage) b.storage).dirty);
+        }
+
+        for (ProcessedSample s : processed) s.storage.close();
+        sequential.getMs2Storage().close();
+        parallel.getMs2Storage().close();
+    }
+
+    private static void assertSameSpectrum(SimpleSpectrum expected, SimpleSpectrum actual) {
+        Assert.assertNotNull(actual);
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            Assert.assertEquals(expected.getMzAt(i), actual.getMzAt(i), 1e-3);
+            Assert.assertEquals(expected.getIntensityAt(i), actual.getIntensityAt(i), 1e-3 * expected.getIntensityAt(i));
+        }
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.lcms;
+
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.lcms.MemoryFileStorage.MzEncoding;
+import de.unijena.bioinf.model.lcms.Polarity;
+import de.unijena.bioinf.model.lcms.Scan;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Uses tiny segments, so the spectra are spread over many mapped segments.
+ */
+public class MemoryFileStorageTest {
+
+    private static final int SEGMENT_SIZE = 1024;
+    private static final int PEAKS = 20;
+
+    @Test
+    public void testRoundTripFloat() throws IOException {
+        roundTrip(MzEncoding.FLOAT, 1e-3);
+    }
+
+    @Test
+    public void testRoundTripDouble() throws IOException {
+        roundTrip(MzEncoding.DOUBLE, 0d);
+    }
+
+    @Test
+    public void testRoundTripDelta() throws IOException {
+        // much more precise than FLOAT, as the rounding errors of the differences do not add up
+        roundTrip(MzEncoding.DELTA, 1e-5);
+    }
+
+    @Test
+    public void testMissingScan() throws IOException {
+        try (MemoryFileStorage storage = new MemoryFileStorage(MzEncoding.DELTA, SEGMENT_SIZE)) {
+            Assert.assertNull(storage.getScan(scan(7)));
+            storage.add(scan(1), spectrum(new Random(1), PEAKS));
+            storage.backOnDisc();
+            Assert.assertNotNull(storage.getScan(scan(1)));
+            Assert.assertNull(storage.getScan(scan(7)));
+            // the map returns -1 for missing keys, which must not be mistaken for the offset of the first spectrum
+            Assert.assertNull(storage.getScan(scan(0)));
+        }
+    }
+
+    @Test
+    public void testEmptySpectrum() throws IOException {
+        for (MzEncoding encoding : MzEncoding.values()) {
+            try (MemoryFileStorage storage = new MemoryFileStorage(encoding, SEGMENT_SIZE)) {
+                storage.add(scan(0), new SimpleSpectrum(new double[0], new double[0]));
+                storage.add(scan(1), spectrum(new Random(2), PEAKS));
+                storage.backOnDisc();
+                Assert.assertEquals(encoding.name(), 0, storage.getScan(scan(0)).size());
+                Assert.assertEquals(encoding.name(), PEAKS, storage.getScan(scan(1)).size());
+            }
+        }
+    }
+
+    @Test
+    public void testAppendAfterBackOnDisc() throws IOException {
+        final Random r = new Random(3);
+        final SimpleSpectrum[] expected = new SimpleSpectrum[30];
+        try (MemoryFileStorage storage = new MemoryFileStorage(MzEncoding.DOUBLE, SEGMENT_SIZE)) {
+            for (int i = 0; i < 15; ++i)
+                storage.add(scan(i), expected[i] = spectrum(r, PEAKS));
+            storage.backOnDisc();
+            // map the last segment before it grows
+            assertSpectrum(expected[14], storage.getScan(scan(14)), 0d);
+            try {
+                storage.add(scan(15), expected[0]);
+                Assert.fail("adding to a storage on disc should fail");
+            } catch (IllegalStateException e) {
+                // expected
+            }
+
+            storage.keepInMemory();
+            for (int i = 15; i < expected.length; ++i)
+                storage.add(scan(i), expected[i] = spectrum(r, PEAKS));
+            storage.backOnDisc();
+            for (int i = 0; i < expected.length; ++i)
+                assertSpectrum(expected[i], storage.getScan(scan(i)), 0d);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void testSpectrumLargerThanSegment() throws IOException {
+        try (MemoryFileStorage storage = new MemoryFileStorage(MzEncoding.FLOAT, SEGMENT_SIZE)) {
+            storage.add(scan(0), spectrum(new Random(4), SEGMENT_SIZE));
+            storage.backOnDisc();
+        }
+    }
+
+    private static void roundTrip(MzEncoding encoding, double mzTolerance) throws IOException {
+        final Random r = new Random(encoding.ordinal());
+        final SimpleSpectrum[] expected = new SimpleSpectrum[50];
+        try (MemoryFileStorage storage = new MemoryFileStorage(encoding, SEGMENT_SIZE)) {
+            Assert.assertEquals(encoding, storage.getEncoding());
+            for (int i = 0; i < expected.length; ++i)
+                storage.add(scan(i), expected[i] = spectrum(r, PEAKS + r.nextInt(PEAKS)));
+            // still in memory
+            assertSpectrum(expected[3], storage.getScan(scan(3)), 0d);
+            storage.backOnDisc();
+            // read in reverse order, so segments are mapped out of order
+            for (int i = expected.length - 1; i >= 0; --i)
+                assertSpectrum(expected[i], storage.getScan(scan(i)), mzTolerance);
+            storage.dropBuffer();
+            for (int i = 0; i < expected.length; ++i)
+                assertSpectrum(expected[i], storage.getScan(scan(i)), mzTolerance);
+        }
+    }
+
+    private static void assertSpectrum(SimpleSpectrum expected, SimpleSpectrum actual, double mzTolerance) {
+        Assert.assertNotNull(actual);
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int j = 0; j < expected.size(); ++j) {
+            Assert.assertEquals(expected.getMzAt(j), actual.getMzAt(j), mzTolerance);
+            Assert.assertEquals((float) expected.getIntensityAt(j), actual.getIntensityAt(j), 0d);
+        }
+    }
+
+    private static SimpleSpectrum spectrum(Random r, int peaks) {
+        final double[] mz = new double[peaks];
+        final double[] intensities = new double[peaks];
+        double m = 1000d + r.nextDouble() * 100d;
+        for (int j = 0; j < peaks; ++j) {
+            m += 0.001 + r.nextDouble() * 20d;
+            mz[j] = m;
+            intensities[j] = r.nextDouble() * 1e6;
+        }
+        return new SimpleSpectrum(mz, intensities);
+    }
+
+    private static Scan scan(int index) {
+        return new Scan(index, Polarity.POSITIVE, index * 1000L, null, 0, 0d, true);
+    }
+}
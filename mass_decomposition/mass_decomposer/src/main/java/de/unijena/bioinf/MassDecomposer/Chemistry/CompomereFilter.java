@@ -0,0 +1,144 @@
+
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+
+package de.unijena.bioinf.MassDecomposer.Chemistry;
+
+import de.unijena.bioinf.ChemistryBase.chem.*;
+import de.unijena.bioinf.ChemistryBase.chem.utils.ValenceFilter;
+import de.unijena.bioinf.MassDecomposer.NonEmptyFormulaValidator;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Applies the {@link FormulaFilter}s of {@link FormulaConstraints} directly to compomeres, so no {@link MolecularFormula}
+ * has to be created for decompositions that are rejected. {@link ValenceFilter} and {@link NonEmptyFormulaValidator}
+ * are evaluated on the atom counts. For any other filter the formula is created, but only after all other checks passed.
+ */
+class CompomereFilter {
+
+    private final ChemicalAlphabet alphabet;
+    private final Ionization ionization;
+    // valence - 2 of each character of the compomere (compomere order)
+    private final int[] rdbeContributions;
+    private final List<Predicate<int[]>> compomereChecks = new ArrayList<>();
+    private final List<FormulaFilter> formulaFilters = new ArrayList<>();
+
+    /**
+     * @param elements elements in the order of the compomeres
+     */
+    CompomereFilter(List<FormulaFilter> filters, ChemicalAlphabet alphabet, Element[] elements, Ionization ionization) {
+        this.alphabet = alphabet;
+        this.ionization = ionization;
+        this.rdbeContributions = new int[elements.length];
+        for (int i = 0; i < elements.length; ++i)
+            rdbeContributions[i] = elements[i].getValence() - 2;
+
+        for (FormulaFilter filter : filters) {
+            if (filter instanceof NonEmptyFormulaValidator) {
+                compomereChecks.add(CompomereFilter::isNonEmpty);
+            } else if (filter.getClass().equals(ValenceFilter.class)) {
+                compomereChecks.add(valenceCheck((ValenceFilter) filter, elements));
+            } else {
+                formulaFilters.add(filter);
+            }
+        }
+    }
+
+    boolean isValid(int[] compomere) {
+        for (Predicate<int[]> check : compomereChecks)
+            if (!check.test(compomere)) return false;
+        if (formulaFilters.isEmpty())
+            return true;
+        final MolecularFormula formula = alphabet.decompositionToFormula(compomere);
+        for (FormulaFilter filter : formulaFilters)
+            if (!filter.isValid(formula, ionization)) return false;
+        return true;
+    }
+
+    private static boolean isNonEmpty(int[] compomere) {
+        for (int amount : compomere)
+            if (amount != 0) return true;
+        return false;
+    }
+
+    private int doubledRDBE(int[] compomere) {
+        int rdbe = 2;
+        for (int i = 0; i < compomere.length; ++i)
+            rdbe += compomere[i] * rdbeContributions[i];
+        return rdbe;
+    }
+
+    /*
+    same decision as ValenceFilter.isValid(formula, ionization): the neutral compound of an adduct is the measured formula
+    plus a constant difference, so its RDBE is shifted by a constant and it is non negative iff the measured formula
+    contains enough atoms of each element that is removed.
+     */
+    private Predicate<int[]> valenceCheck(ValenceFilter filter, Element[] elements) {
+        if (ionization == PeriodicTable.getInstance().neutralIonization())
+            return compomere -> doubledRDBE(compomere) >= 0;
+
+        final int minRDBE = filter.getMinDoubledRDBE();
+        final List<AdductCheck> adducts = new ArrayList<>();
+        for (PrecursorIonType ionType : filter.getAdducts(ionization)) {
+            final MolecularFormula difference = ionType.measuredNeutralMoleculeToNeutralMolecule(MolecularFormula.emptyFormula());
+            final AdductCheck check = new AdductCheck(difference.doubledRDBE() - 2, elements.length);
+            for (Element element : difference.elements()) {
+                final int amount = difference.numberOf(element);
+                if (amount >= 0) continue;
+                final int index = indexOf(elements, element);
+                if (index < 0) check.impossible = true;
+                else check.required[index] = -amount;
+            }
+            if (!check.impossible) adducts.add(check);
+        }
+        return compomere -> {
+            final int rdbe = doubledRDBE(compomere);
+            for (AdductCheck adduct : adducts)
+                if (rdbe + adduct.rdbeShift >= minRDBE && adduct.hasRequiredAtoms(compomere))
+                    return true;
+            return false;
+        };
+    }
+
+    private static int indexOf(Element[] elements, Element element) {
+        for (int i = 0; i < elements.length; ++i)
+            if (elements[i].equals(element)) return i;
+        return -1;
+    }
+
+    private static class AdductCheck {
+        private final int rdbeShift;
+        private final int[] required;
+        private boolean impossible = false;
+
+        private AdductCheck(int rdbeShift, int numberOfCharacters) {
+            this.rdbeShift = rdbeShift;
+            this.required = new int[numberOfCharacters];
+        }
+
+        private boolean hasRequiredAtoms(int[] compomere) {
+            for (int i = 0; i < required.length; ++i)
+                if (compomere[i] < required[i]) return false;
+            return true;
+        }
+    }
+}
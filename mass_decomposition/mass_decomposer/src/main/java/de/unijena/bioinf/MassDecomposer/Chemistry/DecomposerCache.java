@@ -23,89 +23,78 @@ package de.unijena.bioinf.MassDecomposer.Chemistry;
 
 import de.unijena.bioinf.ChemistryBase.chem.ChemicalAlphabet;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * caches decomposer and corresponding alphabet. If a dataset contains a small number of different alphabets,
  * the cache creates for each such alphabet an own decomposer instead of creating a new one each time the alphabet changes.
+ * Lookups are lock free. Decomposers are initialized outside of the map, so the setup of one alphabet does not block
+ * lookups of other alphabets; concurrent requests for the same new alphabet wait for a single setup. If the cache is full, the least used decomposer is removed. The residue tables of removed
+ * decomposers are still shared with new decomposers for the same alphabet (see ExtendedResidueTables).
  */
 public class DecomposerCache {
 
-    private ChemicalAlphabet[] alphabets;
-    private MassToFormulaDecomposer[] decomposers;
-    private AtomicInteger[] useCounter;
-    private int dirtyState;
-    private int size;
-
-    private ReentrantLock lock = new ReentrantLock();
+    private final ConcurrentHashMap<ChemicalAlphabet, Entry> decomposers;
+    private final int size;
 
     public DecomposerCache(int size) {
-        this.alphabets = new ChemicalAlphabet[size];
-        this.decomposers = new MassToFormulaDecomposer[size];
-        this.useCounter = new AtomicInteger[size];
-        this.dirtyState = 0;
-        for (int k=0; k < size; ++k) useCounter[k] = new AtomicInteger(0);
-        this.size = 0;
+        this.size = Math.max(1, size);
+        this.decomposers = new ConcurrentHashMap<>(2 * this.size);
     }
 
     public MassToFormulaDecomposer getDecomposer(ChemicalAlphabet alphabet) {
-        while (true) {
-            int state = dirtyState;
-            MassToFormulaDecomposer d = findDecomposer(alphabet,state);
-            if (d == null) {
-                lock.lock();
-                try {
-                    if (state == dirtyState) {
-                        //System.err.println(this.toString() + " will decompose " + alphabet + " from " + Thread.currentThread().getName() + " with state " + state);
-                        d = addNewDecomposer(alphabet);
-                    } else {
-                        //System.err.println(this.toString() + " STATE CHANGED " + alphabet + " from " + Thread.currentThread().getName() + " with state " + state);
-                        continue;
-                    }
-                } finally {
-                    lock.unlock();
-                }
-                return d;
-            } else if (state == dirtyState) return d;
+        Entry entry = decomposers.get(alphabet);
+        if (entry == null) {
+            entry = decomposers.computeIfAbsent(alphabet, Entry::new);
+            if (decomposers.size() > size)
+                evictLeastUsed(entry);
         }
+        entry.useCounter.incrementAndGet();
+        return entry.getDecomposer();
     }
 
-    private MassToFormulaDecomposer findDecomposer(ChemicalAlphabet alphabet, int state) {
-        for (int i=0; i < size; ++i) {
-            if (alphabets[i].equals(alphabet)) {
-                useCounter[i].incrementAndGet();
-                return decomposers[i];
-            }
-        }
-        //System.err.println("Search " + alphabet + " in " + Arrays.toString(alphabets) + " without success at state " + state + " in thread " + Thread.currentThread().getName() );
-        return null;
-    }
-
-    private MassToFormulaDecomposer addNewDecomposer(ChemicalAlphabet alphabet) {
-        ++dirtyState;
-        try {
-        if (size < alphabets.length) {
-            decomposers[size] = new MassToFormulaDecomposer(alphabet);
-            decomposers[size].init();
-            alphabets[size] = alphabet;
-            return decomposers[size++];
-        } else {
-            int mindex = 0;
-            for (int i=1; i < useCounter.length; ++i)
-                if (useCounter[i].get() < useCounter[mindex].get()) mindex = i;
-            decomposers[mindex] =  new MassToFormulaDecomposer(alphabet);
-            decomposers[mindex].init();
-            alphabets[mindex] = alphabet;
-            return decomposers[mindex];
-        } } finally {
-            ++dirtyState;
-            //System.err.println(alphabet.toString() + " IS ADDED BY " + Thread.currentThread().getName() + " with state " + dirtyState);
+    private void evictLeastUsed(Entry keep) {
+        Map.Entry<ChemicalAlphabet, Entry> min = null;
+        for (Map.Entry<ChemicalAlphabet, Entry> e : decomposers.entrySet()) {
+            if (e.getValue() != keep && (min == null || e.getValue().useCounter.get() < min.getValue().useCounter.get()))
+                min = e;
         }
+        if (min != null)
+            decomposers.remove(min.getKey(), min.getValue());
     }
 
     public DecomposerCache() {
         this(10);
     }
 
+    /**
+     * lightweight holder that is inserted into the map; the decomposer is created and initialized on first use
+     */
+    private static final class Entry {
+        private final ChemicalAlphabet alphabet;
+        private volatile MassToFormulaDecomposer decomposer;
+        private final AtomicInteger useCounter = new AtomicInteger(0);
+
+        private Entry(ChemicalAlphabet alphabet) {
+            this.alphabet = alphabet;
+        }
+
+        private MassToFormulaDecomposer getDecomposer() {
+            MassToFormulaDecomposer d = decomposer;
+            if (d == null) {
+                synchronized (this) {
+                    d = decomposer;
+                    if (d == null) {
+                        d = new MassToFormulaDecomposer(alphabet);
+                        d.init();
+                        decomposer = d;
+                    }
+                }
+            }
+            return d;
+        }
+    }
+
 }
@@ -0,0 +1,83 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.MassDecomposer.Chemistry;
+
+import de.unijena.bioinf.ChemistryBase.chem.ChemicalAlphabet;
+import de.unijena.bioinf.ChemistryBase.chem.Element;
+import de.unijena.bioinf.ChemistryBase.ms.ft.model.FormulaSettings;
+import de.unijena.bioinf.MassDecomposer.ExtendedResidueTables;
+import de.unijena.bioinf.ms.properties.PropertyManager;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Precomputes the residue tables of all alphabets SIRIUS uses by default and writes them into the given directory.
+ * Decomposers that are started with {@link ExtendedResidueTables#STORAGE_DIRECTORY_PROPERTY} pointing to this directory
+ * load the tables instead of computing them.
+ * <p>
+ * usage: ERTWarmup directory [alphabet...]
+ * <p>
+ * Without explicit alphabets, the enforced alphabet is combined with every subset of the auto-detectable elements and
+ * with the fallback alphabet of the default {@link FormulaSettings}.
+ */
+public class ERTWarmup {
+
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("usage: ERTWarmup directory [alphabet...]");
+            System.exit(1);
+        }
+        final Path directory = Paths.get(args[0]);
+        final List<ChemicalAlphabet> alphabets = new ArrayList<>();
+        for (int i = 1; i < args.length; ++i)
+            alphabets.add(ChemicalAlphabet.fromString(args[i]));
+        if (alphabets.isEmpty())
+            alphabets.addAll(defaultAlphabets());
+
+        ExtendedResidueTables.setStorageDirectory(directory);
+        final long start = System.currentTimeMillis();
+        for (ChemicalAlphabet alphabet : alphabets) {
+            new MassToFormulaDecomposer(alphabet).init();
+            System.out.println("Residue tables for " + alphabet + " are ready.");
+        }
+        System.out.println(alphabets.size() + " alphabets prepared in " + (System.currentTimeMillis() - start) + " ms.");
+    }
+
+    public static Set<ChemicalAlphabet> defaultAlphabets() {
+        final FormulaSettings settings = PropertyManager.DEFAULTS.createInstanceWithDefaults(FormulaSettings.class);
+        final ChemicalAlphabet enforced = settings.getEnforcedAlphabet().getChemicalAlphabet();
+        final Element[] detectable = settings.getAutoDetectionAlphabet().getElements().toArray(new Element[0]);
+        final Set<ChemicalAlphabet> alphabets = new LinkedHashSet<>();
+        for (int subset = 0; subset < (1 << detectable.length); ++subset) {
+            final List<Element> elements = new ArrayList<>();
+            for (int k = 0; k < detectable.length; ++k)
+                if ((subset & (1 << k)) != 0) elements.add(detectable[k]);
+            alphabets.add(enforced.extend(elements.toArray(new Element[0])));
+        }
+        alphabets.add(enforced.extend(settings.getFallbackAlphabet().getChemicalAlphabet().getElements().toArray(new Element[0])));
+        return alphabets;
+    }
+}
@@ -22,14 +22,21 @@
 package de.unijena.bioinf.MassDecomposer.Chemistry;
 
 import de.unijena.bioinf.ChemistryBase.chem.*;
+import de.unijena.bioinf.ChemistryBase.chem.utils.FormulaEncodingError;
 import de.unijena.bioinf.ChemistryBase.chem.utils.FormulaFilterList;
+import de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPacker;
 import de.unijena.bioinf.ChemistryBase.ms.Deviation;
 import de.unijena.bioinf.MassDecomposer.DecompIterator;
+import de.unijena.bioinf.MassDecomposer.DecompositionValidator;
 import de.unijena.bioinf.MassDecomposer.Interval;
 import de.unijena.bioinf.MassDecomposer.RangeMassDecomposer;
 import de.unijena.bioinf.MassDecomposer.ValencyAlphabet;
 
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.list.array.TLongArrayList;
+
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -185,6 +192,58 @@ public class MassToFormulaDecomposer extends RangeMassDecomposer<Element> {
         return formulas;
     }
 
+    /**
+     * decomposes all given masses at once and returns the decompositions as packed formulas. Neighbouring masses share
+     * a single traversal of the residue tables. Decompositions are checked against the bounds of the constraints and
+     * the optional validator on their compomere. The filters of the constraints are applied to the compomeres as well
+     * (see {@link CompomereFilter}), formula objects are only created for filters that cannot be evaluated on compomeres.
+     *
+     * @param sortedMasses measured masses in ascending order
+     * @param validator    optional validator that is applied before any formula object is created, may be null
+     * @param packer       packer that is able to encode all formulas within the given constraints
+     */
+    public PackedDecompositions decomposeToPackedFormulas(double[] sortedMasses, Ionization ionization, Deviation deviation, FormulaConstraints constraints, DecompositionValidator<Element> validator, MolecularFormulaPacker packer) {
+        init();
+        final double[] neutralMasses = new double[sortedMasses.length];
+        for (int i = 0; i < sortedMasses.length; ++i)
+            neutralMasses[i] = ionization.subtractFromMass(sortedMasses[i]);
+        // packed value of a single atom and maximal amount for each character in order of the weights
+        final Element[] elements = new Element[orderedCharacterIds.length];
+        final long[] units = new long[elements.length];
+        final int[] maxAmounts = new int[elements.length];
+        for (int i = 0; i < units.length; ++i) {
+            final Element element = elements[i] = alphabet.get(orderedCharacterIds[i]);
+            maxAmounts[i] = packer.getMaximalAmount(element);
+            units[i] = maxAmounts[i] > 0 ? packer.tryEncode(MolecularFormula.singleElement(element)) : 0;
+        }
+        final CompomereFilter filter = constraints.getFilters().isEmpty() ? null : new CompomereFilter(constraints.getFilters(), alphabet, elements, ionization);
+        final TIntArrayList massIndices = new TIntArrayList();
+        final TLongArrayList packedFormulas = new TLongArrayList();
+        decompose(neutralMasses, deviation, getBoundaries(constraints), validator, (compomere, massIndex) -> {
+            long packed = 0L;
+            for (int i = 0; i < compomere.length; ++i) {
+                if (compomere[i] > maxAmounts[i])
+                    throw new FormulaEncodingError("Cannot encode " + compomere[i] + " atoms of " + elements[i] + " with the given packer.");
+                packed += compomere[i] * units[i];
+            }
+            if (filter != null && !filter.isValid(compomere))
+                return;
+            massIndices.add(massIndex);
+            packedFormulas.add(packed);
+        });
+        // sort decompositions by mass index (counting sort, decompositions of one mass keep their order)
+        final int[] offsets = new int[sortedMasses.length + 1];
+        for (int i = 0; i < massIndices.size(); ++i)
+            ++offsets[massIndices.getQuick(i) + 1];
+        for (int i = 1; i < offsets.length; ++i)
+            offsets[i] += offsets[i - 1];
+        final int[] positions = Arrays.copyOf(offsets, sortedMasses.length);
+        final long[] formulas = new long[packedFormulas.size()];
+        for (int i = 0; i < massIndices.size(); ++i)
+            formulas[positions[massIndices.getQuick(i)]++] = packedFormulas.getQuick(i);
+        return new PackedDecompositions(packer, formulas, offsets);
+    }
+
     public ChemicalAlphabet getChemicalAlphabet() {
         return alphabet;
     }
@@ -0,0 +1,87 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.MassDecomposer.Chemistry;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPacker;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decompositions of many masses, stored as packed formulas in a single array. The decompositions of the i-th mass
+ * are stored at the indices {@link #begin(int)} (inclusive) to {@link #end(int)} (exclusive).
+ * Formula objects are only created on request.
+ */
+public class PackedDecompositions {
+
+    private final MolecularFormulaPacker packer;
+    private final long[] formulas;
+    private final int[] offsets;
+
+    PackedDecompositions(MolecularFormulaPacker packer, long[] formulas, int[] offsets) {
+        this.packer = packer;
+        this.formulas = formulas;
+        this.offsets = offsets;
+    }
+
+    public MolecularFormulaPacker getPacker() {
+        return packer;
+    }
+
+    public int numberOfMasses() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @return total number of decompositions over all masses
+     */
+    public int size() {
+        return formulas.length;
+    }
+
+    public int begin(int massIndex) {
+        return offsets[massIndex];
+    }
+
+    public int end(int massIndex) {
+        return offsets[massIndex + 1];
+    }
+
+    public int numberOfDecompositions(int massIndex) {
+        return offsets[massIndex + 1] - offsets[massIndex];
+    }
+
+    public long getPackedFormula(int index) {
+        return formulas[index];
+    }
+
+    public MolecularFormula getFormula(int index) {
+        return packer.decode(formulas[index]);
+    }
+
+    public List<MolecularFormula> getFormulasFor(int massIndex) {
+        final ArrayList<MolecularFormula> list = new ArrayList<>(numberOfDecompositions(massIndex));
+        for (int i = begin(massIndex), n = end(massIndex); i < n; ++i)
+            list.add(getFormula(i));
+        return list;
+    }
+}
@@ -0,0 +1,334 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+package de.unijena.bioinf.MassDecomposer;
+
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Immutable extended residue tables (ERTs) for all deviations a {@link RangeMassDecomposer} can handle. The i-th table
+ * answers whether a mass or one of the 2^(i-1) masses below is decomposable. As the decomposer never allows a deviation
+ * larger than the smallest integer weight, all tables are computed eagerly and published at once, so no locking
+ * is necessary while decomposing.
+ * <p>
+ * Tables only depend on the integer weights of the alphabet, so they are shared between all decomposers with identical
+ * weights. Shared tables are softly referenced and recomputed if the garbage collector removed them.
+ * <p>
+ * If a storage directory is configured (property {@value #STORAGE_DIRECTORY_PROPERTY} or {@link #setStorageDirectory(Path)}),
+ * computed tables are written to disc and memory-mapped by the next JVM instead of being recomputed.
+ */
+public final class ExtendedResidueTables {
+
+    public static final String STORAGE_DIRECTORY_PROPERTY = "de.unijena.bioinf.decomposer.ertDirectory";
+
+    private static final int MAGIC = 0x45525431; // "ERT1"
+
+    private static final ConcurrentHashMap<Key, SoftReference<ExtendedResidueTables>> SHARED_TABLES = new ConcurrentHashMap<>();
+
+    private static volatile Path storageDirectory = PropertyManager.getOptional(STORAGE_DIRECTORY_PROPERTY).map(Paths::get).orElse(null);
+
+    public static Path getStorageDirectory() {
+        return storageDirectory;
+    }
+
+    /**
+     * @param directory directory for persistent tables or null to disable persistence
+     */
+    public static void setStorageDirectory(Path directory) {
+        storageDirectory = directory;
+    }
+
+    /**
+     * @param integerMasses integer masses of the alphabet characters, ordered by mass
+     * @return tables for the given integer masses. Tables are shared between all callers with the same integer masses.
+     */
+    public static ExtendedResidueTables forIntegerMasses(long[] integerMasses) {
+        final Key key = new Key(integerMasses.clone());
+        final SoftReference<ExtendedResidueTables> ref = SHARED_TABLES.get(key);
+        ExtendedResidueTables tables = ref == null ? null : ref.get();
+        if (tables != null)
+            return tables;
+        final ExtendedResidueTables computed = loadOrCompute(key);
+        // if another thread was faster, we use its tables
+        tables = SHARED_TABLES.compute(key, (k, old) -> (old != null && old.get() != null) ? old : new SoftReference<>(computed)).get();
+        return tables != null ? tables : computed;
+    }
+
+    private static ExtendedResidueTables loadOrCompute(Key key) {
+        final Path dir = storageDirectory;
+        if (dir == null)
+            return new ExtendedResidueTables(key.integerMasses);
+        final Path file = dir.resolve(fileName(key.integerMasses));
+        if (Files.exists(file)) {
+            try {
+                final ExtendedResidueTables tables = read(file);
+                if (Arrays.equals(tables.integerMasses, key.integerMasses))
+                    return tables;
+            } catch (IOException | RuntimeException e) {
+                LoggerFactory.getLogger(ExtendedResidueTables.class).warn("Cannot read residue tables from '" + file + "'. Recompute them.", e);
+            }
+        }
+        final ExtendedResidueTables tables = new ExtendedResidueTables(key.integerMasses);
+        try {
+            Files.createDirectories(dir);
+            tables.write(file);
+        } catch (IOException e) {
+            LoggerFactory.getLogger(ExtendedResidueTables.class).warn("Cannot write residue tables to '" + file + "'.", e);
+        }
+        return tables;
+    }
+
+    /**
+     * @return file name of the tables for the given integer masses. Integer masses already incorporate the precision
+     * of the decomposer, so they are a sufficient key.
+     */
+    public static String fileName(long[] integerMasses) {
+        long hash = 1125899906842597L;
+        for (long m : integerMasses)
+            hash = 31 * hash + m;
+        return "ert-" + integerMasses.length + "-" + Long.toHexString(hash) + ".bin";
+    }
+
+    /**
+     * reads tables written by {@link #write(Path)}. The file is memory-mapped and copied into the table arrays, which is
+     * much faster than computing them.
+     */
+    public static ExtendedResidueTables read(Path file) throws IOException {
+        try (final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("'" + file + "' is not a residue table file.");
+            final int numberOfWeights = buffer.getInt();
+            final int numberOfTables = buffer.getInt();
+            final int rows = buffer.getInt();
+            final LongBuffer longs = buffer.asLongBuffer();
+            final long[] integerMasses = new long[numberOfWeights];
+            longs.get(integerMasses);
+            if (rows != integerMasses[0] || (long) numberOfTables * rows * numberOfWeights > longs.remaining())
+                throw new IOException("'" + file + "' is truncated or corrupted.");
+            final long[][][] tables = new long[numberOfTables][rows][numberOfWeights];
+            // one bulk transfer per table is much faster than one per row
+            final long[] buffered = new long[rows * numberOfWeights];
+            for (long[][] table : tables) {
+                longs.get(buffered);
+                for (int i = 0; i < rows; ++i)
+                    System.arraycopy(buffered, i * numberOfWeights, table[i], 0, numberOfWeights);
+            }
+            return new ExtendedResidueTables(integerMasses, tables);
+        }
+    }
+
+    /**
+     * writes the tables into the given file. The file is replaced atomically, so concurrent readers never see a partial file.
+     */
+    public void write(Path file) throws IOException {
+        final long[][][] tables = this.tables;
+        final int rows = tables[0].length, cols = integerMasses.length;
+        final Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try {
+            try (final FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                final ByteBuffer buffer = ByteBuffer.allocate(Math.max(16 + 8 * cols, 8 * rows * cols));
+                buffer.putInt(MAGIC).putInt(cols).putInt(tables.length).putInt(rows);
+                for (long m : integerMasses) buffer.putLong(m);
+                writeFully(channel, buffer);
+                for (long[][] table : tables) {
+                    for (long[] row : table)
+                        for (long v : row) buffer.putLong(v);
+                    writeFully(channel, buffer);
+                }
+            }
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining())
+            channel.write(buffer);
+        buffer.clear();
+    }
+
+    public static <T> ExtendedResidueTables forWeights(List<Weight<T>> weights) {
+        final long[] integerMasses = new long[weights.size()];
+        for (int i = 0; i < integerMasses.length; ++i)
+            integerMasses[i] = weights.get(i).getIntegerMass();
+        return forIntegerMasses(integerMasses);
+    }
+
+    private final long[] integerMasses;
+    private final long[][][] tables;
+
+    ExtendedResidueTables(long[] integerMasses) {
+        this.integerMasses = integerMasses;
+        final long[][] ERT = calcERT(integerMasses);
+        // the largest deviation is smaller than the mass of the first character
+        final long maxDeviation = Math.max(0, integerMasses[0] - 1);
+        final long[][][] tables = new long[1 + (64 - Long.numberOfLeadingZeros(maxDeviation))][][];
+        tables[0] = ERT;
+        for (int k = 1; k < tables.length; ++k)
+            tables[k] = extend(tables[k - 1], k);
+        this.tables = tables;
+    }
+
+    private ExtendedResidueTables(long[] integerMasses, long[][][] tables) {
+        this.integerMasses = integerMasses;
+        this.tables = tables;
+    }
+
+    /**
+     * @return the residue table without deviation
+     */
+    public long[][] getERT() {
+        return tables[0];
+    }
+
+    /**
+     * @return the table which covers the given integer deviation
+     */
+    public long[][] getERTForDeviation(long deviation) {
+        final int index = deviation == 0 ? 0 : 64 - Long.numberOfLeadingZeros(deviation);
+        // the last table already covers all residues
+        return tables[Math.min(index, tables.length - 1)];
+    }
+
+    public int numberOfTables() {
+        return tables.length;
+    }
+
+    /**
+     * computes the ERT for deviations below 2^level from the ERT of the previous level
+     */
+    private static long[][] extend(long[][] lastERT, int level) {
+        final int width = lastERT[0].length;
+        final long[][] nextERT = new long[lastERT.length][width];
+        if (level == 1) {
+            //first line compares biggest residue and 0
+            for (int j = 0; j < width; j++) {
+                nextERT[0][j] = Math.min(lastERT[nextERT.length - 1][j], lastERT[0][j]);
+            }
+            for (int i = 1; i < nextERT.length; i++) {
+                for (int j = 0; j < width; j++) {
+                    nextERT[i][j] = Math.min(lastERT[i][j], lastERT[i - 1][j]);
+                }
+            }
+        } else {
+            final int step = (1 << (level - 2));
+            for (int i = step; i < nextERT.length; i++) {
+                for (int j = 0; j < width; j++) {
+                    nextERT[i][j] = Math.min(lastERT[i][j], lastERT[i - step][j]);
+                }
+            }
+            //first lines compared with last lines (greatest residues) because of modulo's cyclic characteristic
+            for (int i = 0; i < step; i++) {
+                for (int j = 0; j < width; j++) {
+                    nextERT[i][j] = Math.min(lastERT[i][j], lastERT[i + nextERT.length - step][j]);
+                }
+            }
+        }
+        return nextERT;
+    }
+
+    private static long[][] calcERT(long[] integerMasses) {
+        long firstLongVal = integerMasses[0];
+        long[][] ERT = new long[(int) firstLongVal][integerMasses.length];
+        int r, argmin;
+        long d, n;
+
+        //Init
+        ERT[0][0] = 0;
+        for (int i = 1; i < ERT.length; ++i) {
+            ERT[i][0] = Long.MAX_VALUE; // should be infinity
+        }
+
+        //Filling the Table, j loops over columns
+        for (int j = 1; j < ERT[0].length; ++j) {
+            ERT[0][j] = 0; // Init again
+            d = MassDecomposer.gcd(firstLongVal, integerMasses[j]);
+            for (int p = 0; p < d; p++) { // Need to start d Round Robin loops
+                if (p == 0) {
+                    n = 0; // 0 is the min in the complete RT or the first p-loop
+                } else {
+                    n = Long.MAX_VALUE; // should be infinity
+                    argmin = p;
+                    for (int i = p; i < ERT.length; i += d) { // Find Minimum in specific part of ERT
+                        if (ERT[i][j - 1] < n) {
+                            n = ERT[i][j - 1];
+                            argmin = i;
+                        }
+                    }
+                    ERT[argmin][j] = n;
+                }
+                if (n == Long.MAX_VALUE) { // Minimum of the specific part of ERT was infinity
+                    for (int i = p; i < ERT.length; i += d) { // Fill specific part of ERT with infinity
+                        ERT[i][j] = Long.MAX_VALUE;
+                    }
+                } else { // Do normal loop
+                    for (long i = 1; i < ERT.length / d; ++i) { // i is just a counter
+                        n += integerMasses[j];
+                        if (n < 0) {
+                            throw new ArithmeticException("Integer overflow occurs. DECOMP cannot calculate decompositions for the given alphabet as it exceeds the 64 bit integer space. Please use a smaller precision value.");
+                        }
+                        r = (int) (n % firstLongVal);
+                        if (ERT[r][j - 1] < n) n = ERT[r][j - 1]; // get the min
+                        ERT[r][j] = n;
+                    }
+                }
+            } // end for p
+        } // end for j
+        return ERT;
+    }
+
+    private static final class Key {
+        private final long[] integerMasses;
+        private final int hash;
+
+        private Key(long[] integerMasses) {
+            this.integerMasses = integerMasses;
+            this.hash = Arrays.hashCode(integerMasses);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof Key && hash == ((Key) o).hash && Arrays.equals(integerMasses, ((Key) o).integerMasses));
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -21,7 +21,11 @@
 
 package de.unijena.bioinf.MassDecomposer;
 
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+
 import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.ObjIntConsumer;
 
 /**
  * Decomposes a given mass over an alphabet, returning all decompositions which mass equals the given mass
@@ -34,18 +38,28 @@ import java.util.*;
 public class RangeMassDecomposer<T> extends MassDecomposer<T> {
 
     /**
-     * Avoid locks by making ERTs volatile. This leads to the situation that several threads might accidentally compute
-     * the same ERT tables. However, as soon as an ERT table is written it is synchronized around all threads. After
-     * writing an ERT table it is never changed, so additional locking is not necessary.
+     * ERTs for all deviations. They are computed once in {@link #init()} and never changed afterwards, so
+     * no locking is necessary while decomposing. Decomposers with identical weights share the same tables.
      */
-    protected volatile long[][][] ERTs;
+    protected volatile ExtendedResidueTables ERTs;
 
     /**
      * @param alphabet the alphabet the mass is decomposed over
      */
     public RangeMassDecomposer(Alphabet<T> alphabet) {
         super(alphabet);
-        this.ERTs = new long[0][][];
+    }
+
+    @Override
+    public void init() {
+        // the volatile read guarantees that all fields written during initialization are visible
+        if (ERTs != null) return;
+        synchronized (this) {
+            if (ERTs != null) return;
+            super.init();
+            // publish the tables after all other fields are initialized
+            this.ERTs = ExtendedResidueTables.forWeights(weights);
+        }
     }
 
     /**
@@ -60,13 +74,13 @@ public class RangeMassDecomposer<T> extends MassDecomposer<T> {
     @Override
     public boolean maybeDecomposable(double from, double to) {
         init();
-        final long[][][] ERTs = this.ERTs;
+        final long[][] ERT = this.ERTs.getERT();
         //normal version seems to be faster, because it returns after first hit
         final Interval range = integerBound(from, to);
         final long a = weights.get(0).getIntegerMass();
         for (long i = range.getMin(); i <= range.getMax(); ++i) {
             final int r = (int) (i % a);
-            if (i >= ERTs[0][r][weights.size() - 1]) return true;
+            if (i >= ERT[r][weights.size() - 1]) return true;
         }
         return false;
     }
@@ -101,17 +115,8 @@ public class RangeMassDecomposer<T> extends MassDecomposer<T> {
         }
         final Interval interval = integerBound(cfrom, cto);
         final long deviation = interval.getMax() - interval.getMin();
-        final long[][][] _ERTs_ = this.ERTs;
-        //calculate the required ERTs
-        if ((1 << (ERTs.length - 1)) <= deviation) {
-            calcERT(deviation);
-        }
-        final long[][][] ERTs = this.ERTs;
-
         //take ERT with required deviation
-        long[][] currentERT;
-        if (deviation == 0) currentERT = ERTs[0];
-        else currentERT = ERTs[64 - Long.numberOfLeadingZeros(deviation)];
+        final long[][] currentERT = ERTs.getERTForDeviation(deviation);
 
         return new DecompIteratorImpl<>(currentERT, interval.getMin(), interval.getMax(), from, to, minValues, boundsarray, alphabet, weights, orderedCharacterIds.clone());
     }
@@ -173,6 +178,108 @@ public class RangeMassDecomposer<T> extends MassDecomposer<T> {
         return results;
     }
 
+    /**
+     * decomposes many masses in one call. Masses have to be sorted in ascending order. Neighbouring masses whose
+     * integer ranges are close to each other are decomposed within a single traversal of the ERT and each
+     * decomposition is reported for every mass whose range contains it.
+     * <p>
+     * The consumer receives the index of the mass and a compomere in the order of the weights of this decomposer
+     * (as returned by {@link #decompose(double, double, Map)}). The compomere buffer is reused, so consumers have to
+     * copy it if they want to keep it.
+     *
+     * @param validator optional validator which is checked once per decomposition before it is reported, may be null
+     */
+    public void decompose(double[] sortedMasses, Deviation deviation, Map<T, Interval> boundaries, DecompositionValidator<T> validator, ObjIntConsumer<int[]> consumer) {
+        init();
+        final int n = sortedMasses.length;
+        final double[] from = new double[n], to = new double[n];
+        for (int i = 0; i < n; ++i) {
+            final double mass = sortedMasses[i];
+            if (mass < 0d)
+                throw new IllegalArgumentException("Expect positive mass for decomposition: " + mass);
+            if (i > 0 && mass < sortedMasses[i - 1])
+                throw new IllegalArgumentException("Masses have to be sorted in ascending order.");
+            final double abs = deviation.absoluteFor(mass);
+            from[i] = Math.max(0, mass - abs);
+            to[i] = Math.max(0, mass + abs);
+        }
+        final int[] minValues = new int[weights.size()];
+        final int[] boundsarray = new int[weights.size()];
+        boolean minAllZero = true;
+        double reduceWeightBy = 0d;
+        Arrays.fill(boundsarray, Integer.MAX_VALUE);
+        if (boundaries != null && !boundaries.isEmpty()) {
+            for (int i = 0; i < boundsarray.length; i++) {
+                Interval range = boundaries.get(weights.get(i).getOwner());
+                if (range != null) {
+                    boundsarray[i] = (int) (range.getMax() - range.getMin());
+                    minValues[i] = (int) range.getMin();
+                    if (minValues[i] > 0) {
+                        minAllZero = false;
+                        reduceWeightBy += weights.get(i).getMass() * range.getMin();
+                    }
+                }
+            }
+        }
+        final long a = weights.get(0).getIntegerMass();
+        final int[] compomere = new int[weights.size()];
+        int start = 0;
+        while (start < n) {
+            if (to[start] == 0d) {
+                ++start;
+                continue;
+            }
+            final Interval first = integerBound(from[start] - reduceWeightBy, to[start] - reduceWeightBy);
+            long lo = first.getMin(), hi = first.getMax();
+            int end = start + 1;
+            // merge neighbouring ranges as long as they fit into one ERT and we do not enumerate large gaps between them
+            while (end < n) {
+                final Interval next = integerBound(from[end] - reduceWeightBy, to[end] - reduceWeightBy);
+                final long mergedLo = Math.min(lo, next.getMin()), mergedHi = Math.max(hi, next.getMax());
+                if (mergedHi - mergedLo >= a || next.getMin() - hi > Math.max(1, hi - lo)) break;
+                lo = mergedLo;
+                hi = mergedHi;
+                ++end;
+            }
+            final int groupStart = start, groupEnd = end;
+            start = end;
+            // nothing to decompose in an empty integer range
+            if (hi < lo) continue;
+            if (hi == 0) {
+                // the remaining mass is zero, so only the minimal compomere itself can be a decomposition
+                if (!minAllZero) {
+                    System.arraycopy(minValues, 0, compomere, 0, compomere.length);
+                    reportDecomposition(compomere, from, to, groupStart, groupEnd, validator, consumer);
+                }
+                continue;
+            }
+            integerDecompose(hi, hi - lo, boundsarray, raw -> {
+                for (int j = 0; j < compomere.length; ++j)
+                    compomere[j] = raw[j] + minValues[j];
+                reportDecomposition(compomere, from, to, groupStart, groupEnd, validator, consumer);
+            });
+        }
+    }
+
+    /**
+     * reports the compomere for all masses of the group whose range contains its mass. The validator is checked at
+     * most once.
+     */
+    private void reportDecomposition(int[] compomere, double[] from, double[] to, int groupStart, int groupEnd, DecompositionValidator<T> validator, ObjIntConsumer<int[]> consumer) {
+        final double realMass = calcMass(compomere);
+        boolean validated = false;
+        for (int k = groupStart; k < groupEnd; ++k) {
+            if (realMass >= from[k] && realMass <= to[k]) {
+                if (!validated) {
+                    if (validator != null && !validator.validate(compomere, orderedCharacterIds, alphabet))
+                        return;
+                    validated = true;
+                }
+                consumer.accept(compomere, k);
+            }
+        }
+    }
+
     /**
      * Iterator implementation of the loop
      * We do not use static classes. This gives us the possibility to make some of the variables behave thread safe
@@ -365,38 +472,30 @@ public class RangeMassDecomposer<T> extends MassDecomposer<T> {
      * @return
      */
     protected ArrayList<int[]> integerDecompose(long mass, long deviation, int[] bounds) {
-        assert (deviation < weights.get(0).getIntegerMass()); //todo throw Exception or not that problematic?
         if (weights.size() == 1) return integerDecomposeSingleElement(mass, deviation, bounds[0]);
+        final ArrayList<int[]> result = new ArrayList<int[]>();
+        integerDecompose(mass, deviation, bounds, c -> result.add(c.clone()));
+        return result;
+    }
 
-        final long[][][] _ERTs_ = this.ERTs;
-        //calculate the required ERTs
-        if ((1 << (_ERTs_.length - 1)) <= deviation) {
-            calcERT(deviation);
-        }
-        final long[][][] ERTs = this.ERTs;
-
-        {
-            long largest = 0;
-            for (long[][] t : ERTs) {
-                for (long[] r : t) {
-                    for (long v : r) {
-                        if (v < Long.MAX_VALUE) {
-                            largest = Math.max(largest, v);
-                        }
-                    }
-                }
-            }
+    /**
+     * same as {@link #integerDecompose(long, long, int[])}, but reports each decomposition to the consumer instead of
+     * collecting them. The reported array is reused and must not be modified.
+     */
+    protected void integerDecompose(long mass, long deviation, int[] bounds, Consumer<int[]> consumer) {
+        assert (deviation < weights.get(0).getIntegerMass()); //todo throw Exception or not that problematic?
+        if (weights.size() == 1) {
+            for (int[] c : integerDecomposeSingleElement(mass, deviation, bounds[0]))
+                consumer.accept(c);
+            return;
         }
 
         //take ERT with required deviation
-        long[][] currentERT;
-        if (deviation == 0) currentERT = ERTs[0];
-        else currentERT = ERTs[64 - Long.numberOfLeadingZeros(deviation)];
+        final long[][] currentERT = ERTs.getERTForDeviation(deviation);
         long ERTdev = Long.highestOneBit(deviation);
-        ArrayList<int[]> result = new ArrayList<int[]>();
 
         int k = weights.size();
-        int[] c = new int[k], deepCopy;
+        int[] c = new int[k];
         long[] m = new long[k], lbound = new long[k];
         int[] j = new int[k], r = new int[k];
         boolean flagWhile = false; // flag wether we are in the while-loop or not
@@ -410,9 +509,8 @@ public class RangeMassDecomposer<T> extends MassDecomposer<T> {
         m[i] = mass; // m[i] corresponds to M, m[i-1] ^= m
         while (i != k) {
             if (i == 0) {
-                deepCopy = c.clone();
-                deepCopy[0] = (int) (m[i] / a);
-                if (deepCopy[0] <= bounds[0]) result.add(deepCopy);
+                c[0] = (int) (m[i] / a);
+                if (c[0] <= bounds[0]) consumer.accept(c);
                 ++i; // "return" from recursion
                 flagWhile = true; // in this recursion-depth we are in the while-loop, cause the next recursion (the one we just exited) was called
                 m[i - 1] -= weights.get(i).getLcm(); // execute the rest of the while
@@ -450,8 +548,6 @@ public class RangeMassDecomposer<T> extends MassDecomposer<T> {
                 }
             } // end if i == 0
         } // end while
-
-        return result;
     } // end function
 
     private ArrayList<int[]> integerDecomposeSingleElement(long mass, long deviation, int bound) {
@@ -476,118 +572,8 @@ public class RangeMassDecomposer<T> extends MassDecomposer<T> {
         return result;
     }
 
-    /**
-     * calculates ERTs to look up whether a mass or lower masses within a certain deviation are decomposable.
-     * only ERTs for deviation 2^x are calculated
-     *
-     * @param deviation
-     */
-    //todo do we find a non synchronized solution?
-    protected synchronized void calcERT(long deviation) {
-        if ((1 << (ERTs.length - 1)) > deviation) {
-            return;
-        }
-        final long[][][] ERTs = this.ERTs;
-        final int currentLength = ERTs.length;
-
-        // we have to extend the ERT table
-
-        long[][] lastERT = ERTs[ERTs.length - 1];
-        long[][] nextERT = new long[lastERT.length][weights.size()];
-        if (currentLength == 1) {
-            //first line compares biggest residue and 0
-            for (int j = 0; j < weights.size(); j++) {
-                nextERT[0][j] = Math.min(lastERT[nextERT.length - 1][j], lastERT[0][j]);
-            }
-            for (int i = 1; i < nextERT.length; i++) {
-                for (int j = 0; j < weights.size(); j++) {
-                    nextERT[i][j] = Math.min(lastERT[i][j], lastERT[i - 1][j]);
-                }
-            }
-        } else {
-            int step = (1 << (currentLength - 2));
-            for (int i = step; i < nextERT.length; i++) {
-                for (int j = 0; j < weights.size(); j++) {
-                    nextERT[i][j] = Math.min(lastERT[i][j], lastERT[i - step][j]);
-                }
-            }
-            //first lines compared with last lines (greatest residues) because of modulo's cyclic characteristic
-            for (int i = 0; i < step; i++) {
-                for (int j = 0; j < weights.size(); j++) {
-                    nextERT[i][j] = Math.min(lastERT[i][j], lastERT[i + nextERT.length - step][j]);
-                }
-            }
-        }
-
-        // now store newly calculated ERT
-        synchronized (this) {
-            final long[][][] tables = this.ERTs;
-            if (tables.length == currentLength) {
-                final long[][][] __tmp__ = Arrays.copyOf(this.ERTs, this.ERTs.length + 1);
-                __tmp__[__tmp__.length - 1] = nextERT;
-                this.ERTs = __tmp__;
-            } else {
-                // another background thread did already compute the ERT. So we don't have to do this again
-            }
-        }
-        // recursively calculate ERTs for higher deviations
-        // current ERT is already sufficient
-        if ((1 << (currentLength - 1)) <= deviation) calcERT(deviation);
-    }
-
     @Override
     protected void calcERT() {
-        long firstLongVal = weights.get(0).getIntegerMass();
-        long[][] ERT = new long[(int) firstLongVal][weights.size()];
-        int r, argmin;
-        long d, n;
-
-        //Init
-        ERT[0][0] = 0;
-        for (int i = 1; i < ERT.length; ++i) {
-            ERT[i][0] = Long.MAX_VALUE; // should be infinity
-        }
-
-        //Filling the Table, j loops over columns
-        for (int j = 1; j < ERT[0].length; ++j) {
-            ERT[0][j] = 0; // Init again
-            d = gcd(firstLongVal, weights.get(j).getIntegerMass());
-            for (int p = 0; p < d; p++) { // Need to start d Round Robin loops
-                if (p == 0) {
-                    n = 0; // 0 is the min in the complete RT or the first p-loop
-                } else {
-                    n = Long.MAX_VALUE; // should be infinity
-                    argmin = p;
-                    for (int i = p; i < ERT.length; i += d) { // Find Minimum in specific part of ERT
-                        if (ERT[i][j - 1] < n) {
-                            n = ERT[i][j - 1];
-                            argmin = i;
-                        }
-                    }
-                    ERT[argmin][j] = n;
-                }
-                if (n == Long.MAX_VALUE) { // Minimum of the specific part of ERT was infinity
-                    for (int i = p; i < ERT.length; i += d) { // Fill specific part of ERT with infinity
-                        ERT[i][j] = Long.MAX_VALUE;
-                    }
-                } else { // Do normal loop
-                    for (long i = 1; i < ERT.length / d; ++i) { // i is just a counter
-                        n += weights.get(j).getIntegerMass();
-                        if (n < 0) {
-                            throw new ArithmeticException("Integer overflow occurs. DECOMP cannot calculate decompositions for the given alphabet as it exceeds the 64 bit integer space. Please use a smaller precision value.");
-                        }
-                        r = (int) (n % firstLongVal);
-                        if (ERT[r][j - 1] < n) n = ERT[r][j - 1]; // get the min
-                        ERT[r][j] = n;
-                    }
-                }
-            } // end for p
-        } // end for j
-        synchronized (this) {
-            if (this.ERTs.length == 0) {
-                this.ERT = ERT;
-                this.ERTs = new long[][][]{ERT};
-            }
-        }
+        this.ERT = ExtendedResidueTables.forWeights(weights).getERT();
     }
 }
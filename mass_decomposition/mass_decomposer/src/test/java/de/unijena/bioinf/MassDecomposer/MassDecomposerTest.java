@@ -1,11 +1,16 @@
 package de.unijena.bioinf.MassDecomposer;
 
 import de.unijena.bioinf.ChemistryBase.chem.*;
+import de.unijena.bioinf.ChemistryBase.chem.utils.MolecularFormulaPacker;
+import de.unijena.bioinf.ChemistryBase.chem.utils.ValenceFilter;
 import de.unijena.bioinf.ChemistryBase.ms.Deviation;
 import de.unijena.bioinf.MassDecomposer.Chemistry.ChemicalAlphabetWrapper;
 import de.unijena.bioinf.MassDecomposer.Chemistry.MassToFormulaDecomposer;
+import de.unijena.bioinf.MassDecomposer.Chemistry.PackedDecompositions;
 import org.junit.Test;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 import static junit.framework.Assert.*;
@@ -548,4 +553,143 @@ public class MassDecomposerTest {
 
         assertEquals(mf, formulas.get(0));
     }
+
+    @Test
+    public void testConcurrentDecompositionWithSharedTables() throws Exception {
+        final ChemicalAlphabetWrapper alphabet = new ChemicalAlphabetWrapper(new ChemicalAlphabet());
+        // the plain MassDecomposer computes its own ERT per instance and decomposes every integer mass separately
+        final MassDecomposer<Element> reference = new MassDecomposer<>(alphabet);
+        final double[] masses = new double[]{112.05, 212.11, 279.43, 354.17, 512.3};
+        final Deviation[] deviations = new Deviation[]{new Deviation(5), new Deviation(20, 1e-3), new Deviation(50, 0.01)};
+        final List<Set<String>> expected = new ArrayList<>();
+        for (double mass : masses)
+            for (Deviation dev : deviations)
+                expected.add(compomers(reference.decompose(mass, dev, null)));
+
+        // every thread uses its own decomposer, but all of them share the same residue tables
+        final List<RangeMassDecomposer<Element>> decomposers = new ArrayList<>();
+        final Thread[] threads = new Thread[4];
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        for (int t = 0; t < threads.length; ++t) {
+            final RangeMassDecomposer<Element> decomposer = new RangeMassDecomposer<>(alphabet);
+            decomposers.add(decomposer);
+            threads[t] = new Thread(() -> {
+                int k = 0;
+                for (double mass : masses)
+                    for (Deviation dev : deviations)
+                        if (!expected.get(k++).equals(compomers(decomposer.decompose(mass, dev, null))))
+                            errors.add(new AssertionError("different decompositions for " + mass + " with " + dev));
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+        assertTrue(String.valueOf(errors), errors.isEmpty());
+        for (RangeMassDecomposer<Element> decomposer : decomposers)
+            assertSame(decomposers.get(0).ERTs, decomposer.ERTs);
+    }
+
+    private static Set<String> compomers(List<int[]> decompositions) {
+        final Set<String> set = new HashSet<>();
+        for (int[] c : decompositions) set.add(Arrays.toString(c));
+        return set;
+    }
+
+    @Test
+    public void testPersistentResidueTables() throws Exception {
+        final long[] integerMasses = new long[]{12000, 1008, 14003, 15995, 30974, 31972};
+        final ExtendedResidueTables computed = ExtendedResidueTables.forIntegerMasses(integerMasses);
+        final Path file = Files.createTempFile("ert", ".bin");
+        try {
+            computed.write(file);
+            final ExtendedResidueTables loaded = ExtendedResidueTables.read(file);
+            assertEquals(computed.numberOfTables(), loaded.numberOfTables());
+            for (long deviation = 0; deviation < integerMasses[0]; deviation += 97)
+                assertTrue(Arrays.deepEquals(computed.getERTForDeviation(deviation), loaded.getERTForDeviation(deviation)));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+    @Test
+    public void testBatchDecompositionEqualsSingleDecomposition() {
+        final ChemicalAlphabet alphabet = new ChemicalAlphabet();
+        final MassToFormulaDecomposer decomposer = new MassToFormulaDecomposer(alphabet);
+        final FormulaConstraints constraints = new FormulaConstraints(alphabet);
+        final Ionization protonation = PrecursorIonType.getPrecursorIonType("[M+H]+").getIonization();
+        final Deviation dev = new Deviation(10, 1e-3);
+        // neighbouring masses are decomposed within the same traversal
+        final double[] masses = new double[]{79.0542, 79.0547, 91.0542, 105.0699, 105.0701, 121.0648, 149.0233, 180.0652, 180.9, 301.1410};
+        final MolecularFormulaPacker packer = MolecularFormulaPacker.newPacker(alphabet);
+        final PackedDecompositions batch = decomposer.decomposeToPackedFormulas(masses, protonation, dev, constraints, null, packer);
+        assertEquals(masses.length, batch.numberOfMasses());
+        for (int i = 0; i < masses.length; ++i) {
+            final Set<MolecularFormula> expected = new HashSet<>(decomposer.decomposeToFormulas(masses[i], protonation, dev, constraints));
+            assertEquals(expected.size(), batch.numberOfDecompositions(i));
+            assertEquals(expected, new HashSet<>(batch.getFormulasFor(i)));
+        }
+    }
+
+    @Test
+    public void testBatchDecompositionFiltersOnCompomeres() {
+        final ChemicalAlphabet alphabet = new ChemicalAlphabet();
+        final MassToFormulaDecomposer decomposer = new MassToFormulaDecomposer(alphabet);
+        // adducts that add atoms to and remove atoms from the measured formula
+        final Set<PrecursorIonType> adducts = new HashSet<>(Arrays.asList(PrecursorIonType.getPrecursorIonType("[M+H]+"),
+                PrecursorIonType.getPrecursorIonType("[M-H2O+H]+"), PrecursorIonType.getPrecursorIonType("[M+NH4]+")));
+        final FormulaConstraints constraints = new FormulaConstraints(alphabet, Arrays.asList(new ValenceFilter(1, adducts), new NonEmptyFormulaValidator()));
+        final MolecularFormulaPacker packer = MolecularFormulaPacker.newPacker(alphabet);
+        final Deviation dev = new Deviation(10, 1e-3);
+        final double[] masses = new double[]{18.0338, 46.0651, 79.0542, 105.0699, 149.0233, 180.0652, 301.1410};
+        for (Ionization ionization : Arrays.asList(PrecursorIonType.getPrecursorIonType("[M+H]+").getIonization(), PeriodicTable.getInstance().neutralIonization())) {
+            final PackedDecompositions batch = decomposer.decomposeToPackedFormulas(masses, ionization, dev, constraints, null, packer);
+            for (int i = 0; i < masses.length; ++i)
+                assertEquals(new HashSet<>(decomposer.decomposeToFormulas(masses[i], ionization, dev, constraints)), new HashSet<>(batch.getFormulasFor(i)));
+        }
+    }
+
+    @Test
+    public void testBatchDecompositionWithMinimalElementCounts() {
+        final MassToFormulaDecomposer decomposer = new MassToFormulaDecomposer(new ChemicalAlphabet());
+        final PeriodicTable table = PeriodicTable.getInstance();
+        final Map<Element, Interval> boundaries = new HashMap<Element, Interval>();
+        boundaries.put(table.getByName("C"), new Interval(2, 10));
+        boundaries.put(table.getByName("H"), new Interval(6, 20));
+        final Deviation dev = new Deviation(10, 1e-3);
+        final double minimalMass = MolecularFormula.parseOrThrow("C2H6").getMass();
+
+        // masses below the minimal compomere: the reduced integer range is empty or collapses to zero
+        final List<Set<String>> belowMinimum = batchDecompose(decomposer, new double[]{0d, 12.5, 20.0}, dev, boundaries);
+        for (Set<String> decompositions : belowMinimum)
+            assertTrue(decompositions.isEmpty());
+
+        // the remaining mass rounds to zero, so only the minimal compomere itself is a decomposition
+        final double[] onlyMinimal = new double[]{minimalMass - 9e-4};
+        final List<Set<String>> minimal = batchDecompose(decomposer, onlyMinimal, dev, boundaries);
+        assertEquals(1, minimal.get(0).size());
+        assertEquals(toStrings(decomposer.decompose(onlyMinimal[0], dev, boundaries)), minimal.get(0));
+
+        final double[] masses = new double[]{minimalMass, MolecularFormula.parseOrThrow("C3H8").getMass(), MolecularFormula.parseOrThrow("C2H6O").getMass()};
+        final List<Set<String>> batch = batchDecompose(decomposer, masses, dev, boundaries);
+        for (int i = 0; i < masses.length; ++i) {
+            final Set<String> expected = toStrings(decomposer.decompose(masses[i], dev, boundaries));
+            assertFalse(expected.isEmpty());
+            assertEquals(expected, batch.get(i));
+        }
+    }
+
+    private static List<Set<String>> batchDecompose(MassToFormulaDecomposer decomposer, double[] masses, Deviation dev, Map<Element, Interval> boundaries) {
+        final List<Set<String>> decompositions = new ArrayList<Set<String>>();
+        for (int i = 0; i < masses.length; ++i)
+            decompositions.add(new HashSet<String>());
+        decomposer.decompose(masses, dev, boundaries, null, (compomere, index) ->
+                assertTrue("decomposition reported twice", decompositions.get(index).add(Arrays.toString(compomere))));
+        return decompositions;
+    }
+
+    private static Set<String> toStrings(List<int[]> compomeres) {
+        final Set<String> strings = new HashSet<String>();
+        for (int[] compomere : compomeres)
+            strings.add(Arrays.toString(compomere));
+        return strings;
+    }
 }
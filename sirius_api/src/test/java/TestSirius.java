@@ -21,6 +21,8 @@ import de.unijena.bioinf.sirius.Ms2Preprocessor;
 import de.unijena.bioinf.sirius.ProcessedInput;
 import de.unijena.bioinf.sirius.Sirius;
 import de.unijena.bioinf.sirius.annotations.DecompositionList;
+import org.junit.Assume;
+import org.junit.Ignore;
 import org.junit.Test;
 
 import java.io.BufferedReader;
@@ -166,7 +168,7 @@ public class TestSirius {
         final FragmentationPatternAnalysis analysis = sirius.getMs2Analyzer();
         JobManager jobsManager = SiriusJobs.getGlobalJobManager();
         TreeBuilder builder = TreeBuilderFactory.getInstance().getTreeBuilder("clp");
-        analysis.setTreeBuilder(builder);
+        analysis.setTreeBuilder(builder.getValue());
 
 
         List<FasterTreeComputationInstance> jobs = new ArrayList<>();
@@ -182,6 +184,39 @@ public class TestSirius {
     }
 
 
+    @Ignore("benchmark, needs a native GLPK installation")
+    @Test
+    public void testBranchAndBoundAgainstGLPK() throws IOException, ExecutionException {
+        final LinkedHashMap<String, TreeBuilder> builders = new LinkedHashMap<>();
+        builders.put("glpk", TreeBuilderFactory.getInstance().getTreeBuilder("glpk"));
+        builders.put("bnb", TreeBuilderFactory.getInstance().getTreeBuilder("bnb"));
+        Assume.assumeNotNull(builders.get("glpk"));
+        JobManager jobsManager = SiriusJobs.getGlobalJobManager();
+        for (String resource : new String[]{"/Bicuculline.ms", "/Kaempferol.ms"}) {
+            LinkedHashMap<String, FasterTreeComputationInstance.FinalResult> results = new LinkedHashMap<>();
+            for (Map.Entry<String, TreeBuilder> builder : builders.entrySet()) {
+                final Ms2Experiment experiment = getStandardExample(resource);
+                final ProcessedInput processedInput = new Ms2Preprocessor().preprocess(experiment);
+                sirius.getMs1Analyzer().computeAndScoreIsotopePattern(processedInput);
+                final FragmentationPatternAnalysis analysis = sirius.getMs2Analyzer();
+                analysis.setTreeBuilder(builder);
+
+                long t = System.currentTimeMillis();
+                FasterTreeComputationInstance instance = new FasterTreeComputationInstance(analysis, processedInput);
+                results.put(builder.getKey(), jobsManager.submitJob(instance).awaitResult());
+                System.out.println(resource + " with " + builder.getKey() + " DONE in " + (System.currentTimeMillis() - t) / 1000d + "s");
+            }
+            final Iterator<FasterTreeComputationInstance.FinalResult> it = results.values().iterator();
+            final List<FTree> expected = it.next().getResults(), actual = it.next().getResults();
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i).getRoot().getFormula(), actual.get(i).getRoot().getFormula());
+                assertEquals(expected.get(i).getTreeWeight(), actual.get(i).getTreeWeight(), 1e-6);
+            }
+        }
+    }
+
+
     /*@Test
     public void testILPSolvers() throws IOException, ExecutionException, URISyntaxException {
         JobManager jobsManager = SiriusJobs.getGlobalJobManager();
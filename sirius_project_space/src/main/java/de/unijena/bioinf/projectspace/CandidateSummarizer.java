@@ -20,14 +20,43 @@
 
 package de.unijena.bioinf.projectspace;
 
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 public abstract class CandidateSummarizer implements Summarizer {
     protected final boolean writeTopHitGlobal;
     protected final boolean writeTopHitWithAdductsGlobal;
     protected final boolean writeFullGlobal;
 
+    private final List<SummaryTable> globalTables = new CopyOnWriteArrayList<>();
+
     protected CandidateSummarizer(boolean writeTopHitGlobal, boolean writeTopHitWithAdductsGlobal, boolean writeFullGlobal) {
         this.writeTopHitGlobal = writeTopHitGlobal;
         this.writeTopHitWithAdductsGlobal = writeTopHitWithAdductsGlobal;
         this.writeFullGlobal = writeFullGlobal;
     }
+
+    /**
+     * Creates a project-wide table. Rows are added from {@link #addWriteCompoundSummary} and the table is
+     * merged and written by {@link #writeProjectSpaceSummary(ProjectWriter)}.
+     */
+    protected SummaryTable newGlobalTable(@NotNull String relativePath, @Nullable String[] header, @NotNull Comparator<String[]> rowOrder) {
+        return registerGlobalTable(new SummaryTable(relativePath, header, rowOrder));
+    }
+
+    protected SummaryTable registerGlobalTable(@NotNull SummaryTable table) {
+        globalTables.add(table);
+        return table;
+    }
+
+    @Override
+    public void writeProjectSpaceSummary(ProjectWriter writer) throws IOException {
+        for (SummaryTable table : globalTables)
+            table.write(writer);
+    }
 }
@@ -199,6 +199,34 @@ public final class CompoundContainerId extends ProjectSpaceContainerId {
         return kv;
     }
 
+    /**
+     * Creates an id from the key value pairs written by {@link #asKeyValuePairs()}
+     */
+    static CompoundContainerId fromKeyValuePairs(@NotNull String directoryName, @NotNull Map<String, String> keyValues) {
+        final int index = Integer.parseInt(keyValues.getOrDefault("index", "-1"));
+        final String name = keyValues.getOrDefault("name", "");
+        final Double ionMass = Optional.ofNullable(keyValues.get("ionMass")).map(Double::parseDouble).orElse(null);
+        final RetentionTime rt = Optional.ofNullable(keyValues.get("rt")).map(RetentionTime::fromStringValue).orElse(null);
+
+        final PrecursorIonType ionType = Optional.ofNullable(keyValues.get("ionType"))
+                .flatMap(PrecursorIonType::parsePrecursorIonType).orElse(null);
+
+        final Double confidenceScore = Optional.ofNullable(keyValues.get("confidenceScore")).map(Double::parseDouble).orElse(null);
+
+        final String featureId = keyValues.get("featureId");
+
+        final CompoundContainerId cid = new CompoundContainerId(directoryName, name, index, ionMass, ionType, rt, confidenceScore, featureId);
+
+        cid.setDetectedAdducts(
+                Optional.ofNullable(keyValues.get("detectedAdducts")).map(DetectedAdducts::fromString).orElse(null));
+
+        cid.setRankingScoreTypes(
+                Optional.ofNullable(keyValues.get(RANKING_KEY))
+                        .flatMap(FormulaResultRankingScore::parseFromString).map(FormulaResultRankingScore::value)
+                        .orElse(Collections.emptyList()));
+        return cid;
+    }
+
     public void setAllNonFinal(final CompoundContainerId cid) {
         if (cid == null || cid == this)
             return;
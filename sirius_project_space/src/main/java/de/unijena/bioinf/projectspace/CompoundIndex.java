@@ -0,0 +1,94 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+
+package de.unijena.bioinf.projectspace;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Binary index of all compound ids of a project-space, stored in {@link PSLocations#COMPOUND_INDEX}.
+ * It contains the key value pairs of the {@link SiriusLocations#COMPOUND_INFO} file of every compound directory,
+ * so opening a project does not need to read one file per compound.
+ * <p>
+ * The index is deleted before the first change of any compound id and rewritten on flush. So an existing index is
+ * always consistent with the compound info files, except for changes from outside (e.g. by older versions).
+ * Added or removed directories are detected by comparing the index with the directory listing, changed compound infos
+ * by comparing a sample of them with the index. A stale index is deleted immediately when the project is opened.
+ */
+final class CompoundIndex {
+    private static final int MAGIC = 0x53504349; // "SPCI"
+    private static final int VERSION = 1;
+
+    private CompoundIndex() {
+    }
+
+    /**
+     * @return key value pairs of all indexed compounds by directory name or null if there is no valid index
+     */
+    @Nullable
+    static Map<String, Map<String, String>> read(@NotNull ProjectReader reader) throws IOException {
+        if (!reader.exists(PSLocations.COMPOUND_INDEX))
+            return null;
+        return reader.binaryFile(PSLocations.COMPOUND_INDEX, stream -> {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                return null;
+            final int size = in.readInt();
+            final Map<String, Map<String, String>> index = new HashMap<>(size + size / 2);
+            for (int i = 0; i < size; ++i) {
+                final String dirName = in.readUTF();
+                final int numberOfKeys = in.readUnsignedShort();
+                final Map<String, String> keyValues = new LinkedHashMap<>(numberOfKeys + numberOfKeys / 2);
+                for (int k = 0; k < numberOfKeys; ++k)
+                    keyValues.put(in.readUTF(), in.readUTF());
+                index.put(dirName, keyValues);
+            }
+            return index;
+        });
+    }
+
+    static void write(@NotNull ProjectWriter writer, @NotNull Collection<CompoundContainerId> ids) throws IOException {
+        writer.deleteIfExists(PSLocations.COMPOUND_INDEX);
+        writer.binaryFile(PSLocations.COMPOUND_INDEX, stream -> {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(ids.size());
+            for (CompoundContainerId cid : ids) {
+                final Map<String, String> keyValues = cid.asKeyValuePairs();
+                out.writeUTF(cid.getDirectoryName());
+                out.writeShort(keyValues.size());
+                for (Map.Entry<String, String> e : keyValues.entrySet()) {
+                    out.writeUTF(e.getKey());
+                    out.writeUTF(e.getValue());
+                }
+            }
+            out.flush();
+        });
+    }
+}
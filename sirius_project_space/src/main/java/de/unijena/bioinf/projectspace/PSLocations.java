@@ -24,5 +24,6 @@ public interface PSLocations {
     String
             FORMAT = ".format",
             VERSION = ".version",
-            COMPRESSION = ".compression";
+            COMPRESSION = ".compression",
+            COMPOUND_INDEX = ".compounds.index";
 }
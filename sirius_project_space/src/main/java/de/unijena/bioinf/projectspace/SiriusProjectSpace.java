@@ -54,9 +54,16 @@ import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class SiriusProjectSpace implements IterableWithSize<CompoundContainerId>, AutoCloseable {
+    /**
+     * number of compounds whose compound info is compared with the index when opening a project
+     */
+    private static final int INDEX_VALIDATION_SAMPLES = 32;
 
     private final ReadWriteLock idLock = new ReentrantReadWriteLock();
     private final Map<String, CompoundContainerId> ids;
+    private final Object indexLock = new Object();
+    private boolean indexDirty = false; // index has to be rewritten, guarded by indexLock
+    private boolean indexOnDisk = false; // index file exists and is valid, guarded by indexLock
     protected final ProjectSpaceConfiguration configuration;
     protected final AtomicInteger compoundCounter;
     private final ConcurrentHashMap<Class<? extends ProjectSpaceProperty>, ProjectSpaceProperty> projectSpaceProperties;
@@ -129,40 +136,53 @@ public class SiriusProjectSpace implements IterableWithSize<CompoundContainerId>
             ioProvider.setCompressionFormat(getProjectSpaceProperty(CompressionFormat.class).orElse(null));
 
             final ProjectReader reader = ioProvider.newReader(this::getProjectSpaceProperty);
-            for (String dir : reader.listDirs("*")) {
-                int idx = reader.inDirectory(dir, () -> {
-                    if (reader.exists(SiriusLocations.COMPOUND_INFO)) {
-                        final Map<String, String> keyValues = reader.keyValues(SiriusLocations.COMPOUND_INFO);
-                        final int index = Integer.parseInt(keyValues.getOrDefault("index", "-1"));
-                        final String name = keyValues.getOrDefault("name", "");
-                        final String dirName = Path.of(dir).getFileName().toString();
-                        final Double ionMass = Optional.ofNullable(keyValues.get("ionMass")).map(Double::parseDouble).orElse(null);
-                        final RetentionTime rt = Optional.ofNullable(keyValues.get("rt")).map(RetentionTime::fromStringValue).orElse(null);
-
-                        final PrecursorIonType ionType = Optional.ofNullable(keyValues.get("ionType"))
-                                .flatMap(PrecursorIonType::parsePrecursorIonType).orElse(null);
-
-                        final Double confidenceScore = Optional.ofNullable(keyValues.get("confidenceScore")).map(Double::parseDouble).orElse(null);
-
-                        final String featureId = keyValues.get("featureId");
-
-                        final CompoundContainerId cid = new CompoundContainerId(dirName, name, index, ionMass, ionType, rt, confidenceScore, featureId);
+            Map<String, Map<String, String>> index = null;
+            try {
+                index = CompoundIndex.read(reader);
+            } catch (IOException | RuntimeException e) {
+                LoggerFactory.getLogger(getClass()).warn("Cannot read compound index. Rebuilding it from compound directories.", e);
+            }
 
-                        cid.setDetectedAdducts(
-                                Optional.ofNullable(keyValues.get("detectedAdducts")).map(DetectedAdducts::fromString).orElse(null));
+            // directories that are not part of the index are read from their compound info files
+            final List<String> dirs = reader.listDirs("*");
+            List<String> unindexed = new ArrayList<>();
+            final List<String> indexedDirs = new ArrayList<>();
+            for (String dir : dirs) {
+                final String dirName = Path.of(dir).getFileName().toString();
+                final Map<String, String> keyValues = index != null ? index.get(dirName) : null;
+                if (keyValues != null) {
+                    final CompoundContainerId cid = CompoundContainerId.fromKeyValuePairs(dirName, keyValues);
+                    ids.put(dirName, cid);
+                    indexedDirs.add(dir);
+                    maxIndex = Math.max(cid.getCompoundIndex(), maxIndex);
+                } else {
+                    unindexed.add(dir);
+                }
+            }
 
-                        cid.setRankingScoreTypes(
-                                Optional.ofNullable(keyValues.get(CompoundContainerId.RANKING_KEY))
-                                        .flatMap(FormulaResultRankingScore::parseFromString).map(FormulaResultRankingScore::value)
-                                        .orElse(Collections.emptyList()));
+            if (index != null && !matchesCompoundInfos(reader, indexedDirs)) {
+                LoggerFactory.getLogger(getClass()).warn("Compound index differs from compound info files. Rebuilding it from compound directories.");
+                index = null;
+                ids.clear();
+                maxIndex = 0;
+                unindexed = dirs;
+            }
 
-                        ids.put(dirName, cid);
-                        return index;
-                    }
+            final int indexed = ids.size();
+            final List<CompoundContainerId> unindexedIds = readCompoundInfos(unindexed);
+            for (CompoundContainerId cid : unindexedIds) {
+                ids.put(cid.getDirectoryName(), cid);
+                maxIndex = Math.max(cid.getCompoundIndex(), maxIndex);
+            }
 
-                    return -1;
-                });
-                maxIndex = Math.max(idx, maxIndex);
+            // index is missing, misses compounds or contains directories that do not exist anymore
+            final boolean stale = index == null || !unindexedIds.isEmpty() || index.size() != indexed;
+            synchronized (indexLock) {
+                indexDirty = stale;
+                indexOnDisk = !stale;
+                // a stale index must not survive a crash before the next flush
+                if (stale)
+                    ioProvider.newWriter(this::getProjectSpaceProperty).deleteIfExists(PSLocations.COMPOUND_INDEX);
             }
         } finally {
             idLock.readLock().unlock();
@@ -173,15 +193,108 @@ public class SiriusProjectSpace implements IterableWithSize<CompoundContainerId>
         fireProjectSpaceChange(ProjectSpaceEvent.OPENED);
     }
 
+    /**
+     * compares the index entries of an evenly spread sample of compounds with their compound info files, to detect
+     * compound infos that were changed without updating the index (e.g. by older versions of the project-space)
+     */
+    private boolean matchesCompoundInfos(ProjectReader reader, List<String> indexedDirs) throws IOException {
+        final int step = Math.max(1, indexedDirs.size() / INDEX_VALIDATION_SAMPLES);
+        for (int i = 0; i < indexedDirs.size(); i += step) {
+            final String dir = indexedDirs.get(i);
+            final CompoundContainerId indexed = ids.get(Path.of(dir).getFileName().toString());
+            final Map<String, String> keyValues = reader.inDirectory(dir, () -> reader.exists(SiriusLocations.COMPOUND_INFO)
+                    ? reader.keyValues(SiriusLocations.COMPOUND_INFO) : null);
+            if (keyValues == null || !CompoundContainerId.fromKeyValuePairs(indexed.getDirectoryName(), keyValues)
+                    .asKeyValuePairs().equals(indexed.asKeyValuePairs()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * reads the compound info files of the given directories in parallel
+     */
+    private List<CompoundContainerId> readCompoundInfos(List<String> dirs) throws IOException {
+        if (dirs.isEmpty())
+            return Collections.emptyList();
+        final int batchSize = Math.max(16, dirs.size() / (4 * SiriusJobs.getCPUThreads()));
+        final List<BasicJJob<List<CompoundContainerId>>> jobs = new ArrayList<>();
+        for (int start = 0; start < dirs.size(); start += batchSize) {
+            final List<String> batch = dirs.subList(start, Math.min(dirs.size(), start + batchSize));
+            jobs.add(SiriusJobs.getGlobalJobManager().submitJob(new BasicJJob<List<CompoundContainerId>>(JJob.JobType.IO) {
+                @Override
+                protected List<CompoundContainerId> compute() throws Exception {
+                    // readers are not thread safe, so every job uses its own
+                    final ProjectReader reader = ioProvider.newReader(SiriusProjectSpace.this::getProjectSpaceProperty);
+                    final List<CompoundContainerId> cids = new ArrayList<>(batch.size());
+                    for (String dir : batch) {
+                        final CompoundContainerId cid = reader.inDirectory(dir, () -> reader.exists(SiriusLocations.COMPOUND_INFO)
+                                ? CompoundContainerId.fromKeyValuePairs(Path.of(dir).getFileName().toString(), reader.keyValues(SiriusLocations.COMPOUND_INFO))
+                                : null);
+                        if (cid != null)
+                            cids.add(cid);
+                    }
+                    return cids;
+                }
+            }));
+        }
+
+        final List<CompoundContainerId> cids = new ArrayList<>(dirs.size());
+        for (BasicJJob<List<CompoundContainerId>> job : jobs) {
+            try {
+                cids.addAll(job.awaitResult());
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                throw new IOException("Cannot read compound info.", e.getCause());
+            }
+        }
+        return cids;
+    }
+
     public void flush() throws IOException {
+        writeCompoundIndex();
         ioProvider.flush();
     }
 
+    /**
+     * removes the persistent compound index before the first modification of a compound id, so that a stale index
+     * is never read. The index is rewritten on the next flush.
+     */
+    private void invalidateCompoundIndex(@Nullable ProjectWriter writer) throws IOException {
+        synchronized (indexLock) {
+            indexDirty = true;
+            if (!indexOnDisk)
+                return;
+            if (writer == null)
+                writer = ioProvider.newWriter(this::getProjectSpaceProperty);
+            writer.deleteIfExists(PSLocations.COMPOUND_INDEX);
+            indexOnDisk = false;
+        }
+    }
+
+    private void writeCompoundIndex() throws IOException {
+        // lock order: idLock before indexLock
+        idLock.readLock().lock();
+        try {
+            synchronized (indexLock) {
+                if (!indexDirty)
+                    return;
+                CompoundIndex.write(ioProvider.newWriter(this::getProjectSpaceProperty), new ArrayList<>(ids.values()));
+                indexDirty = false;
+                indexOnDisk = true;
+            }
+        } finally {
+            idLock.readLock().unlock();
+        }
+    }
+
     public void close() throws IOException {
         withAllWriteLockedDo(() -> {
             try {
                 idLock.writeLock().lock();
                 try {
+                    writeCompoundIndex();
                     this.ids.clear();
                 } finally {
                     idLock.writeLock().unlock();
@@ -448,6 +561,7 @@ public class SiriusProjectSpace implements IterableWithSize<CompoundContainerId>
         final String path = Path.of(cid.getDirectoryName()).resolve(SiriusLocations.COMPOUND_INFO).toString();
         if (writer == null)
             writer = ioProvider.newWriter(this::getProjectSpaceProperty);
+        invalidateCompoundIndex(writer);
         writer.deleteIfExists(path);
         writer.keyValues(path, cid.asKeyValuePairs());
         fireProjectSpaceChange(ProjectSpaceEvent.INDEX_UPDATED);
@@ -621,6 +735,7 @@ public class SiriusProjectSpace implements IterableWithSize<CompoundContainerId>
             }
 
             if (removed != null) {
+                invalidateCompoundIndex(null);
                 deleteContainer(CompoundContainer.class, cid);
                 fireContainerListeners(compoundListeners, new ContainerEvent<>(ContainerEvent.EventType.DELETED, cid, Collections.emptySet()));
                 fireProjectSpaceChange(ProjectSpaceEvent.INDEX_UPDATED);
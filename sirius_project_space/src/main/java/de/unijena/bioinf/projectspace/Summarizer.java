@@ -34,6 +34,8 @@ import java.util.List;
  * Summarizers can be written automatically with other components.
  * <p>
  * Note: Summarizers might be called in parallel on different compounds and need to be TREAD SAFE!
+ * Project-wide tables should be collected in a {@link SummaryTable}, which shards rows per thread, spills them to
+ * temporary files and merges them in sorted order when the project summary is written.
  */
 @ThreadSafe
 public interface Summarizer {
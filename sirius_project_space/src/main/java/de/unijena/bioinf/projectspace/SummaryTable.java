@@ -0,0 +1,289 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+
+package de.unijena.bioinf.projectspace;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A project-wide summary table that can be filled from many threads in parallel without keeping all rows in memory.
+ * <p>
+ * Every thread collects its rows in its own shard. If a shard exceeds its row limit the rows are sorted and spilled
+ * into a temporary file. {@link #write(ProjectWriter)} merges all spilled runs and in memory rows in sorted order and
+ * streams them into the project-space, so memory stays bounded by the number of shards times the row limit.
+ * <p>
+ * Intended to be used by {@link Summarizer}s: rows are added in
+ * {@link Summarizer#addWriteCompoundSummary(ProjectWriter, CompoundContainer, List)} and written in
+ * {@link Summarizer#writeProjectSpaceSummary(ProjectWriter)}.
+ */
+@ThreadSafe
+public class SummaryTable implements Closeable {
+    public static final int DEFAULT_ROWS_PER_SHARD = 1 << 14;
+
+    private final String relativePath;
+    private final String[] header;
+    private final Comparator<String[]> rowOrder;
+    private final int rowsPerShard;
+    @Nullable
+    private final Path tempDir;
+
+    private final ConcurrentLinkedQueue<Shard> shards = new ConcurrentLinkedQueue<>();
+    private final ThreadLocal<Shard> localShard = ThreadLocal.withInitial(this::newShard);
+
+    public SummaryTable(@NotNull String relativePath, @Nullable String[] header, @NotNull Comparator<String[]> rowOrder) {
+        this(relativePath, header, rowOrder, DEFAULT_ROWS_PER_SHARD);
+    }
+
+    public SummaryTable(@NotNull String relativePath, @Nullable String[] header, @NotNull Comparator<String[]> rowOrder, int rowsPerShard) {
+        this(relativePath, header, rowOrder, rowsPerShard, null);
+    }
+
+    /**
+     * @param tempDir directory for the spilled runs, NULL for the default temporary-file directory.
+     */
+    public SummaryTable(@NotNull String relativePath, @Nullable String[] header, @NotNull Comparator<String[]> rowOrder, int rowsPerShard, @Nullable Path tempDir) {
+        if (rowsPerShard <= 0)
+            throw new IllegalArgumentException("Rows per shard must be positive but was " + rowsPerShard);
+        this.relativePath = relativePath;
+        this.header = header;
+        this.rowOrder = rowOrder;
+        this.rowsPerShard = rowsPerShard;
+        this.tempDir = tempDir;
+    }
+
+    public String getRelativePath() {
+        return relativePath;
+    }
+
+    private Shard newShard() {
+        final Shard shard = new Shard();
+        shards.add(shard);
+        return shard;
+    }
+
+    /**
+     * Adds a row to the shard of the calling thread. The row array is not copied and must not be modified afterwards.
+     */
+    public void add(@NotNull String[] row) throws IOException {
+        localShard.get().add(row);
+    }
+
+    public void addAll(@NotNull Iterable<String[]> rows) throws IOException {
+        final Shard shard = localShard.get();
+        for (String[] row : rows)
+            shard.add(row);
+    }
+
+    /**
+     * Writes all rows collected so far in sorted order and resets this table.
+     * Must not be called concurrently with {@link #add(String[])}.
+     */
+    public void write(@NotNull ProjectWriter writer) throws IOException {
+        final List<RowIterator> runs = new ArrayList<>();
+        try {
+            for (Shard shard : shards) {
+                for (Path run : shard.runs)
+                    runs.add(new FileRowIterator(run));
+                if (!shard.rows.isEmpty()) {
+                    shard.rows.sort(rowOrder);
+                    runs.add(new ListRowIterator(shard.rows));
+                }
+            }
+
+            final PriorityQueue<RowIterator> queue = new PriorityQueue<>(Math.max(1, runs.size()), (a, b) -> rowOrder.compare(a.peek(), b.peek()));
+            for (RowIterator run : runs)
+                if (run.peek() != null)
+                    queue.add(run);
+
+            writer.table(relativePath, header, () -> new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return !queue.isEmpty();
+                }
+
+                @Override
+                public String[] next() {
+                    final RowIterator run = queue.poll();
+                    if (run == null)
+                        throw new NoSuchElementException();
+                    final String[] row = run.peek();
+                    try {
+                        if (run.advance() != null)
+                            queue.add(run);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return row;
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            for (RowIterator run : runs)
+                run.closeQuietly();
+            close();
+        }
+    }
+
+    /**
+     * Discards all collected rows and deletes the temporary files.
+     */
+    @Override
+    public void close() {
+        for (Shard shard : shards)
+            shard.clear();
+    }
+
+    private class Shard {
+        private final ArrayList<String[]> rows = new ArrayList<>();
+        private final List<Path> runs = new ArrayList<>();
+
+        private void add(String[] row) throws IOException {
+            rows.add(row);
+            if (rows.size() >= rowsPerShard)
+                spill();
+        }
+
+        private void spill() throws IOException {
+            rows.sort(rowOrder);
+            final Path run = tempDir == null
+                    ? Files.createTempFile("sirius-summary-", ".run")
+                    : Files.createTempFile(tempDir, "sirius-summary-", ".run");
+            runs.add(run);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+                for (String[] row : rows)
+                    writeRow(out, row);
+            }
+            rows.clear();
+        }
+
+        private void clear() {
+            rows.clear();
+            for (Path run : runs) {
+                try {
+                    Files.deleteIfExists(run);
+                } catch (IOException e) {
+                    LoggerFactory.getLogger(SummaryTable.class).warn("Could not delete temporary summary file '" + run + "'.", e);
+                }
+            }
+            runs.clear();
+        }
+    }
+
+    private static void writeRow(DataOutputStream out, String[] row) throws IOException {
+        out.writeInt(row.length);
+        for (String value : row) {
+            if (value == null) {
+                out.writeInt(-1);
+            } else {
+                final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+        }
+    }
+
+    private static String[] readRow(DataInputStream in) throws IOException {
+        final int columns;
+        try {
+            columns = in.readInt();
+        } catch (EOFException e) {
+            return null;
+        }
+        final String[] row = new String[columns];
+        for (int i = 0; i < columns; ++i) {
+            final int length = in.readInt();
+            if (length >= 0) {
+                final byte[] bytes = new byte[length];
+                in.readFully(bytes);
+                row[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        return row;
+    }
+
+    private interface RowIterator {
+        String[] peek();
+
+        String[] advance() throws IOException;
+
+        default void closeQuietly() {
+        }
+    }
+
+    private static class ListRowIterator implements RowIterator {
+        private final Iterator<String[]> rows;
+        private String[] current;
+
+        private ListRowIterator(List<String[]> rows) {
+            this.rows = rows.iterator();
+            this.current = this.rows.hasNext() ? this.rows.next() : null;
+        }
+
+        @Override
+        public String[] peek() {
+            return current;
+        }
+
+        @Override
+        public String[] advance() {
+            return current = rows.hasNext() ? rows.next() : null;
+        }
+    }
+
+    private static class FileRowIterator implements RowIterator {
+        private final DataInputStream in;
+        private String[] current;
+
+        private FileRowIterator(Path run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run)));
+            this.current = readRow(in);
+        }
+
+        @Override
+        public String[] peek() {
+            return current;
+        }
+
+        @Override
+        public String[] advance() throws IOException {
+            return current = readRow(in);
+        }
+
+        @Override
+        public void closeQuietly() {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
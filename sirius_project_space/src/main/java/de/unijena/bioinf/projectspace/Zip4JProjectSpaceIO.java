@@ -26,7 +26,12 @@ import net.lingala.zip4j.ZipFile;
 import net.lingala.zip4j.exception.ZipException;
 import net.lingala.zip4j.model.FileHeader;
 
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
@@ -42,12 +47,19 @@ import java.util.stream.Stream;
 public class Zip4JProjectSpaceIO implements ProjectIO {
     protected final ZipFile zipLocation;
     private final ReadWriteLock rwLock;
+    @Nullable
+    protected final ZipWriteBehindBuffer buffer;
     protected Path dir = null;
     protected final Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> propertyGetter;
 
     protected Zip4JProjectSpaceIO(ZipFile location, ReadWriteLock rwLock, Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> propertyGetter) {
+        this(location, rwLock, null, propertyGetter);
+    }
+
+    protected Zip4JProjectSpaceIO(ZipFile location, ReadWriteLock rwLock, @Nullable ZipWriteBehindBuffer buffer, Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> propertyGetter) {
         this.zipLocation = location;
         this.rwLock = rwLock;
+        this.buffer = buffer;
         this.propertyGetter = propertyGetter;
     }
 
@@ -56,8 +68,18 @@ public class Zip4JProjectSpaceIO implements ProjectIO {
         return withReadLock(() -> {
             Stream<String> s = zipLocation.getFileHeaders().stream()
                     .filter(h -> (includeDirs && h.isDirectory()) || (includeFiles && !h.isDirectory()))
-                    .map(FileHeader::getFileName)
-                    .filter(n -> dir == null || n.startsWith(dir.toString())); // filter for correct sub dir
+                    .map(FileHeader::getFileName);
+
+            if (buffer != null) { // merge pending changes
+                s = s.filter(n -> !buffer.isDeleted(n));
+                if (includeFiles)
+                    s = Stream.concat(s, buffer.pendingEntries().stream());
+                if (includeDirs) // directories that are only created by pending writes
+                    s = Stream.concat(s, buffer.pendingDirectories().stream());
+                s = s.distinct();
+            }
+
+            s = s.filter(n -> dir == null || n.startsWith(dir.toString())); // filter for correct sub dir
 
             if (!recursive)
                 s = s.filter(n -> { //filter for flat list.
@@ -80,7 +102,15 @@ public class Zip4JProjectSpaceIO implements ProjectIO {
 
     @Override
     public boolean exists(String relativePath) throws IOException {
-        return withReadLock(() -> zipLocation.getFileHeader(resolve(relativePath).toString()) != null);
+        return withReadLock(() -> {
+            final String name = resolve(relativePath).toString();
+            if (buffer != null) {
+                final byte[] data = buffer.pending(name);
+                if (data != null)
+                    return data != ZipWriteBehindBuffer.DELETED;
+            }
+            return zipLocation.getFileHeader(name) != null;
+        });
     }
 
     @Override //no log because it is not persistent
@@ -114,6 +144,21 @@ public class Zip4JProjectSpaceIO implements ProjectIO {
         return zipLocation.getFileHeader(resolve(relativePath).toString());
     }
 
+    /**
+     * Opens the given entry, pending changes of the write-behind buffer take precedence over the zip file.
+     */
+    protected InputStream openEntry(String relativePath) throws IOException {
+        final String name = resolve(relativePath).toString();
+        if (buffer != null) {
+            final byte[] data = buffer.pending(name);
+            if (data == ZipWriteBehindBuffer.DELETED)
+                throw new FileNotFoundException("Entry '" + name + "' does not exist.");
+            if (data != null)
+                return new ByteArrayInputStream(data);
+        }
+        return zipLocation.getInputStream(zipLocation.getFileHeader(name));
+    }
+
     @Override
     public URI asURI(String path) {
         return URI.create("jar:file:" + URLEncoder.encode(zipLocation.getFile().getAbsolutePath(), StandardCharsets.UTF_8) + "!/" + URLEncoder.encode(resolve(path).toString(), StandardCharsets.UTF_8));
@@ -21,18 +21,22 @@
 package de.unijena.bioinf.projectspace;
 
 import net.lingala.zip4j.ZipFile;
+import net.lingala.zip4j.model.ZipParameters;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.Optional;
-import java.util.concurrent.locks.ReadWriteLock;
+import java.util.*;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 
 public class Zip4JProjectSpaceIOProvider implements ProjectIOProvider<Zip4JProjectSpaceIO, Zip4JProjectSpaceReader, Zip4JProjectSpaceWriter> {
-    protected final ReadWriteLock rwLock =  new ReentrantReadWriteLock();
+    protected final ReentrantReadWriteLock rwLock =  new ReentrantReadWriteLock();
     protected final ZipFile zipLocation;
+    @Nullable
+    protected final ZipWriteBehindBuffer buffer;
 
     public Zip4JProjectSpaceIOProvider(@NotNull Path location) {
         this(new ZipFile(location.toFile()));
@@ -40,21 +44,38 @@ public class Zip4JProjectSpaceIOProvider implements ProjectIOProvider<Zip4JProje
 
     public Zip4JProjectSpaceIOProvider(@NotNull ZipFile zipLocation) {
         this.zipLocation = zipLocation;
+        this.buffer = ZipWriteBehindBuffer.fromProperties(zipLocation.getFile().toPath(), rwLock, this::writeBatch);
+    }
+
+    private void writeBatch(Collection<String> deletions, Map<String, byte[]> writes) throws IOException {
+        // one removal for all overwritten and deleted entries, instead of one archive rewrite per entry
+        final List<String> remove = new ArrayList<>(deletions);
+        for (String name : writes.keySet())
+            if (zipLocation.getFileHeader(name) != null)
+                remove.add(name);
+        if (!remove.isEmpty())
+            zipLocation.removeFiles(remove);
+
+        for (Map.Entry<String, byte[]> entry : writes.entrySet()) {
+            ZipParameters paras = new ZipParameters();
+            paras.setFileNameInZip(entry.getKey());
+            zipLocation.addStream(new ByteArrayInputStream(entry.getValue()), paras);
+        }
     }
 
     @Override
     public Zip4JProjectSpaceIO newIO(Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> propertyGetter) {
-        return new Zip4JProjectSpaceIO(zipLocation, rwLock, propertyGetter);
+        return new Zip4JProjectSpaceIO(zipLocation, rwLock, buffer, propertyGetter);
     }
 
     @Override
     public Zip4JProjectSpaceReader newReader(Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> propertyGetter) {
-        return new Zip4JProjectSpaceReader(zipLocation, rwLock, propertyGetter);
+        return new Zip4JProjectSpaceReader(zipLocation, rwLock, buffer, propertyGetter);
     }
 
     @Override
     public Zip4JProjectSpaceWriter newWriter(Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> propertyGetter) {
-        return new Zip4JProjectSpaceWriter(zipLocation, rwLock, propertyGetter);
+        return new Zip4JProjectSpaceWriter(zipLocation, rwLock, buffer, propertyGetter);
     }
 
     @Override
@@ -63,12 +84,19 @@ public class Zip4JProjectSpaceIOProvider implements ProjectIOProvider<Zip4JProje
     }
 
     @Override
-    public void flush() {
-       //no reopen needed writes instantly
+    public void flush() throws IOException {
+        //no reopen needed, just wait for pending writes
+        if (buffer != null)
+            buffer.flush();
     }
 
     @Override
     public void close() throws IOException {
-        zipLocation.close();
+        try {
+            if (buffer != null)
+                buffer.close();
+        } finally {
+            zipLocation.close();
+        }
     }
 }
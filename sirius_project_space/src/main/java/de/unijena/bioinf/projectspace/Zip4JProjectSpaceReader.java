@@ -23,6 +23,7 @@ package de.unijena.bioinf.projectspace;
 import de.unijena.bioinf.ChemistryBase.utils.FileUtils;
 import de.unijena.bioinf.ChemistryBase.utils.IOFunctions;
 import net.lingala.zip4j.ZipFile;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -39,10 +40,14 @@ public class Zip4JProjectSpaceReader extends Zip4JProjectSpaceIO implements Proj
         super(location, rwLock, propertyGetter);
     }
 
+    protected Zip4JProjectSpaceReader(ZipFile location, ReadWriteLock rwLock, @Nullable ZipWriteBehindBuffer buffer, Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> propertyGetter) {
+        super(location, rwLock, buffer, propertyGetter);
+    }
+
     @Override
     public <A> A textFile(String relativePath, IOFunctions.IOFunction<BufferedReader, A> func) throws IOException {
         return withReadLock(() -> {
-            try (final BufferedReader br = new BufferedReader(new InputStreamReader(zipLocation.getInputStream(resolveHeader(relativePath))))) {
+            try (final BufferedReader br = new BufferedReader(new InputStreamReader(openEntry(relativePath)))) {
                 return func.apply(br);
             }
         });
@@ -51,7 +56,7 @@ public class Zip4JProjectSpaceReader extends Zip4JProjectSpaceIO implements Proj
     @Override
     public <A> A binaryFile(String relativePath, IOFunctions.IOFunction<InputStream, A> func) throws IOException {
         return withReadLock(() -> {
-            try (final InputStream stream = zipLocation.getInputStream(resolveHeader(relativePath))) {
+            try (final InputStream stream = openEntry(relativePath)) {
                 return func.apply(stream);
             }
         });
@@ -60,7 +65,7 @@ public class Zip4JProjectSpaceReader extends Zip4JProjectSpaceIO implements Proj
     @Override
     public Map<String, String> keyValues(String relativePath) throws IOException {
         return withReadLock(() -> {
-            try (final BufferedReader br = new BufferedReader(new InputStreamReader(zipLocation.getInputStream(resolveHeader(relativePath))))) {
+            try (final BufferedReader br = new BufferedReader(new InputStreamReader(openEntry(relativePath)))) {
                 return FileUtils.readKeyValues(br);
             }
         });
@@ -69,7 +74,7 @@ public class Zip4JProjectSpaceReader extends Zip4JProjectSpaceIO implements Proj
     @Override
     public void table(String relativePath, boolean skipHeader, int fromLineInkl, int toLineExkl, Consumer<String[]> f) throws IOException {
         withReadLock(() -> {
-            try (final BufferedReader br = new BufferedReader(new InputStreamReader(zipLocation.getInputStream(resolveHeader(relativePath))))) {
+            try (final BufferedReader br = new BufferedReader(new InputStreamReader(openEntry(relativePath)))) {
                 FileUtils.readTable(br, skipHeader, fromLineInkl, toLineExkl, f);
             }
         });
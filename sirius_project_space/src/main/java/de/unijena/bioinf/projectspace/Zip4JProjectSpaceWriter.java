@@ -38,42 +38,48 @@ public class Zip4JProjectSpaceWriter extends Zip4JProjectSpaceIO implements Proj
         super(location, rwLock, propertyGetter);
     }
 
+    protected Zip4JProjectSpaceWriter(ZipFile location, ReadWriteLock rwLock, @Nullable ZipWriteBehindBuffer buffer, Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> propertyGetter) {
+        super(location, rwLock, buffer, propertyGetter);
+    }
+
     @Override
     public void textFile(String relativePath, IOFunctions.IOConsumer<BufferedWriter> func) throws IOException {
-        withWriteLock(() -> addToZip(relativePath, out -> {
+        addToZip(relativePath, out -> {
             try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out))) {
                 func.accept(bw);
             }
-        }));
+        });
     }
 
     @Override
     public void binaryFile(String relativePath, IOFunctions.IOConsumer<OutputStream> func) throws IOException {
-        withWriteLock(() -> addToZip(relativePath, func::accept));
+        addToZip(relativePath, func::accept);
     }
 
     @Override
     public void keyValues(String relativePath, Map<?, ?> map) throws IOException {
-        withWriteLock(() -> addToZip(relativePath, out -> {
+        addToZip(relativePath, out -> {
             try (BufferedWriter w = new BufferedWriter(new OutputStreamWriter(out))) {
                 FileUtils.writeKeyValues(w, map);
             }
-        }));
+        });
     }
 
     @Override
     public void table(String relativePath, @Nullable String[] header, Iterable<String[]> rows) throws IOException {
-        withWriteLock(() -> {
-            addToZip(relativePath, out -> {
-                try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out))) {
-                    FileUtils.writeTable(bw, header, rows);
-                }
-            });
+        addToZip(relativePath, out -> {
+            try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out))) {
+                FileUtils.writeTable(bw, header, rows);
+            }
         });
     }
 
     @Override
     public void delete(String relativePath) throws IOException {
+        if (buffer != null) {
+            buffer.delete(resolve(relativePath).toString());
+            return;
+        }
         withWriteLock(() -> {
             FileHeader header = resolveHeader(relativePath);
             if (header != null)
@@ -88,6 +94,8 @@ public class Zip4JProjectSpaceWriter extends Zip4JProjectSpaceIO implements Proj
 
     @Override
     public void move(String directoryName, String newDirName) throws IOException {
+        if (buffer != null)
+            buffer.flush();
         withWriteLock(() -> zipLocation.renameFile(resolveHeader(directoryName), resolve(newDirName).toString()));
     }
 
@@ -97,9 +105,15 @@ public class Zip4JProjectSpaceWriter extends Zip4JProjectSpaceIO implements Proj
             doWrite.accept(tmpOut);
             data = tmpOut.toByteArray();
         }
-        ZipParameters paras = new ZipParameters();
-        paras.setFileNameInZip(resolve(relativePath).toString());
-        paras.setOverrideExistingFilesInZip(true);
-        zipLocation.addStream(new ByteArrayInputStream(data), paras);
+        if (buffer != null) {
+            buffer.put(resolve(relativePath).toString(), data);
+            return;
+        }
+        withWriteLock(() -> {
+            ZipParameters paras = new ZipParameters();
+            paras.setFileNameInZip(resolve(relativePath).toString());
+            paras.setOverrideExistingFilesInZip(true);
+            zipLocation.addStream(new ByteArrayInputStream(data), paras);
+        });
     }
 }
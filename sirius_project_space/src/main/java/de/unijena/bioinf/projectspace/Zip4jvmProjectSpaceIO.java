@@ -26,8 +26,12 @@ import ru.olegcherednik.zip4jvm.UnzipIt;
 import ru.olegcherednik.zip4jvm.ZipFile;
 import ru.olegcherednik.zip4jvm.ZipMisc;
 
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
@@ -43,12 +47,19 @@ import java.util.stream.Stream;
 public class Zip4jvmProjectSpaceIO implements ProjectIO {
     private final ReadWriteLock rwLock;
     protected final Path root;
+    @Nullable
+    protected final ZipWriteBehindBuffer buffer;
     protected Path dir = null;
     protected final Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> propertyGetter;
 
     protected Zip4jvmProjectSpaceIO(Path root, ReadWriteLock rwLock, Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> propertyGetter) {
+        this(root, rwLock, null, propertyGetter);
+    }
+
+    protected Zip4jvmProjectSpaceIO(Path root, ReadWriteLock rwLock, @Nullable ZipWriteBehindBuffer buffer, Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> propertyGetter) {
         this.root = root;
         this.rwLock = rwLock;
+        this.buffer = buffer;
         this.propertyGetter = propertyGetter;
     }
 
@@ -59,8 +70,18 @@ public class Zip4jvmProjectSpaceIO implements ProjectIO {
 
             Stream<String> s = zipFile.getEntries()
                     .filter(h -> (includeDirs && !h.isRegularFile()) || (includeFiles && h.isRegularFile()))
-                    .map(ZipFile.Entry::getFileName)
-                    .filter(n -> dir == null || n.startsWith(dir.toString())); // filter for correct sub dir
+                    .map(ZipFile.Entry::getFileName);
+
+            if (buffer != null) { // merge pending changes
+                s = s.filter(n -> !buffer.isDeleted(n));
+                if (includeFiles)
+                    s = Stream.concat(s, buffer.pendingEntries().stream());
+                if (includeDirs) // directories that are only created by pending writes
+                    s = Stream.concat(s, buffer.pendingDirectories().stream());
+                s = s.distinct();
+            }
+
+            s = s.filter(n -> dir == null || n.startsWith(dir.toString())); // filter for correct sub dir
 
             if (!recursive)
                 s = s.filter(n -> { //filter for flat list.
@@ -84,6 +105,11 @@ public class Zip4jvmProjectSpaceIO implements ProjectIO {
     @Override
     public boolean exists(String relativePath) throws IOException {
         return withReadLock(() -> {
+            if (buffer != null) {
+                final byte[] data = buffer.pending(resolve(relativePath).toString());
+                if (data != null)
+                    return data != ZipWriteBehindBuffer.DELETED;
+            }
             try {
                 return UnzipIt.zip(root).open().extract(resolve(relativePath).toString()) != null;
             } catch (FileNotFoundException e) {
@@ -120,6 +146,21 @@ public class Zip4jvmProjectSpaceIO implements ProjectIO {
     }
 
 
+    /**
+     * Opens the given entry, pending changes of the write-behind buffer take precedence over the zip file.
+     */
+    protected InputStream openEntry(String relativePath) throws IOException {
+        final String name = resolve(relativePath).toString();
+        if (buffer != null) {
+            final byte[] data = buffer.pending(name);
+            if (data == ZipWriteBehindBuffer.DELETED)
+                throw new FileNotFoundException("Entry '" + name + "' does not exist.");
+            if (data != null)
+                return new ByteArrayInputStream(data);
+        }
+        return UnzipIt.zip(root).stream(name);
+    }
+
     @Override
     public URI asURI(String path) {
         return URI.create("jar:file:" + URLEncoder.encode(root.toAbsolutePath().toString(), StandardCharsets.UTF_8) + "!/" + URLEncoder.encode(resolve(path).toString(), StandardCharsets.UTF_8));
@@ -21,35 +21,66 @@
 package de.unijena.bioinf.projectspace;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.olegcherednik.zip4jvm.ZipFile;
+import ru.olegcherednik.zip4jvm.ZipIt;
+import ru.olegcherednik.zip4jvm.ZipMisc;
+import ru.olegcherednik.zip4jvm.exception.EntryNotFoundException;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
 
 public class Zip4jvmProjectSpaceIOProvider implements ProjectIOProvider<Zip4jvmProjectSpaceIO, Zip4jvmProjectSpaceReader, Zip4jvmProjectSpaceWriter> {
-    protected final ReadWriteLock rwLock =  new ReentrantReadWriteLock();
+    protected final ReentrantReadWriteLock rwLock =  new ReentrantReadWriteLock();
     protected final Path zipLocation;
+    @Nullable
+    protected final ZipWriteBehindBuffer buffer;
 
     public Zip4jvmProjectSpaceIOProvider(@NotNull Path location) {
         this.zipLocation = location;
+        this.buffer = ZipWriteBehindBuffer.fromProperties(location, rwLock, this::writeBatch);
+    }
+
+    private void writeBatch(Collection<String> deletions, Map<String, byte[]> writes) throws IOException {
+        for (String name : deletions) {
+            try {
+                ZipMisc.zip(zipLocation).removeEntryByName(name);
+            } catch (EntryNotFoundException ignored) {
+                // nothing to delete
+            }
+        }
+
+        // all entries of a batch are added within a single zip session
+        try (ZipFile.Writer zipFile = ZipIt.zip(zipLocation).open()) {
+            for (Map.Entry<String, byte[]> entry : writes.entrySet()) {
+                final byte[] data = entry.getValue();
+                zipFile.add(ZipFile.Entry.builder()
+                        .inputStreamSupplier(() -> new ByteArrayInputStream(data))
+                        .fileName(entry.getKey())
+                        .uncompressedSize(data.length).build());
+            }
+        }
     }
 
     @Override
     public Zip4jvmProjectSpaceIO newIO(Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> propertyGetter) {
-        return new Zip4jvmProjectSpaceIO(zipLocation, rwLock, propertyGetter);
+        return new Zip4jvmProjectSpaceIO(zipLocation, rwLock, buffer, propertyGetter);
     }
 
     @Override
     public Zip4jvmProjectSpaceReader newReader(Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> propertyGetter) {
-        return new Zip4jvmProjectSpaceReader(zipLocation, rwLock, propertyGetter);
+        return new Zip4jvmProjectSpaceReader(zipLocation, rwLock, buffer, propertyGetter);
     }
 
     @Override
     public Zip4jvmProjectSpaceWriter newWriter(Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> propertyGetter) {
-        return new Zip4jvmProjectSpaceWriter(zipLocation, rwLock, propertyGetter);
+        return new Zip4jvmProjectSpaceWriter(zipLocation, rwLock, buffer, propertyGetter);
     }
 
     @Override
@@ -58,12 +89,14 @@ public class Zip4jvmProjectSpaceIOProvider implements ProjectIOProvider<Zip4jvmP
     }
 
     @Override
-    public void flush() {
-
+    public void flush() throws IOException {
+        if (buffer != null)
+            buffer.flush();
     }
 
     @Override
     public void close() throws IOException {
-        //nothing to do
+        if (buffer != null)
+            buffer.close();
     }
 }
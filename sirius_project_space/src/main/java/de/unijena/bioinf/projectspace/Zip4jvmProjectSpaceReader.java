@@ -22,7 +22,7 @@ package de.unijena.bioinf.projectspace;
 
 import de.unijena.bioinf.ChemistryBase.utils.FileUtils;
 import de.unijena.bioinf.ChemistryBase.utils.IOFunctions;
-import ru.olegcherednik.zip4jvm.UnzipIt;
+import org.jetbrains.annotations.Nullable;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -40,10 +40,14 @@ public class Zip4jvmProjectSpaceReader extends Zip4jvmProjectSpaceIO implements
         super(location, rwLock, propertyGetter);
     }
 
+    protected Zip4jvmProjectSpaceReader(Path location, ReadWriteLock rwLock, @Nullable ZipWriteBehindBuffer buffer, Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> propertyGetter) {
+        super(location, rwLock, buffer, propertyGetter);
+    }
+
     @Override
     public <A> A textFile(String relativePath, IOFunctions.IOFunction<BufferedReader, A> func) throws IOException {
         return withReadLock(() -> {
-            try (final BufferedReader br = new BufferedReader(new InputStreamReader(UnzipIt.zip(root).stream(resolve(relativePath).toString())))) {
+            try (final BufferedReader br = new BufferedReader(new InputStreamReader(openEntry(relativePath)))) {
                 return func.apply(br);
             }
         });
@@ -52,7 +56,7 @@ public class Zip4jvmProjectSpaceReader extends Zip4jvmProjectSpaceIO implements
     @Override
     public <A> A binaryFile(String relativePath, IOFunctions.IOFunction<InputStream, A> func) throws IOException {
         return withReadLock(() -> {
-            try (final InputStream stream = UnzipIt.zip(root).stream(resolve(relativePath).toString())) {
+            try (final InputStream stream = openEntry(relativePath)) {
                 return func.apply(stream);
             }
         });
@@ -61,7 +65,7 @@ public class Zip4jvmProjectSpaceReader extends Zip4jvmProjectSpaceIO implements
     @Override
     public Map<String, String> keyValues(String relativePath) throws IOException {
         return withReadLock(() -> {
-            try (final BufferedReader br = new BufferedReader(new InputStreamReader(UnzipIt.zip(root).stream(resolve(relativePath).toString())))) {
+            try (final BufferedReader br = new BufferedReader(new InputStreamReader(openEntry(relativePath)))) {
                 return FileUtils.readKeyValues(br);
             }
         });
@@ -70,7 +74,7 @@ public class Zip4jvmProjectSpaceReader extends Zip4jvmProjectSpaceIO implements
     @Override
     public void table(String relativePath, boolean skipHeader, int fromLineInkl, int toLineExkl, Consumer<String[]> f) throws IOException {
         withReadLock(() -> {
-            try (final BufferedReader br = new BufferedReader(new InputStreamReader(UnzipIt.zip(root).stream(resolve(relativePath).toString())))) {
+            try (final BufferedReader br = new BufferedReader(new InputStreamReader(openEntry(relativePath)))) {
                 FileUtils.readTable(br, skipHeader, fromLineInkl, toLineExkl, f);
             }
         });
@@ -42,40 +42,48 @@ public class Zip4jvmProjectSpaceWriter extends Zip4jvmProjectSpaceIO implements
         super(location, rwLock, propertyGetter);
     }
 
+    protected Zip4jvmProjectSpaceWriter(Path location, ReadWriteLock rwLock, @Nullable ZipWriteBehindBuffer buffer, Function<Class<ProjectSpaceProperty>, Optional<ProjectSpaceProperty>> propertyGetter) {
+        super(location, rwLock, buffer, propertyGetter);
+    }
+
     @Override
     public void textFile(String relativePath, IOFunctions.IOConsumer<BufferedWriter> func) throws IOException {
-        withWriteLock(() -> addToZip(relativePath, out -> {
+        addToZip(relativePath, out -> {
             try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out))) {
                 func.accept(bw);
             }
-        }));
+        });
     }
 
     @Override
     public void binaryFile(String relativePath, IOFunctions.IOConsumer<OutputStream> func) throws IOException {
-        withWriteLock(() -> addToZip(relativePath, func::accept));
+        addToZip(relativePath, func::accept);
     }
 
     @Override
     public void keyValues(String relativePath, Map<?, ?> map) throws IOException {
-        withWriteLock(() -> addToZip(relativePath, out -> {
+        addToZip(relativePath, out -> {
             try (BufferedWriter w = new BufferedWriter(new OutputStreamWriter(out))) {
                 FileUtils.writeKeyValues(w, map);
             }
-        }));
+        });
     }
 
     @Override
     public void table(String relativePath, @Nullable String[] header, Iterable<String[]> rows) throws IOException {
-        withWriteLock(() -> Zip4jvmProjectSpaceWriter.this.addToZip(relativePath, out -> {
+        addToZip(relativePath, out -> {
             try (BufferedWriter bw = new BufferedWriter(new OutputStreamWriter(out))) {
                 FileUtils.writeTable(bw, header, rows);
             }
-        }));
+        });
     }
 
     @Override
     public void delete(String relativePath) throws IOException {
+        if (buffer != null) {
+            buffer.delete(resolve(relativePath).toString());
+            return;
+        }
         withWriteLock(() -> {
             try {
                 ZipMisc.zip(root).removeEntryByName(resolve(relativePath).toString());
@@ -93,6 +101,8 @@ public class Zip4jvmProjectSpaceWriter extends Zip4jvmProjectSpaceIO implements
 
     @Override
     public void move(String directoryName, String newDirName) throws IOException {
+        if (buffer != null)
+            buffer.flush();
         withWriteLock(() -> {
 
             byte[] bytes;
@@ -120,11 +130,17 @@ public class Zip4jvmProjectSpaceWriter extends Zip4jvmProjectSpaceIO implements
             data = tmpOut.toByteArray();
         }
 
-        try (ZipFile.Writer zipFile = ZipIt.zip(root).open()){
-            zipFile.add(ZipFile.Entry.builder()
-                    .inputStreamSupplier(() -> new ByteArrayInputStream(data))
-                    .fileName(resolve(relativePath).toString())
-                    .uncompressedSize(data.length).build());
+        if (buffer != null) {
+            buffer.put(resolve(relativePath).toString(), data);
+            return;
         }
+        withWriteLock(() -> {
+            try (ZipFile.Writer zipFile = ZipIt.zip(root).open()) {
+                zipFile.add(ZipFile.Entry.builder()
+                        .inputStreamSupplier(() -> new ByteArrayInputStream(data))
+                        .fileName(resolve(relativePath).toString())
+                        .uncompressedSize(data.length).build());
+            }
+        });
     }
 }
\ No newline at end of file
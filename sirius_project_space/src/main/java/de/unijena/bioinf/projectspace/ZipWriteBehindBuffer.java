@@ -0,0 +1,277 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+
+package de.unijena.bioinf.projectspace;
+
+import de.unijena.bioinf.ms.properties.PropertyManager;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * Write-behind layer for zip based project-spaces. Every single entry update of a zip file is expensive because
+ * the archive (or at least its central directory) has to be rewritten. Writers therefore only put the serialized
+ * entries into this buffer, where updates of the same entry are coalesced. A dedicated I/O thread applies all pending
+ * changes in batches while holding the write lock of the zip file.
+ * <p>
+ * Readers look up pending entries first, so a reader always sees the latest write (read-your-writes).
+ * The memory of pending entries is bounded: writers block if the buffer is full until the I/O thread caught up,
+ * unless they hold a lock of the zip file that the I/O thread needs.
+ * All pending changes are durable after {@link #flush()} or {@link #close()} returned.
+ */
+@ThreadSafe
+class ZipWriteBehindBuffer implements Closeable {
+    /**
+     * Maximum size of all pending entries in MB, values &lt;= 0 disable write-behind.
+     */
+    static final String MAX_PENDING_MB_PROPERTY = "de.unijena.bioinf.sirius.zip.writeBehindMb";
+
+    /**
+     * Marker for pending deletions
+     */
+    static final byte[] DELETED = new byte[0];
+
+    @FunctionalInterface
+    interface BatchWriter {
+        /**
+         * Applies a batch to the zip file. Deletions have to be applied before writes. Deleting a directory deletes
+         * all of its entries. Deleting entries that do not exist must not fail.
+         * Called by the I/O thread while holding the write lock of the zip file.
+         */
+        void write(@NotNull Collection<String> deletions, @NotNull Map<String, byte[]> writes) throws IOException;
+    }
+
+    @Nullable
+    static ZipWriteBehindBuffer fromProperties(@NotNull Path location, @NotNull ReentrantReadWriteLock rwLock, @NotNull BatchWriter batchWriter) {
+        final long maxMb = PropertyManager.getLong(MAX_PENDING_MB_PROPERTY, 64L);
+        return maxMb <= 0 ? null : new ZipWriteBehindBuffer(location, maxMb * 1024 * 1024, rwLock, batchWriter);
+    }
+
+    private final ReentrantReadWriteLock rwLock;
+    private final BatchWriter batchWriter;
+    private final long maxPendingBytes;
+    private final Thread ioThread;
+
+    // guarded by this
+    private final LinkedHashMap<String, byte[]> pending = new LinkedHashMap<>();
+    private long pendingBytes = 0;
+    private boolean writing = false;
+    private boolean closed = false;
+    private IOException failure = null;
+
+    ZipWriteBehindBuffer(@NotNull Path location, long maxPendingBytes, @NotNull ReentrantReadWriteLock rwLock, @NotNull BatchWriter batchWriter) {
+        this.maxPendingBytes = maxPendingBytes;
+        this.rwLock = rwLock;
+        this.batchWriter = batchWriter;
+        this.ioThread = new Thread(this::writeLoop, "zip-write-behind-" + location.getFileName());
+        this.ioThread.setDaemon(true);
+        this.ioThread.start();
+    }
+
+    public void put(@NotNull String entryName, @NotNull byte[] data) throws IOException {
+        enqueue(entryName, data);
+    }
+
+    public void delete(@NotNull String entryName) throws IOException {
+        enqueue(entryName, DELETED);
+    }
+
+    private synchronized void enqueue(String entryName, byte[] data) throws IOException {
+        checkState();
+        // a thread that holds the read or write lock would block the I/O thread, so we exceed the limit instead of waiting
+        if (rwLock.getReadHoldCount() == 0 && !rwLock.isWriteLockedByCurrentThread()) {
+            try {
+                while (pendingBytes + data.length > maxPendingBytes && !pending.isEmpty()) {
+                    wait();
+                    checkState();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for zip writes.");
+            }
+        }
+
+        if (data == DELETED) { // a deletion of a directory supersedes all pending writes of its entries
+            final String prefix = entryName.endsWith("/") ? entryName : entryName + "/";
+            final Iterator<Map.Entry<String, byte[]>> it = pending.entrySet().iterator();
+            while (it.hasNext()) {
+                final Map.Entry<String, byte[]> e = it.next();
+                if (e.getKey().startsWith(prefix)) {
+                    pendingBytes -= e.getValue().length;
+                    it.remove();
+                }
+            }
+        }
+
+        final byte[] old = pending.remove(entryName); // remove to keep insertion order of the latest write
+        if (old != null)
+            pendingBytes -= old.length;
+        pending.put(entryName, data);
+        pendingBytes += data.length;
+        notifyAll();
+    }
+
+    /**
+     * @return the pending content of the given entry, {@link #DELETED} if the entry or one of its parent
+     * directories is deleted, or null if there is no pending change and the content has to be read from the zip.
+     */
+    @Nullable
+    public synchronized byte[] pending(@NotNull String entryName) {
+        final byte[] data = pending.get(entryName);
+        if (data != null)
+            return data;
+        return isDeleted(entryName) ? DELETED : null;
+    }
+
+    /**
+     * @return true if one of the parent directories of the given entry has a pending deletion
+     */
+    public synchronized boolean isDeleted(@NotNull String entryName) {
+        if (pending.isEmpty())
+            return false;
+        for (Path p = Path.of(entryName); p != null; p = p.getParent())
+            if (pending.get(p.toString()) == DELETED)
+                return true;
+        return false;
+    }
+
+    /**
+     * @return names of all entries that have a pending write
+     */
+    public synchronized List<String> pendingEntries() {
+        return pending.entrySet().stream().filter(e -> e.getValue() != DELETED).map(Map.Entry::getKey).collect(Collectors.toList());
+    }
+
+    /**
+     * @return names of all directories that contain an entry with a pending write, with a trailing slash like the
+     * directory entries of a zip file. Directories are listed before their subdirectories.
+     */
+    public synchronized List<String> pendingDirectories() {
+        final LinkedHashSet<String> dirs = new LinkedHashSet<>();
+        for (Map.Entry<String, byte[]> e : pending.entrySet()) {
+            if (e.getValue() == DELETED)
+                continue;
+            final ArrayDeque<String> parents = new ArrayDeque<>();
+            for (Path p = Path.of(e.getKey()).getParent(); p != null; p = p.getParent())
+                parents.push(p + "/");
+            dirs.addAll(parents);
+        }
+        return new ArrayList<>(dirs);
+    }
+
+    /**
+     * Blocks until all pending changes are written to the zip file.
+     */
+    public synchronized void flush() throws IOException {
+        try {
+            while ((!pending.isEmpty() || writing) && failure == null && ioThread.isAlive())
+                wait();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while flushing zip writes.");
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            synchronized (this) {
+                closed = true;
+                notifyAll();
+            }
+        }
+    }
+
+    private void checkState() throws IOException {
+        if (failure != null)
+            throw new IOException("Writing to zip file failed previously.", failure);
+        if (closed)
+            throw new IOException("Zip write-behind buffer is already closed.");
+    }
+
+    private void writeLoop() {
+        while (true) {
+            final Map<String, byte[]> batch;
+            synchronized (this) {
+                try {
+                    while (pending.isEmpty() && !closed)
+                        wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (pending.isEmpty())
+                    return; // closed
+                batch = new LinkedHashMap<>(pending);
+                writing = true;
+            }
+
+            final List<String> deletions = new ArrayList<>();
+            final Map<String, byte[]> writes = new LinkedHashMap<>();
+            batch.forEach((k, v) -> {
+                if (v == DELETED) deletions.add(k);
+                else writes.put(k, v);
+            });
+
+            IOException error = null;
+            rwLock.writeLock().lock();
+            try {
+                batchWriter.write(deletions, writes);
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new IOException(e);
+            } finally {
+                rwLock.writeLock().unlock();
+            }
+
+            synchronized (this) {
+                writing = false;
+                if (error != null) {
+                    LoggerFactory.getLogger(getClass()).error("Error when writing batch of " + batch.size() + " entries to zip file.", error);
+                    failure = error;
+                    notifyAll();
+                    return;
+                }
+                // only remove entries that were not overwritten in the meantime
+                batch.forEach((k, v) -> {
+                    if (pending.get(k) == v) {
+                        pending.remove(k);
+                        pendingBytes -= v.length;
+                    }
+                });
+                notifyAll();
+            }
+        }
+    }
+}
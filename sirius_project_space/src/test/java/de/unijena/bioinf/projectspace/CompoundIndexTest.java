@@ -0,0 +1,127 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+public class CompoundIndexTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Path location;
+    private Path indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        location = tmp.newFolder("project").toPath();
+        indexFile = location.resolve(PSLocations.COMPOUND_INDEX);
+        final SiriusProjectSpace space = open();
+        for (int i = 0; i < 3; ++i)
+            Assert.assertTrue(space.newUniqueCompoundId("compound" + i, idx -> idx + "_compound").isPresent());
+        space.close();
+        Assert.assertTrue(Files.exists(indexFile));
+    }
+
+    @Test
+    public void testIndexMatchesCompoundInfos() throws IOException {
+        final Map<String, Map<String, String>> index = readIndex();
+        Assert.assertEquals(Set.of("1_compound", "2_compound", "3_compound"), index.keySet());
+        for (Map.Entry<String, Map<String, String>> e : index.entrySet())
+            Assert.assertEquals(readCompoundInfo(e.getKey()), CompoundContainerId.fromKeyValuePairs(e.getKey(), e.getValue()).asKeyValuePairs());
+    }
+
+    @Test
+    public void testStaleIndexContent() throws IOException {
+        // compound info changed without updating the index, e.g. by an older version
+        Files.writeString(location.resolve("2_compound").resolve(SiriusLocations.COMPOUND_INFO), "index\t2\nname\trenamed\n");
+
+        final SiriusProjectSpace space = open();
+        Assert.assertEquals("renamed", space.findCompound("2_compound").orElseThrow().getCompoundName());
+        Assert.assertEquals("compound0", space.findCompound("1_compound").orElseThrow().getCompoundName());
+        Assert.assertEquals("renamed", readIndex().get("2_compound").get("name"));
+        space.close();
+    }
+
+    @Test
+    public void testStaleIndexDirectories() throws IOException {
+        Files.delete(location.resolve("3_compound").resolve(SiriusLocations.COMPOUND_INFO));
+        Files.delete(location.resolve("3_compound"));
+
+        final SiriusProjectSpace space = open();
+        Assert.assertEquals(2, space.size());
+        Assert.assertFalse(space.containsCompound("3_compound"));
+        Assert.assertEquals(Set.of("1_compound", "2_compound"), readIndex().keySet());
+
+        // the index rewritten on open has to be invalidated by the next change
+        final CompoundContainerId cid = space.findCompound("1_compound").orElseThrow();
+        cid.setConfidenceScore(0.25);
+        space.updateCompoundContainerID(cid);
+        Assert.assertFalse(Files.exists(indexFile));
+        space.close();
+        Assert.assertEquals("0.25", readIndex().get("1_compound").get("confidenceScore"));
+    }
+
+    @Test
+    public void testCrashBeforeFlush() throws IOException {
+        final SiriusProjectSpace crashed = open();
+        Assert.assertTrue(Files.exists(indexFile));
+        final CompoundContainerId cid = crashed.findCompound("2_compound").orElseThrow();
+        cid.setConfidenceScore(0.5);
+        crashed.updateCompoundContainerID(cid);
+        Assert.assertTrue(crashed.newUniqueCompoundId("added", idx -> idx + "_compound").isPresent());
+        // the project is neither flushed nor closed
+        Assert.assertFalse(Files.exists(indexFile));
+
+        final SiriusProjectSpace space = open();
+        Assert.assertEquals(4, space.size());
+        Assert.assertEquals(0.5, space.findCompound("2_compound").orElseThrow().getConfidenceScore().orElseThrow(), 0d);
+        Assert.assertEquals("added", space.findCompound("4_compound").orElseThrow().getCompoundName());
+        Assert.assertTrue(Files.exists(indexFile));
+        space.close();
+    }
+
+    private SiriusProjectSpace open() throws IOException {
+        final SiriusProjectSpace space = new SiriusProjectSpace(new ProjectSpaceConfiguration(), new PathProjectSpaceIOProvider(location, null));
+        space.open();
+        return space;
+    }
+
+    private Map<String, Map<String, String>> readIndex() throws IOException {
+        return CompoundIndex.read(new PathProjectSpaceIOProvider(location, null).newReader(k -> Optional.empty()));
+    }
+
+    private Map<String, String> readCompoundInfo(String dirName) throws IOException {
+        return new PathProjectSpaceIOProvider(location, null).newReader(k -> Optional.empty())
+                .keyValues(Path.of(dirName).resolve(SiriusLocations.COMPOUND_INFO).toString());
+    }
+}
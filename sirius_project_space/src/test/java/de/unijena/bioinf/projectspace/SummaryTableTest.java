@@ -0,0 +1,221 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace;
+
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.FormulaScore;
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.SScored;
+import de.unijena.bioinf.ChemistryBase.utils.IOFunctions;
+import de.unijena.bioinf.ms.annotations.DataAnnotation;
+import org.jetbrains.annotations.NotNull;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+public class SummaryTableTest {
+
+    private static final Comparator<String[]> BY_FIRST_COLUMN = Comparator.comparing(row -> row[0]);
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testParallelShardsAreMergedInOrder() throws Exception {
+        final Path runs = tmp.newFolder().toPath();
+        final SummaryTable table = new SummaryTable("summary.tsv", new String[]{"key", "thread"}, BY_FIRST_COLUMN, 16, runs);
+
+        final List<String> expected = Collections.synchronizedList(new ArrayList<>());
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        final Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; ++t) {
+            final int thread = t;
+            threads[t] = new Thread(() -> {
+                final Random r = new Random(thread);
+                try {
+                    for (int i = 0; i < 250; ++i) {
+                        final String key = String.format("%08d", r.nextInt(100_000_000));
+                        expected.add(key);
+                        table.add(new String[]{key, String.valueOf(thread)});
+                    }
+                } catch (Throwable e) {
+                    errors.add(e);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads) t.join();
+        Assert.assertTrue(String.valueOf(errors), errors.isEmpty());
+        // every thread has spilled its full shards
+        Assert.assertTrue(countFiles(runs) >= threads.length * (250 / 16));
+
+        final TableWriter writer = new TableWriter();
+        table.write(writer);
+
+        Assert.assertArrayEquals(new String[]{"key", "thread"}, writer.headers.get("summary.tsv"));
+        final List<String[]> rows = writer.tables.get("summary.tsv");
+        final List<String> keys = new ArrayList<>();
+        for (String[] row : rows) keys.add(row[0]);
+        Collections.sort(expected);
+        Assert.assertEquals(expected, keys);
+        Assert.assertEquals(0, countFiles(runs));
+    }
+
+    @Test
+    public void testSpilledRowsKeepNullAndUnicodeValues() throws IOException {
+        final SummaryTable table = new SummaryTable("summary.tsv", null, BY_FIRST_COLUMN, 1, tmp.newFolder().toPath());
+        table.add(new String[]{"b", null, "äβ☃"});
+        table.add(new String[]{"a", "", "x"});
+
+        final TableWriter writer = new TableWriter();
+        table.write(writer);
+
+        final List<String[]> rows = writer.tables.get("summary.tsv");
+        Assert.assertEquals(2, rows.size());
+        Assert.assertArrayEquals(new String[]{"a", "", "x"}, rows.get(0));
+        Assert.assertArrayEquals(new String[]{"b", null, "äβ☃"}, rows.get(1));
+        Assert.assertNull(writer.headers.get("summary.tsv"));
+    }
+
+    @Test
+    public void testCandidateSummarizerWritesGlobalTables() throws IOException {
+        final Path runs = tmp.newFolder().toPath();
+        final CandidateSummarizer summarizer = new CandidateSummarizer(true, false, true) {
+            final SummaryTable topHits = registerGlobalTable(new SummaryTable("top_hits.tsv", new String[]{"id"}, BY_FIRST_COLUMN, 2, runs));
+            final SummaryTable all = registerGlobalTable(new SummaryTable("all.tsv", new String[]{"id"}, BY_FIRST_COLUMN, 2, runs));
+
+            {
+                for (String id : new String[]{"c", "a", "d", "b", "e"}) {
+                    topHits.add(new String[]{id});
+                    all.add(new String[]{id});
+                    all.add(new String[]{id + id});
+                }
+            }
+
+            @Override
+            public List<Class<? extends DataAnnotation>> requiredFormulaResultAnnotations() {
+                return List.of();
+            }
+
+            @Override
+            public void addWriteCompoundSummary(ProjectWriter writer, @NotNull CompoundContainer exp, List<? extends SScored<FormulaResult, ? extends FormulaScore>> results) {
+            }
+        };
+
+        final TableWriter writer = new TableWriter();
+        summarizer.writeProjectSpaceSummary(writer);
+
+        Assert.assertEquals(List.of("a", "b", "c", "d", "e"), firstColumn(writer.tables.get("top_hits.tsv")));
+        Assert.assertEquals(List.of("a", "aa", "b", "bb", "c", "cc", "d", "dd", "e", "ee"), firstColumn(writer.tables.get("all.tsv")));
+        Assert.assertEquals(0, countFiles(runs));
+    }
+
+    private static List<String> firstColumn(List<String[]> rows) {
+        final List<String> column = new ArrayList<>();
+        for (String[] row : rows) column.add(row[0]);
+        return column;
+    }
+
+    private static long countFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.count();
+        }
+    }
+
+    /**
+     * Only supports tables, which are copied into memory when they are written.
+     */
+    private static class TableWriter implements ProjectWriter {
+        final Map<String, List<String[]>> tables = new HashMap<>();
+        final Map<String, String[]> headers = new HashMap<>();
+
+        @Override
+        public void table(String relativePath, String[] header, Iterable<String[]> rows) {
+            final List<String[]> copy = new ArrayList<>();
+            for (String[] row : rows) copy.add(row.clone());
+            tables.put(relativePath, copy);
+            headers.put(relativePath, header);
+        }
+
+        @Override
+        public void textFile(String relativePath, IOFunctions.IOConsumer<BufferedWriter> func) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void binaryFile(String relativePath, IOFunctions.IOConsumer<OutputStream> func) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <A extends ProjectSpaceProperty> Optional<A> getProjectSpaceProperty(Class<A> klass) {
+            return Optional.empty();
+        }
+
+        @Override
+        public void keyValues(String relativePath, Map<?, ?> map) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void delete(String relativePath) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void deleteIfExists(String relativePath) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void move(String directoryName, String newDirName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public List<String> list(String globPattern, boolean recursive, boolean includeFiles, boolean includeDirs) {
+            return List.of();
+        }
+
+        @Override
+        public boolean exists(String relativePath) {
+            return false;
+        }
+
+        @Override
+        public <T> T inDirectory(String relativePath, IOFunctions.IOCallable<T> ioAction) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public URI asURI(String path) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.projectspace;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class ZipWriteBehindBufferTest {
+
+    /**
+     * Applies batches to a map instead of a zip file. Optionally blocks the first batch until it is released,
+     * which keeps all later changes pending.
+     */
+    private static class RecordingZip implements ZipWriteBehindBuffer.BatchWriter {
+        final Map<String, byte[]> entries = new HashMap<>();
+        final List<List<String>> deletionBatches = new ArrayList<>();
+        final List<Map<String, byte[]>> writeBatches = new ArrayList<>();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release;
+
+        RecordingZip(boolean blockFirstBatch) {
+            release = new CountDownLatch(blockFirstBatch ? 1 : 0);
+        }
+
+        @Override
+        public void write(Collection<String> deletions, Map<String, byte[]> writes) throws IOException {
+            entered.countDown();
+            try {
+                if (!release.await(10, TimeUnit.SECONDS))
+                    throw new IOException("batch was never released");
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            synchronized (this) {
+                deletionBatches.add(new ArrayList<>(deletions));
+                writeBatches.add(new LinkedHashMap<>(writes));
+                for (String deletion : deletions)
+                    entries.keySet().removeIf(k -> k.equals(deletion) || k.startsWith(deletion + "/"));
+                entries.putAll(writes);
+            }
+        }
+
+        synchronized int numberOfWrites(String entry) {
+            return (int) writeBatches.stream().filter(b -> b.containsKey(entry)).count();
+        }
+    }
+
+    private ZipWriteBehindBuffer buffer;
+
+    @After
+    public void tearDown() throws IOException {
+        if (buffer != null) {
+            try {
+                buffer.close();
+            } catch (IOException ignored) {
+                // failure tests
+            }
+        }
+    }
+
+    private ZipWriteBehindBuffer open(RecordingZip zip, long maxPendingBytes) {
+        buffer = new ZipWriteBehindBuffer(Path.of("test.zip"), maxPendingBytes, new ReentrantReadWriteLock(), zip);
+        return buffer;
+    }
+
+    /*
+    puts an entry and waits until the I/O thread is blocked in writing it, so that all further changes stay pending.
+     */
+    private static void blockIOThread(ZipWriteBehindBuffer buffer, RecordingZip zip) throws Exception {
+        buffer.put("first", bytes("1234"));
+        Assert.assertTrue(zip.entered.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testReadYourWrites() throws Exception {
+        final RecordingZip zip = new RecordingZip(true);
+        final ZipWriteBehindBuffer buffer = open(zip, Long.MAX_VALUE);
+        blockIOThread(buffer, zip);
+
+        buffer.put("c1/info", bytes("a"));
+        Assert.assertEquals("a", string(buffer.pending("c1/info")));
+        Assert.assertEquals("1234", string(buffer.pending("first")));
+        Assert.assertNull(buffer.pending("c2/info"));
+
+        buffer.put("c1/info", bytes("b"));
+        Assert.assertEquals("b", string(buffer.pending("c1/info")));
+
+        buffer.delete("c1/info");
+        Assert.assertSame(ZipWriteBehindBuffer.DELETED, buffer.pending("c1/info"));
+        Assert.assertEquals(List.of("first"), buffer.pendingEntries());
+
+        zip.release.countDown();
+        buffer.flush();
+        Assert.assertNull(buffer.pending("c1/info"));
+        Assert.assertFalse(zip.entries.containsKey("c1/info"));
+        Assert.assertEquals("1234", string(zip.entries.get("first")));
+    }
+
+    @Test
+    public void testUpdatesAreCoalesced() throws Exception {
+        final RecordingZip zip = new RecordingZip(true);
+        final ZipWriteBehindBuffer buffer = open(zip, Long.MAX_VALUE);
+        blockIOThread(buffer, zip);
+
+        for (int i = 0; i < 10; ++i)
+            buffer.put("c1/info", bytes("v" + i));
+        Assert.assertEquals(List.of("first", "c1/info"), buffer.pendingEntries());
+
+        zip.release.countDown();
+        buffer.flush();
+        Assert.assertEquals(1, zip.numberOfWrites("c1/info"));
+        Assert.assertEquals("v9", string(zip.entries.get("c1/info")));
+    }
+
+    @Test
+    public void testDirectoryDeletionSupersedesPendingWrites() throws Exception {
+        final RecordingZip zip = new RecordingZip(true);
+        zip.entries.put("c1/existing", bytes("old"));
+        final ZipWriteBehindBuffer buffer = open(zip, Long.MAX_VALUE);
+        blockIOThread(buffer, zip);
+
+        buffer.put("c1/info", bytes("a"));
+        buffer.put("c1/sub/tree", bytes("b"));
+        buffer.put("c10/info", bytes("c"));
+        buffer.delete("c1");
+
+        Assert.assertEquals(List.of("first", "c10/info"), buffer.pendingEntries());
+        Assert.assertTrue(buffer.isDeleted("c1/existing"));
+        Assert.assertSame(ZipWriteBehindBuffer.DELETED, buffer.pending("c1/sub/tree"));
+        Assert.assertNull(buffer.pending("c10/other"));
+
+        // a write after the deletion is kept
+        buffer.put("c1/info", bytes("new"));
+        Assert.assertEquals("new", string(buffer.pending("c1/info")));
+
+        zip.release.countDown();
+        buffer.flush();
+        Assert.assertEquals(List.of("c1"), zip.deletionBatches.get(1));
+        Assert.assertEquals(Set.of("c10/info", "c1/info"), zip.writeBatches.get(1).keySet());
+        Assert.assertEquals(Set.of("first", "c10/info", "c1/info"), zip.entries.keySet());
+        Assert.assertEquals("new", string(zip.entries.get("c1/info")));
+    }
+
+    @Test
+    public void testWritersBlockIfBufferIsFull() throws Exception {
+        final RecordingZip zip = new RecordingZip(true);
+        final ZipWriteBehindBuffer buffer = open(zip, 10);
+        blockIOThread(buffer, zip);
+        buffer.put("second", bytes("1234"));
+
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        final CountDownLatch written = new CountDownLatch(1);
+        final Thread writer = new Thread(() -> {
+            try {
+                buffer.put("third", bytes("1234"));
+                written.countDown();
+            } catch (Throwable e) {
+                error.set(e);
+            }
+        });
+        writer.start();
+
+        // 12 bytes would be pending
+        Assert.assertFalse(written.await(300, TimeUnit.MILLISECONDS));
+        Assert.assertNull(buffer.pending("third"));
+
+        zip.release.countDown();
+        Assert.assertTrue(written.await(10, TimeUnit.SECONDS));
+        writer.join();
+        Assert.assertNull(error.get());
+        buffer.flush();
+        Assert.assertEquals(Set.of("first", "second", "third"), zip.entries.keySet());
+    }
+
+    @Test(timeout = 10000)
+    public void testWriteLockHolderDoesNotBlockIfBufferIsFull() throws Exception {
+        final RecordingZip zip = new RecordingZip(false);
+        final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
+        buffer = new ZipWriteBehindBuffer(Path.of("test.zip"), 10, rwLock, zip);
+
+        rwLock.writeLock().lock();
+        try {
+            // the I/O thread cannot write the first entry before we release the write lock
+            buffer.put("first", bytes("12345678"));
+            buffer.put("second", bytes("12345678"));
+            Assert.assertEquals("12345678", string(buffer.pending("second")));
+        } finally {
+            rwLock.writeLock().unlock();
+        }
+        buffer.flush();
+        Assert.assertEquals(Set.of("first", "second"), zip.entries.keySet());
+    }
+
+    @Test
+    public void testPendingDirectories() throws Exception {
+        final RecordingZip zip = new RecordingZip(true);
+        final ZipWriteBehindBuffer buffer = open(zip, Long.MAX_VALUE);
+        blockIOThread(buffer, zip);
+
+        buffer.put("c1/sub/tree", bytes("a"));
+        buffer.put("c1/info", bytes("b"));
+        buffer.put("c2/info", bytes("c"));
+        Assert.assertEquals(List.of("c1/", "c1/sub/", "c2/"), buffer.pendingDirectories());
+
+        buffer.delete("c2");
+        Assert.assertEquals(List.of("c1/", "c1/sub/"), buffer.pendingDirectories());
+
+        zip.release.countDown();
+        buffer.flush();
+        Assert.assertTrue(buffer.pendingDirectories().isEmpty());
+    }
+
+    @Test
+    public void testFlushAndCloseAreDurable() throws Exception {
+        final RecordingZip zip = new RecordingZip(false);
+        final ZipWriteBehindBuffer buffer = open(zip, 64);
+        for (int i = 0; i < 100; ++i)
+            buffer.put("c" + i + "/info", bytes("value" + i));
+        buffer.flush();
+        Assert.assertTrue(buffer.pendingEntries().isEmpty());
+        for (int i = 0; i < 100; ++i)
+            Assert.assertEquals("value" + i, string(zip.entries.get("c" + i + "/info")));
+
+        buffer.put("last", bytes("x"));
+        buffer.delete("c0");
+        buffer.close();
+        Assert.assertEquals("x", string(zip.entries.get("last")));
+        Assert.assertFalse(zip.entries.containsKey("c0/info"));
+        expectIOException(() -> buffer.put("closed", bytes("y")));
+    }
+
+    @Test
+    public void testFailuresArePropagated() throws Exception {
+        final IOException failure = new IOException("disk full");
+        buffer = new ZipWriteBehindBuffer(Path.of("test.zip"), Long.MAX_VALUE, new ReentrantReadWriteLock(), (deletions, writes) -> {
+            throw failure;
+        });
+        buffer.put("c1/info", bytes("a"));
+
+        Assert.assertSame(failure, expectIOException(buffer::flush));
+        Assert.assertSame(failure, expectIOException(() -> buffer.put("c2/info", bytes("b"))).getCause());
+        expectIOException(buffer::close);
+    }
+
+    private interface IORunnable {
+        void run() throws IOException;
+    }
+
+    private static IOException expectIOException(IORunnable runnable) {
+        try {
+            runnable.run();
+        } catch (IOException e) {
+            return e;
+        }
+        Assert.fail("IOException expected");
+        return null;
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] data) {
+        return data == null ? null : new String(data, StandardCharsets.UTF_8);
+    }
+}
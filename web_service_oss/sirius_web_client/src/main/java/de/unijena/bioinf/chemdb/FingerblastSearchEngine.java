@@ -23,8 +23,7 @@ package de.unijena.bioinf.chemdb;
 import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
 
 import java.io.IOException;
-import java.util.Collection;
-import java.util.List;
+import java.util.*;
 
 public class FingerblastSearchEngine implements SearchStructureByFormula, AnnotateStructures{
 
@@ -50,4 +49,16 @@ public class FingerblastSearchEngine implements SearchStructureByFormula, Annota
             throw new ChemicalDatabaseException("", e);
         }
     }
+
+    @Override
+    public Map<MolecularFormula, List<FingerprintCandidate>> lookupStructuresAndFingerprintsByFormulas(Collection<MolecularFormula> formulas) throws ChemicalDatabaseException {
+        try {
+            final Map<MolecularFormula, List<FingerprintCandidate>> result = new LinkedHashMap<>(formulas.size());
+            for (Map.Entry<MolecularFormula, Set<FingerprintCandidate>> e : underlyingDatabase.loadCompoundsByFormulas(formulas, queryDBs).entrySet())
+                result.put(e.getKey(), new ArrayList<>(e.getValue()));
+            return result;
+        } catch (IOException e) {
+            throw new ChemicalDatabaseException("", e);
+        }
+    }
 }
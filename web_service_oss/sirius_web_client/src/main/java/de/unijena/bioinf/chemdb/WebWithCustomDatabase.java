@@ -175,6 +175,60 @@ public class WebWithCustomDatabase {
         }
     }
 
+    public Map<MolecularFormula, Set<FingerprintCandidate>> loadCompoundsByFormulas(Collection<MolecularFormula> formulas, Collection<SearchableDatabase> dbs) throws IOException {
+        final Map<MolecularFormula, Set<FingerprintCandidate>> result = new LinkedHashMap<>(formulas.size());
+        for (Map.Entry<MolecularFormula, CandidateResult> e : loadCompoundsByFormulas(formulas, dbs, false).entrySet())
+            result.put(e.getKey(), e.getValue().getReqCandidates());
+        return result;
+    }
+
+    /**
+     * Batch version of {@link #loadCompoundsByFormula(MolecularFormula, Collection, boolean)} that uses one batch
+     * lookup per database for all given formulas instead of one lookup per formula and database.
+     */
+    public Map<MolecularFormula, CandidateResult> loadCompoundsByFormulas(Collection<MolecularFormula> formulas, Collection<SearchableDatabase> dbs, boolean includeRestAllDb) throws IOException {
+        if (dbs == null || dbs.isEmpty())
+            throw new IllegalArgumentException("No search DB given!");
+
+        try {
+            final Map<MolecularFormula, CandidateResult> results = new LinkedHashMap<>(formulas.size());
+
+            final long requestFilter = extractFilterBits(dbs).orElse(-1);
+            if (requestFilter >= 0 || includeRestAllDb) {
+                final long searchFilter = includeRestAllDb ? 0 : requestFilter;
+                final Map<MolecularFormula, List<FingerprintCandidate>> restCandidates =
+                        api.applyStructureDB(searchFilter, restCache, restDb -> restDb.lookupStructuresAndFingerprintsByFormulas(formulas));
+                for (MolecularFormula formula : formulas)
+                    results.computeIfAbsent(formula, f -> new CandidateResult(restCandidates.getOrDefault(f, List.of()), searchFilter, requestFilter));
+            } else {
+                logger.warn("No filter for Rest DBs found bits in DB list: '" + dbs.stream().map(SearchableDatabase::name).collect(Collectors.joining(",")) + "'. Returning empty search list from REST DB");
+                for (MolecularFormula formula : formulas)
+                    results.computeIfAbsent(formula, f -> new CandidateResult());
+            }
+
+            // add candidates from requested custom dbs
+            for (CustomDatabase<?> cdb : dbs.stream().filter(SearchableDatabase::isCustomDb).distinct().map(it -> (CustomDatabase<?>) it).collect(Collectors.toList())) {
+                Optional<? extends ChemicalBlobDatabase<?>> optDB = cdb.toChemDB(api.getCDKChemDBFingerprintVersion());
+                if (optDB.isPresent()) {
+                    final Map<MolecularFormula, List<FingerprintCandidate>> customCandidates = optDB.get().lookupStructuresAndFingerprintsByFormulas(results.keySet());
+                    for (Map.Entry<MolecularFormula, CandidateResult> e : results.entrySet())
+                        e.getValue().addRequestedCustom(cdb.name(), customCandidates.getOrDefault(e.getKey(), List.of()));
+                }
+            }
+
+            // add tags from non-requested custom dbs for compounds that are also part of the requested dbs
+            for (ChemicalBlobDatabase<?> custom : getAdditionalCustomDBs(dbs)) {
+                final Map<MolecularFormula, List<FingerprintCandidate>> customCandidates = custom.lookupStructuresAndFingerprintsByFormulas(results.keySet());
+                for (Map.Entry<MolecularFormula, CandidateResult> e : results.entrySet())
+                    e.getValue().addAdditionalCustom(custom.getName(), customCandidates.getOrDefault(e.getKey(), List.of()));
+            }
+
+            return results;
+        } catch (ChemicalDatabaseException e) {
+            throw new IOException("Could not lookup formulas: " + formulas.stream().map(MolecularFormula::toString).collect(Collectors.joining(",")), e);
+        }
+    }
+
     protected List<ChemicalBlobDatabase<?>> getAdditionalCustomDBs(Collection<SearchableDatabase> dbs) throws IOException {
         final Set<String> customToSearch = dbs.stream().filter(SearchableDatabase::isCustomDb).map(SearchableDatabase::name).collect(Collectors.toSet());
         List<ChemicalBlobDatabase<?>> fdbs = new ArrayList<>(CustomDataSources.size());
@@ -24,6 +24,7 @@ import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
 import de.unijena.bioinf.chemdb.DataSource;
 import de.unijena.bioinf.chemdb.annotations.StructureSearchDB;
 import de.unijena.bioinf.elgordo.InjectElGordoCompounds;
+import de.unijena.bioinf.fingerid.annotations.NumberOfStructureCandidates;
 import de.unijena.bioinf.fingerid.blast.BayesnetScoring;
 import de.unijena.bioinf.jjobs.BasicMasterJJob;
 import de.unijena.bioinf.ms.annotations.AnnotationJJob;
@@ -111,6 +112,8 @@ public class FingerblastJJob extends BasicMasterJJob<List<FingerIdResult>> {
         }
 
         final StructureSearchDB searchDB = experiment.getAnnotationOrThrow(StructureSearchDB.class);
+        final int maxNumberOfCandidates = experiment.getAnnotation(NumberOfStructureCandidates.class)
+                .map(n -> n.value > 0 ? n.value : Integer.MAX_VALUE).orElse(Integer.MAX_VALUE);
 
         logDebug("Preparing CSI:FingerID structure db search jobs.");
         ////////////////////////////////////////
@@ -118,20 +121,15 @@ public class FingerblastJJob extends BasicMasterJJob<List<FingerIdResult>> {
         ///////////////////////////////////////
         final Map<AnnotationJJob<?, FingerIdResult>, FingerIdResult> annotationJJobs = new LinkedHashMap<>(idResult.size());
 
-        // formula job: retrieve fingerprint candidates for specific MF;
-        // no SubmitSubJob needed because ist is not a CPU or IO job
-        final List<FormulaJob> formulaJobs = idResult.stream().map(fingeridInput ->
-                new FormulaJob(
-                        fingeridInput.getMolecularFormula(),
-                        predictor.database,
-                        searchDB.searchDBs,
-                        fingeridInput.getPrecursorIonType(),
-                        true,
-                        experiment.getAnnotation(InjectElGordoCompounds.class)
-                                .orElse(InjectElGordoCompounds.TRUE).value ? DataSource.LIPID.flag : 0)
-        ).collect(Collectors.toList());
-
-        submitSubJobsInBatches(formulaJobs, PropertyManager.getNumberOfThreads());
+        // formula job: retrieve fingerprint candidates for all MFs of this compound with one batch lookup;
+        // the candidates only live as long as the jobs of this compound
+        final FormulaBatchJob formulaJob = submitSubJob(new FormulaBatchJob(
+                idResult.stream().map(FingerIdResult::getMolecularFormula).distinct().collect(Collectors.toList()),
+                predictor.database,
+                searchDB.searchDBs,
+                true,
+                experiment.getAnnotation(InjectElGordoCompounds.class)
+                        .orElse(InjectElGordoCompounds.TRUE).value ? DataSource.LIPID.flag : 0));
 
         checkForInterruption();
 
@@ -169,7 +167,8 @@ public class FingerblastJJob extends BasicMasterJJob<List<FingerIdResult>> {
                 covtreeJobs.add(covTreeJob);
             }
 
-            blastJob.addRequiredJob(formulaJobs.get(i));
+            blastJob.setMaxNumberOfCandidates(maxNumberOfCandidates);
+            blastJob.addRequiredJob(formulaJob);
             if (confidenceJJob != null)
                 confidenceJJob.addRequiredJob(blastJob);
             annotationJJobs.put(submitSubJob(blastJob), fingeridInput);
@@ -31,6 +31,7 @@ import de.unijena.bioinf.elgordo.LipidStructureMatcher;
 import de.unijena.bioinf.fingerid.blast.BayesnetScoring;
 import de.unijena.bioinf.fingerid.blast.Fingerblast;
 import de.unijena.bioinf.fingerid.blast.FingerblastResult;
+import de.unijena.bioinf.fingerid.blast.FingerblastScoring;
 import de.unijena.bioinf.fingerid.blast.parameters.ParameterStore;
 import de.unijena.bioinf.jjobs.BasicJJob;
 import de.unijena.bioinf.jjobs.JJob;
@@ -43,9 +44,7 @@ import org.openscience.cdk.silent.SilentChemObjectBuilder;
 import org.openscience.cdk.smiles.SmilesParser;
 
 import java.io.File;
-import java.util.Comparator;
-import java.util.List;
-import java.util.Set;
+import java.util.*;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
@@ -56,6 +55,8 @@ public class FingerblastSearchJJob extends FingerprintDependentJJob<FingerblastR
     protected BayesnetScoring bayesnetScoring = null;
     private WebWithCustomDatabase.CandidateResult candidates = null;
     private List<Scored<FingerprintCandidate>> scoredCandidates = null;
+    // number of best scoring candidates that are kept (for all and for the requested candidates)
+    private int maxNumberOfCandidates = Integer.MAX_VALUE;
 
     public FingerblastSearchJJob(@NotNull CSIPredictor predictor) {
         this(predictor, null, null, null);
@@ -83,6 +84,9 @@ public class FingerblastSearchJJob extends FingerprintDependentJJob<FingerblastR
             if (required instanceof FormulaJob) {
                 FormulaJob job = ((FormulaJob) required);
                 candidates = job.result();
+            } else if (required instanceof FormulaBatchJob) {
+                FormulaBatchJob job = ((FormulaBatchJob) required);
+                candidates = job.result().get(formula);
             }
         }
 
@@ -103,6 +107,15 @@ public class FingerblastSearchJJob extends FingerprintDependentJJob<FingerblastR
         return candidates;
     }
 
+    public int getMaxNumberOfCandidates() {
+        return maxNumberOfCandidates;
+    }
+
+    public void setMaxNumberOfCandidates(int maxNumberOfCandidates) {
+        notSubmittedOrThrow();
+        this.maxNumberOfCandidates = maxNumberOfCandidates;
+    }
+
     @Override
     protected FingerblastResult compute() throws Exception {
         checkInput();
@@ -111,12 +124,9 @@ public class FingerblastSearchJJob extends FingerprintDependentJJob<FingerblastR
         checkForInterruption();
 
         // to get a prepared FingerblastScorer, an object of BayesnetScoring that is specific to the molecular formula has to be initialized
-        List<JJob<List<Scored<FingerprintCandidate>>>> scoreJobs = Fingerblast.makeScoringJobs(
-                predictor.getPreparedFingerblastScorer(ParameterStore.of(fp, bayesnetScoring)), combinedCandidates, fp);
+        final FingerblastScoring<?> scorer = predictor.getPreparedFingerblastScorer(ParameterStore.of(fp, bayesnetScoring));
         checkForInterruption();
-        scoreJobs.forEach(this::submitSubJob);
-        checkForInterruption();
-        scoredCandidates = scoreJobs.stream().flatMap(r -> r.takeResult().stream()).sorted(Comparator.reverseOrder()).map(fpc -> new Scored<>(fpc.getCandidate(), fpc.getScore())).collect(Collectors.toList());
+        scoredCandidates = scoreTopK(scorer, combinedCandidates);
         checkForInterruption();
         scoredCandidates.forEach(sc -> postprocessCandidate(sc.getCandidate()));
         checkForInterruption();
@@ -124,16 +134,35 @@ public class FingerblastSearchJJob extends FingerprintDependentJJob<FingerblastR
         //create filtered result for FingerblastResult result
         Set<String> requestedCandidatesInChIs = candidates.getReqCandidatesInChIs();
         checkForInterruption();
-        final List<Scored<FingerprintCandidate>> cds = scoredCandidates.stream().
+        List<Scored<FingerprintCandidate>> cds = scoredCandidates.stream().
                 filter(sc -> requestedCandidatesInChIs.contains(sc.getCandidate().getInchiKey2D())).collect(Collectors.toList());
         checkForInterruption();
 
+        final List<Scored<FingerprintCandidate>> annotatedCandidates;
+        if (cds.size() < Math.min(maxNumberOfCandidates, requestedCandidatesInChIs.size())) {
+            // requested candidates were cut from the top k of all candidates -> select the top k of the requested ones separately
+            // and reuse the candidate objects that are already part of the scored candidates
+            final Map<String, Scored<FingerprintCandidate>> kept = scoredCandidates.stream()
+                    .collect(Collectors.toMap(sc -> sc.getCandidate().getInchiKey2D(), sc -> sc, (a, b) -> a));
+            cds = scoreTopK(scorer, candidates.getReqCandidates()).stream()
+                    .map(sc -> kept.getOrDefault(sc.getCandidate().getInchiKey2D(), sc)).collect(Collectors.toList());
+            checkForInterruption();
+            annotatedCandidates = new ArrayList<>(scoredCandidates);
+            cds.stream().filter(sc -> !kept.containsKey(sc.getCandidate().getInchiKey2D())).forEach(sc -> {
+                postprocessCandidate(sc.getCandidate());
+                annotatedCandidates.add(sc);
+            });
+            checkForInterruption();
+        } else {
+            annotatedCandidates = scoredCandidates;
+        }
+
         if (this.ftree != null) {
             if (ftree.getAnnotation(LipidSpecies.class).isPresent()) {
                 final LipidSpecies l = ftree.getAnnotationOrThrow(LipidSpecies.class);
                 final List<DBLink> elGordoLink = List.of(new DBLink(DataSource.LIPID.realName(), l.toString()));
 
-                List<BasicJJob<FingerprintCandidate>> lipidAnoJobs = scoredCandidates.stream().map(SScored::getCandidate).map(c -> new BasicJJob<FingerprintCandidate>() {
+                List<BasicJJob<FingerprintCandidate>> lipidAnoJobs = annotatedCandidates.stream().map(SScored::getCandidate).map(c -> new BasicJJob<FingerprintCandidate>() {
                     @Override
                     protected FingerprintCandidate compute() throws Exception {
                         checkForInterruption();
@@ -160,6 +189,20 @@ public class FingerblastSearchJJob extends FingerprintDependentJJob<FingerblastR
         }
         return new FingerblastResult(cds);
     }
+
+    /**
+     * Scores the candidates in parallel by streaming them in chunks and keeps only the {@link #maxNumberOfCandidates}
+     * best ones, sorted by descending score.
+     */
+    private List<Scored<FingerprintCandidate>> scoreTopK(FingerblastScoring<?> scorer, Collection<FingerprintCandidate> toScore) throws InterruptedException {
+        final List<JJob<List<Scored<FingerprintCandidate>>>> scoreJobs = Fingerblast.makeTopKScoringJobs(scorer, toScore, fp, maxNumberOfCandidates);
+        checkForInterruption();
+        scoreJobs.forEach(this::submitSubJob);
+        checkForInterruption();
+        return scoreJobs.stream().flatMap(r -> r.takeResult().stream()).sorted(Comparator.reverseOrder())
+                .limit(maxNumberOfCandidates).map(fpc -> new Scored<>(fpc.getCandidate(), fpc.getScore())).collect(Collectors.toList());
+    }
+
     protected void postprocessCandidate(CompoundCandidate candidate) {
         //annotate training compounds;
         if (predictor.getTrainingStructures().isInTrainingData(candidate.getInchi())) {
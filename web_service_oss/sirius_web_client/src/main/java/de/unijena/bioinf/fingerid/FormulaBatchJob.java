@@ -0,0 +1,63 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.fingerid;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.chemdb.FingerprintCandidate;
+import de.unijena.bioinf.chemdb.SearchableDatabase;
+import de.unijena.bioinf.chemdb.WebWithCustomDatabase;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.rest.NetUtils;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * retrieves {@link FingerprintCandidate}s for all given {@link MolecularFormula}s (e.g. all formula candidates of a
+ * compound) with one batch lookup per database instead of one {@link FormulaJob} per formula.
+ */
+public class FormulaBatchJob extends BasicJJob<Map<MolecularFormula, WebWithCustomDatabase.CandidateResult>> {
+
+    protected final Collection<MolecularFormula> formulas;
+    protected final WebWithCustomDatabase searchDatabase;
+    protected final List<SearchableDatabase> dbs;
+    protected final boolean includeRestAllDb;
+    protected final long fakeFilterBits;
+
+    public FormulaBatchJob(Collection<MolecularFormula> formulas, WebWithCustomDatabase searchDatabase, List<SearchableDatabase> dbs, boolean includeRestAllDb, long fakeFilterBits) {
+        super(JobType.WEBSERVICE);
+        this.formulas = formulas;
+        this.searchDatabase = searchDatabase;
+        this.dbs = dbs;
+        this.includeRestAllDb = includeRestAllDb;
+        this.fakeFilterBits = fakeFilterBits;
+    }
+
+    @Override
+    protected Map<MolecularFormula, WebWithCustomDatabase.CandidateResult> compute() throws Exception {
+        return NetUtils.tryAndWait(() -> {
+            final Map<MolecularFormula, WebWithCustomDatabase.CandidateResult> results = searchDatabase.loadCompoundsByFormulas(formulas, dbs, includeRestAllDb);
+            results.values().forEach(r -> r.addToRequestFilter(fakeFilterBits));
+            return results;
+        }, this::checkForInterruption);
+    }
+}